@@ -0,0 +1,240 @@
+package radiant.seven;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The ChargingScheduler manages the charging stations of the map.
+ * Each station has a fixed number of ports and a FIFO queue. Once per charging
+ * interval the scheduler plugs waiting EVs into free ports, adds one charging step
+ * to every plugged-in EV, and releases the EVs that are full. Nothing blocks: an EV
+ * that is charging simply does not move until the scheduler releases it.
+ * Port utilisation and queue waits are recorded per station. Vehicles that leave
+ * the VehicleRegistry are taken out of the queues and ports.
+ */
+public class ChargingScheduler {
+    private static ChargingScheduler instance; // Singleton instance
+    private final Map<String, StationState> stations = new LinkedHashMap<>(); // Key: "x,y"
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, r -> {
+        Thread t = new Thread(r, "charging-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    ChargingScheduler(List<ChargingStation> chargingStations, VehicleRegistry registry) {
+        for (ChargingStation station : chargingStations) {
+            stations.put(station.x + "," + station.y, new StationState(station));
+        }
+        registry.addListener(new VehicleRegistry.Listener() {
+            @Override
+            public void onRetire(EV ev) {
+                cancel(ev);
+            }
+        });
+    }
+
+    /**
+     * Retrieves the singleton instance, starting the charging cycle on first use.
+     *
+     * @return The singleton ChargingScheduler.
+     */
+    public static synchronized ChargingScheduler getInstance() {
+        if (instance == null) {
+            instance = new ChargingScheduler(GameMap.getInstance().getChargingStations(), VehicleRegistry.getInstance());
+            instance.startChargingCycle();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts the charging cycle. Charging advances once per charging interval.
+     */
+    public void startChargingCycle() {
+        scheduler.scheduleAtFixedRate(() -> {
+            // In deterministic mode the SimulationEngine advances charging on its own ticks
+            if (!SimulationClock.isSimulated()) {
+                tick(SimulationClock.now());
+            }
+        }, EnergyModel.CHARGING_INTERVAL, EnergyModel.CHARGING_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retrieves the station at a cell.
+     *
+     * @return The station, or null if there is no station at the cell.
+     */
+    public ChargingStation stationAt(int x, int y) {
+        StationState state = stations.get(x + "," + y);
+        return state == null ? null : state.station;
+    }
+
+    /**
+     * Queues an EV for charging at a station. The EV is marked as charging
+     * until it is full.
+     *
+     * @param ev The EV to charge.
+     * @param station The station the EV is at.
+     * @return False if the station is unknown or the EV cannot charge.
+     */
+    public boolean requestCharge(EV ev, ChargingStation station) {
+        StationState state = stations.get(station.x + "," + station.y);
+        if (state == null || ev.getChargingRate() <= 0 || ev.fullCharge()) {
+            return false;
+        }
+        ev.setCharging(true);
+        synchronized (state) {
+            state.queue.add(new QueuedEV(ev, SimulationClock.now()));
+        }
+        return true;
+    }
+
+    /**
+     * Takes an EV out of every station's queue and ports, freeing its port for the
+     * next EV in line.
+     *
+     * @param ev The EV.
+     * @return True if the EV was queued or plugged in.
+     */
+    public boolean cancel(EV ev) {
+        boolean found = false;
+        for (StationState state : stations.values()) {
+            synchronized (state) {
+                found |= state.plugged.remove(ev);
+                found |= state.queue.removeIf(queued -> queued.ev == ev);
+            }
+        }
+        if (found) {
+            ev.setCharging(false);
+        }
+        return found;
+    }
+
+    /**
+     * Advances charging by one interval at every station.
+     *
+     * @param now The current time in milliseconds, used for queue wait metrics.
+     */
+    public void tick(long now) {
+        for (StationState state : stations.values()) {
+            synchronized (state) {
+                // Plug queued EVs into free ports
+                while (state.plugged.size() < state.station.ports && !state.queue.isEmpty()) {
+                    QueuedEV next = state.queue.poll();
+                    long wait = now - next.queuedAt;
+                    state.totalWait += wait;
+                    state.maxWait = Math.max(state.maxWait, wait);
+                    state.served++;
+                    state.plugged.add(next.ev);
+                }
+
+                state.portTicks += state.station.ports;
+                state.busyPortTicks += state.plugged.size();
+                state.queuedTicks += state.queue.size();
+                state.ticks++;
+
+                // Charge plugged-in EVs and release the full ones
+                Iterator<EV> it = state.plugged.iterator();
+                while (it.hasNext()) {
+                    EV ev = it.next();
+                    ev.charge();
+                    if (ev.fullCharge()) {
+                        it.remove();
+                        ev.setCharging(false);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the current load and the accumulated metrics of every station.
+     *
+     * @return One entry per station.
+     */
+    public List<ChargingStationStatus> getStatus() {
+        List<ChargingStationStatus> status = new ArrayList<>();
+        for (StationState state : stations.values()) {
+            synchronized (state) {
+                status.add(new ChargingStationStatus(
+                        state.station.x,
+                        state.station.y,
+                        state.station.ports,
+                        state.plugged.size(),
+                        state.queue.size(),
+                        state.portTicks == 0 ? 0 : (double) state.busyPortTicks / state.portTicks,
+                        state.ticks == 0 ? 0 : (double) state.queuedTicks / state.ticks,
+                        state.served == 0 ? 0 : state.totalWait / state.served,
+                        state.maxWait,
+                        state.served));
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Shuts down the charging scheduler.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Mutable state of one station. Guarded by its own monitor.
+     */
+    private static class StationState {
+        final ChargingStation station;
+        final List<EV> plugged = new ArrayList<>(); // EVs currently using a port
+        final Queue<QueuedEV> queue = new ArrayDeque<>(); // EVs waiting for a port
+        long portTicks; // Ports available, summed over ticks
+        long busyPortTicks; // Ports in use, summed over ticks
+        long queuedTicks; // Queue length, summed over ticks
+        long ticks; // Number of ticks observed
+        long totalWait; // Sum of queue waits of served EVs (ms)
+        long maxWait; // Longest queue wait of a served EV (ms)
+        long served; // Number of EVs that got a port
+
+        StationState(ChargingStation station) {
+            this.station = station;
+        }
+    }
+
+    private static class QueuedEV {
+        final EV ev;
+        final long queuedAt;
+
+        QueuedEV(EV ev, long queuedAt) {
+            this.ev = ev;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
+
+/**
+ * Load and metrics of a charging station, returned by the charging endpoint.
+ */
+class ChargingStationStatus {
+    public int x;
+    public int y;
+    public int ports; // Number of ports
+    public int charging; // EVs plugged in now
+    public int queued; // EVs waiting now
+    public double portUtilisation; // Fraction of port time in use since start
+    public double meanQueueLength; // Average number of waiting EVs per tick
+    public long meanWaitMillis; // Average queue wait of served EVs
+    public long maxWaitMillis; // Longest queue wait of a served EV
+    public long served; // EVs that got a port since start
+
+    public ChargingStationStatus(int x, int y, int ports, int charging, int queued, double portUtilisation,
+                                 double meanQueueLength, long meanWaitMillis, long maxWaitMillis, long served) {
+        this.x = x;
+        this.y = y;
+        this.ports = ports;
+        this.charging = charging;
+        this.queued = queued;
+        this.portUtilisation = portUtilisation;
+        this.meanQueueLength = meanQueueLength;
+        this.meanWaitMillis = meanWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.served = served;
+    }
+}
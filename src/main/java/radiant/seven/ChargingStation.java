@@ -0,0 +1,39 @@
+package radiant.seven;
+
+/**
+ * Represents a charging station declared in the charging overlay of the map.
+ * A station occupies one road cell and has a fixed number of charging ports.
+ */
+public class ChargingStation {
+    public final int x; // x-coordinate of the station cell (1-based)
+    public final int y; // y-coordinate of the station cell (1-based)
+    public final int ports; // Number of vehicles that can charge at the same time
+
+    /**
+     * Constructor to initialize a ChargingStation.
+     *
+     * @param x The x-coordinate of the station cell.
+     * @param y The y-coordinate of the station cell.
+     * @param ports The number of charging ports.
+     */
+    public ChargingStation(int x, int y, int ports) {
+        this.x = x;
+        this.y = y;
+        this.ports = ports;
+    }
+
+    // @return x-coordinate of the station
+    public int getX() {
+        return x;
+    }
+
+    // @return y-coordinate of the station
+    public int getY() {
+        return y;
+    }
+
+    // @return number of charging ports
+    public int getPorts() {
+        return ports;
+    }
+}
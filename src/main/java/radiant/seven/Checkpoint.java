@@ -0,0 +1,307 @@
+package radiant.seven;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A point-in-time copy of the simulation state: traffic signals, road closures,
+ * cell occupancy, the global task buffer, and every vehicle with its remaining path.
+ *
+ * Capturing only copies scalars and takes references to the vehicles' path lists,
+ * which are never modified in place (a new route always replaces the list), so the
+ * expensive encoding can run on a background thread while the simulation goes on.
+ *
+ * The file format is a header (magic, format version, node count) followed by
+ * varint-encoded sections. Paths are stored as zigzag deltas of RoadGraph node ids,
+ * which takes one byte per step on most roads.
+ */
+public class Checkpoint {
+    public static final int MAGIC = 0x53494D43; // "SIMC"
+    public static final int FORMAT_VERSION = 2; // 2 adds the NPC random stream state
+
+    long createdAt; // Wall-clock time of the capture
+    long seed; // Seed of the run (deterministic mode)
+    boolean deterministic; // Whether the SimulationEngine was running
+    int nodeCount; // Node count of the road graph, to reject checkpoints of other maps
+    int[] signalNodes = new int[0]; // Node ids of the traffic signals
+    int[] signalStates = new int[0]; // Signal state per entry of signalNodes
+    long timeUntilSignalChange; // Milliseconds until the next signal change
+    BitSet closedCells = new BitSet(); // Closed cells by node id
+    List<long[]> closedEdges = new ArrayList<>(); // Closed edges as {from, to} node ids
+    BitSet occupied = new BitSet(); // Stalled cells by node id
+    List<Task> tasks = new ArrayList<>(); // Global task buffer
+    List<VehicleSnapshot> vehicles = new ArrayList<>(); // Vehicles in capture order
+
+    /**
+     * Writes the checkpoint.
+     *
+     * @param stream The stream to write to.
+     * @param graph The road graph used to convert path cells to node ids.
+     * @throws IOException If writing fails.
+     */
+    public void write(OutputStream stream, RoadGraph graph) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(createdAt);
+        out.writeLong(seed);
+        out.writeBoolean(deterministic);
+        BinaryCodec.writeVarInt(out, nodeCount);
+
+        BinaryCodec.writeVarInt(out, signalNodes.length);
+        for (int i = 0; i < signalNodes.length; i++) {
+            BinaryCodec.writeVarInt(out, signalNodes[i]);
+            out.writeByte(signalStates[i]);
+        }
+        BinaryCodec.writeVarLong(out, Math.max(0, timeUntilSignalChange));
+
+        writeBits(out, closedCells);
+        BinaryCodec.writeVarInt(out, closedEdges.size());
+        for (long[] edge : closedEdges) {
+            BinaryCodec.writeVarInt(out, (int) edge[0]);
+            BinaryCodec.writeVarInt(out, (int) edge[1]);
+        }
+        writeBits(out, occupied);
+
+        BinaryCodec.writeVarInt(out, tasks.size());
+        for (Task task : tasks) {
+            writeTask(out, task);
+        }
+
+        BinaryCodec.writeVarInt(out, vehicles.size());
+        for (VehicleSnapshot vehicle : vehicles) {
+            vehicle.write(out, graph);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a checkpoint.
+     *
+     * @param stream The stream to read from.
+     * @return The checkpoint.
+     * @throws IOException If the stream is not a checkpoint or is truncated.
+     */
+    public static Checkpoint read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a simulation checkpoint");
+        }
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.createdAt = in.readLong();
+        checkpoint.seed = in.readLong();
+        checkpoint.deterministic = in.readBoolean();
+        checkpoint.nodeCount = BinaryCodec.readVarInt(in);
+
+        int signals = BinaryCodec.readVarInt(in);
+        checkpoint.signalNodes = new int[signals];
+        checkpoint.signalStates = new int[signals];
+        for (int i = 0; i < signals; i++) {
+            checkpoint.signalNodes[i] = BinaryCodec.readVarInt(in);
+            checkpoint.signalStates[i] = in.readUnsignedByte();
+        }
+        checkpoint.timeUntilSignalChange = BinaryCodec.readVarLong(in);
+
+        checkpoint.closedCells = readBits(in);
+        int edges = BinaryCodec.readVarInt(in);
+        for (int i = 0; i < edges; i++) {
+            checkpoint.closedEdges.add(new long[]{BinaryCodec.readVarInt(in), BinaryCodec.readVarInt(in)});
+        }
+        checkpoint.occupied = readBits(in);
+
+        int tasks = BinaryCodec.readVarInt(in);
+        for (int i = 0; i < tasks; i++) {
+            checkpoint.tasks.add(readTask(in));
+        }
+
+        int vehicles = BinaryCodec.readVarInt(in);
+        checkpoint.vehicles = new ArrayList<>(vehicles);
+        for (int i = 0; i < vehicles; i++) {
+            checkpoint.vehicles.add(VehicleSnapshot.read(in, version));
+        }
+        return checkpoint;
+    }
+
+    private static void writeBits(DataOutput out, BitSet bits) throws IOException {
+        BinaryCodec.writeVarInt(out, bits.cardinality());
+        int previous = 0;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            BinaryCodec.writeVarInt(out, i - previous);
+            previous = i;
+        }
+    }
+
+    private static BitSet readBits(DataInput in) throws IOException {
+        BitSet bits = new BitSet();
+        int count = BinaryCodec.readVarInt(in);
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            index += BinaryCodec.readVarInt(in);
+            bits.set(index);
+        }
+        return bits;
+    }
+
+    static void writeTask(DataOutput out, Task task) throws IOException {
+        out.writeUTF(task.getTask() == null ? "" : task.getTask());
+        BinaryCodec.writeVarInt(out, task.getStartX());
+        BinaryCodec.writeVarInt(out, task.getStartY());
+        BinaryCodec.writeVarInt(out, task.getEndX());
+        BinaryCodec.writeVarInt(out, task.getEndY());
+    }
+
+    static Task readTask(DataInput in) throws IOException {
+        String name = in.readUTF();
+        int startX = BinaryCodec.readVarInt(in);
+        int startY = BinaryCodec.readVarInt(in);
+        int endX = BinaryCodec.readVarInt(in);
+        int endY = BinaryCodec.readVarInt(in);
+        return new Task(name, startX, startY, endX, endY);
+    }
+}
+
+/**
+ * The state of one vehicle in a Checkpoint. Only the part of the path that is still
+ * ahead of the vehicle is kept, so a restored vehicle starts at index 0.
+ */
+class VehicleSnapshot {
+    static final int MOVING = 1;
+    static final int CHARGING = 2;
+    static final int NPC = 4;
+
+    int id; // SimulationEngine id, or -1
+    String name;
+    int type;
+    String vehicleType;
+    int charge;
+    int chargingRate;
+    int endX;
+    int endY;
+    String direction;
+    int flags; // MOVING, CHARGING and NPC bits
+    long randomState = -1; // State of an NPC's seeded random stream, or -1
+    List<PathNode> path; // Captured path list, shared with the vehicle until written
+    int pathIndex; // Index of the vehicle's cell in the captured path
+    int[] nodes = new int[0]; // Remaining path as node ids, filled when read
+    List<Integer> chargingStops = new ArrayList<>(); // Stops relative to the remaining path
+    Task task; // Current task, or null
+    List<Task> taskQueue = new ArrayList<>();
+
+    /**
+     * Copies the state of a vehicle. Call while holding the vehicle's lock.
+     */
+    static VehicleSnapshot of(EV ev) {
+        VehicleSnapshot snapshot = new VehicleSnapshot();
+        snapshot.id = ev.getId();
+        snapshot.name = ev.getName();
+        snapshot.type = ev.getType();
+        snapshot.vehicleType = ev.getVehicleType();
+        snapshot.charge = ev.getCharge();
+        snapshot.chargingRate = ev.getChargingRate();
+        snapshot.endX = ev.getEndX();
+        snapshot.endY = ev.getEndY();
+        snapshot.direction = ev.getCurrentDirection();
+        snapshot.flags = (ev.isMoving() ? MOVING : 0)
+                | (ev.isCharging() ? CHARGING : 0)
+                | (ev instanceof NPCVehicle ? NPC : 0);
+        if (ev instanceof NPCVehicle) {
+            snapshot.randomState = ((NPCVehicle) ev).getRandomState();
+        }
+        snapshot.path = ev.getPath() == null ? Collections.emptyList() : ev.getPath();
+        snapshot.pathIndex = Math.min(ev.getCurrentPathIndex(), Math.max(0, snapshot.path.size() - 1));
+        for (int stop : ev.getChargingStops()) {
+            if (stop >= snapshot.pathIndex) snapshot.chargingStops.add(stop - snapshot.pathIndex);
+        }
+        snapshot.task = ev.task;
+        snapshot.taskQueue.addAll(ev.taskQueue);
+        return snapshot;
+    }
+
+    void write(DataOutput out, RoadGraph graph) throws IOException {
+        BinaryCodec.writeVarInt(out, id + 1);
+        out.writeUTF(name == null ? "" : name);
+        BinaryCodec.writeVarInt(out, type);
+        out.writeUTF(vehicleType == null ? "" : vehicleType);
+        BinaryCodec.writeVarInt(out, charge);
+        BinaryCodec.writeVarInt(out, chargingRate);
+        BinaryCodec.writeVarInt(out, endX);
+        BinaryCodec.writeVarInt(out, endY);
+        out.writeUTF(direction == null ? "" : direction);
+        out.writeByte(flags);
+        if (has(NPC)) {
+            BinaryCodec.writeVarLong(out, randomState + 1);
+        }
+
+        int remaining = path.size() - pathIndex;
+        BinaryCodec.writeVarInt(out, Math.max(0, remaining));
+        int previous = 0;
+        for (int i = pathIndex; i < path.size(); i++) {
+            PathNode cell = path.get(i);
+            int node = graph.nodeId(cell.getX(), cell.getY());
+            BinaryCodec.writeSignedVarInt(out, node - previous);
+            previous = node;
+        }
+        BinaryCodec.writeVarInt(out, chargingStops.size());
+        for (int stop : chargingStops) {
+            BinaryCodec.writeVarInt(out, stop);
+        }
+
+        out.writeBoolean(task != null);
+        if (task != null) {
+            Checkpoint.writeTask(out, task);
+        }
+        BinaryCodec.writeVarInt(out, taskQueue.size());
+        for (Task queued : taskQueue) {
+            Checkpoint.writeTask(out, queued);
+        }
+    }
+
+    static VehicleSnapshot read(DataInput in) throws IOException {
+        return read(in, Checkpoint.FORMAT_VERSION);
+    }
+
+    static VehicleSnapshot read(DataInput in, int version) throws IOException {
+        VehicleSnapshot snapshot = new VehicleSnapshot();
+        snapshot.id = BinaryCodec.readVarInt(in) - 1;
+        snapshot.name = in.readUTF();
+        snapshot.type = BinaryCodec.readVarInt(in);
+        snapshot.vehicleType = in.readUTF();
+        snapshot.charge = BinaryCodec.readVarInt(in);
+        snapshot.chargingRate = BinaryCodec.readVarInt(in);
+        snapshot.endX = BinaryCodec.readVarInt(in);
+        snapshot.endY = BinaryCodec.readVarInt(in);
+        snapshot.direction = in.readUTF();
+        snapshot.flags = in.readUnsignedByte();
+        if (version >= 2 && snapshot.has(NPC)) {
+            snapshot.randomState = BinaryCodec.readVarLong(in) - 1;
+        }
+
+        snapshot.nodes = new int[BinaryCodec.readVarInt(in)];
+        int previous = 0;
+        for (int i = 0; i < snapshot.nodes.length; i++) {
+            previous += BinaryCodec.readSignedVarInt(in);
+            snapshot.nodes[i] = previous;
+        }
+        int stops = BinaryCodec.readVarInt(in);
+        for (int i = 0; i < stops; i++) {
+            snapshot.chargingStops.add(BinaryCodec.readVarInt(in));
+        }
+
+        if (in.readBoolean()) {
+            snapshot.task = Checkpoint.readTask(in);
+        }
+        int queued = BinaryCodec.readVarInt(in);
+        for (int i = 0; i < queued; i++) {
+            snapshot.taskQueue.add(Checkpoint.readTask(in));
+        }
+        return snapshot;
+    }
+
+    boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+}
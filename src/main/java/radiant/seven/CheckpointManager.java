@@ -0,0 +1,271 @@
+package radiant.seven;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The CheckpointManager periodically saves the simulation state to a local file
+ * and restores it on startup.
+ *
+ * A checkpoint is captured in one short pass that copies the vehicles' scalar state
+ * (holding the engine lock in deterministic mode, or each vehicle's own lock in
+ * threaded mode) and is then encoded and written by a background thread. The file
+ * is written next to the target and moved into place, so a crash during a write
+ * never damages the previous checkpoint.
+ */
+public class CheckpointManager {
+    private static CheckpointManager instance; // Singleton instance
+    private final GameMap map;
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, r -> {
+        Thread t = new Thread(r, "checkpoint-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile long lastCheckpointMillis = -1; // Duration of the last write
+    private volatile int lastCheckpointVehicles = 0; // Vehicles in the last checkpoint
+
+    CheckpointManager(GameMap map) {
+        this.map = map;
+    }
+
+    /**
+     * @return The singleton CheckpointManager.
+     */
+    public static synchronized CheckpointManager getInstance() {
+        if (instance == null) {
+            instance = new CheckpointManager(GameMap.getInstance());
+        }
+        return instance;
+    }
+
+    /**
+     * Writes a checkpoint to the given file at a fixed interval.
+     *
+     * @param path The checkpoint file.
+     * @param intervalSeconds Seconds between checkpoints.
+     */
+    public void startPeriodicCheckpoints(String path, long intervalSeconds) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint(Paths.get(path));
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Checkpoint failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Captures the current state and writes it to a file.
+     *
+     * @param path The checkpoint file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void checkpoint(Path path) throws IOException {
+        long start = System.nanoTime();
+        Checkpoint checkpoint = capture();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            checkpoint.write(out, map.getGraph());
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastCheckpointVehicles = checkpoint.vehicles.size();
+        lastCheckpointMillis = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Copies the current simulation state. In deterministic mode this happens between
+     * two ticks; in threaded mode each vehicle is copied under its own lock.
+     *
+     * @return The captured state.
+     */
+    public Checkpoint capture() {
+        SimulationEngine engine = SimulationEngine.getInstance();
+        if (engine != null) {
+            synchronized (engine) {
+                Checkpoint checkpoint = captureState(engine.getVehicles());
+                checkpoint.deterministic = true;
+                checkpoint.seed = engine.getSeed();
+                return checkpoint;
+            }
+        }
+        return captureState(EVController.evMap.snapshot());
+    }
+
+    private Checkpoint captureState(List<EV> vehicles) {
+        RoadGraph graph = map.getGraph();
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.createdAt = System.currentTimeMillis();
+        checkpoint.nodeCount = graph.nodeCount();
+
+        // Re-read if the signals change while they are copied
+        long nextChange;
+        do {
+            nextChange = TrafficManager.getNextSignalChangeTime();
+            int[][] signals = SimulationEngine.signalStates(map);
+            checkpoint.signalNodes = signals[0];
+            checkpoint.signalStates = signals[1];
+        } while (nextChange != TrafficManager.getNextSignalChangeTime());
+        checkpoint.timeUntilSignalChange = nextChange - SimulationClock.now();
+
+        checkpoint.closedCells = (BitSet) graph.getClosedCells().clone();
+        for (long key : graph.getClosedEdges()) {
+            checkpoint.closedEdges.add(new long[]{key >>> 32, (int) key});
+        }
+        for (int id = 0; id < graph.nodeCount(); id++) {
+            if (map.getNode(id).isStalled()) checkpoint.occupied.set(id);
+        }
+        if (TaskAssigner.buffer != null) {
+            checkpoint.tasks.addAll(TaskAssigner.buffer);
+        }
+
+        for (EV ev : vehicles) {
+            synchronized (ev) {
+                checkpoint.vehicles.add(VehicleSnapshot.of(ev));
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Reads a checkpoint file.
+     *
+     * @return The checkpoint, or null if the file does not exist or belongs to another map.
+     * @throws IOException If the file is damaged.
+     */
+    public Checkpoint load(Path path) throws IOException {
+        if (!Files.exists(path)) return null;
+        Checkpoint checkpoint;
+        try (InputStream in = Files.newInputStream(path)) {
+            checkpoint = Checkpoint.read(in);
+        }
+        if (checkpoint.nodeCount != map.getGraph().nodeCount()) {
+            System.out.println("Ignoring checkpoint of a different map (" + checkpoint.nodeCount + " nodes)");
+            return null;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Restores the map-wide state of a checkpoint: signals, closures, occupancy and
+     * the task buffer. Call before the SimulationEngine starts, so a new event log
+     * records the restored signals in its header.
+     */
+    public void restoreMapState(Checkpoint checkpoint) {
+        for (int i = 0; i < checkpoint.signalNodes.length; i++) {
+            Node node = map.getNode(checkpoint.signalNodes[i]);
+            if (node instanceof TrafficNode) {
+                ((TrafficNode) node).setSignal(checkpoint.signalStates[i]);
+            }
+        }
+        TrafficManager.setNextSignalChangeTime(SimulationClock.now() + checkpoint.timeUntilSignalChange);
+
+        RoadGraph graph = map.getGraph();
+        for (int node = checkpoint.closedCells.nextSetBit(0); node >= 0;
+             node = checkpoint.closedCells.nextSetBit(node + 1)) {
+            map.closeCell(graph.x(node), graph.y(node));
+        }
+        for (long[] edge : checkpoint.closedEdges) {
+            int from = (int) edge[0];
+            int to = (int) edge[1];
+            map.closeEdge(graph.x(from), graph.y(from), graph.x(to), graph.y(to));
+        }
+        RouteCache.getInstance().clear(map.getGraph());
+
+        for (int id = 0; id < graph.nodeCount(); id++) {
+            map.getNode(id).setStalled(checkpoint.occupied.get(id));
+        }
+        if (TaskAssigner.buffer == null) {
+            TaskAssigner.getInstance();
+        }
+        TaskAssigner.buffer.addAll(checkpoint.tasks);
+    }
+
+    /**
+     * Rebuilds the vehicles of a checkpoint. In deterministic mode they join the
+     * SimulationEngine with their old ids, after the restored closures are recorded
+     * in its event log; otherwise the caller starts their movement.
+     *
+     * @return The restored vehicles, in checkpoint order.
+     */
+    public List<EV> restoreVehicles(Checkpoint checkpoint) {
+        RoadGraph graph = map.getGraph();
+        List<EV> restored = new ArrayList<>(checkpoint.vehicles.size());
+        SimulationEngine engine = SimulationEngine.getInstance();
+        if (engine != null) {
+            synchronized (engine) {
+                for (int node = graph.getClosedCells().nextSetBit(0); node >= 0;
+                     node = graph.getClosedCells().nextSetBit(node + 1)) {
+                    engine.recordClosure(EventLog.CLOSE_CELL, node, -1);
+                }
+                for (long key : graph.getClosedEdges()) {
+                    engine.recordClosure(EventLog.CLOSE_EDGE, (int) (key >>> 32), (int) key);
+                }
+                for (VehicleSnapshot snapshot : checkpoint.vehicles) {
+                    EV ev = rebuild(graph, snapshot, true);
+                    if (ev != null && engine.spawn(ev)) restored.add(ev);
+                }
+            }
+            return restored;
+        }
+        for (VehicleSnapshot snapshot : checkpoint.vehicles) {
+            EV ev = rebuild(graph, snapshot, false);
+            if (ev != null) restored.add(ev);
+        }
+        return restored;
+    }
+
+    /**
+     * Builds a vehicle from its snapshot, starting at the first remaining path cell.
+     * Also used to move vehicles between shards.
+     */
+    static EV rebuild(RoadGraph graph, VehicleSnapshot snapshot, boolean keepId) {
+        if (snapshot.nodes.length == 0) return null;
+        int x = graph.x(snapshot.nodes[0]);
+        int y = graph.y(snapshot.nodes[0]);
+        EV ev;
+        if (snapshot.has(VehicleSnapshot.NPC)) {
+            NPCVehicle npc = new NPCVehicle(x, y, snapshot.vehicleType);
+            NPCVehicle.reserveName(snapshot.name);
+            // The NPC goes on drawing destinations where its stream left off
+            npc.restoreRandom(snapshot.randomState);
+            ev = npc;
+        } else {
+            ev = new EV(x, y, snapshot.type, snapshot.charge, snapshot.chargingRate, snapshot.vehicleType);
+        }
+        if (keepId) ev.setId(snapshot.id);
+        ev.setName(snapshot.name);
+        ev.setEndLocation(snapshot.endX, snapshot.endY);
+        ev.setCurrentDirection(snapshot.direction);
+
+        ev.setPath(PackedPath.of(graph, snapshot.nodes));
+        // A vehicle that was charging queues again at its station
+        List<Integer> stops = new ArrayList<>(snapshot.chargingStops);
+        if (snapshot.has(VehicleSnapshot.CHARGING) && !stops.contains(0)) {
+            stops.add(0, 0);
+        }
+        ev.setChargingStops(stops);
+        ev.task = snapshot.task;
+        ev.taskQueue.addAll(snapshot.taskQueue);
+        ev.setMoving(snapshot.has(VehicleSnapshot.MOVING));
+        return ev;
+    }
+
+    // @return duration of the last checkpoint write in milliseconds, or -1
+    public long getLastCheckpointMillis() {
+        return lastCheckpointMillis;
+    }
+
+    // @return number of vehicles in the last checkpoint
+    public int getLastCheckpointVehicles() {
+        return lastCheckpointVehicles;
+    }
+
+    /**
+     * Stops periodic checkpoints.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,207 @@
+package radiant.seven;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Rolling per-node congestion counters: how long cells were occupied, how often a
+ * move into them was denied, and how many vehicles passed through.
+ *
+ * The window is split into BUCKETS buckets of simulated time, each holding one
+ * counter array per kind indexed by RoadGraph node id. The movement code adds to the
+ * current bucket with a single atomic increment and no lock, and advance() moves on
+ * to the next bucket, clearing it, when its time has come, so the sums over all
+ * buckets cover the last window. In deterministic mode the SimulationEngine counts
+ * occupancy and advances once per tick; in threaded mode a sampler thread does both
+ * every move interval, and every denied canMoveToPosition call counts. In sharded
+ * mode every shard counts its own cells and the ShardCoordinator adds the shards'
+ * windows up into one grid.
+ */
+public class CongestionHeatmap {
+    static final int BUCKETS = 6; // Buckets per window
+    private static volatile CongestionHeatmap instance; // Heatmap of the application, if enabled
+
+    private final int nodes; // Node ids covered
+    private final long bucketMillis; // Simulated time per bucket
+    private final AtomicIntegerArray[] occupancy = new AtomicIntegerArray[BUCKETS]; // Ticks a vehicle stood on the node
+    private final AtomicIntegerArray[] denied = new AtomicIntegerArray[BUCKETS]; // Moves into the node that were denied
+    private final AtomicIntegerArray[] passes = new AtomicIntegerArray[BUCKETS]; // Moves into the node
+    private volatile int current = 0; // Bucket being filled
+    private long currentEpoch = -1; // bucketMillis periods since time zero of the current bucket, -1 before the first
+    private ScheduledExecutorService sampler; // Counts occupancy in threaded mode
+
+    CongestionHeatmap(int nodes, long windowMillis) {
+        if (windowMillis < BUCKETS) throw new IllegalArgumentException("Window too short");
+        this.nodes = nodes;
+        this.bucketMillis = windowMillis / BUCKETS;
+        for (int b = 0; b < BUCKETS; b++) {
+            occupancy[b] = new AtomicIntegerArray(nodes);
+            denied[b] = new AtomicIntegerArray(nodes);
+            passes[b] = new AtomicIntegerArray(nodes);
+        }
+    }
+
+    /**
+     * Enables the heatmap for the application.
+     *
+     * @param windowMillis Simulated time covered by the counters.
+     * @return The heatmap.
+     */
+    public static synchronized CongestionHeatmap enable(GameMap map, long windowMillis) {
+        instance = new CongestionHeatmap(map.getGraph().nodeCount(), windowMillis);
+        return instance;
+    }
+
+    /**
+     * Stops counting congestion for the application.
+     */
+    public static synchronized void disable() {
+        CongestionHeatmap heatmap = instance;
+        instance = null;
+        if (heatmap != null) heatmap.stopSampling();
+    }
+
+    /**
+     * @return The heatmap of the application, or null if congestion is not counted.
+     */
+    public static CongestionHeatmap getInstance() {
+        return instance;
+    }
+
+    // Called from the movement code; unknown nodes (-1) are ignored
+    public void occupied(int node) {
+        if (node >= 0 && node < nodes) occupancy[current].getAndIncrement(node);
+    }
+
+    public void deny(int node) {
+        if (node >= 0 && node < nodes) denied[current].getAndIncrement(node);
+    }
+
+    public void pass(int node) {
+        if (node >= 0 && node < nodes) passes[current].getAndIncrement(node);
+    }
+
+    /**
+     * Moves to the bucket of the given time, clearing the buckets it reuses. Increments
+     * racing with a clear may land in either window; the counters are statistics.
+     *
+     * @param now The current simulated time in milliseconds.
+     */
+    public synchronized void advance(long now) {
+        long epoch = Math.floorDiv(now, bucketMillis);
+        if (currentEpoch < 0) {
+            currentEpoch = epoch;
+            return;
+        }
+        if (epoch <= currentEpoch) return;
+        int skipped = (int) Math.min(BUCKETS, epoch - currentEpoch);
+        int next = current;
+        for (int i = 0; i < skipped; i++) {
+            next = (next + 1) % BUCKETS;
+            clear(next);
+        }
+        currentEpoch = epoch;
+        current = next;
+    }
+
+    private void clear(int bucket) {
+        for (int node = 0; node < nodes; node++) {
+            occupancy[bucket].set(node, 0);
+            denied[bucket].set(node, 0);
+            passes[bucket].set(node, 0);
+        }
+    }
+
+    /**
+     * Counts the vehicles' cells and advances the window every move interval, for
+     * threaded mode where there are no engine ticks.
+     */
+    public synchronized void startSampling(VehicleRegistry registry, long intervalMillis) {
+        if (sampler != null) return;
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "congestion-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(() -> {
+            RoadGraph graph = GameMap.getInstance().getGraph();
+            advance(SimulationClock.now());
+            for (EV ev : registry.snapshot()) {
+                if (ev.getPath() != null && !ev.getPath().isEmpty()) {
+                    occupied(graph.nodeId(ev.getCurrentX(), ev.getCurrentY()));
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopSampling() {
+        if (sampler != null) sampler.shutdownNow();
+        sampler = null;
+    }
+
+    /**
+     * Sums the window into a grid aligned with the GameMap: cell (x, y) is at index
+     * (x - 1) * width + (y - 1). Cells that are not roads stay 0.
+     */
+    public HeatmapGrid snapshot(GameMap map) {
+        HeatmapGrid grid = new HeatmapGrid(map.getWidth(), map.getHeight(), getWindowMillis());
+        int[][] sums = window(0, Math.min(nodes, map.getGraph().nodeCount()));
+        grid.add(map.getGraph(), 0, sums[0], sums[1], sums[2]);
+        return grid;
+    }
+
+    /**
+     * Sums the window for a range of node ids.
+     *
+     * @return Occupancy, denied moves and passes, indexed by node id - from.
+     */
+    int[][] window(int from, int to) {
+        int[][] sums = new int[3][Math.max(0, to - from)];
+        for (int node = from; node < to; node++) {
+            for (int b = 0; b < BUCKETS; b++) {
+                sums[0][node - from] += occupancy[b].get(node);
+                sums[1][node - from] += denied[b].get(node);
+                sums[2][node - from] += passes[b].get(node);
+            }
+        }
+        return sums;
+    }
+
+    // @return simulated time covered by the counters
+    public long getWindowMillis() {
+        return bucketMillis * BUCKETS;
+    }
+}
+
+/**
+ * Congestion counters over the map grid, returned by the heatmap endpoint.
+ */
+class HeatmapGrid {
+    public int width; // Columns (y) of the map
+    public int height; // Rows (x) of the map
+    public long windowMillis; // Simulated time covered by the counters
+    public int[] occupancy; // Ticks a vehicle stood on the cell, row-major
+    public int[] denied; // Denied moves into the cell, row-major
+    public int[] passes; // Moves into the cell, row-major
+
+    public HeatmapGrid(int width, int height, long windowMillis) {
+        this.width = width;
+        this.height = height;
+        this.windowMillis = windowMillis;
+        this.occupancy = new int[width * height];
+        this.denied = new int[width * height];
+        this.passes = new int[width * height];
+    }
+
+    // Adds the counters of the nodes from, from + 1, ... to their cells
+    void add(RoadGraph graph, int from, int[] occupancy, int[] denied, int[] passes) {
+        for (int i = 0; i < occupancy.length; i++) {
+            int cell = (graph.x(from + i) - 1) * width + (graph.y(from + i) - 1);
+            this.occupancy[cell] += occupancy[i];
+            this.denied[cell] += denied[i];
+            this.passes[cell] += passes[i];
+        }
+    }
+}
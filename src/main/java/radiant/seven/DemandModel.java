@@ -0,0 +1,450 @@
+package radiant.seven;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Origin-destination demand for NPC trips.
+ *
+ * The map is divided into named rectangular zones, each with a production (trips
+ * starting there) and an attraction (trips ending there) weight. The trips between
+ * two zones in an hour of the day are the OD matrix entries that cover that hour,
+ * or production times attraction when no entry does. Every hour has an alias table
+ * over zone pairs and one per origin zone over destinations, so a trip or a
+ * destination is drawn in constant time; the cell inside a zone is a uniform pick
+ * from the zone's road nodes.
+ *
+ * Trip emission follows an hourly rate. Simulated time is mapped to a time of day
+ * by a start hour and a time scale, so a short run can cover a morning rush hour.
+ * Without a demand file the model is one zone over the whole map with no trip
+ * emission, which makes every road cell an equally likely destination.
+ *
+ * Demand files are CSV, one record per line, # starts a comment:
+ *   zone,NAME,MIN_X,MIN_Y,MAX_X,MAX_Y,PRODUCTION,ATTRACTION
+ *   od,ORIGIN,DESTINATION,TRIPS[,FROM_HOUR,TO_HOUR]
+ *   rate,HOUR,TRIPS_PER_HOUR
+ *   clock,START_HOUR,TIME_SCALE
+ * A road cell belongs to the first zone that contains it. Hour ranges include the
+ * start and exclude the end, and may wrap past midnight.
+ */
+public class DemandModel {
+    static final int HOURS = 24;
+    private static final long HOUR_MILLIS = 3_600_000L;
+    private static volatile DemandModel instance; // Model used by NPCs and the PopulationManager
+
+    private final GameMap map;
+    private final String[] zoneNames;
+    private final int[] zoneOf; // Node id -> zone, or -1 outside every zone
+    private final int[] zoneStart; // Road nodes of zone z are zoneNodes[zoneStart[z]] up to zoneStart[z + 1]
+    private final int[] zoneNodes; // Road node ids, grouped by zone
+    private final double[] tripsPerHour; // Trip emission rate per hour of the day
+    private final int startHour; // Time of day at simulated time zero
+    private final double timeScale; // Day milliseconds per simulated millisecond
+    private final AliasTable[] trips; // Per hour: zone pair origin * zones + destination
+    private final AliasTable[][] destinations; // Per hour and origin zone: destination zone
+    private final AliasTable attraction; // Destination zone of trips from outside every zone
+    private double pendingTrips = 0; // Fraction of a trip carried to the next emission
+    private long emittedUntil = -1; // Simulated time up to which trips were emitted
+
+    DemandModel(GameMap map, List<Zone> zones, List<OdEntry> entries, double[] tripsPerHour,
+                int startHour, double timeScale) {
+        this.map = map;
+        this.tripsPerHour = tripsPerHour;
+        this.startHour = startHour;
+        this.timeScale = timeScale;
+        int z = zones.size();
+        this.zoneNames = new String[z];
+        for (int i = 0; i < z; i++) {
+            zoneNames[i] = zones.get(i).name;
+        }
+
+        // Group the road nodes by zone
+        RoadGraph graph = map.getGraph();
+        int n = graph.nodeCount();
+        this.zoneOf = new int[n];
+        this.zoneStart = new int[z + 1];
+        for (int node = 0; node < n; node++) {
+            zoneOf[node] = -1;
+            for (int i = 0; i < z; i++) {
+                if (zones.get(i).contains(graph.x(node), graph.y(node))) {
+                    zoneOf[node] = i;
+                    zoneStart[i + 1]++;
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < z; i++) {
+            zoneStart[i + 1] += zoneStart[i];
+        }
+        this.zoneNodes = new int[zoneStart[z]];
+        int[] fill = Arrays.copyOf(zoneStart, z);
+        for (int node = 0; node < n; node++) {
+            if (zoneOf[node] >= 0) zoneNodes[fill[zoneOf[node]]++] = node;
+        }
+
+        // Zones without road cells can neither start nor end a trip
+        double[] attractions = new double[z];
+        for (int i = 0; i < z; i++) {
+            attractions[i] = zoneSize(i) == 0 ? 0 : zones.get(i).attraction;
+        }
+        this.attraction = AliasTable.of(attractions);
+        this.trips = new AliasTable[HOURS];
+        this.destinations = new AliasTable[HOURS][z];
+        for (int hour = 0; hour < HOURS; hour++) {
+            double[] pairs = new double[z * z];
+            boolean matrix = false;
+            for (OdEntry entry : entries) {
+                if (entry.covers(hour)) {
+                    pairs[entry.origin * z + entry.destination] += entry.trips;
+                    matrix = true;
+                }
+            }
+            if (!matrix) {
+                for (int o = 0; o < z; o++) {
+                    for (int d = 0; d < z; d++) {
+                        pairs[o * z + d] = zones.get(o).production * zones.get(d).attraction;
+                    }
+                }
+            }
+            for (int o = 0; o < z; o++) {
+                for (int d = 0; d < z; d++) {
+                    if (zoneSize(o) == 0 || zoneSize(d) == 0) pairs[o * z + d] = 0;
+                }
+            }
+            trips[hour] = AliasTable.of(pairs);
+            for (int o = 0; o < z; o++) {
+                destinations[hour][o] = AliasTable.of(Arrays.copyOfRange(pairs, o * z, (o + 1) * z));
+            }
+        }
+    }
+
+    /**
+     * @return A model with one zone over the whole map and no trip emission.
+     */
+    public static DemandModel uniform(GameMap map) {
+        Zone all = new Zone("all", 1, 1, map.getHeight(), map.getWidth(), 1, 1);
+        return new DemandModel(map, List.of(all), List.of(), new double[HOURS], 0, 1);
+    }
+
+    /**
+     * Reads a demand file, see the class comment for the format.
+     *
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If a record is malformed or names an unknown zone.
+     */
+    public static DemandModel load(GameMap map, Path path) throws IOException {
+        List<Zone> zones = new ArrayList<>();
+        Map<String, Integer> zoneIds = new HashMap<>();
+        List<String[]> odRecords = new ArrayList<>();
+        double[] tripsPerHour = new double[HOURS];
+        int startHour = 0;
+        double timeScale = 1;
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                if (line.isBlank()) continue;
+                String[] fields = line.split(",");
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim();
+                }
+                try {
+                    switch (fields[0]) {
+                        case "zone":
+                            expect(fields, 8);
+                            zoneIds.put(fields[1], zones.size());
+                            zones.add(new Zone(fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                                    Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                                    weight(fields[6]), weight(fields[7])));
+                            break;
+                        case "od":
+                            if (fields.length != 4) expect(fields, 6);
+                            odRecords.add(fields);
+                            break;
+                        case "rate":
+                            expect(fields, 3);
+                            tripsPerHour[hour(fields[1])] = weight(fields[2]);
+                            break;
+                        case "clock":
+                            expect(fields, 3);
+                            startHour = hour(fields[1]);
+                            timeScale = Double.parseDouble(fields[2]);
+                            if (!(timeScale > 0)) throw new IllegalArgumentException("time scale must be positive");
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown record " + fields[0]);
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(path + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        if (zones.isEmpty()) throw new IllegalArgumentException(path + ": no zones");
+
+        // OD records may name zones defined further down
+        List<OdEntry> entries = new ArrayList<>();
+        for (String[] fields : odRecords) {
+            Integer origin = zoneIds.get(fields[1]);
+            Integer destination = zoneIds.get(fields[2]);
+            if (origin == null || destination == null) {
+                throw new IllegalArgumentException(path + ": unknown zone in od," + fields[1] + "," + fields[2]);
+            }
+            int from = fields.length == 6 ? hour(fields[4]) : 0;
+            int to = fields.length == 6 ? hour(fields[5]) : 0;
+            entries.add(new OdEntry(origin, destination, weight(fields[3]), from, to));
+        }
+        return new DemandModel(map, zones, entries, tripsPerHour, startHour, timeScale);
+    }
+
+    private static void expect(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException(fields[0] + " needs " + (count - 1) + " values");
+        }
+    }
+
+    private static double weight(String field) {
+        double value = Double.parseDouble(field);
+        if (!(value >= 0)) throw new IllegalArgumentException("negative weight " + field);
+        return value;
+    }
+
+    private static int hour(String field) {
+        int value = Integer.parseInt(field);
+        if (value < 0 || value > HOURS) throw new IllegalArgumentException("hour out of range " + field);
+        return value % HOURS;
+    }
+
+    /**
+     * @return The installed model, or a uniform one if none was installed.
+     */
+    public static DemandModel getInstance() {
+        // Read on every NPC destination draw, so only the first call locks
+        DemandModel model = instance;
+        if (model != null) return model;
+        synchronized (DemandModel.class) {
+            if (instance == null) {
+                instance = uniform(GameMap.getInstance());
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Makes a model the one used by NPCs and the PopulationManager.
+     */
+    public static synchronized void install(DemandModel model) {
+        instance = model;
+    }
+
+    private int zoneSize(int zone) {
+        return zoneStart[zone + 1] - zoneStart[zone];
+    }
+
+    /**
+     * @return The hour of the day at a simulated time.
+     */
+    public int hourOf(long now) {
+        return (int) Math.floorMod(dayMillis(now) / HOUR_MILLIS, (long) HOURS);
+    }
+
+    private long dayMillis(long now) {
+        return startHour * HOUR_MILLIS + (long) (now * timeScale);
+    }
+
+    /**
+     * Draws a trip for the hour of the day at a simulated time.
+     *
+     * @return {origin node, destination node}, or null if the hour has no demand.
+     */
+    public int[] sampleTrip(long now, Random random) {
+        AliasTable table = trips[hourOf(now)];
+        if (table == null) return null;
+        int pair = table.sample(random);
+        int z = zoneNames.length;
+        return new int[]{nodeIn(pair / z, random), nodeIn(pair % z, random)};
+    }
+
+    /**
+     * Draws the destination of a trip that starts at a node. Trips from a zone without
+     * demand in the current hour, or from outside every zone, go by attraction.
+     *
+     * @param from The node id the trip starts at, or -1.
+     * @return The destination node id, or -1 if no zone attracts trips.
+     */
+    public int sampleDestination(int from, long now, Random random) {
+        int origin = from < 0 ? -1 : zoneOf[from];
+        AliasTable table = origin < 0 ? null : destinations[hourOf(now)][origin];
+        if (table == null) table = attraction;
+        if (table == null) return -1;
+        return nodeIn(table.sample(random), random);
+    }
+
+    private int nodeIn(int zone, Random random) {
+        return zoneNodes[zoneStart[zone] + random.nextInt(zoneSize(zone))];
+    }
+
+    // @return true if the model emits trips at some hour
+    public boolean emitsTrips() {
+        for (double rate : tripsPerHour) {
+            if (rate > 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts the trips to emit since the previous call, following the hourly rate.
+     * Fractions of a trip are carried over, so the emitted total follows the rate
+     * exactly. The first call only starts the count.
+     *
+     * @param now The simulated time.
+     * @return The number of trips to start now.
+     */
+    public synchronized int tripsDue(long now) {
+        if (emittedUntil < 0 || now < emittedUntil) {
+            emittedUntil = now;
+            return 0;
+        }
+        long t = dayMillis(emittedUntil);
+        long end = dayMillis(now);
+        emittedUntil = now;
+        while (t < end) {
+            long next = Math.min(end, (Math.floorDiv(t, HOUR_MILLIS) + 1) * HOUR_MILLIS);
+            int hour = (int) Math.floorMod(Math.floorDiv(t, HOUR_MILLIS), (long) HOURS);
+            pendingTrips += tripsPerHour[hour] * (next - t) / HOUR_MILLIS;
+            t = next;
+        }
+        int due = (int) pendingTrips;
+        pendingTrips -= due;
+        return due;
+    }
+
+    // @return name of the zone of a node, or null outside every zone
+    public String zoneName(int node) {
+        return zoneOf[node] < 0 ? null : zoneNames[zoneOf[node]];
+    }
+
+    /**
+     * A rectangular zone of the map, bounds included.
+     */
+    static class Zone {
+        final String name;
+        final int minX, minY, maxX, maxY;
+        final double production; // Relative number of trips starting in the zone
+        final double attraction; // Relative number of trips ending in the zone
+
+        Zone(String name, int minX, int minY, int maxX, int maxY, double production, double attraction) {
+            this.name = name;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.production = production;
+            this.attraction = attraction;
+        }
+
+        boolean contains(int x, int y) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+    }
+
+    /**
+     * Trips between two zones during a range of hours; from == to means all day.
+     */
+    static class OdEntry {
+        final int origin;
+        final int destination;
+        final double trips;
+        final int fromHour;
+        final int toHour;
+
+        OdEntry(int origin, int destination, double trips, int fromHour, int toHour) {
+            this.origin = origin;
+            this.destination = destination;
+            this.trips = trips;
+            this.fromHour = fromHour;
+            this.toHour = toHour;
+        }
+
+        boolean covers(int hour) {
+            if (fromHour == toHour) return true;
+            if (fromHour < toHour) return hour >= fromHour && hour < toHour;
+            return hour >= fromHour || hour < toHour;
+        }
+    }
+}
+
+/**
+ * Walker's alias table: draws an index with probability proportional to its weight
+ * using one uniform index and one uniform double.
+ */
+class AliasTable {
+    private final double[] probability; // Chance of keeping the drawn index
+    private final int[] alias; // Index used otherwise
+
+    private AliasTable(double[] probability, int[] alias) {
+        this.probability = probability;
+        this.alias = alias;
+    }
+
+    /**
+     * Builds a table with Vose's method.
+     *
+     * @param weights Non-negative weights.
+     * @return The table, or null if every weight is zero.
+     */
+    static AliasTable of(double[] weights) {
+        int n = weights.length;
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        if (n == 0 || total <= 0) return null;
+
+        double[] probability = new double[n];
+        int[] alias = new int[n];
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // Whatever is left is 1 up to rounding
+        while (largeCount > 0) {
+            probability[large[--largeCount]] = 1;
+        }
+        while (smallCount > 0) {
+            probability[small[--smallCount]] = 1;
+        }
+        return new AliasTable(probability, alias);
+    }
+
+    int sample(Random random) {
+        int i = random.nextInt(probability.length);
+        return random.nextDouble() < probability[i] ? i : alias[i];
+    }
+}
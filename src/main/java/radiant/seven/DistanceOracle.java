@@ -0,0 +1,292 @@
+package radiant.seven;
+
+import java.util.Arrays;
+
+/**
+ * Road distances (number of moves) between nodes, using ALT: A* with landmark
+ * lower bounds from the triangle inequality.
+ *
+ * At map load the oracle picks LANDMARKS nodes spread over the map, each one as far
+ * as possible from those already picked, and stores the number of moves from every
+ * landmark to every node and from every node to every landmark. For any landmark L,
+ * d(a, b) >= d(a, L) - d(b, L) and d(a, b) >= d(L, b) - d(L, a), so the largest of
+ * these differences is a lower bound that knows about one-way detours, unlike the
+ * Manhattan distance. The tables are taken on the map without closures; closures
+ * only remove edges, so the bounds stay valid on every later RoadGraph snapshot.
+ *
+ * lowerBound() reads two small blocks of the table. distance() runs an A* search
+ * guided by the same bound on the given snapshot and returns the exact distance.
+ */
+public final class DistanceOracle {
+    static final int LANDMARKS = 16; // Landmarks picked, fewer on maps with fewer nodes
+    static final int ACTIVE = 4; // Landmarks with the best bound for the start and target used by distance()
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final int n; // Number of nodes
+    private final int k; // Number of landmarks
+    private final int[] landmarks; // Landmark node ids
+    private final int[] bounds; // node * 2k + 2l: moves from landmark l to node, + 1: moves from node to landmark l
+    private final ThreadLocal<Search> searches; // Reused search state per thread
+
+    // Arrays of one A* search, reset by bumping the stamp instead of clearing
+    private static final class Search {
+        final int[] stamp; // Search in which the node was reached
+        final int[] settled; // Search in which the node was expanded or ruled out
+        final int[] dist; // Moves from the start
+        final int[] bound; // Lower bound on the moves left to the target
+        final int[] head; // f = dist + bound -> first queue entry with that f, if headStamp is current
+        final int[] headStamp;
+        int[] entryNode = new int[64]; // Queue entries, linked per f
+        int[] entryNext = new int[64];
+        int entries = 0;
+        int current = 0;
+        final int[] active = new int[ACTIVE]; // Offsets 2l of the landmarks used by this search
+        final int[] fromTarget = new int[ACTIVE]; // Moves from each of them to the target
+        final int[] toTarget = new int[ACTIVE]; // Moves from the target to each of them
+        int activeCount = 0;
+
+        Search(int n) {
+            stamp = new int[n];
+            settled = new int[n];
+            dist = new int[n];
+            bound = new int[n];
+            head = new int[2 * n + 1];
+            headStamp = new int[2 * n + 1];
+        }
+
+        void push(int f, int node) {
+            if (entries == entryNode.length) {
+                entryNode = Arrays.copyOf(entryNode, entries * 2);
+                entryNext = Arrays.copyOf(entryNext, entries * 2);
+            }
+            entryNode[entries] = node;
+            entryNext[entries] = headStamp[f] == current ? head[f] : -1;
+            head[f] = entries++;
+            headStamp[f] = current;
+        }
+    }
+
+    private DistanceOracle(int n, int[] landmarks, int[] bounds) {
+        this.n = n;
+        this.k = landmarks.length;
+        this.landmarks = landmarks;
+        this.bounds = bounds;
+        this.searches = ThreadLocal.withInitial(() -> new Search(n));
+    }
+
+    /**
+     * Picks the landmarks of a graph and computes their distance tables, one
+     * breadth-first search per landmark and direction.
+     *
+     * @param graph The graph without closures.
+     * @param count Landmarks to pick.
+     * @return The oracle.
+     */
+    public static DistanceOracle build(RoadGraph graph, int count) {
+        int n = graph.nodeCount();
+        count = Math.min(count, n);
+        RoadGraph reverse = graph.reverse();
+
+        int[] landmarks = new int[count];
+        int[] bounds = new int[n * 2 * count];
+        int[] spread = new int[n]; // Node -> moves to or from the nearest picked landmark
+        Arrays.fill(spread, UNREACHABLE);
+        int[] forward = new int[n];
+        int[] backward = new int[n];
+        int[] queue = new int[n];
+        // Start far from node 0, then always take the node farthest from every landmark so far
+        int next = n == 0 ? 0 : farthest(graph, 0, forward, queue);
+        for (int l = 0; l < count; l++) {
+            landmarks[l] = next;
+            bfs(next, graph, forward, queue);
+            bfs(next, reverse, backward, queue);
+            next = -1;
+            for (int v = 0; v < n; v++) {
+                bounds[v * 2 * count + 2 * l] = forward[v];
+                bounds[v * 2 * count + 2 * l + 1] = backward[v];
+                // Distance in the nearer direction; nodes cut off both ways stay uncovered
+                spread[v] = Math.min(spread[v], Math.min(forward[v], backward[v]));
+                if (next < 0 || spread[v] > spread[next]) next = v;
+            }
+        }
+        return new DistanceOracle(n, landmarks, bounds);
+    }
+
+    // Breadth-first search from a node over the graph's edges
+    private static void bfs(int from, RoadGraph graph, int[] dist, int[] queue) {
+        Arrays.fill(dist, UNREACHABLE);
+        dist[from] = 0;
+        int head = 0, tail = 0;
+        queue[tail++] = from;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int e = graph.edgeStart(u); e < graph.edgeEnd(u); e++) {
+                int v = graph.edgeTarget(e);
+                if (dist[v] != UNREACHABLE) continue;
+                dist[v] = dist[u] + 1;
+                queue[tail++] = v;
+            }
+        }
+    }
+
+    // @return the node reached last by a breadth-first search from a node
+    private static int farthest(RoadGraph graph, int from, int[] dist, int[] queue) {
+        bfs(from, graph, dist, queue);
+        int best = from;
+        for (int v = 0; v < dist.length; v++) {
+            if (dist[v] != UNREACHABLE && dist[v] > dist[best]) best = v;
+        }
+        return best;
+    }
+
+    /**
+     * A lower bound on the number of moves from one node to another. It holds on any
+     * snapshot of the map, whatever its closures.
+     *
+     * @return The bound, or UNREACHABLE if a landmark proves there is no route.
+     */
+    public int lowerBound(int from, int to) {
+        if (from == to) return 0;
+        int a = from * 2 * k;
+        int b = to * 2 * k;
+        int bound = 0;
+        for (int l = 0; l < 2 * k; l += 2) {
+            int fromA = bounds[a + l], fromB = bounds[b + l];
+            int toA = bounds[a + l + 1], toB = bounds[b + l + 1];
+            // L reaches a but not b, or b reaches L but a does not: a cannot reach b
+            if ((fromA != UNREACHABLE && fromB == UNREACHABLE) || (toB != UNREACHABLE && toA == UNREACHABLE)) {
+                return UNREACHABLE;
+            }
+            if (fromA != UNREACHABLE) bound = Math.max(bound, fromB - fromA);
+            if (toB != UNREACHABLE) bound = Math.max(bound, toA - toB);
+        }
+        return bound;
+    }
+
+    // Sets the stamp of this thread's last search, so tests can reach the wrap-around
+    void setSearchStamp(int stamp) {
+        searches.get().current = stamp;
+    }
+
+    /**
+     * The exact number of moves from one node to another on a snapshot, found by an
+     * A* search guided by the landmark bounds.
+     *
+     * Every move costs one and the bound is consistent, so f = moves + bound never
+     * drops along a move and is a small integer. The priority queue is a list of nodes
+     * per f: the search drains the list of the current f, then moves on to the next.
+     * Only the ACTIVE landmarks giving the best bound between start and target are
+     * consulted during the search, with their distances to the target kept at hand.
+     *
+     * @param graph The snapshot, with its closures.
+     * @return The number of moves, or UNREACHABLE if there is no route.
+     */
+    public int distance(RoadGraph graph, int from, int to) {
+        if (from < 0 || to < 0) return UNREACHABLE;
+        if (from == to) return 0;
+        if (lowerBound(from, to) == UNREACHABLE) return UNREACHABLE;
+        Search s = searches.get();
+        if (++s.current == 0) {
+            Arrays.fill(s.stamp, 0);
+            Arrays.fill(s.settled, 0);
+            Arrays.fill(s.headStamp, 0);
+            s.current = 1;
+        }
+        int current = s.current;
+        s.entries = 0;
+        chooseLandmarks(s, from, to);
+        int start = activeBound(s, from);
+        s.stamp[from] = current;
+        s.dist[from] = 0;
+        s.bound[from] = start;
+        s.push(start, from);
+        int pending = 1;
+        for (int f = start; pending > 0; ) {
+            if (s.headStamp[f] != current || s.head[f] < 0) {
+                f++;
+                continue;
+            }
+            int entry = s.head[f];
+            s.head[f] = s.entryNext[entry];
+            int u = s.entryNode[entry];
+            pending--;
+            // Skip entries left behind when the node was reached again with fewer moves
+            if (s.settled[u] == current || s.dist[u] + s.bound[u] != f) continue;
+            if (u == to) return s.dist[u];
+            s.settled[u] = current;
+            int d = s.dist[u] + 1;
+            for (int e = graph.edgeStart(u); e < graph.edgeEnd(u); e++) {
+                int v = graph.edgeTarget(e);
+                if (s.stamp[v] != current) {
+                    s.stamp[v] = current;
+                    s.bound[v] = activeBound(s, v);
+                    if (s.bound[v] == UNREACHABLE) {
+                        s.settled[v] = current; // Cannot reach the target, never expand it
+                        continue;
+                    }
+                } else if (s.settled[v] == current || d >= s.dist[v]) {
+                    continue;
+                }
+                s.dist[v] = d;
+                s.push(d + s.bound[v], v);
+                pending++;
+            }
+        }
+        return UNREACHABLE;
+    }
+
+    // Picks the landmarks with the largest bound between start and target for a search
+    private void chooseLandmarks(Search s, int from, int to) {
+        int a = from * 2 * k;
+        int b = to * 2 * k;
+        int[] best = new int[ACTIVE];
+        s.activeCount = 0;
+        for (int l = 0; l < 2 * k; l += 2) {
+            int bound = 0;
+            if (bounds[a + l] != UNREACHABLE) bound = bounds[b + l] - bounds[a + l];
+            if (bounds[b + l + 1] != UNREACHABLE) bound = Math.max(bound, bounds[a + l + 1] - bounds[b + l + 1]);
+            // Insertion into the short list, largest bound first
+            int i = Math.min(s.activeCount, ACTIVE - 1);
+            if (s.activeCount == ACTIVE && bound <= best[i]) continue;
+            while (i > 0 && best[i - 1] < bound) {
+                best[i] = best[i - 1];
+                s.active[i] = s.active[i - 1];
+                i--;
+            }
+            best[i] = bound;
+            s.active[i] = l;
+            if (s.activeCount < ACTIVE) s.activeCount++;
+        }
+        for (int i = 0; i < s.activeCount; i++) {
+            s.fromTarget[i] = bounds[b + s.active[i]];
+            s.toTarget[i] = bounds[b + s.active[i] + 1];
+        }
+    }
+
+    // lowerBound() of a node towards the target of a search, over its landmarks only
+    private int activeBound(Search s, int v) {
+        int a = v * 2 * k;
+        int bound = 0;
+        for (int i = 0; i < s.activeCount; i++) {
+            int fromA = bounds[a + s.active[i]];
+            int toA = bounds[a + s.active[i] + 1];
+            if ((fromA != UNREACHABLE && s.fromTarget[i] == UNREACHABLE)
+                    || (s.toTarget[i] != UNREACHABLE && toA == UNREACHABLE)) {
+                return UNREACHABLE;
+            }
+            if (fromA != UNREACHABLE) bound = Math.max(bound, s.fromTarget[i] - fromA);
+            if (s.toTarget[i] != UNREACHABLE) bound = Math.max(bound, toA - s.toTarget[i]);
+        }
+        return bound;
+    }
+
+    // @return landmark node ids
+    public int[] getLandmarks() {
+        return landmarks.clone();
+    }
+
+    // @return bytes taken by the distance tables
+    public long memoryBytes() {
+        return (long) bounds.length * 4;
+    }
+}
@@ -10,6 +10,7 @@ import java.util.*;
  */
 public class EV {
     public String name; // Name of the EV
+    private int id = -1; // Stable numeric id, assigned when the EV joins the simulation
     private int startX; // Starting x-coordinate
     private int startY; // Starting y-coordinate
     private int endX; // Destination x-coordinate
@@ -18,13 +19,18 @@ public class EV {
     private int charge; // Current charge level (percentage)
     private int chargingRate; // Rate of charge per interval
     private List<PathNode> path; // Path the EV follows
-    public int currentPathIndex; // Current index in the path
+    private int currentPathIndex; // Current index in the path, held by the VehicleStore while simulated
     private boolean moving = false; // Whether the EV is moving
     public Task task; // Current assigned task
-    private static final long MOVE_INTERVAL = 500; // Interval between movements (in milliseconds)
+    static final long MOVE_INTERVAL = 500; // Interval between movements (in milliseconds)
     Queue<Task> taskQueue = new LinkedList<Task>(); // Queue of tasks for the EV
     private String vehicleType;  // Add this field
     private String currentDirection = "right";
+    private volatile String lastNotification; // Latest notice sent to the vehicle (e.g. reroutes)
+    private List<Integer> chargingStops = new ArrayList<>(); // Path indices where the EV charges to full
+    private volatile boolean charging = false; // Whether the EV is waiting at a charging station
+    volatile VehicleStore store; // Store holding the per-tick fields while simulated, or null
+    int slot; // Row of the EV in the store, changed under the store's lock
 
 
     /**
@@ -75,6 +81,22 @@ public class EV {
     public void setName(String name) {
         this.name = name;
     }
+    /**
+     * @return The numeric id of the EV, or -1 if none has been assigned.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the numeric id of the EV.
+     *
+     * @param id The id to set.
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
     /**
      * Returns the type of the EV.
      *
@@ -84,6 +106,12 @@ public class EV {
         return vehicleType;
     }
     public String getCurrentDirection() {
+        VehicleStore store = this.store;
+        if (store != null) {
+            synchronized (store.lock) {
+                if (this.store == store) return VehicleStore.DIRECTIONS[store.direction[slot]];
+            }
+        }
         return currentDirection;
     }
     
@@ -127,6 +155,12 @@ public class EV {
      * @return The current charge level of the EV.
      */
     public int getCharge() {
+        VehicleStore store = this.store;
+        if (store != null) {
+            synchronized (store.lock) {
+                if (this.store == store) return store.charge[slot];
+            }
+        }
         return charge;
     }
 
@@ -136,6 +170,10 @@ public class EV {
      * @param path The list of PathNode objects representing the path.
      */
     public void setPath(List<PathNode> path) {
+        if (store != null && path != null && !path.isEmpty()) {
+            this.path = store.importPath(slot, path, Math.min(store.pathIndex[slot], path.size() - 1));
+            return;
+        }
         this.path = path;
     }
 
@@ -150,9 +188,27 @@ public class EV {
      * @return The current index of the EV in its path.
      */
     public int getCurrentPathIndex() {
+        VehicleStore store = this.store;
+        if (store != null) {
+            synchronized (store.lock) {
+                if (this.store == store) return store.pathIndex[slot];
+            }
+        }
         return currentPathIndex;
     }
 
+    /**
+     * Places the EV at an index of its path, for example a vehicle built part-way
+     * along a route. The index of a simulated EV only changes through its engine.
+     *
+     * @param index The index of the EV's current cell in its path.
+     * @throws IllegalStateException if the EV is simulated.
+     */
+    public void setCurrentPathIndex(int index) {
+        if (store != null) throw new IllegalStateException("EV " + id + " is simulated by an engine");
+        this.currentPathIndex = index;
+    }
+
     /**
      * @return The interval between movements in milliseconds.
      */
@@ -162,14 +218,83 @@ public class EV {
 
     // Movement
 
+    /**
+     * Replaces the path of the EV with a new one that starts at its current position,
+     * for example after a road closure. The movement thread synchronizes on the EV,
+     * so it never sees the new path with the old index.
+     *
+     * @param path The new path, starting at the current position.
+     */
+    public synchronized void replacePath(List<PathNode> path) {
+        this.chargingStops = new ArrayList<>();
+        if (store != null && path != null && !path.isEmpty()) {
+            this.path = store.importPath(slot, path, 0);
+            return;
+        }
+        this.currentPathIndex = 0;
+        this.path = path;
+    }
+
+    /**
+     * Makes the EV a view of a VehicleStore slot.
+     */
+    void attach(VehicleStore store, int slot, List<PathNode> path) {
+        this.store = store;
+        this.slot = slot;
+        this.path = path;
+    }
+
+    /**
+     * Takes back the per-tick fields when the EV leaves its VehicleStore.
+     */
+    void detach(int pathIndex, int charge, String direction, boolean moving, boolean charging) {
+        this.store = null;
+        this.currentPathIndex = pathIndex;
+        this.charge = charge;
+        this.currentDirection = direction;
+        this.moving = moving;
+        this.charging = charging;
+    }
+
+    // Points the EV at its path after the store moved it to a new arena
+    void repointPath(List<PathNode> path) {
+        this.path = path;
+    }
+
+    /**
+     * Records a notice for the EV, such as a reroute caused by a road closure.
+     *
+     * @param message The notice text.
+     */
+    public void addNotification(String message) {
+        this.lastNotification = message;
+    }
+
+    /**
+     * @return The latest notice sent to the EV, or null if there is none.
+     */
+    public String getLastNotification() {
+        return lastNotification;
+    }
+
+    /**
+     * Advances the EV one cell along its path and updates the SpatialIndex.
+     * All movement outside the SimulationEngine goes through here so the index never
+     * falls behind; the engine advances its vehicles in their VehicleStore.
+     */
+    public void advance() {
+        currentPathIndex++;
+        SpatialIndex.getInstance().update(this);
+    }
+
     /**
      * Moves the EV to the next position in its path if it has not reached the end.
      * Prints the EV's new position or a message if it has completed its path.
      */
     public void moveToNextPosition() {
-        if (currentPathIndex < path.size() - 1) {
-            currentPathIndex++;
-            PathNode nextPosition = path.get(currentPathIndex);
+        if (getCurrentPathIndex() < path.size() - 1) {
+            advance();
+            PathNode nextPosition = path.get(getCurrentPathIndex());
             System.out.println("EV moved to position: (" + nextPosition.getX() + ", " + nextPosition.getY() + ")");
         } else {
             System.out.println("EV has reached the end of its path.");
@@ -188,33 +313,94 @@ public class EV {
     }
 
     public void setCurrentDirection(String direction) {
+        if (store != null) {
+            int ordinal = Arrays.asList(VehicleStore.DIRECTIONS).indexOf(direction);
+            if (ordinal >= 0) store.direction[slot] = (byte) ordinal;
+        }
         this.currentDirection = direction;
     }
 
     public void updateDirection(int nextX, int nextY) {
-        if (nextX > getCurrentX()) currentDirection = "down";
-        else if (nextX < getCurrentX()) currentDirection = "up";
-        else if (nextY > getCurrentY()) currentDirection = "right";
-        else if (nextY < getCurrentY()) currentDirection = "left";
+        if (nextX > getCurrentX()) setCurrentDirection("down");
+        else if (nextX < getCurrentX()) setCurrentDirection("up");
+        else if (nextY > getCurrentY()) setCurrentDirection("right");
+        else if (nextY < getCurrentY()) setCurrentDirection("left");
     }
     
 
     // Charging
 
     /**
-     * Charges the EV. The charge level increases by the charging rate up to a
-     * maximum of 100%.
+     * Drains charge, for example after a move. Charge never drops below zero.
+     *
+     * @param amount The charge used.
      */
-    public void charge() {
-        this.charge += this.chargingRate;
-        if (this.charge > 100) {
-            this.charge = 100;
+    public void consumeCharge(int amount) {
+        setChargeLevel(Math.max(0, getCharge() - amount));
+    }
+
+    private void setChargeLevel(int level) {
+        if (store != null) {
+            store.charge[slot] = level;
+        } else {
+            this.charge = level;
         }
-        try {
-            Thread.sleep(1000); // Simulate charging interval
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    }
+
+    /**
+     * @return The charging rate of the EV per interval.
+     */
+    public int getChargingRate() {
+        return chargingRate;
+    }
+
+    /**
+     * Sets the path indices at which the EV stops to charge.
+     *
+     * @param chargingStops Indices into the current path.
+     */
+    public void setChargingStops(List<Integer> chargingStops) {
+        this.chargingStops = chargingStops;
+    }
+
+    /**
+     * @return The path indices at which the EV stops to charge.
+     */
+    public List<Integer> getChargingStops() {
+        return chargingStops;
+    }
+
+    /**
+     * Charges the EV by one charging step. The charge level increases by the
+     * charging rate up to a maximum of 100%. The ChargingScheduler calls this once
+     * per charging interval; it never blocks the caller.
+     */
+    public void charge() {
+        setChargeLevel(Math.min(100, getCharge() + this.chargingRate));
+    }
+
+    /**
+     * @return True while the EV is queued or plugged in at a charging station.
+     */
+    public boolean isCharging() {
+        VehicleStore store = this.store;
+        if (store != null) {
+            synchronized (store.lock) {
+                if (this.store == store) return store.hasFlag(slot, VehicleStore.CHARGING);
+            }
         }
+        return charging;
+    }
+
+    /**
+     * Sets whether the EV is queued or plugged in at a charging station. In
+     * deterministic mode the ChargingScheduler calls this under the engine lock.
+     *
+     * @param charging True while the EV must wait for charging.
+     */
+    public void setCharging(boolean charging) {
+        if (store != null) store.setFlag(slot, VehicleStore.CHARGING, charging);
+        this.charging = charging;
     }
 
     /**
@@ -223,8 +409,8 @@ public class EV {
      * @return True if the charge is at or above 100%, false otherwise.
      */
     public boolean fullCharge() {
-        if (this.charge >= 100) {
-            this.charge = 100;
+        if (getCharge() >= 100) {
+            setChargeLevel(100);
             return true;
         }
         return false;
@@ -236,6 +422,12 @@ public class EV {
      * @return The x-coordinate of the EV's current position.
      */
     public int getCurrentX() {
+        VehicleStore store = this.store;
+        if (store != null) {
+            synchronized (store.lock) {
+                if (this.store == store) return store.getGraph().x(store.node[slot]);
+            }
+        }
         return getPath().get(currentPathIndex).getX();
     }
 
@@ -243,6 +435,12 @@ public class EV {
      * @return The y-coordinate of the EV's current position.
      */
     public int getCurrentY() {
+        VehicleStore store = this.store;
+        if (store != null) {
+            synchronized (store.lock) {
+                if (this.store == store) return store.getGraph().y(store.node[slot]);
+            }
+        }
         return getPath().get(currentPathIndex).getY();
     }
 
@@ -250,15 +448,23 @@ public class EV {
      * @return True if the EV is currently moving, false otherwise.
      */
     public boolean isMoving() {
+        VehicleStore store = this.store;
+        if (store != null) {
+            synchronized (store.lock) {
+                if (this.store == store) return store.hasFlag(slot, VehicleStore.MOVING);
+            }
+        }
         return moving;
     }
 
     /**
-     * Sets the movement state of the EV.
+     * Sets the movement state of the EV. In deterministic mode only the engine may
+     * call this, under its lock; others start vehicles with SimulationEngine.startVehicle.
      *
      * @param moving True if the EV should start moving, false otherwise.
      */
     public void setMoving(boolean moving) {
+        if (store != null) store.setFlag(slot, VehicleStore.MOVING, moving);
         this.moving = moving;
     }
 
@@ -275,12 +481,4 @@ public class EV {
         task = TaskAssigner.assignTask();
         setMoving(true);
     }
-
-    protected List<PathNode> convertToPathNodes(long[] path) {
-        List<PathNode> nodes = new ArrayList<>();
-        for (int i = 0; i < path.length; i += 2) {
-            nodes.add(new PathNode((int) path[i], (int) path[i + 1]));
-        }
-        return nodes;
-    }
 }
@@ -7,13 +7,18 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -23,9 +28,10 @@ import java.util.stream.Collectors;
 @RestController
 @RequestMapping("/api/ev")
 public class EVController {
-    public static Map<String, EV> evMap;
+    public static final VehicleRegistry evMap = VehicleRegistry.getInstance();
     public static PathfindingVisualizer pathfinder;
     private TrafficManager trafficManager;
+    private final RoutingExecutor routing; // Runs the route searches of new EVs
 
     /**
      * Constructor for EVController.
@@ -35,21 +41,107 @@ public class EVController {
         return EVController.evMap;
     }
 
-    public EVController() {
-        evMap = new HashMap<>();
+    public EVController(SimulationProperties properties, RoutingExecutor routing) throws IOException {
+        this.routing = routing;
+        boolean deterministic = properties.isDeterministic();
+        String shards = properties.getShards();
+        String checkpointFile = properties.getCheckpoint().getFile();
         pathfinder = new PathfindingVisualizer(GameMap.getInstance());
         trafficManager = new TrafficManager();
+        long heatmapWindow = properties.getHeatmap().getWindowSeconds();
+        // In sharded mode the shards count congestion on their own cells
+        if (heatmapWindow > 0 && shards.isEmpty()) {
+            CongestionHeatmap heatmap = CongestionHeatmap.enable(GameMap.getInstance(), heatmapWindow * 1000);
+            // Without engine ticks the heatmap samples the vehicles' cells itself
+            if (!deterministic) heatmap.startSampling(evMap, EV.MOVE_INTERVAL);
+        }
+
+        CheckpointManager checkpoints = CheckpointManager.getInstance();
+        Checkpoint checkpoint = null;
+        if (!checkpointFile.isEmpty() && properties.getCheckpoint().isRestore()) {
+            long start = System.currentTimeMillis();
+            checkpoint = checkpoints.load(Paths.get(checkpointFile));
+            if (checkpoint != null) {
+                checkpoints.restoreMapState(checkpoint);
+                System.out.println("Restored map state from checkpoint in " + (System.currentTimeMillis() - start) + " ms");
+            }
+        }
+        // Recorded ticks only continue the earlier run's when its checkpoint is restored
+        if (!properties.getTrajectory().getDir().isEmpty()) {
+            TrajectoryRecorder.open(Paths.get(properties.getTrajectory().getDir()),
+                    properties.getTrajectory().getMaxSegments(), checkpoint != null);
+        }
+        // In deterministic mode a single SimulationEngine moves every vehicle in ticks
+        if (deterministic) {
+            SimulationEngine.enableDeterministicMode(properties.getSeed(), properties.getEventLog(),
+                    properties.getRegions());
+        }
+        // Sharded mode: ShardServer processes own the vehicles, this process coordinates them
+        if (!shards.isEmpty()) {
+            ShardCoordinator.connect(Arrays.asList(shards.split(",")), properties.getSeed(),
+                    Math.max(0, heatmapWindow) * 1000);
+        }
+        if (checkpoint != null) {
+            long start = System.currentTimeMillis();
+            List<EV> restored = checkpoints.restoreVehicles(checkpoint);
+            for (EV ev : restored) {
+                register(ev);
+                if (!deterministic) resumeMovement(ev);
+            }
+            System.out.println("Restored " + restored.size() + " vehicles from checkpoint in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+        long checkpointInterval = properties.getCheckpoint().getIntervalSeconds();
+        if (!checkpointFile.isEmpty() && checkpointInterval > 0) {
+            checkpoints.startPeriodicCheckpoints(checkpointFile, checkpointInterval);
+        }
+        if (!properties.getDemand().getFile().isEmpty()) {
+            DemandModel.install(DemandModel.load(GameMap.getInstance(), Paths.get(properties.getDemand().getFile())));
+        }
+        PopulationManager population = PopulationManager.getInstance();
+        population.setStarter(this::startMovement);
+        population.start(properties.getNpc().getDensity(), properties.getNpc().getRebalanceMillis());
     }
 
     /**
-     * Creates a new EV and assigns it a path.
+     * Restarts a vehicle restored from a checkpoint in threaded mode.
+     *
+     * @param ev The restored vehicle
+     */
+    private void resumeMovement(EV ev) {
+        queueAtChargingStop(ev);
+        if (ev.isMoving()) {
+            simulateEVMovement(ev.getName());
+        }
+    }
+
+    /**
+     * Queues an EV for a port if the EnergyRouter planned a charging stop at its
+     * current path index, e.g. at index 0 for an EV that starts on a station.
+     *
+     * @param ev The EV
+     */
+    private void queueAtChargingStop(EV ev) {
+        if (ev.getChargingStops().contains(ev.getCurrentPathIndex())) {
+            ChargingScheduler chargingScheduler = ChargingScheduler.getInstance();
+            ChargingStation station = chargingScheduler.stationAt(ev.getCurrentX(), ev.getCurrentY());
+            if (station != null) {
+                chargingScheduler.requestCharge(ev, station);
+            }
+        }
+    }
+
+    /**
+     * Creates a new EV and assigns it a path. The route is searched on the
+     * RoutingExecutor; the EV is only registered and started if the search finishes
+     * in time.
      *
      * @param request The request payload containing EV details.
-     * @return ResponseEntity with the created EV object.
+     * @return ResponseEntity with the created EV object, or 503 if routing is overloaded.
      *         type = 3 indicates it is an NPC Vehicle
      */
     @PostMapping("/new")
-    public ResponseEntity<EV> newEV(@RequestBody EVCreateRequest request) {
+    public CompletableFuture<ResponseEntity<EV>> newEV(@RequestBody EVCreateRequest request) {
         EV ev;
         if (request.getType() == 3) {
             // Create NPC Vehicle
@@ -68,20 +160,89 @@ public class EVController {
         ev.setEndLocation(request.getEndX(), request.getEndY());
         ev.setName(request.getName());
 
-        // Calculate path
-        long[] pathArray = pathfinder.findPath(
-                ev.getStartX(),
-                ev.getStartY(),
-                ev.getEndX(),
-                ev.getEndY());
-        List<PathNode> path = convertToPathNodes(pathArray);
-        ev.setPath(path);
-        ev.setMoving(true);
+        CompletableFuture<EV> routed = routing.submit(() -> {
+            ev.setPath(findPath(ev, request.isTimeDependent()));
+            return ev;
+        }).thenApply(created -> {
+            // Runs only if the search completed in time, so a rejected request leaves no EV behind
+            created.setMoving(true);
+            register(created);
+            startMovement(created);
+            return created;
+        });
+        return PathController.respond(routed);
+    }
 
-        evMap.put(ev.getName(), ev);
-        simulateEVMovement(ev.getName());
+    /**
+     * Finds the path of a new EV, with charging stops if it cannot finish the trip on
+     * its current charge.
+     *
+     * @param ev The EV, with its start and end set.
+     * @param timeDependent Whether to minimise arrival time under the signal schedule.
+     * @return The path.
+     */
+    private List<PathNode> findPath(EV ev, boolean timeDependent) {
+        // Calculate path, optionally minimising arrival time under the signal schedule
+        List<PathNode> path;
+        if (timeDependent) {
+            path = TimeDependentRouter.getInstance().findRoute(
+                    ev.getStartX(),
+                    ev.getStartY(),
+                    ev.getEndX(),
+                    ev.getEndY()).path;
+        } else {
+            path = pathfinder.findRoute(
+                    ev.getStartX(),
+                    ev.getStartY(),
+                    ev.getEndX(),
+                    ev.getEndY());
+        }
 
-        return ResponseEntity.ok(ev);
+        // EVs that cannot finish the trip on their current charge get charging stops
+        if (EnergyModel.isElectric(ev) && !path.isEmpty()
+                && EnergyModel.energyFor(path.size() - 1) > ev.getCharge()) {
+            EnergyRoute route = EnergyRouter.getInstance().findRoute(
+                    ev.getStartX(),
+                    ev.getStartY(),
+                    ev.getEndX(),
+                    ev.getEndY(),
+                    ev.getCharge(),
+                    ev.getChargingRate());
+            if (!route.path.isEmpty()) {
+                path = route.path;
+                ev.setChargingStops(route.chargingStops);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Adds an EV to the fleet and to the SpatialIndex, retiring an EV with the same name.
+     *
+     * @param ev The EV to add
+     */
+    private void register(EV ev) {
+        evMap.register(ev);
+    }
+
+    /**
+     * Hands an EV to the SimulationEngine in deterministic mode, or starts its
+     * movement thread otherwise.
+     *
+     * @param ev The EV to start
+     */
+    private void startMovement(EV ev) {
+        ShardCoordinator coordinator = ShardCoordinator.getInstance();
+        SimulationEngine engine = SimulationEngine.getInstance();
+        if (coordinator != null) {
+            coordinator.spawn(ev);
+        } else if (engine != null) {
+            engine.spawn(ev);
+        } else {
+            // The movement thread only checks for stops after a move
+            queueAtChargingStop(ev);
+            simulateEVMovement(ev.getName());
+        }
     }
 
     /**
@@ -94,14 +255,47 @@ public class EVController {
      */
     private void simulateEVMovement(String evName) {
         EV ev = evMap.get(evName);
-        new Thread(() -> {
-            while (ev.isMoving() && ev.currentPathIndex < ev.getPath().size() - 1) {
-                PathNode nextPos = ev.getPath().get(ev.currentPathIndex + 1);
-                if (TrafficManager.getInstance().canMoveToPosition(ev, nextPos.getX(), nextPos.getY())) {
-                    ev.updateDirection(nextPos.getX(), nextPos.getY());
-                    ev.currentPathIndex++;
-                    if(ev.getType()==3)
-                        ev.changeEnd();
+        Thread agent = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()
+                    && ev.isMoving() && ev.getCurrentPathIndex() < ev.getPath().size() - 1) {
+                boolean moved;
+                if (ev.isCharging()) {
+                    // The ChargingScheduler releases the EV once it is full
+                    try {
+                        Thread.sleep(ev.getMoveInterval());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    continue;
+                }
+                if (!EnergyModel.canMove(ev)) {
+                    ev.addNotification("Battery depleted, vehicle stopped");
+                    break;
+                }
+                // Closures may replace the path from another thread, so step under the EV's lock
+                synchronized (ev) {
+                    if (!ev.isMoving()) break; // Retired while waiting for the lock
+                    PathNode nextPos = ev.getPath().get(ev.getCurrentPathIndex() + 1);
+                    moved = TrafficManager.getInstance().canMoveToPosition(ev, nextPos.getX(), nextPos.getY());
+                    if (moved) {
+                        ev.updateDirection(nextPos.getX(), nextPos.getY());
+                        ev.advance();
+                        EnergyModel.applyMove(ev);
+                        int node = GameMap.getInstance().getGraph().nodeId(nextPos.getX(), nextPos.getY());
+                        TrajectoryRecorder trajectories = TrajectoryRecorder.getInstance();
+                        if (trajectories != null) {
+                            trajectories.record(SimulationClock.now() / EV.MOVE_INTERVAL, ev.getId(), node);
+                        }
+                        CongestionHeatmap heatmap = CongestionHeatmap.getInstance();
+                        if (heatmap != null) heatmap.pass(node);
+                        if(ev.getType()==3)
+                            ev.changeEnd();
+                    }
+                }
+                if (moved) {
+                    // Queue for a port at the charging stops planned by the EnergyRouter
+                    queueAtChargingStop(ev);
                     try {
                         Thread.sleep(500);
                     } catch (InterruptedException e) {
@@ -111,52 +305,52 @@ public class EVController {
                 }
             }
             ev.setMoving(false);
-        }).start();
+            evMap.detachAgent(ev, Thread.currentThread());
+        });
+        // Retiring the EV interrupts the thread
+        evMap.attachAgent(ev, agent);
+        agent.start();
     }
 
+    /**
+     * Spawns NPCs on random road cells with random destinations.
+     *
+     * @param count Number of NPCs to spawn.
+     * @return ResponseEntity containing the spawned NPCs.
+     */
     @PostMapping("/npc/spawn")
-    public ResponseEntity<List<EV>> spawnNPCs() {
-        List<EV> spawnedNPCs = new ArrayList<>();
-        GameMap gameMap = GameMap.getInstance();
-        Random random = new Random();
-
-        // Define available vehicle types
-        String[] vehicleTypes = { "ambulance", "coupe", "ev", "hatchback", "luxury",
-                "pickup", "sedan", "sport", "super", "suv", "van" };
-
-        for (int i = 0; i < 10; i++) {
-            int startX, startY, endX, endY;
-            Node startNode, endNode;
-
-            do {
-                startX = 1 + random.nextInt(35);
-                startY = 1 + random.nextInt(35);
-                startNode = gameMap.getRoadNode(startX, startY);
-            } while (startNode == null);
-
-            do {
-                endX = 1 + random.nextInt(35);
-                endY = 1 + random.nextInt(35);
-                endNode = gameMap.getRoadNode(endX, endY);
-            } while (endNode == null);
-
-            // Select random vehicle type
-            String randomVehicleType = vehicleTypes[random.nextInt(vehicleTypes.length)];
-
-            NPCVehicle npc = new NPCVehicle(startX, startY, randomVehicleType);
-            npc.setEndLocation(endX, endY);
+    public ResponseEntity<List<EV>> spawnNPCs(@RequestParam(defaultValue = "10") int count) {
+        if (count < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(PopulationManager.getInstance().spawn(count));
+    }
 
-            long[] pathArray = pathfinder.findPath(startX, startY, endX, endY);
-            List<PathNode> path = convertToPathNodes(pathArray);
-            npc.setPath(path);
-            npc.setMoving(true);
+    /**
+     * Retrieves the target density and the current size of the NPC population.
+     *
+     * @return ResponseEntity containing the population status.
+     */
+    @GetMapping("/npc/population")
+    public ResponseEntity<PopulationStatus> getPopulation() {
+        return ResponseEntity.ok(PopulationManager.getInstance().getStatus());
+    }
 
-            evMap.put(npc.getName(), npc);
-            simulateEVMovement(npc.getName());
-            spawnedNPCs.add(npc);
+    /**
+     * Sets the target NPC density. The population manager spawns and retires NPCs
+     * per region until each region reaches it.
+     *
+     * @param density Target NPCs per road cell, 0 to stop managing the population.
+     * @return ResponseEntity containing the population status.
+     */
+    @PostMapping("/npc/population")
+    public ResponseEntity<PopulationStatus> setPopulation(@RequestParam double density) {
+        if (density < 0) {
+            return ResponseEntity.badRequest().build();
         }
-
-        return ResponseEntity.ok(spawnedNPCs);
+        PopulationManager population = PopulationManager.getInstance();
+        population.setDensity(density);
+        return ResponseEntity.ok(population.getStatus());
     }
 
     /**
@@ -173,6 +367,10 @@ public class EVController {
             @PathVariable int x,
             @PathVariable int y) {
         EV ev = evMap.get(evName);
+        ShardCoordinator coordinator = ShardCoordinator.getInstance();
+        if (ev != null && coordinator != null) {
+            return canMoveOnShard(coordinator, ev.getId(), x, y);
+        }
         if (ev != null) {
             if (ev.getCurrentPathIndex() + 1 < ev.getPath().size()) {
                 PathNode nextNode = ev.getPath().get(ev.getCurrentPathIndex() + 1);
@@ -187,14 +385,128 @@ public class EVController {
     }
 
     /**
-     * Retrieves a list of all EVs.
+     * Checks a move of a sharded vehicle: the vehicle comes from its shard and the
+     * shard owning the target cell checks signals and occupancy.
+     */
+    private ResponseEntity<Boolean> canMoveOnShard(ShardCoordinator coordinator, int id, int x, int y) {
+        try {
+            EV ev = coordinator.getVehicle(id);
+            if (ev == null) {
+                return ResponseEntity.notFound().build();
+            }
+            if (ev.getCurrentPathIndex() + 1 >= ev.getPath().size()) {
+                return ResponseEntity.ok(false);
+            }
+            PathNode nextNode = ev.getPath().get(ev.getCurrentPathIndex() + 1);
+            if (nextNode.getX() != x || nextNode.getY() != y) {
+                return ResponseEntity.ok(false);
+            }
+            RoadGraph graph = GameMap.getInstance().getGraph();
+            int from = graph.nodeId(ev.getCurrentX(), ev.getCurrentY());
+            return ResponseEntity.ok(coordinator.canEnter(from, graph.nodeId(x, y)));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    /**
+     * Retrieves a list of all EVs, or of the EVs inside a viewport.
      *
-     * @return ResponseEntity containing a list of all EVs.
+     * @param bbox Optional viewport as "minX,minY,maxX,maxY", bounds included.
+     * @return ResponseEntity containing a list of EVs.
      */
     @GetMapping("/all")
-    public ResponseEntity<List<EV>> getAllEVs() {
+    public ResponseEntity<List<EV>> getAllEVs(@RequestParam(required = false) String bbox) {
         // System.out.println("Fetching all EVs");
-        return ResponseEntity.ok(new ArrayList<>(EVController.evMap.values()));
+        if (ShardCoordinator.getInstance() != null) {
+            return getShardedEVs(bbox);
+        }
+        if (bbox == null) {
+            return ResponseEntity.ok(evMap.snapshot());
+        }
+        // Dashboards pass their viewport and only get the EVs they can see
+        int[] box = parseBoundingBox(bbox);
+        if (box == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(SpatialIndex.getInstance().within(box[0], box[1], box[2], box[3]));
+    }
+
+    /**
+     * Collects the EVs of every shard, optionally only those inside a bounding box.
+     */
+    private ResponseEntity<List<EV>> getShardedEVs(String bbox) {
+        int[] box = bbox == null ? null : parseBoundingBox(bbox);
+        if (bbox != null && box == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            List<EV> vehicles = ShardCoordinator.getInstance().getVehicles();
+            if (box != null) {
+                vehicles.removeIf(ev -> ev.getCurrentX() < box[0] || ev.getCurrentY() < box[1]
+                        || ev.getCurrentX() > box[2] || ev.getCurrentY() > box[3]);
+            }
+            return ResponseEntity.ok(vehicles);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    /**
+     * Retrieves the EVs within a radius of a cell, nearest first.
+     *
+     * @param x      The x-coordinate of the centre.
+     * @param y      The y-coordinate of the centre.
+     * @param radius The search radius in cells.
+     * @return ResponseEntity containing the EVs in range.
+     */
+    @GetMapping("/near")
+    public ResponseEntity<List<EV>> getEVsNear(
+            @RequestParam int x,
+            @RequestParam int y,
+            @RequestParam(defaultValue = "5") int radius) {
+        if (radius < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(SpatialIndex.getInstance().near(x, y, radius));
+    }
+
+    /**
+     * Retrieves the EVs inside a bounding box.
+     *
+     * @param bbox The box as "minX,minY,maxX,maxY", bounds included.
+     * @return ResponseEntity containing the EVs in the box.
+     */
+    @GetMapping("/in")
+    public ResponseEntity<List<EV>> getEVsIn(@RequestParam String bbox) {
+        if (ShardCoordinator.getInstance() != null) {
+            return getShardedEVs(bbox);
+        }
+        int[] box = parseBoundingBox(bbox);
+        if (box == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(SpatialIndex.getInstance().within(box[0], box[1], box[2], box[3]));
+    }
+
+    /**
+     * Parses a bounding box of the form "minX,minY,maxX,maxY".
+     *
+     * @return {minX, minY, maxX, maxY}, or null if the box is malformed.
+     */
+    static int[] parseBoundingBox(String bbox) {
+        String[] parts = bbox.split(",");
+        if (parts.length != 4) return null;
+        int[] box = new int[4];
+        try {
+            for (int i = 0; i < 4; i++) {
+                box[i] = Integer.parseInt(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (box[0] > box[2] || box[1] > box[3]) return null;
+        return box;
     }
 
     /**
@@ -206,8 +518,17 @@ public class EVController {
     @PostMapping("/{evName}/start")
     public ResponseEntity<List<PathNode>> startEV(@PathVariable String evName) {
         EV ev = evMap.get(evName);
+        ShardCoordinator coordinator = ShardCoordinator.getInstance();
+        if (ev != null && coordinator != null) {
+            try {
+                ev = coordinator.start(ev.getId());
+            } catch (IOException e) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+            }
+            return ev == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(ev.getPath());
+        }
         if (ev != null) {
-            ev.setMoving(true);
+            SimulationEngine.startVehicle(ev);
             return ResponseEntity.ok(ev.getPath());
         }
         return ResponseEntity.notFound().build();
@@ -221,8 +542,8 @@ public class EVController {
      */
     @DeleteMapping("/{evName}")
     public ResponseEntity<Void> deleteEV(@PathVariable String evName) {
-        if (evMap.containsKey(evName)) {
-            evMap.remove(evName);
+        // Stops the EV's movement thread and releases its cell; a sharded EV leaves its shard
+        if (evMap.retire(evName) != null) {
             return ResponseEntity.ok().build();
         }
         return ResponseEntity.notFound().build();
@@ -238,7 +559,7 @@ public class EVController {
     public ResponseEntity<Void> updateEVPosition(@PathVariable String evName) {
         EV ev = evMap.get(evName);
         if (ev != null && ev.isMoving() && ev.getCurrentPathIndex() < ev.getPath().size() - 1) {
-            ev.currentPathIndex++;
+            ev.advance();
             return ResponseEntity.ok().build();
         }
         return ResponseEntity.notFound().build();
@@ -253,6 +574,15 @@ public class EVController {
     @GetMapping("/{evName}/status")
     public ResponseEntity<EVStatus> getEVStatus(@PathVariable String evName) {
         EV ev = evMap.get(evName);
+        ShardCoordinator coordinator = ShardCoordinator.getInstance();
+        if (ev != null && coordinator != null) {
+            // The registered EV is only a handle, the shard holds the current state
+            try {
+                ev = coordinator.getVehicle(ev.getId());
+            } catch (IOException e) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+            }
+        }
         if (ev != null) {
             return ResponseEntity.ok(new EVStatus(
                     ev.getCharge(),
@@ -263,32 +593,86 @@ public class EVController {
     }
 
     /**
-     * Converts a raw path array to a list of PathNode objects.
+     * Retrieves the recorded moves of an EV between two ticks.
+     *
+     * @param evName The name of the EV.
+     * @param from First tick of the window.
+     * @param to Last tick of the window.
+     * @return ResponseEntity containing the trajectory, or 404 if the EV is unknown or
+     *         trajectories are not recorded.
+     */
+    @GetMapping("/{evName}/trajectory")
+    public ResponseEntity<Trajectory> getTrajectory(@PathVariable String evName,
+            @RequestParam(defaultValue = "0") long from,
+            @RequestParam(defaultValue = "" + Long.MAX_VALUE) long to) {
+        TrajectoryRecorder trajectories = TrajectoryRecorder.getInstance();
+        EV ev = evMap.get(evName);
+        if (trajectories == null || ev == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(trajectories.trajectory(ev.getId(), from, to));
+    }
+
+    /**
+     * Retrieves the recorded moves of every vehicle, or of one vehicle id (which also
+     * works for retired vehicles), between two ticks.
      *
-     * @param path The raw path array.
-     * @return List of PathNode objects.
+     * @param from First tick of the window.
+     * @param to Last tick of the window.
+     * @param vehicle Optional vehicle id.
+     * @return ResponseEntity containing the trajectories in vehicle id order, or 404 if
+     *         trajectories are not recorded.
      */
-    private List<PathNode> convertToPathNodes(long[] path) {
-        List<PathNode> nodes = new ArrayList<>();
-        for (int i = 0; i < path.length; i += 2) {
-            nodes.add(new PathNode((int) path[i], (int) path[i + 1]));
+    @GetMapping("/trajectories")
+    public ResponseEntity<List<Trajectory>> getTrajectories(@RequestParam long from, @RequestParam long to,
+            @RequestParam(required = false) Integer vehicle) {
+        TrajectoryRecorder trajectories = TrajectoryRecorder.getInstance();
+        if (trajectories == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (from > to) {
+            return ResponseEntity.badRequest().build();
         }
-        return nodes;
+        if (vehicle != null) {
+            Trajectory trajectory = trajectories.trajectory(vehicle, from, to);
+            return ResponseEntity.ok(trajectory.ticks.length == 0 ? new ArrayList<>() : List.of(trajectory));
+        }
+        return ResponseEntity.ok(trajectories.trajectories(from, to));
     }
 
     /**
-     * Retrieves the traffic signal states.
+     * Retrieves the traffic signal states, optionally only inside a viewport.
      *
+     * @param bbox Optional viewport as "minX,minY,maxX,maxY", bounds included.
      * @return ResponseEntity containing a list of traffic signal states.
      */
     @GetMapping("/traffic/signals")
-    public ResponseEntity<List<TrafficSignalState>> getTrafficSignals() {
+    public ResponseEntity<List<TrafficSignalState>> getTrafficSignals(@RequestParam(required = false) String bbox) {
+        List<TrafficNode> signals = TrafficManager.trafficLights;
+        if (bbox != null) {
+            int[] box = parseBoundingBox(bbox);
+            if (box == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            signals = TrafficManager.signalsWithin(box[0], box[1], box[2], box[3]);
+        }
         return ResponseEntity.ok(
-                TrafficManager.trafficLights.stream()
+                signals.stream()
                         .map(node -> new TrafficSignalState(node.x, node.y, node.isGreen()))
                         .collect(Collectors.toList()));
     }
 
+    /**
+     * Retrieves the load and metrics of every charging station: ports in use, queue
+     * length, port utilisation and queue waits.
+     *
+     * @return ResponseEntity containing one status entry per station.
+     */
+    @GetMapping("/charging/stations")
+    public ResponseEntity<List<ChargingStationStatus>> getChargingStations() {
+        return ResponseEntity.ok(ChargingScheduler.getInstance().getStatus());
+    }
+
     /**
      * Changes the state of traffic signals.
      *
@@ -296,7 +680,11 @@ public class EVController {
      */
     @PostMapping("/traffic/change")
     public ResponseEntity<Void> changeTrafficSignals() {
-        TrafficManager.changeSignals();
+        if (SimulationEngine.isDeterministic()) {
+            SimulationEngine.getInstance().forceSignalChange();
+        } else {
+            TrafficManager.changeSignals();
+        }
         return ResponseEntity.ok().build();
     }
 }
@@ -311,12 +699,17 @@ class EVCreateRequest {
     private int charge;
     private int chargingRate;
     private String vehicleType;
+    private boolean timeDependent; // Route by predicted arrival time instead of move count
 
     // Getters
     public String getName() {
         return name;
     }
 
+    public boolean isTimeDependent() {
+        return timeDependent;
+    }
+
     public String getVehicleType() {
         return vehicleType;
     }
@@ -361,7 +754,18 @@ class EVStatus {
         this.currentY = currentY;
     }
 
-    // Getters and setters
+    // Getters
+    public int getCharge() {
+        return charge;
+    }
+
+    public int getCurrentX() {
+        return currentX;
+    }
+
+    public int getCurrentY() {
+        return currentY;
+    }
 }
 
 class TrafficSignalState {
@@ -0,0 +1,69 @@
+package radiant.seven;
+
+/**
+ * The EnergyModel describes how EVs use and regain charge.
+ * Every move drains a fixed amount of charge, and charging adds the EV's
+ * charging rate once per charging interval, up to a full battery.
+ * NPC vehicles (type 3) are not simulated as electric and never drain.
+ */
+public class EnergyModel {
+    public static final int CHARGE_PER_MOVE = 1; // Charge (percentage points) used per move
+    public static final int FULL_CHARGE = 100; // Charge of a full battery
+    public static final long CHARGING_INTERVAL = 1000; // Time per charging step in milliseconds
+
+    /**
+     * Checks whether a vehicle is subject to the energy model.
+     *
+     * @param ev The vehicle.
+     * @return True for EVs, false for NPC vehicles.
+     */
+    public static boolean isElectric(EV ev) {
+        return ev.getType() != 3;
+    }
+
+    /**
+     * Returns the charge needed to make the given number of moves.
+     *
+     * @param moves The number of moves.
+     * @return The charge used.
+     */
+    public static int energyFor(int moves) {
+        return moves * CHARGE_PER_MOVE;
+    }
+
+    /**
+     * Drains the charge used by one move.
+     *
+     * @param ev The vehicle that moved.
+     */
+    public static void applyMove(EV ev) {
+        if (isElectric(ev)) {
+            ev.consumeCharge(CHARGE_PER_MOVE);
+        }
+    }
+
+    /**
+     * Checks whether a vehicle has enough charge to make one more move.
+     *
+     * @param ev The vehicle.
+     * @return True if the vehicle can move.
+     */
+    public static boolean canMove(EV ev) {
+        return !isElectric(ev) || ev.getCharge() >= CHARGE_PER_MOVE;
+    }
+
+    /**
+     * Returns the time needed to charge from one level to another.
+     *
+     * @param from The charge before charging.
+     * @param to The charge after charging.
+     * @param chargingRate The charge added per charging interval.
+     * @return The charging time in milliseconds, or -1 if the vehicle cannot charge.
+     */
+    public static long chargingTime(int from, int to, int chargingRate) {
+        if (to <= from) return 0;
+        if (chargingRate <= 0) return -1;
+        int steps = (to - from + chargingRate - 1) / chargingRate;
+        return steps * CHARGING_INTERVAL;
+    }
+}
@@ -0,0 +1,270 @@
+package radiant.seven;
+
+import java.util.*;
+
+/**
+ * The EnergyRouter finds the fastest route for an EV whose charge may not last
+ * the whole trip, inserting stops at charging stations where needed.
+ *
+ * It is a resource-constrained label-setting search: a label is (node, charge, time),
+ * and a label is dropped when another label at the same node arrived no later with
+ * at least as much charge. Labels that cannot reach either the destination or a
+ * charging station on their remaining charge are pruned, and the queue is ordered
+ * by time plus the remaining number of moves, so the first label to reach the
+ * destination is the fastest feasible route. Trips that fit in the current charge
+ * skip the label search entirely.
+ */
+public class EnergyRouter {
+    private static EnergyRouter instance; // Singleton instance
+
+    private final GameMap map;
+    private final long moveInterval; // Time a vehicle needs per move
+    private long stationDistanceVersion = -1; // Graph version of stationDistance
+    private int[] stationDistance; // Moves from each node to the nearest station
+
+    public EnergyRouter(GameMap map, long moveInterval) {
+        this.map = map;
+        this.moveInterval = moveInterval;
+    }
+
+    /**
+     * @return The singleton router, using the EV move interval.
+     */
+    public static synchronized EnergyRouter getInstance() {
+        if (instance == null) {
+            instance = new EnergyRouter(GameMap.getInstance(), EV.MOVE_INTERVAL);
+        }
+        return instance;
+    }
+
+    /**
+     * Finds the fastest feasible route, including charging stops.
+     *
+     * @param startX Starting x-coordinate.
+     * @param startY Starting y-coordinate.
+     * @param endX Destination x-coordinate.
+     * @param endY Destination y-coordinate.
+     * @param charge The current charge of the EV.
+     * @param chargingRate The charge the EV gains per charging interval.
+     * @return The route; its path is empty if no feasible route exists.
+     */
+    public EnergyRoute findRoute(int startX, int startY, int endX, int endY, int charge, int chargingRate) {
+        RoadGraph graph = map.getGraph();
+        int start = graph.nodeId(startX, startY);
+        int end = graph.nodeId(endX, endY);
+        if (start < 0 || end < 0) {
+            return EnergyRoute.unreachable();
+        }
+
+        // Fast path: the plain shortest route already fits in the battery
+        int[] plain = graph.shortestPath(start, end);
+        if (plain.length == 0) {
+            return EnergyRoute.unreachable();
+        }
+        int moves = plain.length - 1;
+        if (EnergyModel.energyFor(moves) <= charge) {
+            return new EnergyRoute(PackedPath.of(graph, plain), new ArrayList<>(),
+                    moves * moveInterval, charge - EnergyModel.energyFor(moves));
+        }
+        return search(graph, start, end, charge, chargingRate);
+    }
+
+    private EnergyRoute search(RoadGraph graph, int start, int end, int charge, int chargingRate) {
+        if (chargingRate <= 0) {
+            return EnergyRoute.unreachable();
+        }
+        boolean[] station = stationMask(graph);
+        int[] toEnd = reverseDistances(graph, new int[]{end});
+        int[] toStation = stationDistances(graph);
+
+        Labels labels = new Labels();
+        List<List<Integer>> fronts = new ArrayList<>(Collections.nCopies(graph.nodeCount(), null));
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator.comparingLong(
+                l -> labels.time[l] + toEnd[labels.node[l]] * moveInterval));
+
+        offer(labels, fronts, queue, start, charge, 0, -1, false);
+        if (station[start] && charge < EnergyModel.FULL_CHARGE) {
+            long wait = EnergyModel.chargingTime(charge, EnergyModel.FULL_CHARGE, chargingRate);
+            offer(labels, fronts, queue, start, EnergyModel.FULL_CHARGE, wait, -1, true);
+        }
+
+        while (!queue.isEmpty()) {
+            int label = queue.poll();
+            if (labels.dead[label]) continue;
+            int u = labels.node[label];
+            if (u == end) {
+                return buildRoute(graph, labels, label);
+            }
+            for (int e = graph.edgeStart(u); e < graph.edgeEnd(u); e++) {
+                int v = graph.edgeTarget(e);
+                int remaining = labels.charge[label] - EnergyModel.CHARGE_PER_MOVE;
+                // Prune labels that can reach neither the destination nor a station
+                int reach = Math.min(toEnd[v], toStation[v]);
+                if (remaining < 0 || reach == Integer.MAX_VALUE || EnergyModel.energyFor(reach) > remaining) continue;
+
+                long time = labels.time[label] + moveInterval;
+                offer(labels, fronts, queue, v, remaining, time, label, false);
+                if (station[v] && remaining < EnergyModel.FULL_CHARGE) {
+                    long wait = EnergyModel.chargingTime(remaining, EnergyModel.FULL_CHARGE, chargingRate);
+                    offer(labels, fronts, queue, v, EnergyModel.FULL_CHARGE, time + wait, label, true);
+                }
+            }
+        }
+        return EnergyRoute.unreachable();
+    }
+
+    /**
+     * Adds a label unless an existing label at the node dominates it, and retires the
+     * existing labels it dominates.
+     */
+    private static void offer(Labels labels, List<List<Integer>> fronts, PriorityQueue<Integer> queue,
+                              int node, int charge, long time, int parent, boolean charged) {
+        List<Integer> front = fronts.get(node);
+        if (front == null) {
+            front = new ArrayList<>();
+            fronts.set(node, front);
+        }
+        for (int other : front) {
+            if (labels.time[other] <= time && labels.charge[other] >= charge) return;
+        }
+        Iterator<Integer> it = front.iterator();
+        while (it.hasNext()) {
+            int other = it.next();
+            if (labels.time[other] >= time && labels.charge[other] <= charge) {
+                labels.dead[other] = true;
+                it.remove();
+            }
+        }
+        int label = labels.add(node, charge, time, parent, charged);
+        front.add(label);
+        queue.add(label);
+    }
+
+    private EnergyRoute buildRoute(RoadGraph graph, Labels labels, int last) {
+        List<Integer> chain = new ArrayList<>();
+        for (int l = last; l != -1; l = labels.parent[l]) {
+            chain.add(l);
+        }
+        Collections.reverse(chain);
+        List<PathNode> path = new ArrayList<>(chain.size());
+        List<Integer> stops = new ArrayList<>();
+        for (int i = 0; i < chain.size(); i++) {
+            int l = chain.get(i);
+            path.add(new PathNode(graph.x(labels.node[l]), graph.y(labels.node[l])));
+            if (labels.charged[l]) {
+                stops.add(i);
+            }
+        }
+        return new EnergyRoute(path, stops, labels.time[last], labels.charge[last]);
+    }
+
+    private boolean[] stationMask(RoadGraph graph) {
+        boolean[] station = new boolean[graph.nodeCount()];
+        for (ChargingStation s : map.getChargingStations()) {
+            int id = graph.nodeId(s.x, s.y);
+            if (id >= 0) station[id] = true;
+        }
+        return station;
+    }
+
+    /**
+     * Distances to the nearest station only change with the graph, so they are
+     * computed once per graph version and shared by all queries.
+     */
+    private synchronized int[] stationDistances(RoadGraph graph) {
+        if (stationDistanceVersion != graph.getVersion() || stationDistance == null) {
+            boolean[] station = stationMask(graph);
+            int count = 0;
+            for (boolean b : station) if (b) count++;
+            int[] sources = new int[count];
+            for (int i = 0, k = 0; i < station.length; i++) {
+                if (station[i]) sources[k++] = i;
+            }
+            stationDistance = reverseDistances(graph, sources);
+            stationDistanceVersion = graph.getVersion();
+        }
+        return stationDistance;
+    }
+
+    /**
+     * Breadth-first search on the reversed graph: the number of moves from every node
+     * to the nearest of the given targets, or Integer.MAX_VALUE if none is reachable.
+     */
+    static int[] reverseDistances(RoadGraph graph, int[] targets) {
+        int n = graph.nodeCount();
+        RoadGraph reverse = graph.reverse();
+        int[] dist = new int[n];
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        for (int t : targets) {
+            if (dist[t] == Integer.MAX_VALUE) {
+                dist[t] = 0;
+                queue[tail++] = t;
+            }
+        }
+        while (head < tail) {
+            int v = queue[head++];
+            for (int e = reverse.edgeStart(v); e < reverse.edgeEnd(v); e++) {
+                int u = reverse.edgeTarget(e);
+                if (dist[u] == Integer.MAX_VALUE) {
+                    dist[u] = dist[v] + 1;
+                    queue[tail++] = u;
+                }
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Growable parallel arrays holding the labels of one search.
+     */
+    private static class Labels {
+        int[] node = new int[64];
+        int[] charge = new int[64];
+        long[] time = new long[64];
+        int[] parent = new int[64];
+        boolean[] charged = new boolean[64];
+        boolean[] dead = new boolean[64];
+        int size = 0;
+
+        int add(int n, int c, long t, int p, boolean ch) {
+            if (size == node.length) {
+                int capacity = size * 2;
+                node = Arrays.copyOf(node, capacity);
+                charge = Arrays.copyOf(charge, capacity);
+                time = Arrays.copyOf(time, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                charged = Arrays.copyOf(charged, capacity);
+                dead = Arrays.copyOf(dead, capacity);
+            }
+            node[size] = n;
+            charge[size] = c;
+            time[size] = t;
+            parent[size] = p;
+            charged[size] = ch;
+            return size++;
+        }
+    }
+}
+
+/**
+ * A route found by the EnergyRouter.
+ */
+class EnergyRoute {
+    public List<PathNode> path; // Cells along the route, empty if no feasible route exists
+    public List<Integer> chargingStops; // Indices into path where the EV charges to full
+    public long travelTime; // Predicted driving plus charging time in milliseconds
+    public int finalCharge; // Predicted charge on arrival
+
+    public EnergyRoute(List<PathNode> path, List<Integer> chargingStops, long travelTime, int finalCharge) {
+        this.path = path;
+        this.chargingStops = chargingStops;
+        this.travelTime = travelTime;
+        this.finalCharge = finalCharge;
+    }
+
+    static EnergyRoute unreachable() {
+        return new EnergyRoute(new ArrayList<>(), new ArrayList<>(), -1, -1);
+    }
+}
@@ -0,0 +1,166 @@
+package radiant.seven;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Append-only binary log of every state change made by the SimulationEngine.
+ *
+ * The file starts with a header (magic, format version, seed, node count and the
+ * initial signal states). Each event then is a type byte, the number of ticks since
+ * the previous event, and a payload, all integers written as unsigned varints.
+ * Events that come from outside the simulation (spawns, retirements, closures,
+ * forced signal changes) carry everything needed to re-apply them, so a recorded
+ * run can be replayed or re-simulated offline without the REST layer.
+ */
+public class EventLog implements Closeable {
+    public static final int MAGIC = 0x53494D4C; // "SIML"
+    public static final int FORMAT_VERSION = 1;
+
+    // Event types
+    public static final int SPAWN = 1; // id, type, charge, chargingRate, vehicleType, name, path, charging stops
+    public static final int RETIRE = 2; // id
+    public static final int MOVE = 3; // id, node
+    public static final int ROUTE = 4; // id, path (new path starting at the current node)
+    public static final int STOP = 5; // id (vehicle stopped moving)
+    public static final int SIGNAL = 6; // scheduled change of every signal
+    public static final int SIGNAL_FORCED = 7; // change of every signal requested through the API
+    public static final int CHARGE = 8; // id, charge
+    public static final int CLOSE_CELL = 9; // node
+    public static final int OPEN_CELL = 10; // node
+    public static final int CLOSE_EDGE = 11; // from node, to node
+    public static final int OPEN_EDGE = 12; // from node, to node
+    public static final int START = 13; // id (vehicle started through the API or by the TaskAssigner)
+    public static final int RANDOM = 14; // id, state (NPC spawned with the random stream it already had)
+
+    private final DataOutputStream out;
+    private long lastTick = 0; // Tick of the previous event
+    private long events = 0; // Number of events written
+
+    /**
+     * Creates a log on a stream and writes the header.
+     *
+     * @param stream The stream to write to.
+     * @param seed The seed of the simulation.
+     * @param nodeCount The number of nodes in the road graph.
+     * @param signalNodes Node ids of the traffic signals, in ascending order.
+     * @param signalStates Initial state of each traffic signal.
+     * @throws IOException If the header cannot be written.
+     */
+    public EventLog(OutputStream stream, long seed, int nodeCount, int[] signalNodes, int[] signalStates)
+            throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(seed);
+        writeVarInt(nodeCount);
+        writeVarInt(signalNodes.length);
+        for (int i = 0; i < signalNodes.length; i++) {
+            writeVarInt(signalNodes[i]);
+            out.writeByte(signalStates[i]);
+        }
+    }
+
+    /**
+     * Creates a new log file, replacing any existing file at the path.
+     */
+    public static EventLog create(String path, long seed, int nodeCount, int[] signalNodes, int[] signalStates)
+            throws IOException {
+        return new EventLog(new FileOutputStream(path), seed, nodeCount, signalNodes, signalStates);
+    }
+
+    // @return number of events written
+    public long getEventCount() {
+        return events;
+    }
+
+    private void begin(int type, long tick) throws IOException {
+        out.writeByte(type);
+        writeVarLong(tick - lastTick);
+        lastTick = tick;
+        events++;
+    }
+
+    public synchronized void spawn(long tick, EV ev, int[] path, List<Integer> chargingStops) throws IOException {
+        begin(SPAWN, tick);
+        writeVarInt(ev.getId());
+        writeVarInt(ev.getType());
+        writeVarInt(ev.getCharge());
+        writeVarInt(ev.getChargingRate());
+        out.writeUTF(ev.getVehicleType() == null ? "" : ev.getVehicleType());
+        out.writeUTF(ev.getName() == null ? "" : ev.getName());
+        writePath(path);
+        writeVarInt(chargingStops.size());
+        for (int stop : chargingStops) {
+            writeVarInt(stop);
+        }
+    }
+
+    public synchronized void vehicleEvent(int type, long tick, int id) throws IOException {
+        begin(type, tick);
+        writeVarInt(id);
+    }
+
+    public synchronized void random(long tick, int id, long state) throws IOException {
+        begin(RANDOM, tick);
+        writeVarInt(id);
+        writeVarLong(state);
+    }
+
+    public synchronized void move(long tick, int id, int node) throws IOException {
+        begin(MOVE, tick);
+        writeVarInt(id);
+        writeVarInt(node);
+    }
+
+    public synchronized void route(long tick, int id, int[] path) throws IOException {
+        begin(ROUTE, tick);
+        writeVarInt(id);
+        writePath(path);
+    }
+
+    public synchronized void charge(long tick, int id, int charge) throws IOException {
+        begin(CHARGE, tick);
+        writeVarInt(id);
+        writeVarInt(charge);
+    }
+
+    public synchronized void signal(int type, long tick) throws IOException {
+        begin(type, tick);
+    }
+
+    public synchronized void closure(int type, long tick, int from, int to) throws IOException {
+        begin(type, tick);
+        writeVarInt(from);
+        if (type == CLOSE_EDGE || type == OPEN_EDGE) {
+            writeVarInt(to);
+        }
+    }
+
+    private void writePath(int[] path) throws IOException {
+        writeVarInt(path.length);
+        for (int node : path) {
+            writeVarInt(node);
+        }
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        BinaryCodec.writeVarInt(out, value);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        BinaryCodec.writeVarLong(out, value);
+    }
+
+    /**
+     * Flushes buffered events to the underlying stream.
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,181 @@
+package radiant.seven;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for files written by EventLog.
+ * A single mutable Event is refilled by next(), so a log can be scanned at
+ * full speed without allocating per event.
+ */
+public class EventLogReader implements Closeable {
+    private final DataInputStream in;
+    private final long seed; // Seed of the recorded simulation
+    private final int nodeCount; // Node count of the recorded road graph
+    private final int[] signalNodes; // Node ids of the traffic signals
+    private final int[] signalStates; // Initial signal states
+    private long tick = 0; // Tick of the last event read
+
+    /**
+     * Opens a log and reads its header.
+     *
+     * @param stream The stream to read from.
+     * @throws IOException If the stream is not an event log.
+     */
+    public EventLogReader(InputStream stream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        if (in.readInt() != EventLog.MAGIC) {
+            throw new IOException("Not a simulation event log");
+        }
+        int version = in.readUnsignedByte();
+        if (version != EventLog.FORMAT_VERSION) {
+            throw new IOException("Unsupported event log version " + version);
+        }
+        seed = in.readLong();
+        nodeCount = readVarInt();
+        int signals = readVarInt();
+        signalNodes = new int[signals];
+        signalStates = new int[signals];
+        for (int i = 0; i < signals; i++) {
+            signalNodes[i] = readVarInt();
+            signalStates[i] = in.readUnsignedByte();
+        }
+    }
+
+    public static EventLogReader open(String path) throws IOException {
+        return new EventLogReader(new FileInputStream(path));
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int[] getSignalNodes() {
+        return signalNodes;
+    }
+
+    public int[] getSignalStates() {
+        return signalStates;
+    }
+
+    /**
+     * Reads the next event.
+     *
+     * @param event The event to fill.
+     * @return False at the end of the log.
+     * @throws IOException If the log is truncated or corrupt.
+     */
+    public boolean next(Event event) throws IOException {
+        int type = in.read();
+        if (type < 0) return false;
+        tick += readVarLong();
+        event.type = type;
+        event.tick = tick;
+        switch (type) {
+            case EventLog.SPAWN:
+                event.vehicle = readVarInt();
+                event.vehicleClass = readVarInt();
+                event.charge = readVarInt();
+                event.chargingRate = readVarInt();
+                event.vehicleType = in.readUTF();
+                event.name = in.readUTF();
+                readPath(event);
+                event.stopCount = readVarInt();
+                if (event.stops.length < event.stopCount) {
+                    event.stops = new int[event.stopCount];
+                }
+                for (int i = 0; i < event.stopCount; i++) {
+                    event.stops[i] = readVarInt();
+                }
+                break;
+            case EventLog.RETIRE:
+            case EventLog.STOP:
+            case EventLog.START:
+                event.vehicle = readVarInt();
+                break;
+            case EventLog.MOVE:
+                event.vehicle = readVarInt();
+                event.node = readVarInt();
+                break;
+            case EventLog.ROUTE:
+                event.vehicle = readVarInt();
+                readPath(event);
+                break;
+            case EventLog.CHARGE:
+                event.vehicle = readVarInt();
+                event.charge = readVarInt();
+                break;
+            case EventLog.RANDOM:
+                event.vehicle = readVarInt();
+                event.randomState = readVarLong();
+                break;
+            case EventLog.SIGNAL:
+            case EventLog.SIGNAL_FORCED:
+                break;
+            case EventLog.CLOSE_CELL:
+            case EventLog.OPEN_CELL:
+                event.node = readVarInt();
+                break;
+            case EventLog.CLOSE_EDGE:
+            case EventLog.OPEN_EDGE:
+                event.node = readVarInt();
+                event.target = readVarInt();
+                break;
+            default:
+                throw new IOException("Unknown event type " + type + " at tick " + tick);
+        }
+        return true;
+    }
+
+    private void readPath(Event event) throws IOException {
+        event.pathLength = readVarInt();
+        if (event.path.length < event.pathLength) {
+            event.path = new int[Math.max(event.pathLength, event.path.length * 2)];
+        }
+        for (int i = 0; i < event.pathLength; i++) {
+            event.path[i] = readVarInt();
+        }
+    }
+
+    private int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+    private long readVarLong() throws IOException {
+        return BinaryCodec.readVarLong(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * A decoded event. Only the fields used by the event's type are meaningful.
+     */
+    public static class Event {
+        public int type;
+        public long tick;
+        public int vehicle; // Vehicle id
+        public int node; // Node id (move target, closed cell, or edge source)
+        public int target; // Edge target node id
+        public int vehicleClass; // EV type (3 for NPC)
+        public int charge;
+        public int chargingRate;
+        public long randomState; // State of an NPC's random stream
+        public String vehicleType;
+        public String name;
+        public int[] path = new int[64]; // Path node ids, first pathLength entries are valid
+        public int pathLength;
+        public int[] stops = new int[4]; // Charging stop indices, first stopCount entries are valid
+        public int stopCount;
+
+        public int[] pathCopy() {
+            return Arrays.copyOf(path, pathLength);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package radiant.seven;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Offline tool for event logs written in deterministic mode.
+ *
+ * Replays a log at full speed, rebuilding vehicle positions and signal changes, and
+ * reports vehicles that made no progress for a number of ticks while they still had
+ * somewhere to go, which is how gridlock shows up. With --verify the run is simulated
+ * again from the inputs recorded in the log (spawns, retirements, starts, closures and
+ * forced signal changes) and the new log is compared byte for byte with the original;
+ * --regions N re-simulates with N regions ticked in parallel. NPC destinations depend
+ * on the demand model, so a run recorded with a demand file is verified with --demand.
+ *
+ * Usage: EventLogReplayer &lt;log&gt; [--until TICK] [--stall TICKS] [--verify] [--regions N] [--demand FILE]
+ */
+public class EventLogReplayer {
+    private static final long DEFAULT_STALL_TICKS = 40; // Two signal cycles at the default tick length
+
+    private final GameMap map;
+    private final Map<Integer, VehicleReplay> vehicles = new TreeMap<>(); // Vehicles in id order
+    private long lastTick = 0; // Tick of the last replayed event
+    private long events = 0; // Number of replayed events
+    private long moves = 0; // Number of replayed moves
+    private long signalChanges = 0; // Number of replayed signal changes
+
+    public EventLogReplayer(GameMap map) {
+        this.map = map;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: EventLogReplayer <log> [--until TICK] [--stall TICKS] [--verify] [--regions N] [--demand FILE]");
+            System.exit(1);
+        }
+        String path = args[0];
+        long until = Long.MAX_VALUE;
+        long stall = DEFAULT_STALL_TICKS;
+        boolean verify = false;
+        int regions = 1;
+        String demandFile = null; // NPC destinations of the recorded run, needed by --verify
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--until": until = Long.parseLong(args[++i]); break;
+                case "--stall": stall = Long.parseLong(args[++i]); break;
+                case "--verify": verify = true; break;
+                case "--regions": regions = Integer.parseInt(args[++i]); break;
+                case "--demand": demandFile = args[++i]; break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        // Keep the wall-clock signal cycle from touching the signals while the map loads
+        SimulationClock.useSimulatedTime(() -> 0L);
+        GameMap map = GameMap.getInstance();
+        if (demandFile != null) {
+            DemandModel.install(DemandModel.load(map, Paths.get(demandFile)));
+        }
+
+        EventLogReplayer replayer = new EventLogReplayer(map);
+        long started = System.nanoTime();
+        try (EventLogReader reader = EventLogReader.open(path)) {
+            if (reader.getNodeCount() != map.getGraph().nodeCount()) {
+                System.out.println("Log was recorded on a different map (" + reader.getNodeCount() + " nodes)");
+                System.exit(1);
+            }
+            replayer.replay(reader, until);
+        }
+        long elapsed = System.nanoTime() - started;
+        replayer.report(stall, elapsed);
+
+        int status = 0;
+        if (verify) {
+            byte[] original = Files.readAllBytes(Paths.get(path));
+            byte[] simulated = resimulate(map, original, regions);
+            int mismatch = firstMismatch(original, simulated);
+            if (mismatch < 0) {
+                System.out.println("Verify: re-simulation reproduced the log exactly (" + original.length + " bytes)");
+            } else {
+                System.out.println("Verify: logs differ at byte " + mismatch + " (original " + original.length
+                        + " bytes, re-simulated " + simulated.length + " bytes)");
+                status = 2;
+            }
+        }
+        System.exit(status);
+    }
+
+    /**
+     * Replays the events of a log up to and including the given tick.
+     */
+    public void replay(EventLogReader reader, long until) throws IOException {
+        EventLogReader.Event event = new EventLogReader.Event();
+        while (reader.next(event)) {
+            if (event.tick > until) break;
+            apply(event);
+        }
+    }
+
+    private void apply(EventLogReader.Event event) {
+        events++;
+        lastTick = event.tick;
+        VehicleReplay vehicle;
+        switch (event.type) {
+            case EventLog.SPAWN:
+                vehicle = new VehicleReplay(event.name, event.pathCopy(), event.charge, event.tick);
+                vehicles.put(event.vehicle, vehicle);
+                break;
+            case EventLog.RETIRE:
+                vehicles.remove(event.vehicle);
+                break;
+            case EventLog.MOVE:
+                vehicle = vehicles.get(event.vehicle);
+                if (vehicle != null) {
+                    vehicle.node = event.node;
+                    vehicle.pathIndex++;
+                    vehicle.lastProgress = event.tick;
+                }
+                moves++;
+                break;
+            case EventLog.ROUTE:
+                vehicle = vehicles.get(event.vehicle);
+                if (vehicle != null) {
+                    vehicle.path = event.pathCopy();
+                    vehicle.pathIndex = 0;
+                    vehicle.active = true;
+                    vehicle.lastProgress = event.tick;
+                }
+                break;
+            case EventLog.STOP:
+                vehicle = vehicles.get(event.vehicle);
+                if (vehicle != null) vehicle.active = false;
+                break;
+            case EventLog.START:
+                vehicle = vehicles.get(event.vehicle);
+                if (vehicle != null) {
+                    vehicle.active = true;
+                    vehicle.lastProgress = event.tick;
+                }
+                break;
+            case EventLog.CHARGE:
+                vehicle = vehicles.get(event.vehicle);
+                if (vehicle != null) {
+                    // Charging is progress too, a queued vehicle is not stuck in traffic
+                    if (event.charge > vehicle.charge) vehicle.lastProgress = event.tick;
+                    vehicle.charge = event.charge;
+                }
+                break;
+            case EventLog.SIGNAL:
+            case EventLog.SIGNAL_FORCED:
+                signalChanges++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Prints replay statistics and the vehicles that have not moved for at least the given
+     * number of ticks although they are not at the end of their path.
+     */
+    public void report(long stallTicks, long elapsedNanos) {
+        RoadGraph graph = map.getGraph();
+        System.out.println("Replayed " + events + " events up to tick " + lastTick + " in "
+                + elapsedNanos / 1_000_000 + " ms (" + moves + " moves, " + signalChanges + " signal changes)");
+
+        List<String> stuck = new ArrayList<>();
+        Map<Integer, Integer> stuckPerNode = new HashMap<>();
+        for (Map.Entry<Integer, VehicleReplay> entry : vehicles.entrySet()) {
+            VehicleReplay vehicle = entry.getValue();
+            if (!vehicle.active || vehicle.pathIndex >= vehicle.path.length - 1) continue;
+            long idle = lastTick - vehicle.lastProgress;
+            if (idle < stallTicks) continue;
+            int next = vehicle.path[vehicle.pathIndex + 1];
+            stuckPerNode.merge(next, 1, Integer::sum);
+            stuck.add(String.format("  #%d %s at (%d,%d), waiting for (%d,%d) for %d ticks",
+                    entry.getKey(), vehicle.name, graph.x(vehicle.node), graph.y(vehicle.node),
+                    graph.x(next), graph.y(next), idle));
+        }
+        System.out.println(vehicles.size() + " vehicles present, " + stuck.size()
+                + " without progress for " + stallTicks + " ticks or more");
+        stuck.forEach(System.out::println);
+
+        // A cell several stuck vehicles wait for is the likely head of a jam
+        stuckPerNode.entrySet().stream()
+                .filter(e -> e.getValue() > 1)
+                .sorted((a, b) -> b.getValue() - a.getValue())
+                .forEach(e -> System.out.println("  jam at (" + graph.x(e.getKey()) + "," + graph.y(e.getKey())
+                        + "): " + e.getValue() + " vehicles waiting"));
+    }
+
+    /**
+     * Runs the simulation again from the inputs recorded in a log and returns the new log.
+     */
+    static byte[] resimulate(GameMap map, byte[] original, int regions) throws IOException {
+        EventLogReader reader = new EventLogReader(new ByteArrayInputStream(original));
+        RoadGraph graph = map.getGraph();
+
+        // Restore the initial signal states of the recorded run
+        int[] signalNodes = reader.getSignalNodes();
+        int[] signalStates = reader.getSignalStates();
+        for (int i = 0; i < signalNodes.length; i++) {
+            ((TrafficNode) map.getNode(signalNodes[i])).setSignal(signalStates[i]);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(original.length);
+        EventLog log = new EventLog(out, reader.getSeed(), graph.nodeCount(), signalNodes, signalStates);
+        SimulationEngine engine = new SimulationEngine(map, reader.getSeed(), log);
+        engine.setRegions(regions);
+        SimulationEngine.install(engine);
+
+        EventLogReader.Event event = new EventLogReader.Event();
+        long lastTick = 0;
+        while (reader.next(event)) {
+            lastTick = event.tick;
+            if (!isInput(event.type)) continue;
+            // Inputs are applied between ticks, before the tick they are logged at runs
+            while (engine.getTick() < event.tick) {
+                engine.step();
+            }
+            applyInput(engine, map.getGraph(), event);
+        }
+        while (engine.getTick() <= lastTick) {
+            engine.step();
+        }
+        log.flush();
+        return Arrays.copyOf(out.toByteArray(), out.size());
+    }
+
+    private static boolean isInput(int type) {
+        switch (type) {
+            case EventLog.SPAWN:
+            case EventLog.RETIRE:
+            case EventLog.START:
+            case EventLog.RANDOM:
+            case EventLog.SIGNAL_FORCED:
+            case EventLog.CLOSE_CELL:
+            case EventLog.OPEN_CELL:
+            case EventLog.CLOSE_EDGE:
+            case EventLog.OPEN_EDGE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void applyInput(SimulationEngine engine, RoadGraph graph, EventLogReader.Event event) {
+        IncidentManager incidents = IncidentManager.getInstance();
+        switch (event.type) {
+            case EventLog.SPAWN:
+                engine.spawn(rebuildVehicle(graph, event));
+                break;
+            case EventLog.RETIRE:
+                EV ev = engine.getVehicle(event.vehicle);
+                if (ev != null) engine.retire(ev);
+                break;
+            case EventLog.START:
+                ev = engine.getVehicle(event.vehicle);
+                if (ev != null) engine.start(ev);
+                break;
+            case EventLog.RANDOM:
+                ev = engine.getVehicle(event.vehicle);
+                if (ev instanceof NPCVehicle) engine.restoreRandom((NPCVehicle) ev, event.randomState);
+                break;
+            case EventLog.SIGNAL_FORCED:
+                engine.forceSignalChange();
+                break;
+            case EventLog.CLOSE_CELL:
+                incidents.close(graph.x(event.node), graph.y(event.node), null, null);
+                break;
+            case EventLog.OPEN_CELL:
+                incidents.reopen(graph.x(event.node), graph.y(event.node), null, null);
+                break;
+            case EventLog.CLOSE_EDGE:
+                incidents.close(graph.x(event.node), graph.y(event.node), graph.x(event.target), graph.y(event.target));
+                break;
+            case EventLog.OPEN_EDGE:
+                incidents.reopen(graph.x(event.node), graph.y(event.node), graph.x(event.target), graph.y(event.target));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Builds a vehicle from a SPAWN event, using the recorded path rather than routing again.
+     */
+    private static EV rebuildVehicle(RoadGraph graph, EventLogReader.Event event) {
+        int start = event.path[0];
+        int end = event.path[event.pathLength - 1];
+        EV ev;
+        if (event.vehicleClass == 3) {
+            ev = new NPCVehicle(graph.x(start), graph.y(start), event.vehicleType);
+        } else {
+            ev = new EV(graph.x(start), graph.y(start), event.vehicleClass, event.charge,
+                    event.chargingRate, event.vehicleType);
+        }
+        ev.setId(event.vehicle);
+        ev.setName(event.name);
+        ev.setEndLocation(graph.x(end), graph.y(end));
+        ev.setPath(PackedPath.of(graph, event.path, event.pathLength));
+        List<Integer> stops = new ArrayList<>(event.stopCount);
+        for (int i = 0; i < event.stopCount; i++) {
+            stops.add(event.stops[i]);
+        }
+        ev.setChargingStops(stops);
+        ev.setMoving(true);
+        return ev;
+    }
+
+    private static int firstMismatch(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i]) return i;
+        }
+        return a.length == b.length ? -1 : n;
+    }
+
+    /**
+     * Replayed state of one vehicle.
+     */
+    private static class VehicleReplay {
+        final String name;
+        int[] path; // Node ids of the current path
+        int pathIndex = 0; // Index of the current node in the path
+        int node; // Current node id
+        int charge; // Last logged charge
+        boolean active = true; // False after a STOP event
+        long lastProgress; // Tick of the last move, reroute or charging step
+
+        VehicleReplay(String name, int[] path, int charge, long tick) {
+            this.name = name;
+            this.path = path;
+            this.charge = charge;
+            this.node = path[0];
+            this.lastProgress = tick;
+        }
+    }
+}
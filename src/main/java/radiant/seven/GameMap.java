@@ -1,11 +1,14 @@
 package radiant.seven;
 // Import Statements
+import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.BitSet;
 import java.util.Set;
 
 /**
@@ -21,12 +24,71 @@ public class GameMap {
     private int height;
     private Map<String, Node> roadNetwork;
     private RoadMapParser roadMapParser;
+    private volatile RoadGraph graph; // Current copy-on-write snapshot of the road graph
+    private DistanceOracle distanceOracle; // Landmark distance bounds of the map without closures
+    private RoadComponents components; // Strongly connected components of the map without closures
+    private MapValidationReport validationReport; // Dead ends, one-way traps and unreachable cells of the map
+    private Node[] nodesById; // Road nodes indexed by RoadGraph node id
+    private final Set<Long> closedEdges = new HashSet<>(); // Closed directed edges (RoadGraph.edgeKey)
+    private final BitSet closedCells = new BitSet(); // Closed cells by node id
+    private final List<ChargingStation> chargingStations = new ArrayList<>(); // Stations from the charging overlay
 
     //Constructor
     public GameMap() {
+        this("src/main/resources/static/map.csv", "src/main/resources/static/signal.csv",
+                "src/main/resources/static/charging.csv");
+    }
+
+    /**
+     * Creates a map from the given files instead of the bundled ones.
+     *
+     * @param mapPath Path to the main map CSV file
+     * @param signalMapPath Path to the traffic signal map CSV file
+     * @param chargingMapPath Path to the optional charging overlay CSV file
+     */
+    public GameMap(String mapPath, String signalMapPath, String chargingMapPath) {
         roadMapParser = new RoadMapParser();
         roadNetwork = new HashMap<>();
-        loadMap("src/main/resources/static/map.csv", "src/main/resources/static/signal.csv");
+        loadMap(mapPath, signalMapPath);
+        loadChargingStations(chargingMapPath);
+    }
+
+    /**
+     * Replaces the singleton instance with a map loaded from the given files.
+     * Command-line tools call this before anything else uses the map.
+     *
+     * @return The new singleton GameMap instance
+     * @throws IllegalArgumentException if the map or signal file does not exist
+     */
+    public static synchronized GameMap load(String mapPath, String signalMapPath, String chargingMapPath) {
+        for (String path : new String[] { mapPath, signalMapPath }) {
+            if (!new File(path).exists()) {
+                throw new IllegalArgumentException("Map file not found: " + path);
+            }
+        }
+        instance = new GameMap(mapPath, signalMapPath, chargingMapPath);
+        return instance;
+    }
+
+    /**
+     * Loads the charging station overlay. The overlay is optional; maps without it
+     * simply have no charging stations. Stations on cells that are not roads are ignored.
+     *
+     * @param chargingMapPath Path to the charging overlay CSV file
+     */
+    private void loadChargingStations(String chargingMapPath) {
+        if (!new File(chargingMapPath).exists()) {
+            return;
+        }
+        try {
+            for (int[] station : roadMapParser.parseChargingCSV(chargingMapPath)) {
+                if (isWalkable(station[0], station[1])) {
+                    chargingStations.add(new ChargingStation(station[0], station[1], station[2]));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -48,6 +110,20 @@ public class GameMap {
                 // Ensure coordinates match map_editor.py's 1-based indexing
                 roadNetwork.put(node.x + "," + node.y, node);
             }
+            graph = RoadGraph.build(roadNetwork.values(), width, height);
+            distanceOracle = DistanceOracle.build(graph, DistanceOracle.LANDMARKS);
+            components = RoadComponents.build(graph);
+            validationReport = components.validate(graph);
+            if (!validationReport.isValid()) {
+                System.out.println("Map validation: " + validationReport.deadEnds + " dead ends, "
+                        + validationReport.traps + " one-way trap cells, " + validationReport.unreachable
+                        + " unreachable cells in " + validationReport.components
+                        + " components (see /api/map/validation)");
+            }
+            nodesById = new Node[graph.nodeCount()];
+            for (int id = 0; id < nodesById.length; id++) {
+                nodesById[id] = roadNetwork.get(graph.x(id) + "," + graph.y(id));
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -124,6 +200,16 @@ public class GameMap {
     public Node getRoadNode(int x, int y) {
         return roadNetwork.get((x) + "," + (y));
     }
+    /**
+     * Retrieves a road node by its RoadGraph node id.
+     *
+     * @param id The node id
+     * @return The Node with that id
+     */
+    public Node getNode(int id) {
+        return nodesById[id];
+    }
+
     /**
      * Retrieves a traffic node from the road network at the specified coordinates.
      * Returns null if no node exists at the location or if the node is not a traffic node.
@@ -145,6 +231,113 @@ public class GameMap {
     public Map<String, Node> getRoadNetwork() {
         return roadNetwork;
     }
+    /**
+     * Returns the charging stations declared in the charging overlay.
+     *
+     * @return An unmodifiable list of charging stations
+     */
+    public List<ChargingStation> getChargingStations() {
+        return Collections.unmodifiableList(chargingStations);
+    }
+
+    /**
+     * Returns the distance oracle of the map, built when the map was loaded. Its
+     * bounds hold for every snapshot, closures included.
+     *
+     * @return The DistanceOracle
+     */
+    public DistanceOracle getDistanceOracle() {
+        return distanceOracle;
+    }
+
+    /**
+     * Returns the strongly connected components of the map, computed when the map
+     * was loaded. A pair they mark unreachable is unreachable in every snapshot.
+     *
+     * @return The RoadComponents
+     */
+    public RoadComponents getComponents() {
+        return components;
+    }
+
+    /**
+     * Returns the validation of the map as loaded, closures not applied.
+     *
+     * @return The MapValidationReport
+     */
+    public MapValidationReport getValidationReport() {
+        return validationReport;
+    }
+
+    /**
+     * Returns the current snapshot of the road graph. Snapshots are immutable,
+     * so callers can keep using one for the whole duration of a search.
+     *
+     * @return The latest RoadGraph snapshot
+     */
+    public RoadGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Closes a cell so that no vehicle may enter it. Vehicles already on the cell
+     * can still leave it.
+     *
+     * @param x The x-coordinate of the cell
+     * @param y The y-coordinate of the cell
+     * @return The new graph snapshot, or null if the cell is not a road
+     */
+    public synchronized RoadGraph closeCell(int x, int y) {
+        int node = graph.nodeId(x, y);
+        if (node < 0) return null;
+        closedCells.set(node);
+        graph = graph.withClosures(closedEdges, closedCells);
+        return graph;
+    }
+
+    /**
+     * Re-opens a previously closed cell.
+     *
+     * @param x The x-coordinate of the cell
+     * @param y The y-coordinate of the cell
+     * @return The new graph snapshot, or null if the cell is not a road
+     */
+    public synchronized RoadGraph reopenCell(int x, int y) {
+        int node = graph.nodeId(x, y);
+        if (node < 0) return null;
+        closedCells.clear(node);
+        graph = graph.withClosures(closedEdges, closedCells);
+        return graph;
+    }
+
+    /**
+     * Closes the directed edge between two adjacent road cells.
+     *
+     * @return The new graph snapshot, or null if the map has no such edge
+     */
+    public synchronized RoadGraph closeEdge(int fromX, int fromY, int toX, int toY) {
+        int from = graph.nodeId(fromX, fromY);
+        int to = graph.nodeId(toX, toY);
+        if (from < 0 || to < 0 || !graph.hasBaseEdge(from, to)) return null;
+        closedEdges.add(RoadGraph.edgeKey(from, to));
+        graph = graph.withClosures(closedEdges, closedCells);
+        return graph;
+    }
+
+    /**
+     * Re-opens a previously closed directed edge.
+     *
+     * @return The new graph snapshot, or null if the map has no such edge
+     */
+    public synchronized RoadGraph reopenEdge(int fromX, int fromY, int toX, int toY) {
+        int from = graph.nodeId(fromX, fromY);
+        int to = graph.nodeId(toX, toY);
+        if (from < 0 || to < 0 || !graph.hasBaseEdge(from, to)) return null;
+        closedEdges.remove(RoadGraph.edgeKey(from, to));
+        graph = graph.withClosures(closedEdges, closedCells);
+        return graph;
+    }
+
     /**
      * Prints the road network graph structure using the road map parser.
      * Displays the connectivity and layout of all road nodes in the network.
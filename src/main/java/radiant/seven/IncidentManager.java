@@ -0,0 +1,180 @@
+package radiant.seven;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The IncidentManager applies road closures at runtime.
+ * Each closure produces a new RoadGraph snapshot, drops the cached routes that
+ * cross the closure, and reroutes only the vehicles whose remaining path uses a
+ * closed cell or edge. Those vehicles are notified of the change.
+ */
+public class IncidentManager {
+    private static IncidentManager instance; // Singleton instance
+    private final GameMap gameMap;
+    private final PathfindingVisualizer pathfinder;
+
+    private IncidentManager() {
+        gameMap = GameMap.getInstance();
+        pathfinder = new PathfindingVisualizer(gameMap);
+    }
+
+    /**
+     * @return The singleton IncidentManager.
+     */
+    public static synchronized IncidentManager getInstance() {
+        if (instance == null) {
+            instance = new IncidentManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Closes a cell, or the directed edge from (x, y) to (toX, toY) when a target is given.
+     *
+     * @return The result of the closure, or null if the cell or edge does not exist.
+     */
+    public ClosureResult close(int x, int y, Integer toX, Integer toY) {
+        // In deterministic mode closures happen between ticks and are recorded in the event log
+        SimulationEngine engine = SimulationEngine.getInstance();
+        synchronized (engine != null ? engine : this) {
+            boolean cell = toX == null || toY == null;
+            RoadGraph graph = cell ? gameMap.closeCell(x, y) : gameMap.closeEdge(x, y, toX, toY);
+            if (graph == null) return null;
+            if (engine != null) {
+                engine.recordClosure(cell ? EventLog.CLOSE_CELL : EventLog.CLOSE_EDGE,
+                        graph.nodeId(x, y), cell ? -1 : graph.nodeId(toX, toY));
+            }
+
+            int invalidated = RouteCache.getInstance().invalidate(graph, route -> crossesClosure(graph, route));
+            List<String> rerouted = rerouteAffectedVehicles(graph, engine);
+            return new ClosureResult(graph.getVersion(), invalidated, rerouted);
+        }
+    }
+
+    /**
+     * Re-opens a cell, or the directed edge from (x, y) to (toX, toY) when a target is given.
+     * Any cached route may now have a shorter alternative, so the whole cache is dropped.
+     *
+     * @return The result of the change, or null if the cell or edge does not exist.
+     */
+    public ClosureResult reopen(int x, int y, Integer toX, Integer toY) {
+        SimulationEngine engine = SimulationEngine.getInstance();
+        synchronized (engine != null ? engine : this) {
+            boolean cell = toX == null || toY == null;
+            RoadGraph graph = cell ? gameMap.reopenCell(x, y) : gameMap.reopenEdge(x, y, toX, toY);
+            if (graph == null) return null;
+            if (engine != null) {
+                engine.recordClosure(cell ? EventLog.OPEN_CELL : EventLog.OPEN_EDGE,
+                        graph.nodeId(x, y), cell ? -1 : graph.nodeId(toX, toY));
+            }
+
+            int invalidated = RouteCache.getInstance().size();
+            RouteCache.getInstance().clear(graph);
+            return new ClosureResult(graph.getVersion(), invalidated, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Lists the current closures of the road graph.
+     *
+     * @return Closed cells as {x, y} and closed edges as {fromX, fromY, toX, toY}.
+     */
+    public List<int[]> listClosures() {
+        RoadGraph graph = gameMap.getGraph();
+        List<int[]> closures = new ArrayList<>();
+        graph.getClosedCells().stream()
+                .forEach(node -> closures.add(new int[]{graph.x(node), graph.y(node)}));
+        for (long key : graph.getClosedEdges()) {
+            int from = (int) (key >>> 32);
+            int to = (int) key;
+            closures.add(new int[]{graph.x(from), graph.y(from), graph.x(to), graph.y(to)});
+        }
+        return closures;
+    }
+
+    /**
+     * Checks whether a cached route uses a closed cell or edge.
+     */
+    private static boolean crossesClosure(RoadGraph graph, PackedPath route) {
+        int[] nodes = route.nodes();
+        for (int i = 0; i + 1 < nodes.length; i++) {
+            if (!graph.isEdgeOpen(nodes[i], nodes[i + 1])) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the part of a path after the given index uses a closed cell or edge.
+     */
+    private static boolean crossesClosure(RoadGraph graph, List<PathNode> path, int fromIndex) {
+        for (int i = fromIndex; i < path.size() - 1; i++) {
+            PathNode a = path.get(i);
+            PathNode b = path.get(i + 1);
+            int from = graph.nodeId(a.getX(), a.getY());
+            int to = graph.nodeId(b.getX(), b.getY());
+            if (from < 0 || to < 0 || !graph.isEdgeOpen(from, to)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reroutes the moving vehicles whose remaining path crosses a closure.
+     *
+     * @param graph The graph snapshot with the closure applied.
+     * @param engine The engine in deterministic mode, or null.
+     * @return The names of the vehicles that were notified.
+     */
+    private List<String> rerouteAffectedVehicles(RoadGraph graph, SimulationEngine engine) {
+        List<String> affected = new ArrayList<>();
+        List<EV> vehicles;
+        if (engine != null) {
+            vehicles = engine.getVehicles();
+        } else {
+            vehicles = EVController.evMap.snapshot();
+        }
+        for (EV ev : vehicles) {
+            synchronized (ev) {
+                List<PathNode> path = ev.getPath();
+                if (path == null || !crossesClosure(graph, path, ev.getCurrentPathIndex())) continue;
+
+                List<PathNode> newPath = pathfinder.findRoute(ev.getCurrentX(), ev.getCurrentY(), ev.getEndX(), ev.getEndY());
+                if (newPath.isEmpty()) {
+                    ev.setMoving(false);
+                    ev.addNotification("Destination unreachable after road closure, vehicle stopped");
+                    if (engine != null) engine.record(EventLog.STOP, ev);
+                } else {
+                    ev.replacePath(newPath);
+                    // A longer detour may no longer fit in the battery
+                    if (EnergyModel.isElectric(ev) && EnergyModel.energyFor(newPath.size() - 1) > ev.getCharge()) {
+                        EnergyRoute route = EnergyRouter.getInstance().findRoute(ev.getCurrentX(), ev.getCurrentY(),
+                                ev.getEndX(), ev.getEndY(), ev.getCharge(), ev.getChargingRate());
+                        if (!route.path.isEmpty()) {
+                            ev.replacePath(route.path);
+                            ev.setChargingStops(route.chargingStops);
+                        }
+                    }
+                    if (engine != null) engine.recordRoute(ev);
+                    ev.addNotification("Rerouted around road closure (graph version " + graph.getVersion() + ")");
+                }
+                affected.add(ev.getName());
+            }
+        }
+        return affected;
+    }
+}
+
+/**
+ * Result of a closure change, returned by the closures endpoint.
+ */
+class ClosureResult {
+    public long version; // Graph version after the change
+    public int invalidatedRoutes; // Number of cached routes dropped
+    public List<String> reroutedVehicles; // Vehicles that were notified and rerouted
+
+    public ClosureResult(long version, int invalidatedRoutes, List<String> reroutedVehicles) {
+        this.version = version;
+        this.invalidatedRoutes = invalidatedRoutes;
+        this.reroutedVehicles = reroutedVehicles;
+    }
+}
@@ -0,0 +1,257 @@
+package radiant.seven;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The road network cut into fixed-size square tiles for map clients.
+ * Tiles are built once per RoadGraph version, in JSON and in a compact binary
+ * form, together with a strong ETag for each representation. Clients load only
+ * the tiles they can see and revalidate them with If-None-Match.
+ *
+ * RoadGraph versions start again at 0 in every process, so they cannot name map
+ * content across restarts or map files. The tiles are therefore also identified by
+ * a content key, a hash of the cells, closed cells and closed edges of the whole
+ * map; URLs carrying the key may be cached for good. Tile bodies do not contain the
+ * version either, so a tile whose cells did not change keeps its ETag.
+ *
+ * Binary tile layout: format byte, tile x, tile y and tile size as varints, then
+ * four bit masks of tileSize * tileSize bits each (road, one-way, traffic signal,
+ * closed), cells in row-major order within the tile.
+ */
+public class MapTiles {
+    public static final int TILE_SIZE = 16; // Tile width and height in cells
+    public static final int BINARY_FORMAT = 2; // 2 drops the map version
+    private static volatile MapTiles current; // Tiles of the latest graph version
+
+    private final long version; // RoadGraph version the tiles were built from
+    private final int rows; // Tiles along x
+    private final int cols; // Tiles along y
+    private final MapTile[] tiles;
+    private final String contentKey; // Hash of the map content, the same in every process
+    private final MapData mapData; // Whole map, for the legacy /api/map endpoint
+    private final String mapDataETag;
+
+    private MapTiles(GameMap map, RoadGraph graph) {
+        this.version = graph.getVersion();
+        this.rows = Math.max(1, (graph.getHeight() + TILE_SIZE - 1) / TILE_SIZE);
+        this.cols = Math.max(1, (graph.getWidth() + TILE_SIZE - 1) / TILE_SIZE);
+        this.tiles = new MapTile[rows * cols];
+
+        List<List<RoadNode>> roads = new ArrayList<>();
+        for (int i = 0; i < tiles.length; i++) {
+            roads.add(new ArrayList<>());
+        }
+        BitSet[] road = new BitSet[tiles.length];
+        BitSet[] oneWay = new BitSet[tiles.length];
+        BitSet[] signal = new BitSet[tiles.length];
+        BitSet[] closed = new BitSet[tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            road[i] = new BitSet();
+            oneWay[i] = new BitSet();
+            signal[i] = new BitSet();
+            closed[i] = new BitSet();
+        }
+
+        List<RoadNode> allRoads = new ArrayList<>(graph.nodeCount());
+        for (int id = 0; id < graph.nodeCount(); id++) {
+            int x = graph.x(id);
+            int y = graph.y(id);
+            int tile = ((x - 1) / TILE_SIZE) * cols + (y - 1) / TILE_SIZE;
+            int bit = ((x - 1) % TILE_SIZE) * TILE_SIZE + (y - 1) % TILE_SIZE;
+            boolean isOneWay = graph.isOneWay(id);
+            RoadNode node = new RoadNode(x, y, isOneWay);
+            roads.get(tile).add(node);
+            allRoads.add(node);
+            road[tile].set(bit);
+            if (isOneWay) oneWay[tile].set(bit);
+            if (map.getNode(id) instanceof TrafficNode) signal[tile].set(bit);
+            if (graph.isCellClosed(id)) closed[tile].set(bit);
+        }
+
+        MessageDigest digest = sha256();
+        digest.update((graph.getHeight() + "x" + graph.getWidth()).getBytes(StandardCharsets.US_ASCII));
+        for (int tx = 0; tx < rows; tx++) {
+            for (int ty = 0; ty < cols; ty++) {
+                int i = tx * cols + ty;
+                for (BitSet mask : new BitSet[]{road[i], oneWay[i], signal[i], closed[i]}) {
+                    digest.update(maskBytes(mask));
+                }
+                byte[] binary = encode(tx, ty, road[i], oneWay[i], signal[i], closed[i]);
+                List<int[]> closedCells = new ArrayList<>();
+                for (int bit = closed[i].nextSetBit(0); bit >= 0; bit = closed[i].nextSetBit(bit + 1)) {
+                    closedCells.add(new int[]{tx * TILE_SIZE + bit / TILE_SIZE + 1, ty * TILE_SIZE + bit % TILE_SIZE + 1});
+                }
+                tiles[i] = new MapTile(tx, ty, TILE_SIZE, roads.get(i), closedCells, binary);
+            }
+        }
+        // Closed edges are not drawn on the tiles, but they are part of the map content
+        long[] closedEdges = graph.getClosedEdges().stream().mapToLong(Long::longValue).sorted().toArray();
+        ByteBuffer edgeBytes = ByteBuffer.allocate(closedEdges.length * Long.BYTES);
+        for (long edge : closedEdges) {
+            edgeBytes.putLong(edge);
+        }
+        edgeBytes.flip();
+        digest.update(edgeBytes);
+        this.contentKey = hex(digest.digest(), 8);
+        this.mapData = new MapData(allRoads);
+        this.mapDataETag = "\"map-" + contentKey + "\"";
+    }
+
+    /**
+     * @return The tiles of the current road graph, rebuilt if the graph changed.
+     */
+    public static MapTiles getInstance() {
+        GameMap map = GameMap.getInstance();
+        RoadGraph graph = map.getGraph();
+        MapTiles tiles = current;
+        if (tiles == null || tiles.version != graph.getVersion()) {
+            synchronized (MapTiles.class) {
+                tiles = current;
+                if (tiles == null || tiles.version != graph.getVersion()) {
+                    tiles = new MapTiles(map, graph);
+                    current = tiles;
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private static byte[] encode(int tx, int ty, BitSet... masks) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(BINARY_FORMAT);
+            BinaryCodec.writeVarInt(out, tx);
+            BinaryCodec.writeVarInt(out, ty);
+            BinaryCodec.writeVarInt(out, TILE_SIZE);
+            for (BitSet mask : masks) {
+                out.write(maskBytes(mask));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Cannot happen with an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] maskBytes(BitSet mask) {
+        return Arrays.copyOf(mask.toByteArray(), TILE_SIZE * TILE_SIZE / 8);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform provides SHA-256
+        }
+    }
+
+    private static String hex(byte[] bytes, int length) {
+        StringBuilder text = new StringBuilder(length * 2);
+        for (int i = 0; i < length; i++) {
+            text.append(String.format("%02x", bytes[i]));
+        }
+        return text.toString();
+    }
+
+    // @return RoadGraph version of these tiles
+    public long getVersion() {
+        return version;
+    }
+
+    // @return hash of the map content, equal for equal maps in any process
+    public String getContentKey() {
+        return contentKey;
+    }
+
+    // @return number of tile rows (along x)
+    public int getRows() {
+        return rows;
+    }
+
+    // @return number of tile columns (along y)
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return The tile, or null if the coordinates are outside the map.
+     */
+    public MapTile getTile(int tx, int ty) {
+        if (tx < 0 || ty < 0 || tx >= rows || ty >= cols) return null;
+        return tiles[tx * cols + ty];
+    }
+
+    public MapData getMapData() {
+        return mapData;
+    }
+
+    public String getMapDataETag() {
+        return mapDataETag;
+    }
+}
+
+/**
+ * One tile of the road network with its precomputed representations.
+ */
+class MapTile {
+    public int tileX; // Tile row
+    public int tileY; // Tile column
+    public int tileSize; // Tile width and height in cells
+    public List<RoadNode> roads; // Road cells in the tile
+    public List<int[]> closed; // Closed cells in the tile as {x, y}
+    private final transient byte[] binary;
+    private final transient String jsonETag;
+    private final transient String binaryETag;
+
+    MapTile(int tileX, int tileY, int tileSize, List<RoadNode> roads, List<int[]> closed, byte[] binary) {
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.tileSize = tileSize;
+        this.roads = roads;
+        this.closed = closed;
+        this.binary = binary;
+        // The binary form holds the full tile content, so its checksum identifies both representations
+        CRC32 crc = new CRC32();
+        crc.update(binary);
+        String hash = Long.toHexString(crc.getValue());
+        this.jsonETag = "\"tile-" + tileX + "-" + tileY + "-" + hash + "-j\"";
+        this.binaryETag = "\"tile-" + tileX + "-" + tileY + "-" + hash + "-b\"";
+    }
+
+    byte[] binary() {
+        return binary;
+    }
+
+    String jsonETag() {
+        return jsonETag;
+    }
+
+    String binaryETag() {
+        return binaryETag;
+    }
+}
+
+/**
+ * Layout of the tile grid, returned by the tile index endpoint.
+ */
+class MapTileIndex {
+    public long version; // RoadGraph version of the tiles
+    public String key; // Content key of the tiles, for cacheable tile URLs
+    public int tileSize; // Tile width and height in cells
+    public int rows; // Tiles along x
+    public int cols; // Tiles along y
+
+    public MapTileIndex(long version, String key, int tileSize, int rows, int cols) {
+        this.version = version;
+        this.key = key;
+        this.tileSize = tileSize;
+        this.rows = rows;
+        this.cols = cols;
+    }
+}
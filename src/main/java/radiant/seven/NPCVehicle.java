@@ -2,50 +2,141 @@ package radiant.seven;
 
 import java.util.Random;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NPCVehicle extends EV {
-    private Random random = new Random();
+    private static final AtomicLong npcCounter = new AtomicLong(); // Source of unique NPC names
+    private static PathfindingVisualizer pathfinder; // Used when no EVController is running
+    private Random random = new Random(); // Seeded per vehicle in deterministic mode
 
     public NPCVehicle(int x, int y) {
         super(x, y, 3, 100, 0); // Type 3 for NPC, full charge, no charging needed
-        this.setName("NPC_" + System.currentTimeMillis());
+        this.setName("NPC_" + npcCounter.incrementAndGet());
     }
     public NPCVehicle(int x, int y, String vehicleType) {
         super(x, y, 3, 100, 0, vehicleType); // Type 3 for NPC, full charge, no charging needed
-        this.setName("NPC_" + System.currentTimeMillis());
+        this.setName("NPC_" + npcCounter.incrementAndGet());
     }
 
-    public void pickRandomDestination() {
-        List<Node> reachableNodes = new ArrayList<>(GameMap.getInstance().getRoadNetwork().values());
-        if (!reachableNodes.isEmpty()) {
-            Node randomDest = reachableNodes.get(random.nextInt(reachableNodes.size()));
-            this.setEndLocation(randomDest.x, randomDest.y);
+    /**
+     * Replaces the random stream of this NPC, so its destinations are reproducible.
+     *
+     * @param seed The seed of the NPC's own random stream.
+     */
+    public void seedRandom(long seed) {
+        this.random = new SeededRandom(seed);
+    }
+
+    /**
+     * @return True if the NPC has a reproducible random stream.
+     */
+    public boolean isSeeded() {
+        return random instanceof SeededRandom;
+    }
+
+    /**
+     * @return The state of the NPC's seeded random stream, or -1 if it is not seeded.
+     */
+    public long getRandomState() {
+        return random instanceof SeededRandom ? ((SeededRandom) random).state : -1;
+    }
+
+    /**
+     * Continues a seeded random stream from a state returned by getRandomState,
+     * for example after a checkpoint restore or a shard hand-off.
+     *
+     * @param state The state, or -1 to leave the stream unseeded.
+     */
+    public void restoreRandom(long state) {
+        if (state < 0) return;
+        SeededRandom restored = new SeededRandom(0);
+        restored.state = state & SeededRandom.MASK;
+        this.random = restored;
+    }
+
+    /**
+     * java.util.Random's generator with its state in a plain field, so it can be
+     * saved and continued. It draws the same numbers as a Random with the same seed.
+     */
+    static final class SeededRandom extends Random {
+        private static final long MULTIPLIER = 0x5DEECE66DL;
+        static final long MASK = (1L << 48) - 1;
+        private long state; // Set by setSeed, which Random's constructor calls
+
+        SeededRandom(long seed) {
+            super(seed);
+        }
+
+        @Override
+        public synchronized void setSeed(long seed) {
+            super.setSeed(seed);
+            state = (seed ^ MULTIPLIER) & MASK;
+        }
+
+        @Override
+        protected int next(int bits) {
+            state = (state * MULTIPLIER + 0xBL) & MASK;
+            return (int) (state >>> (48 - bits));
         }
     }
 
+    /**
+     * Makes sure generated names never repeat a name restored from a checkpoint.
+     *
+     * @param name A restored NPC name.
+     */
+    static void reserveName(String name) {
+        if (name == null || !name.startsWith("NPC_")) return;
+        try {
+            long n = Long.parseLong(name.substring(4));
+            npcCounter.accumulateAndGet(n, Math::max);
+        } catch (NumberFormatException ignored) {
+            // Custom names cannot collide with generated ones
+        }
+    }
+
+    private static synchronized PathfindingVisualizer getPathfinder() {
+        if (EVController.pathfinder != null) {
+            return EVController.pathfinder;
+        }
+        if (pathfinder == null) {
+            pathfinder = new PathfindingVisualizer(GameMap.getInstance());
+        }
+        return pathfinder;
+    }
+
+    /**
+     * Sets the end location to a destination drawn from the DemandModel for the
+     * NPC's current cell and the current time of day.
+     *
+     * @return False if the demand model has no destination.
+     */
+    public boolean pickRandomDestination() {
+        RoadGraph graph = GameMap.getInstance().getGraph();
+        int from = getPath() == null || getPath().isEmpty() ? -1 : graph.nodeId(getCurrentX(), getCurrentY());
+        int end = DemandModel.getInstance().sampleDestination(from, SimulationClock.now(), random);
+        if (end < 0) {
+            return false;
+        }
+        this.setEndLocation(graph.x(end), graph.y(end));
+        return true;
+    }
+
     @Override
     public void changeEnd() {
         if (this.getCurrentX() == getEndX() && this.getCurrentY() == getEndY()) {
-            GameMap gameMap = GameMap.getInstance();
-            Random random = new Random();
-            Node endNode;
-            int endX, endY;
-
-            // Keep trying until we find a valid road position
-            do {
-                endX = 1 + random.nextInt(35);
-                endY = 1 + random.nextInt(35);
-                endNode = gameMap.getRoadNode(endX, endY);
-            } while (endNode == null);
-
-            this.setEndLocation(endX, endY);
+            if (!pickRandomDestination()) {
+                return;
+            }
+            int endX = getEndX();
+            int endY = getEndY();
 
             // Calculate new path to valid destination
-            long[] pathArray = EVController.pathfinder.findPath(getCurrentX(), getCurrentY(), endX, endY);
-            List<PathNode> newPath = convertToPathNodes(pathArray);
-            this.setPath(newPath);
-            this.currentPathIndex = 0;
+            List<PathNode> newPath = getPathfinder().findRoute(getCurrentX(), getCurrentY(), endX, endY);
+            if (newPath.isEmpty()) {
+                return; // Unreachable destination, try again after the next move
+            }
+            this.replacePath(newPath);
         }
     }
 
@@ -0,0 +1,233 @@
+package radiant.seven;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Precomputed shortest routes between every pair of road nodes, for maps small
+ * enough that the table fits in memory.
+ *
+ * The table holds one short per node pair: entry source * n + node is the node
+ * before node on the shortest route from source, or -1 if node cannot be reached.
+ * Row source is the parent array of one breadth-first search from source, the rows
+ * being split over one thread per core. A route is then a walk back along one row
+ * with no search at all. Tables of up to HEAP_MAX_NODES nodes live on the heap,
+ * larger ones in a direct buffer.
+ *
+ * The searches visit edges in the same order as RoadGraph.shortestPath, so a walk
+ * is exactly the route the search finds, ties included. Deterministic runs and
+ * their replays therefore take the same routes with or without the table.
+ *
+ * A table belongs to one RoadGraph version. After a closure change the first lookup
+ * on the new graph starts a rebuild in the background; until it is done lookups
+ * return null and the caller searches as before.
+ */
+public final class NextHopTable {
+    static final int HEAP_MAX_NODES = 2048; // Larger tables are allocated off-heap
+    static final int MAX_NODES = Short.MAX_VALUE; // Node ids must fit in a short
+    static final int DEFAULT_MAX_NODES = 4096; // Node count above which the table is not built by default
+    private static volatile NextHopTable instance; // Table of the current or a previous graph version
+    private static volatile boolean enabled = false;
+    private static final ExecutorService rebuilder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "next-hop-rebuild");
+        t.setDaemon(true);
+        return t;
+    });
+    private static long rebuilding = -1; // Graph version being rebuilt in the background, -1 if none
+    private static final LongAdder walks = new LongAdder(); // Routes answered from a table
+
+    private final RoadGraph graph; // Snapshot the table was built for
+    private final long version; // Its version
+    private final int n; // Number of nodes
+    private final ShortBuffer previous; // source * n + node -> node before it, -1 if unreachable
+    private final boolean offHeap;
+    private final long buildMillis; // Time the build took
+
+    private NextHopTable(RoadGraph graph, int n, ShortBuffer previous, boolean offHeap, long buildMillis) {
+        this.graph = graph;
+        this.version = graph.getVersion();
+        this.n = n;
+        this.previous = previous;
+        this.offHeap = offHeap;
+        this.buildMillis = buildMillis;
+    }
+
+    /**
+     * Builds the table of a graph, one breadth-first search per node.
+     *
+     * @param graph The graph snapshot.
+     * @param threads Threads to split the searches over, 0 for one per core.
+     * @return The table.
+     */
+    static NextHopTable build(RoadGraph graph, int threads) {
+        long started = System.nanoTime();
+        int n = graph.nodeCount();
+        if (n > MAX_NODES) throw new IllegalArgumentException("Too many nodes for a next-hop table: " + n);
+
+        boolean offHeap = n > HEAP_MAX_NODES;
+        ShortBuffer previous = offHeap
+                ? ByteBuffer.allocateDirect(n * n * 2).order(ByteOrder.nativeOrder()).asShortBuffer()
+                : ShortBuffer.wrap(new short[n * n]);
+
+        if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+        threads = Math.max(1, Math.min(threads, n));
+        AtomicInteger nextSource = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int w = 0; w < threads; w++) {
+            workers[w] = new Thread(() -> {
+                short[] row = new short[n];
+                int[] queue = new int[n];
+                ShortBuffer out = previous.duplicate();
+                for (int source = nextSource.getAndIncrement(); source < n; source = nextSource.getAndIncrement()) {
+                    Arrays.fill(row, (short) -1);
+                    row[source] = (short) source;
+                    int head = 0, tail = 0;
+                    queue[tail++] = source;
+                    // Same visiting order as RoadGraph.shortestPath, so ties go the same way
+                    while (head < tail) {
+                        int u = queue[head++];
+                        for (int e = graph.edgeStart(u); e < graph.edgeEnd(u); e++) {
+                            int v = graph.edgeTarget(e);
+                            if (row[v] != -1) continue;
+                            row[v] = (short) u;
+                            queue[tail++] = v;
+                        }
+                    }
+                    out.position(source * n);
+                    out.put(row);
+                }
+            }, "next-hop-build-" + w);
+            workers[w].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while building the next-hop table", e);
+            }
+        }
+        return new NextHopTable(graph, n, previous, offHeap, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Builds the table for the current graph and uses it for every route lookup from
+     * now on, unless the map has more nodes than allowed.
+     *
+     * @param map The map.
+     * @param maxNodes Largest node count to build a table for.
+     * @return Whether the table was built.
+     */
+    public static synchronized boolean enable(GameMap map, int maxNodes) {
+        RoadGraph graph = map.getGraph();
+        if (graph.nodeCount() > Math.min(maxNodes, MAX_NODES)) {
+            System.out.println("All-pairs routing disabled: " + graph.nodeCount()
+                    + " nodes, at most " + Math.min(maxNodes, MAX_NODES) + " allowed");
+            return false;
+        }
+        instance = build(graph, 0);
+        enabled = true;
+        System.out.println("All-pairs routing table for " + graph.nodeCount() + " nodes: "
+                + instance.memoryBytes() / 1024 + " KB " + (instance.offHeap ? "off-heap" : "on heap")
+                + ", built in " + instance.buildMillis + " ms");
+        return true;
+    }
+
+    /**
+     * Turns all-pairs routing off; route lookups search again.
+     */
+    public static synchronized void disable() {
+        enabled = false;
+    }
+
+    /**
+     * @return The table in use, possibly of an older graph version, or null if
+     *         all-pairs routing is off.
+     */
+    public static NextHopTable getInstance() {
+        return enabled ? instance : null;
+    }
+
+    /**
+     * Looks up a route in the table of the given graph.
+     *
+     * @param graph The snapshot the route is for.
+     * @param from The start node id.
+     * @param to The destination node id.
+     * @return The node ids along the route including both ends, empty if unreachable,
+     *         or null if there is no table for this graph version (yet).
+     */
+    public static int[] route(RoadGraph graph, int from, int to) {
+        if (!enabled) return null;
+        NextHopTable table = instance;
+        if (table.graph != graph) {
+            refresh(graph);
+            return null;
+        }
+        walks.increment();
+        return table.walk(from, to);
+    }
+
+    // @return route lookups answered from a table since start
+    public static long getWalks() {
+        return walks.sum();
+    }
+
+    // Rebuilds the table for a newer graph in the background
+    private static void refresh(RoadGraph graph) {
+        synchronized (NextHopTable.class) {
+            if (graph.getVersion() <= instance.version || graph.getVersion() <= rebuilding) return;
+            rebuilding = graph.getVersion();
+        }
+        rebuilder.execute(() -> {
+            // A newer closure may have come in while this one was queued
+            RoadGraph current = GameMap.getInstance().getGraph();
+            NextHopTable table = build(current.getVersion() > graph.getVersion() ? current : graph, 0);
+            synchronized (NextHopTable.class) {
+                if (table.version > instance.version) instance = table;
+                if (rebuilding <= table.version) rebuilding = -1;
+            }
+        });
+    }
+
+    // @return node ids from one node to another along the table
+    int[] walk(int from, int to) {
+        if (from == to) return new int[]{from};
+        int row = from * n;
+        if (previous.get(row + to) == -1) return new int[0];
+        int length = 1;
+        for (int v = to; v != from; v = previous.get(row + v)) length++;
+        int[] path = new int[length];
+        path[length - 1] = to;
+        for (int i = length - 1; i > 0; i--) {
+            path[i - 1] = previous.get(row + path[i]);
+        }
+        return path;
+    }
+
+    // @return version of the graph the table was built for
+    public long getVersion() {
+        return version;
+    }
+
+    // @return bytes taken by the table
+    public long memoryBytes() {
+        return (long) n * n * 2;
+    }
+
+    // @return true if the table is in a direct buffer
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    // @return milliseconds the build took
+    public long getBuildMillis() {
+        return buildMillis;
+    }
+}
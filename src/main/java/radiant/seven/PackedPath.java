@@ -0,0 +1,214 @@
+package radiant.seven;
+
+import java.io.ByteArrayOutputStream;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable route stored as RoadGraph node ids instead of PathNode objects.
+ *
+ * Short routes keep one int per node. Routes of DELTA_MIN_LENGTH nodes or more are
+ * delta-encoded: consecutive nodes of a route are neighbouring cells, so the
+ * difference of their ids almost always fits in one zig-zag varint byte. The deltas
+ * are split into blocks of BLOCK nodes that start with an absolute node id, so
+ * get(i) decodes at most BLOCK - 1 deltas.
+ *
+ * A PackedPath is shared as is between the RouteCache, the vehicles and the REST
+ * responses. Cells are created on access. Node ids are the same in every snapshot of
+ * a map, so a route stays readable after closures create new snapshots.
+ */
+public final class PackedPath extends AbstractList<PathNode> implements RandomAccess {
+    static final int DELTA_MIN_LENGTH = 64; // Routes at least this long are delta-encoded
+    private static final int BLOCK = 16; // Nodes per delta block
+
+    static final PackedPath EMPTY = new PackedPath(null, new int[0]);
+
+    private final RoadGraph graph; // Gives the coordinates of the node ids
+    private final int length;
+    private final int[] nodes; // Node ids of a short route, null when delta-encoded
+    private final int[] blockNode; // First node id of each block
+    private final int[] blockOffset; // Offset of each block's deltas in deltas
+    private final byte[] deltas; // Zig-zag varint deltas of the nodes after each block's first
+
+    private PackedPath(RoadGraph graph, int[] nodes) {
+        this.graph = graph;
+        this.length = nodes.length;
+        this.nodes = nodes;
+        this.blockNode = null;
+        this.blockOffset = null;
+        this.deltas = null;
+    }
+
+    private PackedPath(RoadGraph graph, int length, int[] blockNode, int[] blockOffset, byte[] deltas) {
+        this.graph = graph;
+        this.length = length;
+        this.nodes = null;
+        this.blockNode = blockNode;
+        this.blockOffset = blockOffset;
+        this.deltas = deltas;
+    }
+
+    /**
+     * Packs a route given as node ids. The array is not kept.
+     *
+     * @param graph A snapshot of the map the ids belong to.
+     * @param nodes The node ids, in route order.
+     */
+    public static PackedPath of(RoadGraph graph, int[] nodes) {
+        return of(graph, nodes, nodes.length);
+    }
+
+    /**
+     * Packs the first length node ids of an array.
+     */
+    static PackedPath of(RoadGraph graph, int[] nodes, int length) {
+        if (length == 0) return EMPTY;
+        if (length < DELTA_MIN_LENGTH) {
+            int[] copy = new int[length];
+            System.arraycopy(nodes, 0, copy, 0, length);
+            return new PackedPath(graph, copy);
+        }
+        int blocks = (length + BLOCK - 1) / BLOCK;
+        int[] blockNode = new int[blocks];
+        int[] blockOffset = new int[blocks];
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        for (int i = 0; i < length; i++) {
+            if (i % BLOCK == 0) {
+                blockNode[i / BLOCK] = nodes[i];
+                blockOffset[i / BLOCK] = out.size();
+                continue;
+            }
+            int delta = nodes[i] - nodes[i - 1];
+            int value = (delta << 1) ^ (delta >> 31);
+            while ((value & ~0x7f) != 0) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+        return new PackedPath(graph, length, blockNode, blockOffset, out.toByteArray());
+    }
+
+    /**
+     * Packs a route in the interleaved x, y layout returned by the native search.
+     *
+     * @throws IllegalArgumentException if a cell of the route is not a road node.
+     */
+    public static PackedPath fromCoordinates(RoadGraph graph, long[] coords) {
+        int[] nodes = new int[coords.length / 2];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = graph.nodeId((int) coords[2 * i], (int) coords[2 * i + 1]);
+            if (nodes[i] < 0) {
+                throw new IllegalArgumentException("Route leaves the road network at ("
+                        + coords[2 * i] + "," + coords[2 * i + 1] + ")");
+            }
+        }
+        return of(graph, nodes);
+    }
+
+    /**
+     * Packs a list of cells, reusing it when it is already packed.
+     *
+     * @return The packed route, or null if a cell is not a road node.
+     */
+    public static PackedPath of(RoadGraph graph, List<PathNode> path) {
+        if (path instanceof PackedPath) return (PackedPath) path;
+        int[] nodes = new int[path.size()];
+        if (path instanceof ArenaPath) {
+            ((ArenaPath) path).copyTo(nodes, 0);
+            return of(graph, nodes);
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            PathNode cell = path.get(i);
+            nodes[i] = graph.nodeId(cell.getX(), cell.getY());
+            if (nodes[i] < 0) return null;
+        }
+        return of(graph, nodes);
+    }
+
+    @Override
+    public PathNode get(int index) {
+        int node = node(index);
+        return new PathNode(graph.x(node), graph.y(node));
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    // @return node id of the cell at the index
+    public int node(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("Index " + index + ", size " + length);
+        if (nodes != null) return nodes[index];
+        int node = blockNode[index / BLOCK];
+        int position = blockOffset[index / BLOCK];
+        for (int i = index % BLOCK; i > 0; i--) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = deltas[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            node += (value >>> 1) ^ -(value & 1);
+        }
+        return node;
+    }
+
+    /**
+     * Writes the node ids of the route to an array.
+     */
+    public void copyTo(int[] target, int offset) {
+        if (nodes != null) {
+            System.arraycopy(nodes, 0, target, offset, length);
+            return;
+        }
+        int position = 0;
+        int node = 0;
+        for (int i = 0; i < length; i++) {
+            if (i % BLOCK == 0) {
+                node = blockNode[i / BLOCK];
+            } else {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = deltas[position++];
+                    value |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                node += (value >>> 1) ^ -(value & 1);
+            }
+            target[offset + i] = node;
+        }
+    }
+
+    // @return node ids of the route, in a new array
+    public int[] nodes() {
+        int[] copy = new int[length];
+        copyTo(copy, 0);
+        return copy;
+    }
+
+    /**
+     * @return The route in the interleaved x, y layout of the native search.
+     */
+    public long[] toCoordinates() {
+        long[] coords = new long[length * 2];
+        int[] ids = nodes();
+        for (int i = 0; i < length; i++) {
+            coords[2 * i] = graph.x(ids[i]);
+            coords[2 * i + 1] = graph.y(ids[i]);
+        }
+        return coords;
+    }
+
+    // @return approximate heap bytes used by the route's arrays, for memory statistics
+    public long memoryBytes() {
+        if (nodes != null) return 16 + 4L * nodes.length;
+        return 48 + 4L * blockNode.length + 4L * blockOffset.length + deltas.length;
+    }
+}
@@ -4,10 +4,23 @@ import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import java.io.IOException;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 @RestController
@@ -16,32 +29,361 @@ public class PathController {
     private final GameMap gameMap;
     private final PathfindingVisualizer pathfinder;
 
-    public PathController() {
+    private final RoutingExecutor routing;
+
+    public PathController(SimulationProperties properties, RoutingExecutor routing) {
         this.gameMap = GameMap.getInstance();
         this.pathfinder = new PathfindingVisualizer(gameMap);
+        this.routing = routing;
+        if (properties.getRouting().isAllPairs()) {
+            NextHopTable.enable(gameMap, properties.getRouting().getAllPairsMaxNodes());
+        }
+    }
+
+    /**
+     * Turns a search running on the RoutingExecutor into the response of an endpoint.
+     * The servlet thread is released while the search runs.
+     *
+     * @param search The pending search.
+     * @return 200 with the result, or 503 with Retry-After if the routing queue was
+     *         full or the search timed out.
+     */
+    static <T> CompletableFuture<ResponseEntity<T>> respond(CompletableFuture<T> search) {
+        return search.handle((result, error) -> {
+            if (error == null) {
+                return ResponseEntity.ok(result);
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (cause instanceof RejectedExecutionException || cause instanceof TimeoutException) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "1").build();
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+        });
     }
 
     @PostMapping("/findPath")
-    public List<PathNode> findPath(@RequestBody PathRequest request) {
-        long[] path = pathfinder.findPath(
+    public CompletableFuture<ResponseEntity<List<PathNode>>> findPath(@RequestBody PathRequest request) {
+        return respond(routing.<List<PathNode>>submit(() -> pathfinder.findRoute(
+                request.getStartX(),
+                request.getStartY(),
+                request.getEndX(),
+                request.getEndY())));
+    }
+
+    /**
+     * Finds the route with the earliest predicted arrival, taking the phase of each
+     * traffic signal on arrival into account instead of minimising the number of moves.
+     *
+     * @param request The start and end coordinates.
+     * @return The fastest route with its predicted departure and arrival times.
+     */
+    @PostMapping("/findPath/timed")
+    public CompletableFuture<ResponseEntity<TimedRoute>> findTimedPath(@RequestBody PathRequest request) {
+        return respond(routing.submit(() -> TimeDependentRouter.getInstance().findRoute(
                 request.getStartX(),
                 request.getStartY(),
                 request.getEndX(),
-                request.getEndY());
-        return convertToPathNodes(path);
+                request.getEndY())));
     }
 
-    private List<PathNode> convertToPathNodes(long[] path) {
-        List<PathNode> nodes = new ArrayList<>();
-        for (int i = 0; i < path.length; i += 2) {
-            nodes.add(new PathNode((int) path[i], (int) path[i + 1]));
+    /**
+     * Finds time-dependent routes for a batch of requests. All requests share the
+     * same departure time bucket, so repeated pairs are answered from the cache.
+     *
+     * @param requests The start and end coordinates of each route.
+     * @return The fastest routes, in request order.
+     */
+    @PostMapping("/findPath/timed/batch")
+    public CompletableFuture<ResponseEntity<List<TimedRoute>>> findTimedPaths(@RequestBody List<PathRequest> requests) {
+        List<int[]> queries = requests.stream()
+                .map(r -> new int[]{r.getStartX(), r.getStartY(), r.getEndX(), r.getEndY()})
+                .collect(Collectors.toList());
+        return respond(routing.submit(() -> TimeDependentRouter.getInstance().findRoutes(queries)));
+    }
+
+    /**
+     * Finds the fastest route for an EV with the given charge, inserting charging
+     * stops when the charge is insufficient for the trip.
+     *
+     * @param request The start and end coordinates and the battery state.
+     * @return The route with its charging stops, or an empty path if infeasible.
+     */
+    @PostMapping("/findPath/energy")
+    public CompletableFuture<ResponseEntity<EnergyRoute>> findEnergyPath(@RequestBody EnergyPathRequest request) {
+        return respond(routing.submit(() -> EnergyRouter.getInstance().findRoute(
+                request.getStartX(),
+                request.getStartY(),
+                request.getEndX(),
+                request.getEndY(),
+                request.getCharge(),
+                request.getChargingRate())));
+    }
+
+    /**
+     * Returns the road distance between two cells without building a path. The
+     * DistanceOracle answers in microseconds, so the query runs on the request thread.
+     *
+     * @return ResponseEntity with the number of moves, the landmark lower bound and
+     *         the travel time without signal waits, or 404 if a cell is not a road.
+     */
+    @GetMapping("/distance")
+    public ResponseEntity<DistanceEstimate> getDistance(@RequestParam int fromX, @RequestParam int fromY,
+                                                        @RequestParam int toX, @RequestParam int toY) {
+        RoadGraph graph = gameMap.getGraph();
+        int from = graph.nodeId(fromX, fromY);
+        int to = graph.nodeId(toX, toY);
+        if (from < 0 || to < 0) {
+            return ResponseEntity.notFound().build();
         }
-        return nodes;
+        DistanceOracle oracle = gameMap.getDistanceOracle();
+        int moves = oracle.distance(graph, from, to);
+        int bound = oracle.lowerBound(from, to);
+        return ResponseEntity.ok(new DistanceEstimate(
+                moves == DistanceOracle.UNREACHABLE ? -1 : moves,
+                bound == DistanceOracle.UNREACHABLE ? -1 : bound,
+                moves == DistanceOracle.UNREACHABLE ? -1 : moves * EV.MOVE_INTERVAL));
+    }
+
+    /**
+     * Returns the load of the routing executor: searches in flight, queued and
+     * running, rejections, timeouts and the latency percentiles of recent searches.
+     *
+     * @return ResponseEntity with the routing gauges.
+     */
+    @GetMapping("/metrics/routing")
+    public ResponseEntity<RoutingStats> getRoutingStats() {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .body(routing.getStats());
     }
 
+    /**
+     * Returns the whole road network. The response is built once per map version
+     * and can be revalidated with its ETag, which is derived from the map content.
+     *
+     * @param ifNoneMatch The ETag the client already has, if any.
+     * @return ResponseEntity with the map, or 304 if the client's copy is current.
+     */
     @GetMapping("/map")
-    public MapData getMapData() {
-        return new MapData(gameMap.getRoadNetwork());
+    public ResponseEntity<MapData> getMapData(
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        MapTiles tiles = MapTiles.getInstance();
+        if (tiles.getMapDataETag().equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(tiles.getMapDataETag())
+                    .cacheControl(CacheControl.noCache())
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(tiles.getMapDataETag())
+                .cacheControl(CacheControl.noCache())
+                .body(tiles.getMapData());
+    }
+
+    /**
+     * Reports the cells of the map where vehicles get stuck or never arrive: dead
+     * ends, one-way traps and cells the main road network does not reach.
+     *
+     * @return ResponseEntity with the component counts and every flagged cell.
+     */
+    @GetMapping("/map/validation")
+    public ResponseEntity<MapValidationReport> getMapValidation() {
+        return ResponseEntity.ok(gameMap.getValidationReport());
+    }
+
+    /**
+     * Returns the congestion counters of the last window as grids aligned with the map.
+     *
+     * @return ResponseEntity with occupancy, denied moves and pass-throughs per cell,
+     *         404 if the heatmap is disabled, or 503 if a shard fails.
+     */
+    @GetMapping("/metrics/heatmap")
+    public ResponseEntity<HeatmapGrid> getHeatmap() {
+        HeatmapGrid grid;
+        ShardCoordinator coordinator = ShardCoordinator.getInstance();
+        if (coordinator != null) {
+            try {
+                grid = coordinator.heatmap();
+            } catch (IOException e) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+            }
+        } else {
+            CongestionHeatmap heatmap = CongestionHeatmap.getInstance();
+            grid = heatmap == null ? null : heatmap.snapshot(gameMap);
+        }
+        if (grid == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .body(grid);
+    }
+
+    /**
+     * Describes the tile grid of the road network.
+     *
+     * @return ResponseEntity with the tile size, grid dimensions, map version and content key.
+     */
+    @GetMapping("/map/tiles")
+    public ResponseEntity<MapTileIndex> getMapTileIndex() {
+        MapTiles tiles = MapTiles.getInstance();
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .body(new MapTileIndex(tiles.getVersion(), tiles.getContentKey(), MapTiles.TILE_SIZE,
+                        tiles.getRows(), tiles.getCols()));
+    }
+
+    /**
+     * Returns one tile of the road network as JSON or, with format=binary, as bit masks.
+     * Tiles carry a strong ETag. A request naming the current content key gets a
+     * long-lived cacheable response; otherwise clients revalidate on every use.
+     *
+     * @param tileX The tile row.
+     * @param tileY The tile column.
+     * @param format "json" (default) or "binary".
+     * @param key The content key the client expects, if any.
+     * @param ifNoneMatch The ETag the client already has, if any.
+     * @return ResponseEntity with the tile, 304 if unchanged, or 404 outside the map.
+     */
+    @GetMapping("/map/tiles/{tileX}/{tileY}")
+    public ResponseEntity<?> getMapTile(
+            @PathVariable int tileX,
+            @PathVariable int tileY,
+            @RequestParam(defaultValue = "json") String format,
+            @RequestParam(required = false) String key,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        MapTiles tiles = MapTiles.getInstance();
+        MapTile tile = tiles.getTile(tileX, tileY);
+        if (tile == null) {
+            return ResponseEntity.notFound().build();
+        }
+        boolean binary = "binary".equals(format);
+        String eTag = binary ? tile.binaryETag() : tile.jsonETag();
+        // A URL keyed by content never changes, older or unkeyed ones must revalidate
+        CacheControl cacheControl = tiles.getContentKey().equals(key)
+                ? CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic()
+                : CacheControl.noCache();
+        if (eTag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(cacheControl).build();
+        }
+        if (binary) {
+            return ResponseEntity.ok()
+                    .eTag(eTag)
+                    .cacheControl(cacheControl)
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .body(tile.binary());
+        }
+        return ResponseEntity.ok().eTag(eTag).cacheControl(cacheControl).body(tile);
+    }
+
+    /**
+     * Closes a cell, or a directed edge when toX and toY are given.
+     * Vehicles whose remaining path crosses the closure are notified and rerouted.
+     *
+     * @param request The cell or edge to close.
+     * @return ResponseEntity with the closure result, or 404 if the cell or edge does not exist.
+     */
+    @PostMapping("/map/closures")
+    public ResponseEntity<ClosureResult> addClosure(@RequestBody ClosureRequest request) {
+        ClosureResult result = IncidentManager.getInstance().close(
+                request.getX(), request.getY(), request.getToX(), request.getToY());
+        if (result == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Re-opens a closed cell, or a directed edge when toX and toY are given.
+     *
+     * @param request The cell or edge to re-open.
+     * @return ResponseEntity with the result, or 404 if the cell or edge does not exist.
+     */
+    @DeleteMapping("/map/closures")
+    public ResponseEntity<ClosureResult> removeClosure(@RequestBody ClosureRequest request) {
+        ClosureResult result = IncidentManager.getInstance().reopen(
+                request.getX(), request.getY(), request.getToX(), request.getToY());
+        if (result == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Lists the current closures.
+     *
+     * @return Closed cells as [x, y] and closed edges as [fromX, fromY, toX, toY].
+     */
+    @GetMapping("/map/closures")
+    public List<int[]> getClosures() {
+        return IncidentManager.getInstance().listClosures();
+    }
+}
+
+/**
+ * Road distance between two cells, returned by the distance endpoint. Values are -1
+ * if there is no route.
+ */
+class DistanceEstimate {
+    public int moves; // Moves on the current graph
+    public int lowerBound; // Landmark lower bound on the moves
+    public long etaMillis; // Travel time at one move per interval, without signal waits
+
+    public DistanceEstimate(int moves, int lowerBound, long etaMillis) {
+        this.moves = moves;
+        this.lowerBound = lowerBound;
+        this.etaMillis = etaMillis;
+    }
+}
+
+/**
+ * Represents a road closure request. Without toX and toY the whole cell at
+ * (x, y) is closed; with them only the directed edge (x, y) -> (toX, toY) is.
+ */
+class ClosureRequest {
+    /** The x-coordinate of the cell, or of the edge's source */
+    private int x;
+
+    /** The y-coordinate of the cell, or of the edge's source */
+    private int y;
+
+    /** The x-coordinate of the edge's target, or null for a cell closure */
+    private Integer toX;
+
+    /** The y-coordinate of the edge's target, or null for a cell closure */
+    private Integer toY;
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public Integer getToX() {
+        return toX;
+    }
+
+    public Integer getToY() {
+        return toY;
+    }
+
+    public void setX(int x) {
+        this.x = x;
+    }
+
+    public void setY(int y) {
+        this.y = y;
+    }
+
+    public void setToX(Integer toX) {
+        this.toX = toX;
+    }
+
+    public void setToY(Integer toY) {
+        this.toY = toY;
     }
 }
 
@@ -190,6 +532,34 @@ class PathRequest {
     }
 }
 
+/**
+ * Represents an energy-aware path finding request: a PathRequest together with
+ * the EV's current charge and charging rate.
+ */
+class EnergyPathRequest extends PathRequest {
+    /** Current charge of the EV (percentage) */
+    private int charge;
+
+    /** Charge gained per charging interval */
+    private int chargingRate;
+
+    public int getCharge() {
+        return charge;
+    }
+
+    public int getChargingRate() {
+        return chargingRate;
+    }
+
+    public void setCharge(int charge) {
+        this.charge = charge;
+    }
+
+    public void setChargingRate(int chargingRate) {
+        this.chargingRate = chargingRate;
+    }
+}
+
 /**
  * Represents a node in a road network with positional and directional
  * information.
@@ -269,17 +639,27 @@ class MapData {
     /**
      * Constructs MapData by converting a road network map to a list of RoadNodes.
      * 
-     * Transforms each node in the network to a RoadNode, determining one-way status
-     * based on the presence of neighboring nodes.
+     * Transforms each node in the network to a RoadNode. A node is one-way when
+     * one of its neighbors has no road leading back to it.
      * 
      * @param roadNetwork The original road network map to be converted
      */
     public MapData(Map<String, Node> roadNetwork) {
         this.roads = roadNetwork.values().stream()
-                .map(node -> new RoadNode(node.x, node.y, !node.neighbors.isEmpty()))
+                .map(node -> new RoadNode(node.x, node.y,
+                        node.neighbors.stream().anyMatch(neighbor -> !neighbor.neighbors.contains(node))))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Constructs MapData from road nodes that were already converted.
+     *
+     * @param roads The road nodes
+     */
+    public MapData(List<RoadNode> roads) {
+        this.roads = roads;
+    }
+
     /**
      * Retrieves the list of road nodes.
      * 
@@ -1,8 +1,6 @@
 package radiant.seven;
 import java.util.Scanner;
-import java.util.Map;
-import java.util.List;
-import java.util.ArrayList;
+import java.util.function.LongConsumer;
 
 /**
  * The PathfindingVisualizer class provides a visualization tool for pathfinding algorithms.
@@ -11,12 +9,18 @@ import java.util.ArrayList;
  */
 public class PathfindingVisualizer {
     private static boolean libraryLoaded = false;
+    private static volatile LongConsumer routeTimer; // Receives the duration of every route lookup, or null
 
-    // Static block to load the native library once
+    // Static block to load the native library once. Platforms without the native
+    // library fall back to a breadth-first search over the RoadGraph snapshot.
     static {
         if (!libraryLoaded) {
-            System.loadLibrary("dijkstra_jni");
-            libraryLoaded = true;
+            try {
+                System.loadLibrary("dijkstra_jni");
+                libraryLoaded = true;
+            } catch (UnsatisfiedLinkError e) {
+                System.out.println("Native pathfinding library not available, using Java search");
+            }
         }
     }
 
@@ -60,22 +64,8 @@ public class PathfindingVisualizer {
             int endX = scanner.nextInt();    // 1-based input
             int endY = scanner.nextInt();    // 1-based input
 
-            Map<String, Node> roadNetwork = map.getRoadNetwork();
-            List<Node> nodes = new ArrayList<>(roadNetwork.values());
-
-            // Prepare node coordinates and neighbor lists for the native method
-            int[][] nodeCoords = new int[nodes.size()][2];
-            int[][] neighborLists = new int[nodes.size()][];
-            for (int i = 0; i < nodes.size(); i++) {
-                Node node = nodes.get(i);
-                nodeCoords[i] = new int[]{node.x, node.y}; // 1-based coordinates
-                neighborLists[i] = node.neighbors.stream()
-                        .mapToInt(nodes::indexOf)
-                        .toArray();
-            }
-
-            // Call the native method and visualize the result
-            long[] path = findPathInNetwork(startX, startY, endX, endY, nodeCoords, neighborLists);
+            // Find the path and visualize the result
+            long[] path = findPath(startX, startY, endX, endY);
             visualizePath(path);
         } finally {
             scanner.close();
@@ -83,7 +73,8 @@ public class PathfindingVisualizer {
     }
 
     /**
-     * Finds the path between two points using the A* algorithm.
+     * Finds the path between two points using the A* algorithm, in the interleaved
+     * x, y layout of the native search.
      *
      * @param startX Starting point's x-coordinate (1-based).
      * @param startY Starting point's y-coordinate (1-based).
@@ -92,22 +83,76 @@ public class PathfindingVisualizer {
      * @return Array representing the path as a sequence of x, y coordinates.
      */
     public long[] findPath(int startX, int startY, int endX, int endY) {
-        Map<String, Node> roadNetwork = map.getRoadNetwork();
-        List<Node> nodes = new ArrayList<>(roadNetwork.values());
-
-        // Prepare node coordinates and neighbor lists for the native method
-        int[][] nodeCoords = new int[nodes.size()][2];
-        int[][] neighborLists = new int[nodes.size()][];
-        for (int i = 0; i < nodes.size(); i++) {
-            Node node = nodes.get(i);
-            nodeCoords[i] = new int[]{node.x, node.y}; // 1-based coordinates
-            neighborLists[i] = node.neighbors.stream()
-                    .mapToInt(nodes::indexOf)
-                    .toArray();
+        return findRoute(startX, startY, endX, endY).toCoordinates();
+    }
+
+    /**
+     * Finds the path between two points using the A* algorithm.
+     * The search runs on the current RoadGraph snapshot, so closures applied while
+     * it is running do not affect it. Results are shared through the RouteCache, and
+     * concurrent lookups of the same route wait for one search, so the returned route
+     * may be shared with other callers and vehicles. In deterministic mode the route
+     * always comes from the Java breadth-first search or the all-pairs table, which
+     * agrees with it, so a recorded run and its re-simulation pick the same route on
+     * every machine and configuration.
+     *
+     * @param startX Starting point's x-coordinate (1-based).
+     * @param startY Starting point's y-coordinate (1-based).
+     * @param endX Ending point's x-coordinate (1-based).
+     * @param endY Ending point's y-coordinate (1-based).
+     * @return The route, empty if either point is not a road or no route exists.
+     */
+    public PackedPath findRoute(int startX, int startY, int endX, int endY) {
+        LongConsumer timer = routeTimer;
+        if (timer == null) {
+            return searchRoute(startX, startY, endX, endY);
+        }
+        long started = System.nanoTime();
+        PackedPath path = searchRoute(startX, startY, endX, endY);
+        timer.accept(System.nanoTime() - started);
+        return path;
+    }
+
+    /**
+     * Reports the duration in nanoseconds of every findRoute call, cache hits
+     * included, to a consumer. The ScenarioRunner uses it for its latency percentiles.
+     *
+     * @param timer The consumer, or null to stop timing.
+     */
+    static void setRouteTimer(LongConsumer timer) {
+        routeTimer = timer;
+    }
+
+    private PackedPath searchRoute(int startX, int startY, int endX, int endY) {
+        RoadGraph graph = map.getGraph();
+        int startNode = graph.nodeId(startX, startY);
+        int endNode = graph.nodeId(endX, endY);
+        if (startNode < 0 || endNode < 0) {
+            return PackedPath.EMPTY;
+        }
+        // Nodes in components without a route between them need no search
+        RoadComponents components = map.getComponents();
+        if (components != null && !components.canReach(startNode, endNode)) {
+            return PackedPath.EMPTY;
         }
 
-        // Call the native method and return the result
-        return findPathInNetwork(startX, startY, endX, endY, nodeCoords, neighborLists);
+        // Concurrent lookups of the same route share one search
+        return RouteCache.getInstance().load(graph, startNode, endNode, () -> {
+            // With all-pairs routing the route is a walk along the next-hop table,
+            // which breaks ties the same way as the Java search
+            int[] nodes = NextHopTable.route(graph, startNode, endNode);
+            if (nodes != null) {
+                return PackedPath.of(graph, nodes);
+            }
+            // The native search breaks ties between equally short routes differently, so
+            // a reproducible run always uses the Java search, whatever the machine has
+            if (libraryLoaded && !SimulationEngine.isDeterministic()) {
+                // Call the native method with the snapshot's precomputed arrays
+                return PackedPath.fromCoordinates(graph, findPathInNetwork(startX, startY, endX, endY,
+                        graph.nativeNodeCoords(), graph.nativeNeighborLists()));
+            }
+            return PackedPath.of(graph, graph.shortestPath(startNode, endNode));
+        });
     }
 
     /**
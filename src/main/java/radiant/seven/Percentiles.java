@@ -0,0 +1,22 @@
+package radiant.seven;
+
+/**
+ * Percentiles of latency samples, shared by the routing metrics endpoint and the
+ * ScenarioRunner's summary.
+ */
+final class Percentiles {
+
+    private Percentiles() {
+    }
+
+    /**
+     * @param sorted Values in ascending order.
+     * @param p Fraction of the values at or below the result, from 0 to 1.
+     * @return The nearest-rank percentile of the values, 0 if there are none.
+     */
+    static long nearestRank(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
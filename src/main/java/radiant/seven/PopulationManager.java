@@ -0,0 +1,441 @@
+package radiant.seven;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a target density of NPC vehicles on the map.
+ *
+ * The map is divided into square regions of REGION_SIZE cells, and the road node
+ * ids of each region are precomputed into one array, so a spawn cell is drawn with
+ * a single random index instead of sampling cells until one is a road. Once per
+ * rebalance interval the manager counts its NPCs per region, spawns NPCs in the
+ * regions below their target and retires NPCs from the regions above it. The
+ * target of a region is the density times its number of road cells. NPCs that have
+ * been driving longest are retired first.
+ *
+ * Destinations come from the DemandModel. When the model has an hourly trip rate,
+ * the population follows the demand instead: each pass starts the trips due since
+ * the previous one, at origins and destinations drawn from the OD matrix of the
+ * hour, and the density only caps the total number of NPCs.
+ *
+ * Spawned NPCs are registered with the VehicleRegistry and handed to a starter,
+ * which puts them on the SimulationEngine, queues them on the ShardCoordinator or
+ * starts their movement thread. NPCs retired through the API are forgotten through
+ * a registry listener.
+ */
+public class PopulationManager {
+    static final int REGION_SIZE = 16; // Width and height of a region in cells
+    static final String[] VEHICLE_TYPES = { "ambulance", "coupe", "ev", "hatchback", "luxury",
+            "pickup", "sedan", "sport", "super", "suv", "van" };
+    private static PopulationManager instance; // Singleton instance
+
+    private final GameMap map;
+    private final VehicleRegistry registry;
+    private final PathfindingVisualizer pathfinder;
+    private final int regionCols; // Regions along y
+    private final int[] regionStart; // Road nodes of region r are regionNodes[regionStart[r]] up to regionStart[r + 1]
+    private final int[] regionNodes; // Road node ids, grouped by region
+    private final int[] regionIndex; // Node id -> index of the node in regionNodes
+    private final Set<EV> managed = ConcurrentHashMap.newKeySet(); // NPCs spawned by the manager
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, r -> {
+        Thread t = new Thread(r, "population-manager");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Random random = new Random(); // Used outside deterministic mode
+    private Consumer<EV> starter = ev -> { }; // Starts the movement of a new NPC
+    private volatile double density = 0; // Target NPCs per road cell, 0 = not managed
+    private final AtomicLong spawned = new AtomicLong(); // NPCs spawned since start
+    private final AtomicLong retired = new AtomicLong(); // NPCs retired by rebalancing since start
+    private ScheduledFuture<?> rebalancing; // Scheduled rebalancing, or null
+
+    // An NPC drawn by a rebalancing pass, spawned once its route is found
+    private static class Spawn {
+        final int start; // Road node the NPC starts on
+        final int end; // Road node it drives to
+        final String vehicleType;
+        PackedPath path; // Route, found outside the engine's lock
+
+        Spawn(int start, int end, Random random) {
+            this.start = start;
+            this.end = end;
+            this.vehicleType = VEHICLE_TYPES[random.nextInt(VEHICLE_TYPES.length)];
+        }
+    }
+
+    PopulationManager(GameMap map, VehicleRegistry registry) {
+        this.map = map;
+        this.registry = registry;
+        this.pathfinder = new PathfindingVisualizer(map);
+
+        RoadGraph graph = map.getGraph();
+        int regionRows = (map.getHeight() + REGION_SIZE - 1) / REGION_SIZE;
+        this.regionCols = (map.getWidth() + REGION_SIZE - 1) / REGION_SIZE;
+        int n = graph.nodeCount();
+        this.regionStart = new int[regionRows * regionCols + 1];
+        for (int node = 0; node < n; node++) {
+            regionStart[regionOf(graph.x(node), graph.y(node)) + 1]++;
+        }
+        for (int r = 0; r < regionRows * regionCols; r++) {
+            regionStart[r + 1] += regionStart[r];
+        }
+        this.regionNodes = new int[n];
+        this.regionIndex = new int[n];
+        int[] fill = Arrays.copyOf(regionStart, regionStart.length - 1);
+        for (int node = 0; node < n; node++) {
+            int index = fill[regionOf(graph.x(node), graph.y(node))]++;
+            regionNodes[index] = node;
+            regionIndex[node] = index;
+        }
+
+        registry.addListener(new VehicleRegistry.Listener() {
+            @Override
+            public void onRetire(EV ev) {
+                managed.remove(ev);
+            }
+        });
+    }
+
+    /**
+     * @return The singleton PopulationManager.
+     */
+    public static synchronized PopulationManager getInstance() {
+        if (instance == null) {
+            instance = new PopulationManager(GameMap.getInstance(), VehicleRegistry.getInstance());
+        }
+        return instance;
+    }
+
+    private int regionOf(int x, int y) {
+        return ((x - 1) / REGION_SIZE) * regionCols + (y - 1) / REGION_SIZE;
+    }
+
+    // @return number of regions
+    int regionCount() {
+        return regionStart.length - 1;
+    }
+
+    /**
+     * Sets how new NPCs are started. EVController hands them to the SimulationEngine
+     * or starts their movement thread.
+     */
+    public void setStarter(Consumer<EV> starter) {
+        this.starter = starter;
+    }
+
+    /**
+     * Sets the target density and rebalances at a fixed interval from now on,
+     * replacing the interval of an earlier call.
+     *
+     * @param density Target NPCs per road cell, 0 to stop managing the population.
+     * @param intervalMillis Milliseconds between rebalances.
+     */
+    public synchronized void start(double density, long intervalMillis) {
+        setDensity(density);
+        if (rebalancing != null) rebalancing.cancel(false);
+        rebalancing = scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                rebalance();
+            } catch (RuntimeException e) {
+                System.out.println("Population rebalance failed: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void setDensity(double density) {
+        if (density < 0) throw new IllegalArgumentException("Density must not be negative");
+        this.density = density;
+    }
+
+    public double getDensity() {
+        return density;
+    }
+
+    /**
+     * Spawns and retires NPCs until every region is at its target, or starts the
+     * trips that are due if the DemandModel emits trips. Does nothing while the
+     * density is 0 and the model emits no trips.
+     *
+     * Spawn cells and destinations are drawn and the surplus is retired under the
+     * engine's lock; the routes of the new NPCs are searched without it, so the
+     * engine keeps ticking meanwhile, and the lock is taken again to spawn them.
+     */
+    public void rebalance() {
+        if (density <= 0 && !DemandModel.getInstance().emitsTrips()) return;
+        SimulationEngine engine = SimulationEngine.getInstance();
+        List<Spawn> planned;
+        if (engine != null) {
+            // Draw from the engine's seeded stream, and keep the engine still while counting
+            synchronized (engine) {
+                planned = plan(engine.getSpawnRandom());
+            }
+        } else {
+            synchronized (this) {
+                planned = plan(random);
+            }
+        }
+        route(planned);
+        commit(planned);
+    }
+
+    // Retires the surplus and draws the NPCs to spawn; called with the engine's lock held
+    private List<Spawn> plan(Random random) {
+        DemandModel demand = DemandModel.getInstance();
+        BitSet taken = new BitSet(map.getGraph().nodeCount());
+        Map<EV, Integer> located = locate(taken);
+        if (demand.emitsTrips()) {
+            List<Spawn> planned = planTrips(demand.tripsDue(SimulationClock.now()), taken, random);
+            if (density > 0) {
+                List<EV> npcs = new ArrayList<>(located.keySet());
+                npcs.sort(Comparator.comparingInt(EV::getId));
+                int excess = npcs.size() + planned.size() - totalTarget();
+                if (excess > 0) retire(npcs.subList(0, Math.min(excess, npcs.size())));
+            }
+            return planned;
+        }
+
+        List<List<EV>> present = countByRegion(located);
+        List<EV> surplus = new ArrayList<>();
+        List<Spawn> planned = new ArrayList<>();
+        for (int r = 0; r < regionCount(); r++) {
+            List<EV> here = present.get(r);
+            int excess = here.size() - target(r);
+            if (excess > 0) {
+                surplus.addAll(here.subList(0, excess));
+            } else if (excess < 0) {
+                planIn(r, -excess, taken, planned, random);
+            }
+        }
+        // Retired in one pass, so the engine's store is compacted once
+        retire(surplus);
+        return planned;
+    }
+
+    // @return target number of NPCs in a region
+    private int target(int region) {
+        return (int) Math.round(density * (regionStart[region + 1] - regionStart[region]));
+    }
+
+    private int totalTarget() {
+        int target = 0;
+        for (int r = 0; r < regionCount(); r++) {
+            target += target(r);
+        }
+        return target;
+    }
+
+    /**
+     * Finds the road node of every managed NPC. In sharded mode the registered NPCs
+     * stay where they were spawned, so the positions come from the shards, and as
+     * this map's cells are not stalled the cells of every vehicle are marked taken.
+     *
+     * @param taken Receives the cells of the shards' vehicles in sharded mode.
+     * @return Road node per managed NPC that is on the road.
+     */
+    private Map<EV, Integer> locate(BitSet taken) {
+        RoadGraph graph = map.getGraph();
+        Map<EV, Integer> located = new HashMap<>();
+        ShardCoordinator coordinator = ShardCoordinator.getInstance();
+        if (coordinator == null) {
+            for (EV ev : managed) {
+                if (ev.getPath() == null || ev.getPath().isEmpty()) continue;
+                int node = graph.nodeId(ev.getCurrentX(), ev.getCurrentY());
+                if (node >= 0) located.put(ev, node);
+            }
+            return located;
+        }
+        Map<Integer, EV> byId = new HashMap<>();
+        for (EV ev : managed) {
+            byId.put(ev.getId(), ev);
+        }
+        try {
+            for (EV remote : coordinator.getVehicles()) {
+                int node = graph.nodeId(remote.getCurrentX(), remote.getCurrentY());
+                if (node < 0) continue;
+                taken.set(node);
+                EV ev = byId.get(remote.getId());
+                if (ev != null) located.put(ev, node);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return located;
+    }
+
+    // @return managed NPCs per region, in id order
+    private List<List<EV>> countByRegion(Map<EV, Integer> located) {
+        RoadGraph graph = map.getGraph();
+        List<List<EV>> present = new ArrayList<>(regionCount());
+        for (int r = 0; r < regionCount(); r++) {
+            present.add(new ArrayList<>());
+        }
+        List<EV> npcs = new ArrayList<>(located.keySet());
+        npcs.sort(Comparator.comparingInt(EV::getId));
+        for (EV ev : npcs) {
+            int node = located.get(ev);
+            present.get(regionOf(graph.x(node), graph.y(node))).add(ev);
+        }
+        return present;
+    }
+
+    private void retire(List<EV> surplus) {
+        retired.addAndGet(registry.retireAll(surplus));
+        managed.removeAll(surplus);
+    }
+
+    /**
+     * Spawns NPCs for trips drawn from the DemandModel for the current hour. A trip
+     * whose origin is taken starts at the nearest free cell of the origin's region
+     * in probing order. Draws from the engine's seeded stream in deterministic mode.
+     *
+     * @return The NPCs that were spawned; fewer than count if trips had no free cell or route.
+     */
+    public List<EV> spawn(int count) {
+        SimulationEngine engine = SimulationEngine.getInstance();
+        BitSet taken = new BitSet(map.getGraph().nodeCount());
+        List<Spawn> planned;
+        if (engine != null) {
+            synchronized (engine) {
+                locate(taken);
+                planned = planTrips(count, taken, engine.getSpawnRandom());
+            }
+        } else {
+            synchronized (this) {
+                locate(taken);
+                planned = planTrips(count, taken, random);
+            }
+        }
+        route(planned);
+        return commit(planned);
+    }
+
+    private List<Spawn> planTrips(int count, BitSet taken, Random random) {
+        DemandModel demand = DemandModel.getInstance();
+        List<Spawn> planned = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int[] trip = demand.sampleTrip(SimulationClock.now(), random);
+            if (trip == null) break;
+            int region = regionOf(map.getGraph().x(trip[0]), map.getGraph().y(trip[0]));
+            int start = freeNode(regionStart[region], regionStart[region + 1], regionIndex[trip[0]], taken);
+            if (start < 0) continue;
+            planned.add(new Spawn(start, trip[1], random));
+            taken.set(start);
+        }
+        return planned;
+    }
+
+    private void planIn(int region, int count, BitSet taken, List<Spawn> planned, Random random) {
+        DemandModel demand = DemandModel.getInstance();
+        int from = regionStart[region];
+        int to = regionStart[region + 1];
+        for (int i = 0; i < count; i++) {
+            int start = freeNode(from, to, from + random.nextInt(to - from), taken);
+            if (start < 0) return;
+            int end = demand.sampleDestination(start, SimulationClock.now(), random);
+            if (end < 0) continue;
+            planned.add(new Spawn(start, end, random));
+            taken.set(start);
+        }
+    }
+
+    /**
+     * Finds an open road node in regionNodes[from..to) that is neither stalled nor
+     * taken, probing from the given index.
+     *
+     * @return The node id, or -1 if every node in the range is taken.
+     */
+    private int freeNode(int from, int to, int index, BitSet taken) {
+        RoadGraph graph = map.getGraph();
+        for (int probe = 0; probe < to - from; probe++) {
+            int node = regionNodes[from + (index - from + probe) % (to - from)];
+            if (!graph.isCellClosed(node) && !map.getNode(node).isStalled() && !taken.get(node)) return node;
+        }
+        return -1;
+    }
+
+    // Searches the route of every planned NPC, without holding any lock of the manager or engine
+    private void route(List<Spawn> planned) {
+        RoadGraph graph = map.getGraph();
+        for (Spawn spawn : planned) {
+            spawn.path = pathfinder.findRoute(graph.x(spawn.start), graph.y(spawn.start),
+                    graph.x(spawn.end), graph.y(spawn.end));
+        }
+    }
+
+    // Spawns the planned NPCs that have a route and whose cell is still free
+    private List<EV> commit(List<Spawn> planned) {
+        SimulationEngine engine = SimulationEngine.getInstance();
+        if (engine != null) {
+            synchronized (engine) {
+                return spawnAll(planned);
+            }
+        }
+        synchronized (this) {
+            return spawnAll(planned);
+        }
+    }
+
+    private List<EV> spawnAll(List<Spawn> planned) {
+        RoadGraph graph = map.getGraph();
+        List<EV> npcs = new ArrayList<>(planned.size());
+        for (Spawn spawn : planned) {
+            if (spawn.path.size() < 2) continue;
+            // A vehicle may have moved onto the cell while the route was searched
+            if (graph.isCellClosed(spawn.start) || map.getNode(spawn.start).isStalled()) continue;
+
+            NPCVehicle npc = new NPCVehicle(graph.x(spawn.start), graph.y(spawn.start), spawn.vehicleType);
+            npc.setEndLocation(graph.x(spawn.end), graph.y(spawn.end));
+            npc.setPath(spawn.path);
+            npc.setMoving(true);
+            registry.register(npc);
+            managed.add(npc);
+            starter.accept(npc);
+            spawned.incrementAndGet();
+            npcs.add(npc);
+        }
+        return npcs;
+    }
+
+    /**
+     * @return The target density, the target and current number of managed NPCs and
+     *         the spawn and retirement counters.
+     */
+    public PopulationStatus getStatus() {
+        return new PopulationStatus(density, totalTarget(), managed.size(), spawned.get(), retired.get());
+    }
+
+    /**
+     * Stops rebalancing.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
+
+/**
+ * State of the NPC population, returned by the population endpoint.
+ */
+class PopulationStatus {
+    public double density; // Target NPCs per road cell
+    public int target; // Target number of NPCs over all regions
+    public int current; // NPCs managed now
+    public long spawned; // NPCs spawned since start
+    public long retired; // NPCs retired by rebalancing since start
+
+    public PopulationStatus(double density, int target, int current, long spawned, long retired) {
+        this.density = density;
+        this.target = target;
+        this.current = current;
+        this.spawned = spawned;
+        this.retired = retired;
+    }
+}
@@ -0,0 +1,286 @@
+package radiant.seven;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Strongly connected components of the road graph, computed once when the map
+ * loads, to reject unreachable routes without searching.
+ *
+ * Components are found with an iterative Tarjan search, so deep one-way chains on
+ * large maps cannot overflow the stack. Tarjan completes a component only after
+ * every component it leads to, so component ids are in reverse topological order:
+ * a route from a to b needs comp(a) >= comp(b). On maps with at most
+ * MAX_CLOSURE_COMPONENTS components the reachability between components is also
+ * stored, one bit set per component, and canReach() is exact. The components are
+ * taken on the map without closures; closures only remove edges, so a pair
+ * rejected here is unreachable on every snapshot, while a pair accepted here may
+ * still be cut off by a closure and is left to the search.
+ */
+public final class RoadComponents {
+    static final int MAX_CLOSURE_COMPONENTS = 4096; // Largest component count with stored reachability
+
+    private final int[] component; // Node id -> component id
+    private final int count; // Number of components
+    private final int largest; // Id of the component with the most nodes
+    private final int[] sizes; // Component id -> number of nodes
+    private final BitSet[] reach; // Component id -> components it can reach, or null on large maps
+
+    private RoadComponents(int[] component, int count, BitSet[] reach) {
+        this.component = component;
+        this.count = count;
+        this.reach = reach;
+        this.sizes = new int[count];
+        for (int c : component) {
+            sizes[c]++;
+        }
+        int best = 0;
+        for (int c = 1; c < count; c++) {
+            if (sizes[c] > sizes[best]) best = c;
+        }
+        this.largest = best;
+    }
+
+    /**
+     * Computes the components of a graph.
+     *
+     * @param graph The graph without closures.
+     * @return The components.
+     */
+    public static RoadComponents build(RoadGraph graph) {
+        int n = graph.nodeCount();
+        int[] index = new int[n]; // Discovery order, -1 if not yet visited
+        int[] low = new int[n]; // Lowest discovery order reachable through the search tree
+        int[] component = new int[n];
+        int[] edge = new int[n]; // Next edge to follow from a node on the call stack
+        int[] calls = new int[n]; // Nodes whose edges are being followed, innermost last
+        int[] open = new int[n]; // Nodes not yet assigned to a component, in discovery order
+        boolean[] onOpen = new boolean[n];
+        Arrays.fill(index, -1);
+        int visited = 0, depth = 0, openSize = 0, count = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) continue;
+            index[root] = low[root] = visited++;
+            edge[root] = graph.edgeStart(root);
+            calls[depth++] = root;
+            open[openSize++] = root;
+            onOpen[root] = true;
+            while (depth > 0) {
+                int u = calls[depth - 1];
+                if (edge[u] < graph.edgeEnd(u)) {
+                    int v = graph.edgeTarget(edge[u]++);
+                    if (index[v] < 0) {
+                        index[v] = low[v] = visited++;
+                        edge[v] = graph.edgeStart(v);
+                        calls[depth++] = v;
+                        open[openSize++] = v;
+                        onOpen[v] = true;
+                    } else if (onOpen[v]) {
+                        low[u] = Math.min(low[u], index[v]);
+                    }
+                    continue;
+                }
+                // Every edge of u followed: return to the caller
+                depth--;
+                if (depth > 0) {
+                    int parent = calls[depth - 1];
+                    low[parent] = Math.min(low[parent], low[u]);
+                }
+                if (low[u] == index[u]) {
+                    int v;
+                    do {
+                        v = open[--openSize];
+                        onOpen[v] = false;
+                        component[v] = count;
+                    } while (v != u);
+                    count++;
+                }
+            }
+        }
+        return new RoadComponents(component, count, count <= MAX_CLOSURE_COMPONENTS ? closure(graph, component, count) : null);
+    }
+
+    // Reachability between components, filled sinks first
+    private static BitSet[] closure(RoadGraph graph, int[] component, int count) {
+        int n = graph.nodeCount();
+        // Nodes grouped by component
+        int[] start = new int[count + 1];
+        for (int v = 0; v < n; v++) {
+            start[component[v] + 1]++;
+        }
+        for (int c = 0; c < count; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] members = new int[n];
+        int[] fill = Arrays.copyOf(start, count);
+        for (int v = 0; v < n; v++) {
+            members[fill[component[v]]++] = v;
+        }
+
+        BitSet[] reach = new BitSet[count];
+        for (int c = 0; c < count; c++) {
+            reach[c] = new BitSet(c + 1);
+            reach[c].set(c);
+            for (int i = start[c]; i < start[c + 1]; i++) {
+                int u = members[i];
+                for (int e = graph.edgeStart(u); e < graph.edgeEnd(u); e++) {
+                    int target = component[graph.edgeTarget(e)];
+                    // Edges leave towards lower ids only, whose sets are complete
+                    if (target != c && !reach[c].get(target)) reach[c].or(reach[target]);
+                }
+            }
+        }
+        return reach;
+    }
+
+    /**
+     * Checks whether a route between two nodes can exist. Answers in constant time.
+     *
+     * @return false if no snapshot of the map has a route; true if the map without
+     *         closures has one, or if that is unknown on maps with many components.
+     */
+    public boolean canReach(int from, int to) {
+        int a = component[from];
+        int b = component[to];
+        if (a == b) return true;
+        if (a < b) return false;
+        return reach == null || reach[a].get(b);
+    }
+
+    // @return component id of a node
+    public int componentOf(int node) {
+        return component[node];
+    }
+
+    // @return number of components
+    public int count() {
+        return count;
+    }
+
+    // @return id of the component with the most nodes
+    public int largest() {
+        return largest;
+    }
+
+    /**
+     * Checks the map for cells where vehicles get stuck or never arrive: cells without
+     * an exit, one-way traps from which the main road network (the largest component)
+     * cannot be reached again, and cells that cannot be reached from it.
+     *
+     * @param graph The graph the components were built from.
+     * @return The report, with one issue per cell and kind.
+     */
+    public MapValidationReport validate(RoadGraph graph) {
+        int n = graph.nodeCount();
+        int edges = 0;
+        for (int u = 0; u < n; u++) {
+            edges += graph.edgeEnd(u) - graph.edgeStart(u);
+        }
+        MapValidationReport report = new MapValidationReport(n, edges, count, n == 0 ? 0 : sizes[largest]);
+        if (n == 0) return report;
+
+        // Which components reach the main one, and which the main one reaches
+        BitSet reachesMain = new BitSet(count);
+        BitSet fromMain = new BitSet(count);
+        for (int c = 0; c < count; c++) {
+            if (c == largest || (reach != null && reach[c].get(largest))) reachesMain.set(c);
+            if (reach != null && reach[largest].get(c)) fromMain.set(c);
+        }
+        if (reach == null) {
+            // Too many components for the closure: one search each way from a main node
+            int mainNode = 0;
+            while (component[mainNode] != largest) mainNode++;
+            markComponents(graph, mainNode, false, fromMain);
+            markComponents(graph, mainNode, true, reachesMain);
+        }
+
+        for (int v = 0; v < n; v++) {
+            int x = graph.x(v), y = graph.y(v);
+            if (graph.edgeStart(v) == graph.edgeEnd(v)) {
+                report.add(x, y, MapIssue.DEAD_END);
+            } else if (!reachesMain.get(component[v])) {
+                report.add(x, y, MapIssue.TRAP);
+            }
+            if (!fromMain.get(component[v])) report.add(x, y, MapIssue.UNREACHABLE);
+        }
+        return report;
+    }
+
+    // Marks the components of every node reached from a node, along the edges or against them
+    private void markComponents(RoadGraph graph, int from, boolean reverse, BitSet marked) {
+        RoadGraph edges = reverse ? graph.reverse() : graph;
+        boolean[] seen = new boolean[edges.nodeCount()];
+        int[] queue = new int[edges.nodeCount()];
+        int head = 0, tail = 0;
+        queue[tail++] = from;
+        seen[from] = true;
+        while (head < tail) {
+            int u = queue[head++];
+            marked.set(component[u]);
+            for (int e = edges.edgeStart(u); e < edges.edgeEnd(u); e++) {
+                int v = edges.edgeTarget(e);
+                if (!seen[v]) {
+                    seen[v] = true;
+                    queue[tail++] = v;
+                }
+            }
+        }
+    }
+}
+
+/**
+ * Result of the map validation, returned by the map validation endpoint.
+ */
+class MapValidationReport {
+    public int nodes; // Road cells
+    public int edges; // Directed connections between road cells
+    public int components; // Strongly connected components
+    public int mainComponentSize; // Road cells in the largest component
+    public int deadEnds; // Cells without an exit
+    public int traps; // Cells from which the main network cannot be reached again
+    public int unreachable; // Cells that cannot be reached from the main network
+    public List<MapIssue> issues = new ArrayList<>(); // Every flagged cell, in node order
+
+    public MapValidationReport(int nodes, int edges, int components, int mainComponentSize) {
+        this.nodes = nodes;
+        this.edges = edges;
+        this.components = components;
+        this.mainComponentSize = mainComponentSize;
+    }
+
+    void add(int x, int y, String kind) {
+        issues.add(new MapIssue(x, y, kind));
+        switch (kind) {
+            case MapIssue.DEAD_END: deadEnds++; break;
+            case MapIssue.TRAP: traps++; break;
+            default: unreachable++; break;
+        }
+    }
+
+    // @return true if no cell was flagged
+    public boolean isValid() {
+        return issues.isEmpty();
+    }
+}
+
+/**
+ * A flagged cell of the map validation.
+ */
+class MapIssue {
+    static final String DEAD_END = "dead-end"; // No road leads out of the cell
+    static final String TRAP = "trap"; // Roads lead out, but never back to the main network
+    static final String UNREACHABLE = "unreachable"; // No road from the main network leads to the cell
+
+    public int x;
+    public int y;
+    public String kind;
+
+    public MapIssue(int x, int y, String kind) {
+        this.x = x;
+        this.y = y;
+        this.kind = kind;
+    }
+}
@@ -0,0 +1,336 @@
+package radiant.seven;
+// Import statements
+import java.util.*;
+
+/**
+ * An immutable, array-backed snapshot of the directed road network.
+ * Nodes are numbered 0..n-1 in (x, y) order so ids are stable between runs,
+ * and outgoing edges are stored in compressed-row form. Road closures never
+ * modify a snapshot: they produce a new one (copy-on-write), so searches that
+ * are already running keep a consistent view of the graph.
+ */
+public final class RoadGraph {
+    private final long version; // Incremented on every closure change
+    private final int width; // Number of columns in the map grid
+    private final int height; // Number of rows in the map grid
+    private final int[] xs; // Node id -> x-coordinate (1-based)
+    private final int[] ys; // Node id -> y-coordinate (1-based)
+    private final int[] cellToNode; // (x-1)*width+(y-1) -> node id, or -1 if no road
+    private final int[] baseStart; // Offsets into baseTarget for the unmodified map
+    private final int[] baseTarget; // Edge targets for the unmodified map
+    private final int[] edgeStart; // Offsets into edgeTarget with closures applied
+    private final int[] edgeTarget; // Edge targets with closures applied
+    private final Set<Long> closedEdges; // Closed directed edges, see edgeKey()
+    private final BitSet closedCells; // Closed cells by node id (no entry allowed)
+    private volatile int[][] nativeCoords; // Lazily built arguments for the native search
+    private volatile int[][] nativeNeighbors;
+    private volatile RoadGraph reversed; // Lazily built graph with every edge turned around
+
+    private RoadGraph(long version, int width, int height, int[] xs, int[] ys, int[] cellToNode,
+                      int[] baseStart, int[] baseTarget, Set<Long> closedEdges, BitSet closedCells) {
+        this.version = version;
+        this.width = width;
+        this.height = height;
+        this.xs = xs;
+        this.ys = ys;
+        this.cellToNode = cellToNode;
+        this.baseStart = baseStart;
+        this.baseTarget = baseTarget;
+        this.closedEdges = closedEdges;
+        this.closedCells = closedCells;
+
+        if (closedEdges.isEmpty() && closedCells.isEmpty()) {
+            this.edgeStart = baseStart;
+            this.edgeTarget = baseTarget;
+        } else {
+            int n = xs.length;
+            int[] start = new int[n + 1];
+            int[] target = new int[baseTarget.length];
+            int count = 0;
+            for (int u = 0; u < n; u++) {
+                start[u] = count;
+                for (int e = baseStart[u]; e < baseStart[u + 1]; e++) {
+                    int v = baseTarget[e];
+                    if (!closedCells.get(v) && !closedEdges.contains(edgeKey(u, v))) {
+                        target[count++] = v;
+                    }
+                }
+            }
+            start[n] = count;
+            this.edgeStart = start;
+            this.edgeTarget = Arrays.copyOf(target, count);
+        }
+    }
+
+    /**
+     * Builds the initial snapshot from the parsed road nodes.
+     *
+     * @param nodes All road nodes, with their neighbor lists populated.
+     * @param width Number of columns in the map grid.
+     * @param height Number of rows in the map grid.
+     * @return A snapshot with no closures, at version 0.
+     */
+    public static RoadGraph build(Collection<Node> nodes, int width, int height) {
+        List<Node> sorted = new ArrayList<>(nodes);
+        sorted.sort((a, b) -> a.x != b.x ? a.x - b.x : a.y - b.y);
+
+        int n = sorted.size();
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        int[] cellToNode = new int[width * height];
+        Arrays.fill(cellToNode, -1);
+        for (int i = 0; i < n; i++) {
+            Node node = sorted.get(i);
+            xs[i] = node.x;
+            ys[i] = node.y;
+            cellToNode[(node.x - 1) * width + (node.y - 1)] = i;
+        }
+
+        int[] start = new int[n + 1];
+        int edges = 0;
+        for (Node node : sorted) {
+            edges += node.neighbors.size();
+        }
+        int[] target = new int[edges];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            start[i] = count;
+            for (Node neighbor : sorted.get(i).neighbors) {
+                target[count++] = cellToNode[(neighbor.x - 1) * width + (neighbor.y - 1)];
+            }
+        }
+        start[n] = count;
+        return new RoadGraph(0, width, height, xs, ys, cellToNode, start, target,
+                Collections.emptySet(), new BitSet());
+    }
+
+    /**
+     * Returns a new snapshot with the given closures applied to the original map.
+     *
+     * @param edges The complete set of closed directed edges.
+     * @param cells The complete set of closed cells, by node id.
+     * @return A new snapshot with the next version number.
+     */
+    public RoadGraph withClosures(Set<Long> edges, BitSet cells) {
+        return new RoadGraph(version + 1, width, height, xs, ys, cellToNode, baseStart, baseTarget,
+                Collections.unmodifiableSet(new HashSet<>(edges)), (BitSet) cells.clone());
+    }
+
+    /**
+     * Encodes a directed edge as a single long key.
+     */
+    public static long edgeKey(int from, int to) {
+        return ((long) from << 32) | (to & 0xffffffffL);
+    }
+
+    // @return version of this snapshot
+    public long getVersion() {
+        return version;
+    }
+
+    // @return number of road nodes
+    public int nodeCount() {
+        return xs.length;
+    }
+
+    // @return width of the map grid
+    public int getWidth() {
+        return width;
+    }
+
+    // @return height of the map grid
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Looks up the node id of a road cell.
+     *
+     * @param x The x-coordinate (1-based).
+     * @param y The y-coordinate (1-based).
+     * @return The node id, or -1 if the cell is outside the map or not a road.
+     */
+    public int nodeId(int x, int y) {
+        if (x < 1 || y < 1 || x > height || y > width) return -1;
+        return cellToNode[(x - 1) * width + (y - 1)];
+    }
+
+    // @return x-coordinate of the node
+    public int x(int node) {
+        return xs[node];
+    }
+
+    // @return y-coordinate of the node
+    public int y(int node) {
+        return ys[node];
+    }
+
+    // @return index of the first outgoing edge of the node (closures applied)
+    public int edgeStart(int node) {
+        return edgeStart[node];
+    }
+
+    // @return index one past the last outgoing edge of the node (closures applied)
+    public int edgeEnd(int node) {
+        return edgeStart[node + 1];
+    }
+
+    // @return target node of an edge index
+    public int edgeTarget(int edge) {
+        return edgeTarget[edge];
+    }
+
+    /**
+     * Checks whether the unmodified map has a directed edge between two nodes.
+     */
+    public boolean hasBaseEdge(int from, int to) {
+        for (int e = baseStart[from]; e < baseStart[from + 1]; e++) {
+            if (baseTarget[e] == to) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the unmodified map has a road out of the node with no road back,
+     * i.e. whether the cell is part of a one-way street.
+     */
+    public boolean isOneWay(int node) {
+        for (int e = baseStart[node]; e < baseStart[node + 1]; e++) {
+            if (!hasBaseEdge(baseTarget[e], node)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a directed edge can currently be used.
+     */
+    public boolean isEdgeOpen(int from, int to) {
+        return hasBaseEdge(from, to) && !closedCells.get(to) && !closedEdges.contains(edgeKey(from, to));
+    }
+
+    // @return true if no vehicle may enter the node
+    public boolean isCellClosed(int node) {
+        return closedCells.get(node);
+    }
+
+    // @return the closed directed edges of this snapshot
+    public Set<Long> getClosedEdges() {
+        return closedEdges;
+    }
+
+    // @return a copy of the closed cells of this snapshot
+    public BitSet getClosedCells() {
+        return (BitSet) closedCells.clone();
+    }
+
+    /**
+     * Node coordinates in the layout expected by the native search.
+     */
+    public int[][] nativeNodeCoords() {
+        if (nativeCoords == null) {
+            buildNativeArrays();
+        }
+        return nativeCoords;
+    }
+
+    /**
+     * Neighbor lists (by node index) in the layout expected by the native search.
+     */
+    public int[][] nativeNeighborLists() {
+        if (nativeNeighbors == null) {
+            buildNativeArrays();
+        }
+        return nativeNeighbors;
+    }
+
+    private synchronized void buildNativeArrays() {
+        if (nativeNeighbors != null) return;
+        int n = xs.length;
+        int[][] coords = new int[n][];
+        int[][] neighbors = new int[n][];
+        for (int i = 0; i < n; i++) {
+            coords[i] = new int[]{xs[i], ys[i]};
+            neighbors[i] = Arrays.copyOfRange(edgeTarget, edgeStart[i], edgeStart[i + 1]);
+        }
+        nativeCoords = coords;
+        nativeNeighbors = neighbors;
+    }
+
+    /**
+     * The graph with every edge turned around, for searches that go against the
+     * edges: the edges out of a node of the result are the edges into it here.
+     * Closures are already applied, so the result has none of its own. It is built
+     * once per snapshot and shares the node numbering and version of this one.
+     */
+    public RoadGraph reverse() {
+        RoadGraph graph = reversed;
+        if (graph == null) {
+            graph = buildReverse();
+        }
+        return graph;
+    }
+
+    private synchronized RoadGraph buildReverse() {
+        if (reversed != null) return reversed;
+        int n = xs.length;
+        int[] start = new int[n + 1];
+        for (int e = 0; e < edgeStart[n]; e++) {
+            start[edgeTarget[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            start[v + 1] += start[v];
+        }
+        int[] source = new int[start[n]];
+        int[] fill = Arrays.copyOf(start, n);
+        for (int u = 0; u < n; u++) {
+            for (int e = edgeStart[u]; e < edgeStart[u + 1]; e++) {
+                source[fill[edgeTarget[e]]++] = u;
+            }
+        }
+        reversed = new RoadGraph(version, width, height, xs, ys, cellToNode, start, source,
+                Collections.emptySet(), new BitSet());
+        return reversed;
+    }
+
+    /**
+     * Finds a shortest path (fewest moves) between two nodes with a breadth-first search.
+     *
+     * @param from The start node id.
+     * @param to The destination node id.
+     * @return The node ids along the path including both ends, or an empty array if unreachable.
+     */
+    public int[] shortestPath(int from, int to) {
+        if (from < 0 || to < 0) return new int[0];
+        if (from == to) return new int[]{from};
+        int n = xs.length;
+        int[] parent = new int[n];
+        Arrays.fill(parent, -1);
+        parent[from] = from;
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        queue[tail++] = from;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int e = edgeStart[u]; e < edgeStart[u + 1]; e++) {
+                int v = edgeTarget[e];
+                if (parent[v] != -1) continue;
+                parent[v] = u;
+                if (v == to) {
+                    return tracePath(parent, from, to);
+                }
+                queue[tail++] = v;
+            }
+        }
+        return new int[0];
+    }
+
+    private static int[] tracePath(int[] parent, int from, int to) {
+        int length = 1;
+        for (int v = to; v != from; v = parent[v]) length++;
+        int[] path = new int[length];
+        for (int v = to, i = length - 1; i >= 0; v = parent[v], i--) {
+            path[i] = v;
+        }
+        return path;
+    }
+}
@@ -104,6 +104,32 @@ public class RoadMapParser {
         }
     }
 
+    /**
+     * Parses the charging overlay CSV. The overlay has the same grid layout as the map,
+     * where each cell holds the number of charging ports at that position (0 for none).
+     * @param filePath Path to the charging overlay CSV file.
+     * @return A list of stations as {x, y, ports}, using 1-based coordinates.
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public List<int[]> parseChargingCSV(String filePath) throws IOException {
+        List<int[]> stations = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+            String line;
+            int i = 0;
+            while ((line = br.readLine()) != null) {
+                String[] row = line.split(",", -1);
+                for (int j = 0; j < row.length; j++) {
+                    String value = row[j].trim();
+                    if (!value.isEmpty() && !value.equals("0")) {
+                        stations.add(new int[]{i + 1, j + 1, Integer.parseInt(value)});
+                    }
+                }
+                i++;
+            }
+        }
+        return stations;
+    }
+
     /**
      * Parses coordinate strings and converts them into a list of integer arrays.
      * @param cellValue The cell value containing coordinates.
@@ -197,26 +223,22 @@ public class RoadMapParser {
     }
 
     /**
-     * Checks if a path exists between two nodes using DFS.
+     * Checks if a path exists between two nodes using DFS. The search keeps its own
+     * stack, so long one-way chains cannot overflow the thread stack.
      * @param start The starting node.
      * @param end The destination node.
      * @return True if a path exists, false otherwise.
      */
     public boolean pathExists(Node start, Node end) {
         Set<Node> visited = new HashSet<>();
-        return dfs(start, end, visited);
-    }
-
-    /**
-     * Helper method for depth-first search to find a path.
-     */
-    private boolean dfs(Node current, Node end, Set<Node> visited) {
-        if (current.equals(end)) return true;
-        visited.add(current);
-        
-        for (Node neighbor : current.neighbors) {
-            if (!visited.contains(neighbor)) {
-                if (dfs(neighbor, end, visited)) return true;
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(start);
+        visited.add(start);
+        while (!stack.isEmpty()) {
+            Node current = stack.pop();
+            if (current.equals(end)) return true;
+            for (Node neighbor : current.neighbors) {
+                if (visited.add(neighbor)) stack.push(neighbor);
             }
         }
         return false;
@@ -229,20 +251,16 @@ public class RoadMapParser {
      */
     public Set<Node> findReachableNodes(Node start) {
         Set<Node> reachable = new HashSet<>();
-        dfsReachable(start, reachable);
-        return reachable;
-    }
-
-    /**
-     * Helper method for depth-first search to find reachable nodes.
-     */
-    private void dfsReachable(Node current, Set<Node> visited) {
-        visited.add(current);
-        for (Node neighbor : current.neighbors) {
-            if (!visited.contains(neighbor)) {
-                dfsReachable(neighbor, visited);
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(start);
+        reachable.add(start);
+        while (!stack.isEmpty()) {
+            Node current = stack.pop();
+            for (Node neighbor : current.neighbors) {
+                if (reachable.add(neighbor)) stack.push(neighbor);
             }
         }
+        return reachable;
     }
 
     /**
@@ -0,0 +1,210 @@
+package radiant.seven;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Shared cache of computed routes, keyed by start and end node id.
+ * Routes are stored as PackedPaths, which are immutable and handed out as is.
+ * When the road graph changes, only the routes affected by the change are dropped.
+ *
+ * Misses go through a single-flight layer: while a route is being searched, other
+ * callers asking for the same start and end on the same graph version wait for that
+ * search and get the same PackedPath instead of searching again. A caller that has
+ * waited longer than the follower timeout runs its own search.
+ *
+ * Only callers on the graph version the cache is at use it; searches on an older or
+ * a newer snapshot than the cache has been moved to search without it.
+ */
+public class RouteCache {
+    private static final RouteCache instance = new RouteCache();
+    private static final int MAX_ENTRIES = 100_000; // Cache is cleared when it grows past this
+    static final long DEFAULT_FOLLOWER_TIMEOUT_MILLIS = 5000; // Longest wait for another caller's search
+
+    private final Map<Long, PackedPath> routes = new ConcurrentHashMap<>();
+    private final Map<Long, Flight> flights = new ConcurrentHashMap<>(); // Searches in progress
+    private volatile long graphVersion = 0; // Version of the graph the cached routes belong to
+    private final LongAdder hits = new LongAdder(); // Lookups answered from the cache
+    private final LongAdder searches = new LongAdder(); // Lookups that ran a search
+    private final LongAdder coalesced = new LongAdder(); // Lookups that waited for another caller's search
+    private volatile long followerTimeoutMillis = DEFAULT_FOLLOWER_TIMEOUT_MILLIS;
+
+    // A search in progress and the graph version it runs on
+    private static final class Flight {
+        final long version;
+        final CompletableFuture<PackedPath> result = new CompletableFuture<>();
+
+        Flight(long version) {
+            this.version = version;
+        }
+    }
+
+    private RouteCache() {
+    }
+
+    /**
+     * @return The singleton RouteCache.
+     */
+    public static RouteCache getInstance() {
+        return instance;
+    }
+
+    private static long key(int startNode, int endNode) {
+        return ((long) startNode << 32) | (endNode & 0xffffffffL);
+    }
+
+    /**
+     * Looks up a cached route.
+     *
+     * @param graph The snapshot the route is for.
+     * @param startNode The start node id.
+     * @param endNode The end node id.
+     * @return The cached route, or null if it is not cached or the cache is at
+     *         another graph version.
+     */
+    public PackedPath get(RoadGraph graph, int startNode, int endNode) {
+        return cached(graph, key(startNode, endNode));
+    }
+
+    // invalidate() and clear() drop the stale routes before moving the version, so a
+    // route read while the version matches is valid on that snapshot
+    private PackedPath cached(RoadGraph graph, long key) {
+        return graph.getVersion() == graphVersion ? routes.get(key) : null;
+    }
+
+    /**
+     * Returns the cached route, or runs the search and caches its result. Concurrent
+     * calls for the same route on the same graph version share one search.
+     *
+     * @param graph The snapshot to search on.
+     * @param startNode The start node id.
+     * @param endNode The end node id.
+     * @param search Searches the route on the snapshot.
+     * @return The route.
+     */
+    public PackedPath load(RoadGraph graph, int startNode, int endNode, Supplier<PackedPath> search) {
+        long key = key(startNode, endNode);
+        PackedPath path = cached(graph, key);
+        if (path != null) {
+            hits.increment();
+            return path;
+        }
+        Flight flight = new Flight(graph.getVersion());
+        Flight leader = flights.putIfAbsent(key, flight);
+        if (leader != null) {
+            // The other search may run on another snapshot, its route may not fit this one
+            if (leader.version == flight.version) {
+                coalesced.increment();
+                try {
+                    // A copy, so the timeout does not fail the leader's other followers
+                    return leader.result.copy().orTimeout(followerTimeoutMillis, TimeUnit.MILLISECONDS).join();
+                } catch (CompletionException e) {
+                    if (!(e.getCause() instanceof TimeoutException)) {
+                        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                    }
+                }
+            }
+            searches.increment();
+            path = search.get();
+            put(graph, startNode, endNode, path);
+            return path;
+        }
+        try {
+            // The previous flight may have finished between the lookup and putIfAbsent
+            path = cached(graph, key);
+            if (path != null) {
+                hits.increment();
+            } else {
+                searches.increment();
+                path = search.get();
+                put(graph, startNode, endNode, path);
+            }
+            flight.result.complete(path);
+            return path;
+        } catch (RuntimeException | Error e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Stores a route computed on the given graph snapshot. Routes computed on a
+     * snapshot older than the cache's current version are discarded, so a search
+     * that was in flight during a closure cannot re-insert a stale route.
+     *
+     * @param graph The snapshot the route was computed on.
+     * @param startNode The start node id.
+     * @param endNode The end node id.
+     * @param path The computed route.
+     */
+    public synchronized void put(RoadGraph graph, int startNode, int endNode, PackedPath path) {
+        if (graph.getVersion() != graphVersion) return;
+        if (routes.size() >= MAX_ENTRIES) {
+            routes.clear();
+        }
+        routes.put(key(startNode, endNode), path);
+    }
+
+    /**
+     * Moves the cache to a new graph version, dropping the routes matched by the predicate.
+     *
+     * @param graph The new graph snapshot.
+     * @param affected Returns true for routes that are no longer valid.
+     * @return The number of routes removed.
+     */
+    public synchronized int invalidate(RoadGraph graph, Predicate<PackedPath> affected) {
+        int before = routes.size();
+        routes.values().removeIf(affected);
+        graphVersion = graph.getVersion();
+        return before - routes.size();
+    }
+
+    /**
+     * Moves the cache to a new graph version and drops every route.
+     *
+     * @param graph The new graph snapshot.
+     */
+    public synchronized void clear(RoadGraph graph) {
+        routes.clear();
+        graphVersion = graph.getVersion();
+    }
+
+    /**
+     * Sets how long a lookup waits for an identical search that is already running
+     * before it searches itself.
+     *
+     * @param millis The timeout in milliseconds.
+     */
+    void setFollowerTimeout(long millis) {
+        followerTimeoutMillis = millis;
+    }
+
+    // @return number of cached routes
+    public int size() {
+        return routes.size();
+    }
+
+    // @return lookups answered from the cache
+    public long getHits() {
+        return hits.sum();
+    }
+
+    // @return lookups that ran a search
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    // @return lookups that shared another caller's search instead of running their own
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+}
@@ -0,0 +1,172 @@
+package radiant.seven;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs route searches for the REST endpoints on a bounded pool of their own, so a
+ * burst of long routes waits here instead of holding servlet threads that status
+ * polls need.
+ *
+ * The pool has a fixed number of threads and a queue of fixed depth. A search that
+ * finds the queue full is rejected at once, and one that has not finished within the
+ * timeout completes with a TimeoutException; if it is still queued by then it is
+ * dropped without running. The executor counts searches in flight, queued and
+ * running, and keeps the latencies of the last LATENCY_SAMPLES searches, from
+ * submission to result, for the routing metrics endpoint.
+ */
+public class RoutingExecutor {
+    static final int LATENCY_SAMPLES = 1024; // Latencies kept for the percentiles
+
+    private final ThreadPoolExecutor pool;
+    private final int queueDepth; // Searches that may wait for a thread
+    private final long timeoutMillis; // Time a search may take, including the wait, 0 = no limit
+    private final AtomicInteger inFlight = new AtomicInteger(); // Searches accepted and not yet finished
+    private final AtomicLong completed = new AtomicLong(); // Searches that returned a result in time
+    private final AtomicLong rejected = new AtomicLong(); // Searches refused because the queue was full
+    private final AtomicLong timedOut = new AtomicLong(); // Searches that did not finish in time
+    private final long[] latencies = new long[LATENCY_SAMPLES]; // Ring of recent latencies in nanoseconds
+    private long samples = 0; // Latencies recorded since start
+
+    /**
+     * @param threads Search threads, 0 for one per core.
+     * @param queueDepth Searches that may wait for a thread before new ones are rejected.
+     * @param timeoutMillis Time a search may take, including the wait, 0 for no limit.
+     */
+    RoutingExecutor(int threads, int queueDepth, long timeoutMillis) {
+        if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+        this.queueDepth = queueDepth;
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueDepth)), r -> {
+                    Thread t = new Thread(r, "routing-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Stops the search threads once the queued searches have run.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Runs a search on the pool.
+     *
+     * @param search The search; it runs on a routing thread.
+     * @return The result, completed exceptionally with a RejectedExecutionException
+     *         if the queue was full or a TimeoutException if the search took too long.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> search) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        inFlight.incrementAndGet();
+        try {
+            pool.execute(() -> {
+                try {
+                    // Timed out while queued: nobody is waiting for the route any more
+                    if (result.isDone()) return;
+                    result.complete(search.get());
+                } catch (RuntimeException | Error e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            result.completeExceptionally(e);
+            return result;
+        }
+        if (timeoutMillis > 0) result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        // Callers chain on the counting stage, so the counters are up to date once they see the result
+        return result.whenComplete((value, error) -> {
+            if (error == null) {
+                completed.incrementAndGet();
+                recordLatency(System.nanoTime() - submitted);
+            } else if (error instanceof TimeoutException) {
+                timedOut.incrementAndGet();
+            }
+        });
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[(int) (samples++ % LATENCY_SAMPLES)] = nanos;
+    }
+
+    /**
+     * @return The gauges and counters of the executor, the latency percentiles of
+     *         the recent searches and the RouteCache's deduplication counters and the size of the all-pairs table.
+     */
+    public RoutingStats getStats() {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(latencies, (int) Math.min(samples, LATENCY_SAMPLES));
+        }
+        Arrays.sort(sorted);
+        RoutingStats stats = new RoutingStats();
+        stats.threads = pool.getMaximumPoolSize();
+        stats.queueDepth = queueDepth;
+        stats.timeoutMillis = timeoutMillis;
+        stats.inFlight = inFlight.get();
+        stats.queued = pool.getQueue().size();
+        stats.active = pool.getActiveCount();
+        stats.completed = completed.get();
+        stats.rejected = rejected.get();
+        stats.timedOut = timedOut.get();
+        stats.p50Micros = Percentiles.nearestRank(sorted, 0.50) / 1000;
+        stats.p90Micros = Percentiles.nearestRank(sorted, 0.90) / 1000;
+        stats.p99Micros = Percentiles.nearestRank(sorted, 0.99) / 1000;
+        stats.maxMicros = Percentiles.nearestRank(sorted, 1.0) / 1000;
+        RouteCache cache = RouteCache.getInstance();
+        stats.cacheHits = cache.getHits();
+        stats.searches = cache.getSearches();
+        stats.coalesced = cache.getCoalesced();
+        NextHopTable table = NextHopTable.getInstance();
+        if (table != null) {
+            stats.allPairsBytes = table.memoryBytes();
+            stats.allPairsOffHeap = table.isOffHeap();
+            stats.allPairsVersion = table.getVersion();
+        }
+        stats.allPairsWalks = NextHopTable.getWalks();
+        return stats;
+    }
+}
+
+/**
+ * State of the routing executor, returned by the routing metrics endpoint.
+ */
+class RoutingStats {
+    public int threads; // Search threads
+    public int queueDepth; // Searches that may wait for a thread
+    public long timeoutMillis; // Time a search may take, 0 = no limit
+    public int inFlight; // Searches accepted and not yet finished
+    public int queued; // Searches waiting for a thread
+    public int active; // Searches running
+    public long completed; // Searches answered in time since start
+    public long rejected; // Searches refused because the queue was full
+    public long timedOut; // Searches that did not finish in time
+    public long p50Micros; // Latency percentiles of the recent searches, submission to result
+    public long p90Micros;
+    public long p99Micros;
+    public long maxMicros;
+    public long cacheHits; // Route lookups answered from the RouteCache since start
+    public long searches; // Route lookups that ran a search
+    public long coalesced; // Route lookups that shared a concurrent identical search
+    public long allPairsBytes; // Size of the all-pairs next-hop table, 0 if off
+    public boolean allPairsOffHeap; // Whether the table is in a direct buffer
+    public long allPairsVersion; // Graph version the table was built for
+    public long allPairsWalks; // Route lookups answered from the table since start
+}
@@ -0,0 +1,343 @@
+package radiant.seven;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Headless batch runner for performance tracking.
+ *
+ * Loads a map and a scenario file, places the scenario's vehicles on a
+ * SimulationEngine and runs the requested number of ticks as fast as possible.
+ * Nothing is rendered or logged while ticking; the engine only counts. Afterwards a
+ * summary of key=value lines is printed and optionally written to a file: ticks and
+ * vehicle steps per second, mean trip time, signal waits and the latency
+ * percentiles of every route lookup, including NPC reroutes during the run, with
+ * the RouteCache hits and the lookups that shared a concurrent search. With
+ * population rebalancing, the NPCs spawned and retired per second of rebalancing
+ * are reported too.
+ *
+ * Scenario files are CSV records, with # starting a comment:
+ *
+ *   map,MAP_CSV,SIGNAL_CSV[,CHARGING_CSV]      map to load instead of the bundled one
+ *   seed,SEED                                  seed of the run, default 42
+ *   ticks,TICKS                                ticks to run, default 1000
+ *   regions,N                                  regions ticked in parallel, default 1
+ *   demand,DEMAND_CSV                          DemandModel for the NPC trips
+ *   npc,COUNT                                  NPCs placed before the first tick
+ *   population,DENSITY,EVERY_TICKS             PopulationManager rebalancing during the run
+ *   ev,NAME,START_X,START_Y,END_X,END_Y,CHARGE EV placed before the first tick
+ *   close,TICK,X,Y / reopen,TICK,X,Y           closure applied before the given tick
+ *
+ * With --all-pairs, routes are walks along a NextHopTable built before the first tick.
+ *
+ * Usage: ScenarioRunner &lt;scenario&gt; [--ticks N] [--seed N] [--regions N] [--all-pairs] [--out FILE]
+ */
+public class ScenarioRunner {
+    private static final int DEFAULT_CHARGING_RATE = 10; // Charging rate of scenario EVs
+
+    private final Path scenarioPath;
+    private String[] mapFiles; // Map, signal and charging files, or null for the bundled map
+    private long seed = 42;
+    private long ticks = 1000;
+    private int regions = 1;
+    private boolean allPairs = false; // Route along a NextHopTable instead of searching
+    private String demandFile; // Demand file, or null for uniform NPC destinations
+    private int npcs = 0; // NPCs placed before the first tick
+    private double density = 0; // Density kept by the PopulationManager
+    private long rebalanceTicks = 0; // Ticks between rebalances, 0 = no rebalancing
+    private final List<String[]> evs = new ArrayList<>(); // ev records
+    private final TreeMap<Long, List<String[]>> closures = new TreeMap<>(); // Tick -> close and reopen records
+
+    private long[] latencies = new long[1024]; // Route lookup durations in nanoseconds
+    private int latencyCount = 0;
+    private int npcsPlaced = 0; // NPCs spawned before the first tick
+    private long rebalanceNanos = 0; // Time spent in PopulationManager.rebalance
+
+    ScenarioRunner(Path scenarioPath) {
+        this.scenarioPath = scenarioPath;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: ScenarioRunner <scenario> [--ticks N] [--seed N] [--regions N] [--all-pairs] [--out FILE]");
+            System.exit(1);
+        }
+        ScenarioRunner runner = new ScenarioRunner(Paths.get(args[0]));
+        String out = null;
+        try {
+            runner.parse();
+            out = runner.options(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+
+        Map<String, String> summary = runner.run();
+        summary.forEach((key, value) -> System.out.println(key + "=" + value));
+        if (out != null) {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(out)))) {
+                summary.forEach((key, value) -> writer.println(key + "=" + value));
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Reads the scenario file.
+     *
+     * @throws IllegalArgumentException on a malformed record, naming the file and line.
+     */
+    void parse() throws IOException {
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(scenarioPath)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                if (line.isBlank()) continue;
+                String[] fields = line.split(",");
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim();
+                }
+                try {
+                    switch (fields[0]) {
+                        case "map":
+                            if (fields.length != 3) expect(fields, 4);
+                            mapFiles = new String[] { fields[1], fields[2], fields.length == 4 ? fields[3] : "" };
+                            break;
+                        case "seed":
+                            expect(fields, 2);
+                            seed = Long.parseLong(fields[1]);
+                            break;
+                        case "ticks":
+                            expect(fields, 2);
+                            ticks = Long.parseLong(fields[1]);
+                            break;
+                        case "regions":
+                            expect(fields, 2);
+                            regions = Integer.parseInt(fields[1]);
+                            break;
+                        case "demand":
+                            expect(fields, 2);
+                            demandFile = fields[1];
+                            break;
+                        case "npc":
+                            expect(fields, 2);
+                            npcs = Integer.parseInt(fields[1]);
+                            break;
+                        case "population":
+                            expect(fields, 3);
+                            density = Double.parseDouble(fields[1]);
+                            rebalanceTicks = Long.parseLong(fields[2]);
+                            if (density < 0 || rebalanceTicks <= 0) {
+                                throw new IllegalArgumentException("density must not be negative and the interval must be positive");
+                            }
+                            break;
+                        case "ev":
+                            expect(fields, 7);
+                            for (int i = 2; i < 7; i++) {
+                                Integer.parseInt(fields[i]);
+                            }
+                            evs.add(fields);
+                            break;
+                        case "close":
+                        case "reopen":
+                            expect(fields, 4);
+                            Integer.parseInt(fields[2]);
+                            Integer.parseInt(fields[3]);
+                            closures.computeIfAbsent(Long.parseLong(fields[1]), t -> new ArrayList<>()).add(fields);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown record " + fields[0]);
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(scenarioPath + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the command line options that follow the scenario path, overriding the
+     * scenario's records.
+     *
+     * @return The --out file, or null.
+     * @throws IllegalArgumentException on an unknown option.
+     */
+    String options(String[] args) {
+        String out = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--ticks": ticks = Long.parseLong(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--regions": regions = Integer.parseInt(args[++i]); break;
+                case "--all-pairs": allPairs = true; break;
+                case "--out": out = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        return out;
+    }
+
+    private static void expect(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException(fields[0] + " needs " + (count - 1) + " values");
+        }
+    }
+
+    /**
+     * Sets up the scenario, runs it and returns the summary in output order.
+     */
+    Map<String, String> run() throws IOException {
+        // Keep the wall-clock signal cycle from touching the signals while the map loads
+        SimulationClock.useSimulatedTime(() -> 0L);
+        GameMap map = mapFiles != null ? GameMap.load(mapFiles[0], mapFiles[1], mapFiles[2]) : GameMap.getInstance();
+        if (demandFile != null) {
+            DemandModel.install(DemandModel.load(map, Paths.get(demandFile)));
+        }
+        if (allPairs) {
+            NextHopTable.enable(map, NextHopTable.DEFAULT_MAX_NODES);
+        }
+        SimulationEngine engine = new SimulationEngine(map, seed, null);
+        engine.setRegions(regions);
+        SimulationEngine.install(engine);
+        PathfindingVisualizer.setRouteTimer(this::recordLatency);
+
+        PopulationManager population = new PopulationManager(map, VehicleRegistry.getInstance());
+        population.setStarter(engine::spawn);
+        population.setDensity(density);
+        npcsPlaced = population.spawn(npcs).size();
+        PathfindingVisualizer pathfinder = new PathfindingVisualizer(map);
+        for (String[] fields : evs) {
+            spawnEV(engine, pathfinder, fields);
+        }
+        int placed = engine.getVehicles().size();
+
+        long started = System.nanoTime();
+        long done = 0;
+        while (done < ticks) {
+            List<String[]> due = closures.get(done);
+            if (due != null) applyClosures(due);
+            if (rebalanceTicks > 0 && done > 0 && done % rebalanceTicks == 0) {
+                long rebalanceStarted = System.nanoTime();
+                population.rebalance();
+                rebalanceNanos += System.nanoTime() - rebalanceStarted;
+            }
+
+            // Run up to the next closure or rebalance; only the engine runs in between
+            long next = ticks;
+            Long closureTick = closures.higherKey(done);
+            if (closureTick != null) next = Math.min(next, closureTick);
+            if (rebalanceTicks > 0) next = Math.min(next, (done / rebalanceTicks + 1) * rebalanceTicks);
+            engine.runTicks(next - done);
+            done = next;
+        }
+        long elapsed = System.nanoTime() - started;
+        PathfindingVisualizer.setRouteTimer(null);
+        return summary(engine.getStats(), population.getStatus(), placed, elapsed);
+    }
+
+    private void spawnEV(SimulationEngine engine, PathfindingVisualizer pathfinder, String[] fields) {
+        int startX = Integer.parseInt(fields[2]);
+        int startY = Integer.parseInt(fields[3]);
+        int endX = Integer.parseInt(fields[4]);
+        int endY = Integer.parseInt(fields[5]);
+        EV ev = new EV(startX, startY, 1, Integer.parseInt(fields[6]), DEFAULT_CHARGING_RATE);
+        ev.setName(fields[1]);
+        ev.setEndLocation(endX, endY);
+        List<PathNode> path = pathfinder.findRoute(startX, startY, endX, endY);
+        // As in EVController, EVs that cannot finish the trip on their charge get charging stops
+        if (!path.isEmpty() && EnergyModel.energyFor(path.size() - 1) > ev.getCharge()) {
+            EnergyRoute route = EnergyRouter.getInstance().findRoute(startX, startY, endX, endY,
+                    ev.getCharge(), ev.getChargingRate());
+            if (!route.path.isEmpty()) {
+                path = route.path;
+                ev.setChargingStops(route.chargingStops);
+            }
+        }
+        if (path.isEmpty()) {
+            System.out.println("No route for " + fields[1] + ", skipped");
+            return;
+        }
+        ev.setPath(path);
+        ev.setMoving(true);
+        VehicleRegistry.getInstance().register(ev);
+        engine.spawn(ev);
+    }
+
+    private void applyClosures(List<String[]> records) {
+        IncidentManager incidents = IncidentManager.getInstance();
+        for (String[] fields : records) {
+            int x = Integer.parseInt(fields[2]);
+            int y = Integer.parseInt(fields[3]);
+            ClosureResult result = fields[0].equals("close")
+                    ? incidents.close(x, y, null, null)
+                    : incidents.reopen(x, y, null, null);
+            if (result == null) {
+                System.out.println("No road cell at (" + x + "," + y + ") to " + fields[0]);
+            }
+        }
+    }
+
+    // Called from the ticking thread for NPC reroutes and from this thread during setup
+    private synchronized void recordLatency(long nanos) {
+        if (latencyCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencyCount * 2);
+        }
+        latencies[latencyCount++] = nanos;
+    }
+
+    private Map<String, String> summary(SimulationStats stats, PopulationStatus population, int placed,
+            long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        Map<String, String> summary = new LinkedHashMap<>();
+        summary.put("scenario", scenarioPath.toString());
+        summary.put("seed", Long.toString(seed));
+        summary.put("regions", Integer.toString(regions));
+        summary.put("vehicles_placed", Integer.toString(placed));
+        summary.put("vehicles_at_end", Integer.toString(stats.vehicles));
+        summary.put("ticks", Long.toString(stats.ticks));
+        summary.put("elapsed_ms", Long.toString(elapsedNanos / 1_000_000));
+        summary.put("ticks_per_second", format(stats.ticks / seconds));
+        summary.put("vehicle_steps", Long.toString(stats.moves));
+        summary.put("vehicle_steps_per_second", format(stats.moves / seconds));
+        summary.put("trips", Long.toString(stats.trips));
+        double meanTripTicks = stats.trips == 0 ? 0 : (double) stats.tripTicks / stats.trips;
+        summary.put("mean_trip_ticks", format(meanTripTicks));
+        summary.put("mean_trip_seconds", format(meanTripTicks * SimulationEngine.TICK_MILLIS / 1000));
+        summary.put("signal_waits", Long.toString(stats.signalWaits));
+        summary.put("signal_waits_per_trip", format(stats.trips == 0 ? 0 : (double) stats.signalWaits / stats.trips));
+
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        summary.put("routes", Integer.toString(sorted.length));
+        summary.put("route_p50_us", format(Percentiles.nearestRank(sorted, 0.50) / 1e3));
+        summary.put("route_p90_us", format(Percentiles.nearestRank(sorted, 0.90) / 1e3));
+        summary.put("route_p99_us", format(Percentiles.nearestRank(sorted, 0.99) / 1e3));
+        summary.put("route_max_us", format(Percentiles.nearestRank(sorted, 1.0) / 1e3));
+        RouteCache cache = RouteCache.getInstance();
+        summary.put("route_cache_hits", Long.toString(cache.getHits()));
+        summary.put("route_searches", Long.toString(cache.getSearches()));
+        summary.put("route_coalesced", Long.toString(cache.getCoalesced()));
+        if (rebalanceTicks > 0) {
+            summary.put("npc_target", Integer.toString(population.target));
+            summary.put("npc_at_end", Integer.toString(population.current));
+            summary.put("npc_spawned", Long.toString(population.spawned));
+            summary.put("npc_retired", Long.toString(population.retired));
+            summary.put("rebalance_ms", Long.toString(rebalanceNanos / 1_000_000));
+            double churn = rebalanceNanos == 0 ? 0 : (population.spawned - npcsPlaced + population.retired) / (rebalanceNanos / 1e9);
+            summary.put("rebalance_npcs_per_second", format(churn));
+        }
+        return summary;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
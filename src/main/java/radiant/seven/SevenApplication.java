@@ -2,9 +2,12 @@ package radiant.seven;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import java.util.Random;
 
 @SpringBootApplication
+@EnableConfigurationProperties(SimulationProperties.class)
 public class SevenApplication {
 	private final Random random = new Random();
 
@@ -12,4 +15,13 @@ public class SevenApplication {
 		SpringApplication.run(SevenApplication.class, args);
 	}
 
+	/**
+	 * The one RoutingExecutor of the REST route searches, shared by the controllers.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public RoutingExecutor routingExecutor(SimulationProperties properties) {
+		SimulationProperties.Routing routing = properties.getRouting();
+		return new RoutingExecutor(routing.getThreads(), routing.getQueueDepth(), routing.getTimeoutMillis());
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,509 @@
+package radiant.seven;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Drives a simulation that is sharded over several ShardServer processes. Each shard
+ * owns a band of rows of the map (SimulationEngine.rowBands); the coordinator keeps
+ * them in lockstep and moves claims and vehicles across the band borders.
+ *
+ * A tick takes three round trips, each sent to all shards before any reply is read,
+ * so the shards work in parallel:
+ * 1. PLAN: deliver vehicles that arrived or were spawned, collect claims on cells of
+ *    other shards.
+ * 2. RESOLVE: give every shard the claims on its cells, collect the accepted ones.
+ * 3. COMMIT: tell every shard which of its claims were accepted, collect the vehicles
+ *    that left it; they are delivered with the next PLAN.
+ *
+ * The REST API keeps a registered handle of every vehicle it spawned, but the shards
+ * own the vehicles. Lookups, starts and retirements therefore go through the
+ * coordinator between ticks, and retiring a handle from the VehicleRegistry retires
+ * the vehicle on its shard.
+ *
+ * Usage: ShardCoordinator --shards HOST:PORT,... [--seed N] [--vehicles N] [--ticks N]
+ */
+public class ShardCoordinator {
+    private static volatile ShardCoordinator instance; // Coordinator of the application, if sharded
+
+    private final GameMap map;
+    private final List<Shard> shards = new ArrayList<>();
+    private final int[] bands; // Node id boundaries of the shards
+    private final long heatmapWindowMillis; // Window of the shards' congestion counters, 0 for none
+    private int nextId = 0; // Id of the next spawned vehicle, unique over all shards
+    private final VehicleRegistry.Listener retirements = new VehicleRegistry.Listener() {
+        @Override
+        public void onRetire(EV ev) {
+            try {
+                retire(ev.getId());
+            } catch (IOException e) {
+                System.out.println("Could not retire vehicle " + ev.getId() + " on its shard: " + e.getMessage());
+            }
+        }
+    };
+    private long tick = 0; // Number of completed ticks
+    private ScheduledExecutorService pacer; // Runs ticks in real time when started
+
+    /**
+     * Connects to the shards and assigns each its band, in list order.
+     *
+     * @param map The map, the same one every shard loads.
+     * @param addresses Shard addresses as host:port.
+     * @param seed The seed of the run, shared by every shard.
+     * @param heatmapWindowMillis Window of the shards' congestion counters, 0 for none.
+     * @throws IOException If a shard cannot be reached or runs on another map.
+     */
+    public ShardCoordinator(GameMap map, List<String> addresses, long seed, long heatmapWindowMillis)
+            throws IOException {
+        this.map = map;
+        this.bands = SimulationEngine.rowBands(map.getGraph(), addresses.size());
+        // Rounded down to whole buckets, as each shard's CongestionHeatmap does
+        this.heatmapWindowMillis = heatmapWindowMillis / CongestionHeatmap.BUCKETS * CongestionHeatmap.BUCKETS;
+        for (int k = 0; k < addresses.size(); k++) {
+            String address = addresses.get(k).trim();
+            int colon = address.lastIndexOf(':');
+            Shard shard = new Shard(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+            shards.add(shard);
+            shard.out.writeByte(ShardServer.HELLO);
+            shard.out.writeInt(k);
+            shard.out.writeInt(addresses.size());
+            shard.out.writeLong(seed);
+            shard.out.writeLong(heatmapWindowMillis);
+            shard.out.flush();
+            int nodeCount = shard.in.readInt();
+            if (nodeCount != map.getGraph().nodeCount()) {
+                throw new IOException("Shard " + address + " runs on a different map (" + nodeCount + " nodes)");
+            }
+        }
+    }
+
+    /**
+     * Connects the application to its shards; /api/ev/all then aggregates them, and
+     * vehicles retired from the VehicleRegistry leave their shard.
+     *
+     * @return The shared coordinator.
+     */
+    public static synchronized ShardCoordinator connect(List<String> addresses, long seed, long heatmapWindowMillis)
+            throws IOException {
+        if (instance == null) {
+            ShardCoordinator coordinator = new ShardCoordinator(GameMap.getInstance(), addresses, seed,
+                    heatmapWindowMillis);
+            VehicleRegistry.getInstance().addListener(coordinator.retirements);
+            coordinator.start();
+            instance = coordinator;
+        }
+        return instance;
+    }
+
+    /**
+     * Shuts the shards of the application down and leaves sharded mode.
+     */
+    public static synchronized void disconnect() throws IOException {
+        ShardCoordinator coordinator = instance;
+        if (coordinator == null) return;
+        instance = null;
+        VehicleRegistry.getInstance().removeListener(coordinator.retirements);
+        coordinator.shutdown();
+    }
+
+    /**
+     * @return The coordinator of the application, or null if it is not sharded.
+     */
+    public static ShardCoordinator getInstance() {
+        return instance;
+    }
+
+    // @return number of completed ticks
+    public synchronized long getTick() {
+        return tick;
+    }
+
+    // @return number of shards
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Gives a vehicle an id and queues it for the shard that owns its cell. It joins
+     * the simulation at the start of the next tick.
+     *
+     * @return False if the vehicle has no path or is not on the map.
+     */
+    public synchronized boolean spawn(EV ev) {
+        if (ev.getPath() == null || ev.getPath().isEmpty()) return false;
+        int owner = owner(ev);
+        if (owner < 0) return false;
+        // Vehicles registered with the API already have their id
+        if (ev.getId() < 0) {
+            ev.setId(nextId++);
+        } else {
+            nextId = Math.max(nextId, ev.getId() + 1);
+        }
+        shards.get(owner).arriving.add(ev);
+        return true;
+    }
+
+    /**
+     * Looks a vehicle up on the shards.
+     *
+     * @return The vehicle as its shard holds it, the spawned vehicle itself if it has
+     *         not joined a shard yet, or null if no shard has it.
+     * @throws IOException If a shard fails.
+     */
+    public synchronized EV getVehicle(int id) throws IOException {
+        EV waiting = waiting(id, false);
+        return waiting != null ? waiting : ask(ShardServer.VEHICLE, id);
+    }
+
+    /**
+     * Sets a vehicle moving, as SimulationEngine.startVehicle does on one engine.
+     *
+     * @return The started vehicle, or null if no shard has it.
+     * @throws IOException If a shard fails.
+     */
+    public synchronized EV start(int id) throws IOException {
+        EV waiting = waiting(id, false);
+        if (waiting != null) {
+            waiting.setMoving(true);
+            return waiting;
+        }
+        return ask(ShardServer.START, id);
+    }
+
+    /**
+     * Removes a vehicle from its shard, or from the queue of vehicles waiting to join one.
+     *
+     * @return False if no shard has the vehicle.
+     * @throws IOException If a shard fails.
+     */
+    public synchronized boolean retire(int id) throws IOException {
+        if (waiting(id, true) != null) return true;
+        for (Shard shard : shards) {
+            shard.out.writeByte(ShardServer.RETIRE);
+            BinaryCodec.writeVarInt(shard.out, id);
+            shard.out.flush();
+        }
+        boolean retired = false;
+        for (Shard shard : shards) {
+            retired |= shard.in.readBoolean();
+        }
+        return retired;
+    }
+
+    /**
+     * Asks the shard that owns a cell whether a vehicle could move into it now.
+     *
+     * @param from The vehicle's cell.
+     * @param to The neighbouring cell it wants to enter.
+     * @throws IOException If the shard fails.
+     */
+    public synchronized boolean canEnter(int from, int to) throws IOException {
+        Shard shard = shards.get(ownerOf(to));
+        shard.out.writeByte(ShardServer.CAN_ENTER);
+        BinaryCodec.writeVarInt(shard.out, from);
+        BinaryCodec.writeVarInt(shard.out, to);
+        shard.out.flush();
+        return shard.in.readBoolean();
+    }
+
+    // Sends a request about one vehicle to every shard; @return the vehicle from the shard holding it, or null
+    private EV ask(int request, int id) throws IOException {
+        for (Shard shard : shards) {
+            shard.out.writeByte(request);
+            BinaryCodec.writeVarInt(shard.out, id);
+            shard.out.flush();
+        }
+        EV found = null;
+        for (Shard shard : shards) {
+            if (shard.in.readBoolean()) {
+                EV ev = ShardServer.readVehicle(shard.in, map.getGraph());
+                if (ev != null) found = ev;
+            }
+        }
+        return found;
+    }
+
+    // @return the vehicle with the id among those waiting for the next PLAN, or null; removed if asked
+    private EV waiting(int id, boolean remove) {
+        for (Shard shard : shards) {
+            for (Iterator<EV> it = shard.arriving.iterator(); it.hasNext(); ) {
+                EV ev = it.next();
+                if (ev.getId() != id) continue;
+                if (remove) it.remove();
+                return ev;
+            }
+        }
+        return null;
+    }
+
+    private int owner(EV ev) {
+        int node = map.getGraph().nodeId(ev.getCurrentX(), ev.getCurrentY());
+        return node < 0 ? -1 : ownerOf(node);
+    }
+
+    /**
+     * Advances every shard by one tick.
+     *
+     * @throws IOException If a shard fails or the shards drift apart.
+     */
+    public synchronized void step() throws IOException {
+        RoadGraph graph = map.getGraph();
+
+        // PLAN: deliver arrivals, collect claims on other shards' cells
+        for (Shard shard : shards) {
+            shard.out.writeByte(ShardServer.PLAN);
+            BinaryCodec.writeVarInt(shard.out, shard.arriving.size());
+            for (EV ev : shard.arriving) {
+                ShardServer.writeVehicle(shard.out, ev, graph);
+            }
+            shard.arriving.clear();
+            shard.out.flush();
+        }
+        List<List<Integer>> claimsFor = new ArrayList<>();
+        for (int k = 0; k < shards.size(); k++) {
+            claimsFor.add(new ArrayList<>());
+        }
+        Map<Integer, Integer> claimedBy = new HashMap<>(); // Vehicle id -> shard that holds it
+        Integer checksum = null;
+        for (int k = 0; k < shards.size(); k++) {
+            Shard shard = shards.get(k);
+            long shardTick = shard.in.readLong();
+            int signals = shard.in.readInt();
+            if (shardTick != tick || (checksum != null && signals != checksum)) {
+                throw new IOException("Shard " + shard.address + " is out of step at tick " + tick
+                        + " (shard tick " + shardTick + ")");
+            }
+            checksum = signals;
+            int[] claims = ShardServer.readInts(shard.in);
+            for (int i = 0; i + 1 < claims.length; i += 2) {
+                int owner = ownerOf(claims[i + 1] & ~SimulationEngine.JUNCTION_EXIT);
+                claimsFor.get(owner).add(claims[i]);
+                claimsFor.get(owner).add(claims[i + 1]);
+                claimedBy.put(claims[i], k);
+            }
+        }
+
+        // RESOLVE: each owner decides the claims on its cells
+        for (int k = 0; k < shards.size(); k++) {
+            Shard shard = shards.get(k);
+            shard.out.writeByte(ShardServer.RESOLVE);
+            ShardServer.writeInts(shard.out, toArray(claimsFor.get(k)));
+            shard.out.flush();
+        }
+        List<List<Integer>> acceptedFor = new ArrayList<>();
+        for (int k = 0; k < shards.size(); k++) {
+            acceptedFor.add(new ArrayList<>());
+        }
+        for (Shard shard : shards) {
+            for (int id : ShardServer.readInts(shard.in)) {
+                acceptedFor.get(claimedBy.get(id)).add(id);
+            }
+        }
+
+        // COMMIT: shards move their vehicles and hand over the ones that left
+        for (int k = 0; k < shards.size(); k++) {
+            Shard shard = shards.get(k);
+            List<Integer> accepted = acceptedFor.get(k);
+            Collections.sort(accepted);
+            shard.out.writeByte(ShardServer.COMMIT);
+            ShardServer.writeInts(shard.out, toArray(accepted));
+            shard.out.flush();
+        }
+        for (Shard shard : shards) {
+            int leaving = BinaryCodec.readVarInt(shard.in);
+            for (int i = 0; i < leaving; i++) {
+                EV ev = ShardServer.readVehicle(shard.in, graph);
+                if (ev != null) shards.get(owner(ev)).arriving.add(ev);
+            }
+        }
+        tick++;
+    }
+
+    private int ownerOf(int node) {
+        int k = Arrays.binarySearch(bands, node);
+        // Empty bands share a boundary, the owner is the last band starting at the node
+        if (k >= 0) {
+            while (k + 1 < bands.length && bands[k + 1] == node) k++;
+            return Math.min(k, shards.size() - 1);
+        }
+        return -k - 2;
+    }
+
+    /**
+     * Adds the shards' congestion counters up into one grid.
+     *
+     * @return The grid, or null if the shards count no congestion.
+     * @throws IOException If a shard fails.
+     */
+    public synchronized HeatmapGrid heatmap() throws IOException {
+        if (heatmapWindowMillis <= 0) return null;
+        RoadGraph graph = map.getGraph();
+        HeatmapGrid grid = new HeatmapGrid(map.getWidth(), map.getHeight(), heatmapWindowMillis);
+        for (Shard shard : shards) {
+            shard.out.writeByte(ShardServer.HEATMAP);
+            shard.out.flush();
+        }
+        for (Shard shard : shards) {
+            int from = BinaryCodec.readVarInt(shard.in);
+            int[] occupancy = ShardServer.readInts(shard.in);
+            int[] denied = ShardServer.readInts(shard.in);
+            int[] passes = ShardServer.readInts(shard.in);
+            grid.add(graph, from, occupancy, denied, passes);
+        }
+        return grid;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Collects the vehicles of every shard, plus those waiting to join the next tick.
+     *
+     * @return The vehicles in id order.
+     * @throws IOException If a shard fails.
+     */
+    public synchronized List<EV> getVehicles() throws IOException {
+        RoadGraph graph = map.getGraph();
+        for (Shard shard : shards) {
+            shard.out.writeByte(ShardServer.VEHICLES);
+            shard.out.flush();
+        }
+        List<EV> vehicles = new ArrayList<>();
+        for (Shard shard : shards) {
+            int count = BinaryCodec.readVarInt(shard.in);
+            for (int i = 0; i < count; i++) {
+                EV ev = ShardServer.readVehicle(shard.in, graph);
+                if (ev != null) vehicles.add(ev);
+            }
+            vehicles.addAll(shard.arriving);
+        }
+        vehicles.sort(Comparator.comparingInt(EV::getId));
+        return vehicles;
+    }
+
+    /**
+     * Starts ticking in real time, one tick per SimulationEngine.TICK_MILLIS.
+     */
+    public synchronized void start() {
+        if (pacer != null) return;
+        pacer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "shard-coordinator");
+            t.setDaemon(true);
+            return t;
+        });
+        pacer.scheduleAtFixedRate(() -> {
+            try {
+                step();
+            } catch (IOException e) {
+                System.out.println("Sharded simulation stopped: " + e.getMessage());
+                stop();
+            }
+        }, SimulationEngine.TICK_MILLIS, SimulationEngine.TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops real-time ticking.
+     */
+    public synchronized void stop() {
+        if (pacer != null) {
+            pacer.shutdown();
+            pacer = null;
+        }
+    }
+
+    /**
+     * Stops ticking and shuts every shard down.
+     */
+    public synchronized void shutdown() throws IOException {
+        stop();
+        for (Shard shard : shards) {
+            shard.out.writeByte(ShardServer.SHUTDOWN);
+            shard.out.flush();
+            shard.in.readUnsignedByte();
+            shard.socket.close();
+        }
+    }
+
+    /**
+     * Headless run: spawns random NPCs over the whole map and ticks as fast as possible.
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> addresses = null;
+        long seed = 42;
+        int vehicles = 1000;
+        long ticks = 1000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--shards": addresses = Arrays.asList(args[++i].split(",")); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--vehicles": vehicles = Integer.parseInt(args[++i]); break;
+                case "--ticks": ticks = Long.parseLong(args[++i]); break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        if (addresses == null) {
+            System.out.println("Usage: ShardCoordinator --shards HOST:PORT,... [--seed N] [--vehicles N] [--ticks N]");
+            System.exit(1);
+        }
+
+        SimulationClock.useSimulatedTime(() -> 0L);
+        GameMap map = GameMap.getInstance();
+        ShardCoordinator coordinator = new ShardCoordinator(map, addresses, seed, 0);
+        PathfindingVisualizer pathfinder = new PathfindingVisualizer(map);
+        Random random = new Random(seed);
+        List<Node> roads = new ArrayList<>(map.getRoadNetwork().values());
+        roads.sort(Comparator.comparingInt((Node n) -> n.x).thenComparingInt(n -> n.y));
+        Set<Node> used = new HashSet<>();
+        for (int i = 0; i < vehicles && used.size() < roads.size(); i++) {
+            Node start = roads.get(random.nextInt(roads.size()));
+            Node end = roads.get(random.nextInt(roads.size()));
+            if (!used.add(start)) continue;
+            NPCVehicle npc = new NPCVehicle(start.x, start.y);
+            npc.setEndLocation(end.x, end.y);
+            PackedPath path = pathfinder.findRoute(start.x, start.y, end.x, end.y);
+            if (path.isEmpty()) continue;
+            npc.setPath(path);
+            npc.setMoving(true);
+            coordinator.spawn(npc);
+        }
+
+        long started = System.nanoTime();
+        for (long t = 0; t < ticks; t++) {
+            coordinator.step();
+        }
+        long elapsed = (System.nanoTime() - started) / 1_000_000;
+        List<EV> all = coordinator.getVehicles();
+        System.out.println(coordinator.getShardCount() + " shards, " + all.size() + " vehicles, "
+                + ticks + " ticks in " + elapsed + " ms");
+        coordinator.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * Connection to one shard and the vehicles waiting to join it.
+     */
+    private static class Shard {
+        final String address;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final List<EV> arriving = new ArrayList<>(); // Spawned or handed-over vehicles for the next PLAN
+
+        Shard(String host, int port) throws IOException {
+            this.address = host + ":" + port;
+            this.socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+    }
+}
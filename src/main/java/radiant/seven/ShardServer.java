@@ -0,0 +1,224 @@
+package radiant.seven;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * One process of a sharded simulation. The shard loads the whole road graph but
+ * simulates only the vehicles on its band of rows, using a SimulationEngine that
+ * owns those cells. A ShardCoordinator connects over TCP, tells the shard which band
+ * it owns and then drives every tick in three steps (plan, resolve, commit), passing
+ * claims on border cells and vehicles that cross a border between the shards.
+ * Between ticks it also looks up, retires and starts single vehicles for the REST API,
+ * and reports the congestion counters of its cells.
+ *
+ * Signals are never sent between shards: every engine starts its signal cycle at
+ * simulated time zero and all shards tick in lockstep, so their schedules agree.
+ * Each plan reply carries the shard's tick and signal checksum for the coordinator
+ * to check.
+ *
+ * Usage: ShardServer --port PORT [--event-log FILE]
+ */
+public class ShardServer {
+    // Requests from the coordinator; each gets exactly one reply
+    static final int HELLO = 1; // shard index, shard count, seed, heatmap window millis -> node count
+    static final int PLAN = 2; // arriving vehicles -> tick, signal checksum, foreign claims
+    static final int RESOLVE = 3; // claims on owned cells -> accepted vehicle ids
+    static final int COMMIT = 4; // accepted own vehicle ids -> vehicles that left
+    static final int VEHICLES = 5; // -> every vehicle of the shard
+    static final int SHUTDOWN = 6; // -> acknowledgement, then the shard exits
+    static final int VEHICLE = 7; // vehicle id -> whether the shard holds it, the vehicle
+    static final int RETIRE = 8; // vehicle id -> whether the shard held it
+    static final int START = 9; // vehicle id -> whether the shard holds it, the started vehicle
+    static final int CAN_ENTER = 10; // from node, owned node -> whether a vehicle could move now
+    static final int HEATMAP = 11; // -> first owned node, occupancy, denied moves and passes per owned node
+    static final int OK = 0;
+
+    private final GameMap map;
+    private final String eventLogPath; // Event log of this shard, or null
+    private SimulationEngine engine;
+    private EventLog log;
+    private int ownedFrom; // Owned node ids are ownedFrom up to ownedTo
+    private int ownedTo;
+
+    public ShardServer(GameMap map, String eventLogPath) {
+        this.map = map;
+        this.eventLogPath = eventLogPath;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = -1;
+        String eventLog = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--event-log": eventLog = args[++i]; break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        if (port < 0) {
+            System.out.println("Usage: ShardServer --port PORT [--event-log FILE]");
+            System.exit(1);
+        }
+
+        // Keep the wall-clock signal cycle from touching the signals while the map loads
+        SimulationClock.useSimulatedTime(() -> 0L);
+        ShardServer server = new ShardServer(GameMap.getInstance(), eventLog);
+        try (ServerSocket socket = new ServerSocket(port)) {
+            System.out.println("Shard listening on port " + port);
+            try (Socket connection = socket.accept()) {
+                connection.setTcpNoDelay(true);
+                server.serve(connection.getInputStream(), connection.getOutputStream());
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Answers coordinator requests until SHUTDOWN or the end of the stream.
+     */
+    void serve(InputStream input, OutputStream output) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+        RoadGraph graph = map.getGraph();
+        while (true) {
+            int request;
+            try {
+                request = in.readUnsignedByte();
+            } catch (EOFException e) {
+                break;
+            }
+            switch (request) {
+                case HELLO:
+                    int shard = in.readInt();
+                    int shards = in.readInt();
+                    long seed = in.readLong();
+                    start(shard, shards, seed, in.readLong());
+                    out.writeInt(graph.nodeCount());
+                    break;
+                case PLAN:
+                    int arriving = BinaryCodec.readVarInt(in);
+                    for (int i = 0; i < arriving; i++) {
+                        EV ev = readVehicle(in, graph);
+                        if (ev != null) engine.adopt(ev);
+                    }
+                    int[] claims = engine.planShardTick();
+                    out.writeLong(engine.getTick());
+                    out.writeInt(engine.signalChecksum());
+                    writeInts(out, claims);
+                    break;
+                case RESOLVE:
+                    writeInts(out, engine.resolveForeignClaims(readInts(in)));
+                    break;
+                case COMMIT:
+                    List<EV> leaving = engine.commitShardTick(readInts(in));
+                    BinaryCodec.writeVarInt(out, leaving.size());
+                    for (EV ev : leaving) {
+                        writeVehicle(out, ev, graph);
+                    }
+                    break;
+                case VEHICLES:
+                    List<EV> vehicles = engine == null ? List.of() : engine.getVehicles();
+                    BinaryCodec.writeVarInt(out, vehicles.size());
+                    for (EV ev : vehicles) {
+                        writeVehicle(out, ev, graph);
+                    }
+                    break;
+                case VEHICLE:
+                    writeFound(out, engine.getVehicle(BinaryCodec.readVarInt(in)), graph);
+                    break;
+                case RETIRE:
+                    EV retired = engine.getVehicle(BinaryCodec.readVarInt(in));
+                    if (retired != null) engine.retire(retired);
+                    out.writeBoolean(retired != null);
+                    break;
+                case START:
+                    EV started = engine.getVehicle(BinaryCodec.readVarInt(in));
+                    if (started != null) engine.start(started);
+                    writeFound(out, started, graph);
+                    break;
+                case CAN_ENTER:
+                    int from = BinaryCodec.readVarInt(in);
+                    out.writeBoolean(engine.canEnter(from, BinaryCodec.readVarInt(in)));
+                    break;
+                case HEATMAP:
+                    CongestionHeatmap heatmap = CongestionHeatmap.getInstance();
+                    // Shards in one JVM share a heatmap, so each reports only its own cells
+                    int[][] sums = heatmap == null ? new int[3][0] : heatmap.window(ownedFrom, ownedTo);
+                    BinaryCodec.writeVarInt(out, ownedFrom);
+                    for (int[] counters : sums) {
+                        writeInts(out, counters);
+                    }
+                    break;
+                case SHUTDOWN:
+                    if (log != null) log.close();
+                    out.writeByte(OK);
+                    out.flush();
+                    return;
+                default:
+                    throw new IOException("Unknown shard request " + request);
+            }
+            out.flush();
+        }
+        if (log != null) log.close();
+    }
+
+    private void start(int shard, int shards, long seed, long heatmapWindowMillis) throws IOException {
+        if (eventLogPath != null) {
+            int[][] signals = SimulationEngine.signalStates(map);
+            log = EventLog.create(eventLogPath, seed, map.getGraph().nodeCount(), signals[0], signals[1]);
+        }
+        if (heatmapWindowMillis > 0 && CongestionHeatmap.getInstance() == null) {
+            CongestionHeatmap.enable(map, heatmapWindowMillis);
+        }
+        engine = new SimulationEngine(map, seed, log);
+        SimulationEngine.install(engine);
+        int[] bands = SimulationEngine.rowBands(map.getGraph(), shards);
+        ownedFrom = bands[shard];
+        ownedTo = bands[shard + 1];
+        engine.setOwnedNodes(ownedFrom, ownedTo);
+        System.out.println("Shard " + shard + " of " + shards + " owns nodes " + bands[shard]
+                + " to " + (bands[shard + 1] - 1));
+    }
+
+    /**
+     * Writes a vehicle with the part of its path that is still ahead.
+     */
+    static void writeVehicle(DataOutput out, EV ev, RoadGraph graph) throws IOException {
+        VehicleSnapshot.of(ev).write(out, graph);
+    }
+
+    // Writes whether a vehicle was found and, if so, the vehicle
+    private static void writeFound(DataOutput out, EV ev, RoadGraph graph) throws IOException {
+        out.writeBoolean(ev != null);
+        if (ev != null) writeVehicle(out, ev, graph);
+    }
+
+    /**
+     * Reads a vehicle written by writeVehicle, keeping its id.
+     *
+     * @return The vehicle, or null if it had no path.
+     */
+    static EV readVehicle(DataInput in, RoadGraph graph) throws IOException {
+        return CheckpointManager.rebuild(graph, VehicleSnapshot.read(in), true);
+    }
+
+    static void writeInts(DataOutput out, int[] values) throws IOException {
+        BinaryCodec.writeVarInt(out, values.length);
+        for (int value : values) {
+            BinaryCodec.writeVarInt(out, value);
+        }
+    }
+
+    static int[] readInts(DataInput in) throws IOException {
+        int[] values = new int[BinaryCodec.readVarInt(in)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = BinaryCodec.readVarInt(in);
+        }
+        return values;
+    }
+}
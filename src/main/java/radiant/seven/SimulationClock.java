@@ -0,0 +1,50 @@
+package radiant.seven;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The SimulationClock is the single source of "now" for the simulation.
+ * By default it follows the wall clock. In deterministic mode the SimulationEngine
+ * switches it to simulated time (tick number times the tick length), and the
+ * components that normally run on their own timers (traffic signals, charging)
+ * leave the stepping to the engine.
+ */
+public final class SimulationClock {
+    private static volatile LongSupplier source = System::currentTimeMillis; // Current time source
+    private static volatile boolean simulated = false; // True when driven by the SimulationEngine
+
+    private SimulationClock() {
+    }
+
+    /**
+     * @return The current time in milliseconds.
+     */
+    public static long now() {
+        return source.getAsLong();
+    }
+
+    /**
+     * @return True if time is simulated and timers are driven by the SimulationEngine.
+     */
+    public static boolean isSimulated() {
+        return simulated;
+    }
+
+    /**
+     * Switches the clock to simulated time.
+     *
+     * @param simulatedTime Supplies the simulated time in milliseconds.
+     */
+    public static void useSimulatedTime(LongSupplier simulatedTime) {
+        source = simulatedTime;
+        simulated = true;
+    }
+
+    /**
+     * Switches the clock back to the wall clock.
+     */
+    public static void useWallClock() {
+        source = System::currentTimeMillis;
+        simulated = false;
+    }
+}
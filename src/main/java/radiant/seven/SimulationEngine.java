@@ -0,0 +1,1224 @@
+package radiant.seven;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+
+/**
+ * The SimulationEngine runs the simulation in discrete ticks on one thread, which
+ * makes a run fully reproducible from its seed and its external inputs.
+ *
+ * Each tick has two phases. First every moving vehicle, in slot order,
+ * states the cell it wants to enter; a move is only possible into a cell that was
+ * free at the start of the tick and when the signals allow it, except that vehicles
+ * leaving a signalled cell may always clear the junction, as in the threaded mode.
+ * Then, for each contested cell, the vehicle with the lowest id wins and all winning
+ * moves are applied. Slots follow spawn order and so ids, except on a shard that adopted
+ * vehicles from other shards, so claims always compare ids. Signals and charging are advanced from simulated time, NPCs draw their
+ * destinations from their own seeded random stream, and every state change is
+ * written to the EventLog.
+ *
+ * Large fleets can be ticked on several cores. The map is then cut into row bands
+ * (regions), and each region's vehicles are advanced by a worker. Claims on cells of
+ * another region and vehicles crossing a border are passed on through per-region
+ * hand-off queues. Everything that depends on order or is shared, such as NPC
+ * reroutes, battery stops, charging requests, SpatialIndex updates and event logging,
+ * still runs on the ticking thread in id order, so a parallel run produces the same
+ * event log as a single-threaded one.
+ *
+ * An engine can also run as one shard of a multi-process simulation (see ShardServer).
+ * It then owns a band of node ids and splits each tick into plan, resolve and commit
+ * steps, so the ShardCoordinator can settle claims on border cells between shards.
+ */
+public class SimulationEngine {
+    public static final long TICK_MILLIS = EV.MOVE_INTERVAL; // Simulated time per tick
+    static final int JUNCTION_EXIT = 1 << 30; // Intent flag: move out of a signalled cell, not exclusive
+    private static final int SETTLE = -2; // Intent: the vehicle cannot move and its side effects must run in order
+    private static final int SIGNAL_WAIT = -3; // Intent: the vehicle does not move because of a signal
+    private static final int PARALLEL_MIN_VEHICLES = 2048; // Smaller fleets tick faster on one thread
+    private static volatile SimulationEngine instance; // Engine of the deterministic mode, if enabled
+
+    private final GameMap map;
+    private final long seed; // Seed of the run
+    private final Random spawnRandom; // Random stream used to place spawned vehicles
+    private final VehicleStore store; // Per-tick state of the vehicles, in spawn order
+    private final Map<Integer, EV> vehiclesById = new HashMap<>();
+    private final SpatialIndex spatialIndex; // Vehicle positions for queries, updated on the ticking thread
+    private final TrafficNode[] signalAt; // Node id -> traffic signal, or null
+    private final int[] occupancy; // Node id -> number of vehicles on the cell
+    private final int[] claimant; // Node id -> slot of the vehicle that won the cell this tick, or -1
+    private final int ticksPerCharge; // Ticks per charging step
+    private volatile long tick = 0; // Number of completed ticks
+    private int nextId = 0; // Id of the next spawned vehicle
+    private EventLog log; // Event log, or null if not recording
+    private ScheduledExecutorService pacer; // Runs ticks in real time when started
+    private int[] regionOf; // Node id -> region, or null if ticking on one thread
+    private Region[] regions = new Region[0]; // Row bands of the map, ticked in parallel
+    private ExecutorService workers; // Region workers, or null if ticking on one thread
+    private boolean membershipStale = true; // Whether the regions' vehicle lists must be rebuilt
+    private int ownedFirst = 0; // First node id owned by this engine as a shard
+    private int ownedEnd = Integer.MAX_VALUE; // Node id after the last owned one
+    private int[] shardIntents; // Intents of the planned shard tick, by vehicle slot
+    private Map<Integer, Integer> foreignMoves = new HashMap<>(); // Vehicle id -> vehicle slot, for claims on other shards
+    private long moves = 0; // Vehicle steps since the engine was created
+    private long signalWaits = 0; // Vehicle ticks spent waiting for a signal
+    private long trips = 0; // Vehicles that reached the end of their path
+    private long tripTicks = 0; // Total ticks of the completed trips
+    private CongestionHeatmap heatmap; // Heatmap counting the current tick, or null
+
+    /**
+     * Creates an engine over the given map. The SimulationClock is switched to the
+     * engine's simulated time and the signal cycle restarts at time zero.
+     *
+     * @param map The map to simulate.
+     * @param seed The seed for every random stream of the run.
+     * @param log The event log to write to, or null.
+     */
+    public SimulationEngine(GameMap map, long seed, EventLog log) {
+        this.map = map;
+        this.seed = seed;
+        this.spawnRandom = new Random(seed);
+        this.log = log;
+        this.spatialIndex = SpatialIndex.getInstance();
+
+        RoadGraph graph = map.getGraph();
+        int n = graph.nodeCount();
+        store = new VehicleStore(graph, this);
+        signalAt = new TrafficNode[n];
+        occupancy = new int[n];
+        claimant = new int[n];
+        Arrays.fill(claimant, -1);
+        for (int id = 0; id < n; id++) {
+            Node node = map.getNode(id);
+            node.setStalled(false);
+            if (node instanceof TrafficNode) {
+                signalAt[id] = (TrafficNode) node;
+            }
+        }
+        ticksPerCharge = (int) Math.max(1, EnergyModel.CHARGING_INTERVAL / TICK_MILLIS);
+
+        SimulationClock.useSimulatedTime(this::currentTime);
+        TrafficManager.setNextSignalChangeTime(TrafficManager.getSignalChangeInterval());
+    }
+
+    /**
+     * Enables deterministic mode for the application: creates the shared engine,
+     * optionally recording to an event log, and starts ticking in real time.
+     *
+     * @param seed The seed of the run.
+     * @param eventLogPath Path of the event log to create, or null/empty for none.
+     * @return The shared engine.
+     * @throws IOException If the event log cannot be created.
+     */
+    public static synchronized SimulationEngine enableDeterministicMode(long seed, String eventLogPath)
+            throws IOException {
+        return enableDeterministicMode(seed, eventLogPath, 1);
+    }
+
+    /**
+     * Enables deterministic mode with the given number of regions ticked in parallel.
+     *
+     * @param seed The seed of the run.
+     * @param eventLogPath Path of the event log to create, or null/empty for none.
+     * @param regions Number of regions, 0 for one per core, 1 to tick on one thread.
+     * @return The shared engine.
+     * @throws IOException If the event log cannot be created.
+     */
+    public static synchronized SimulationEngine enableDeterministicMode(long seed, String eventLogPath, int regions)
+            throws IOException {
+        if (instance == null) {
+            GameMap map = GameMap.getInstance();
+            SimulationEngine engine = new SimulationEngine(map, seed, null);
+            // The wall-clock signal cycle has stopped now, so the captured states stay valid
+            if (eventLogPath != null && !eventLogPath.isEmpty()) {
+                int[][] signals = signalStates(map);
+                engine.log = EventLog.create(eventLogPath, seed, map.getGraph().nodeCount(), signals[0], signals[1]);
+            }
+            engine.setRegions(regions == 0 ? Runtime.getRuntime().availableProcessors() : regions);
+            instance = engine;
+            RouteCache.getInstance().clear(map.getGraph());
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Installs an engine as the shared engine without starting it, so that closures and
+     * API calls go through it. Used by the EventLogReplayer to re-simulate a log.
+     */
+    static synchronized void install(SimulationEngine engine) {
+        instance = engine;
+        if (engine != null) {
+            // Cached routes may come from another routing backend
+            RouteCache.getInstance().clear(engine.map.getGraph());
+        }
+    }
+
+    /**
+     * @return The engine of the deterministic mode, or null if the mode is off.
+     */
+    public static SimulationEngine getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return True if the application runs in deterministic mode.
+     */
+    public static boolean isDeterministic() {
+        return instance != null;
+    }
+
+    /**
+     * Reads the traffic signals in node id order.
+     *
+     * @return {node ids, signal states}
+     */
+    static int[][] signalStates(GameMap map) {
+        RoadGraph graph = map.getGraph();
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < graph.nodeCount(); id++) {
+            if (map.getNode(id) instanceof TrafficNode) ids.add(id);
+        }
+        int[] nodes = new int[ids.size()];
+        int[] states = new int[ids.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = ids.get(i);
+            states[i] = ((TrafficNode) map.getNode(nodes[i])).getSignal();
+        }
+        return new int[][]{nodes, states};
+    }
+
+    // @return the seed of the run
+    public long getSeed() {
+        return seed;
+    }
+
+    // @return number of completed ticks
+    public long getTick() {
+        return tick;
+    }
+
+    // @return number of regions ticked in parallel, 1 if ticking on one thread
+    public synchronized int getRegions() {
+        return Math.max(1, regions.length);
+    }
+
+    /**
+     * Partitions the map into row bands that are ticked in parallel. The bands hold
+     * roughly the same number of road cells and always end at a row boundary.
+     *
+     * @param count Number of regions; 1 or less ticks on one thread.
+     */
+    public synchronized void setRegions(int count) {
+        if (workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
+        RoadGraph graph = map.getGraph();
+        int n = graph.nodeCount();
+        count = Math.min(count, Math.max(1, graph.getHeight()));
+        if (count <= 1 || n == 0) {
+            regionOf = null;
+            regions = new Region[0];
+            return;
+        }
+        int[] bands = rowBands(graph, count);
+        regionOf = new int[n];
+        for (int r = 0; r < count; r++) {
+            Arrays.fill(regionOf, bands[r], bands[r + 1], r);
+        }
+        regions = new Region[count];
+        for (int r = 0; r < count; r++) {
+            regions[r] = new Region(count);
+        }
+        int threads = Math.min(count, Runtime.getRuntime().availableProcessors());
+        int[] counter = {0};
+        workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "simulation-region-" + counter[0]++);
+            t.setDaemon(true);
+            return t;
+        });
+        membershipStale = true;
+    }
+
+    /**
+     * Cuts the node ids into bands of whole rows holding roughly the same number of
+     * cells. Node ids are ordered by row, so every band is a contiguous id range.
+     *
+     * @return count + 1 boundaries; band r holds the ids from [r] up to [r + 1].
+     */
+    static int[] rowBands(RoadGraph graph, int count) {
+        int n = graph.nodeCount();
+        int[] bands = new int[count + 1];
+        int rowStart = 0;
+        int band = 0;
+        for (int id = 0; id < n; id++) {
+            if (graph.x(id) != graph.x(rowStart)) rowStart = id;
+            int target = (int) ((long) rowStart * count / n);
+            while (band < target) {
+                bands[++band] = id;
+            }
+        }
+        while (band < count) {
+            bands[++band] = n;
+        }
+        return bands;
+    }
+
+    // @return simulated time in milliseconds
+    public long currentTime() {
+        return tick * TICK_MILLIS;
+    }
+
+    /**
+     * @return The random stream for placing spawned vehicles. Only use while holding the engine lock.
+     */
+    public Random getSpawnRandom() {
+        return spawnRandom;
+    }
+
+    /**
+     * Derives the seed of a vehicle's own random stream from the run seed and its id.
+     */
+    public long vehicleSeed(int id) {
+        long z = seed + (id + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return A snapshot of the simulated vehicles, in id order.
+     */
+    public synchronized List<EV> getVehicles() {
+        return new ArrayList<>(Arrays.asList(store.views).subList(0, store.size()));
+    }
+
+    /**
+     * Retrieves a simulated vehicle by id.
+     *
+     * @return The vehicle, or null if no vehicle has that id.
+     */
+    public synchronized EV getVehicle(int id) {
+        return vehiclesById.get(id);
+    }
+
+    /**
+     * @return The counters of the run so far: ticks, vehicle steps, signal waits and completed trips.
+     */
+    public synchronized SimulationStats getStats() {
+        return new SimulationStats(tick, moves, signalWaits, trips, tripTicks, store.size());
+    }
+
+    /**
+     * Adds a vehicle to the simulation at the start of the next tick. The vehicle
+     * must have a path starting at its current position. A vehicle that already has
+     * an id keeps it, and one placed on a charging stop queues for a port at once.
+     * An NPC that already has a seeded random stream, because it was restored from a
+     * checkpoint or handed over by another shard, carries it on; other NPCs get a
+     * new stream derived from their id.
+     *
+     * @param ev The vehicle to add.
+     * @return False if the vehicle has no path or its path leaves the road graph.
+     */
+    public synchronized boolean spawn(EV ev) {
+        List<PathNode> path = ev.getPath();
+        if (path == null || path.isEmpty()) {
+            return false;
+        }
+        int slot = store.add(ev);
+        if (slot < 0) {
+            return false;
+        }
+        // Vehicles restored from a checkpoint or a log keep their id
+        if (ev.getId() < 0) {
+            ev.setId(nextId++);
+        } else {
+            nextId = Math.max(nextId, ev.getId() + 1);
+        }
+        long carriedRandom = -1;
+        if (ev instanceof NPCVehicle) {
+            NPCVehicle npc = (NPCVehicle) ev;
+            if (npc.isSeeded()) {
+                carriedRandom = npc.getRandomState();
+            } else {
+                npc.seedRandom(vehicleSeed(ev.getId()));
+            }
+        }
+        vehiclesById.put(ev.getId(), ev);
+        store.tripStart[slot] = tick;
+        int[] nodes = nodeIds(ev.getPath());
+        occupy(store.node[slot], 1);
+        if (regionOf != null && !membershipStale) {
+            regions[regionOf[store.node[slot]]].members.add(slot);
+        }
+        try {
+            if (log != null) {
+                log.spawn(tick, ev, nodes, ev.getChargingStops());
+                if (carriedRandom >= 0) log.random(tick, ev.getId(), carriedRandom);
+            }
+        } catch (IOException e) {
+            logFailed(e);
+        }
+        if (ev.getChargingStops().contains(ev.getCurrentPathIndex())) {
+            queueForCharging(ev, ev.getPath().get(ev.getCurrentPathIndex()));
+        }
+        return true;
+    }
+
+    /**
+     * Removes a vehicle from the simulation and releases its cell.
+     *
+     * @param ev The vehicle to remove.
+     */
+    public synchronized void retire(EV ev) {
+        retireAll(Collections.singletonList(ev));
+    }
+
+    /**
+     * Removes several vehicles in one pass over the store and releases their cells.
+     * Retirements are logged in the order of the collection.
+     *
+     * @param vehicles The vehicles to remove; vehicles not in the simulation are skipped.
+     */
+    public synchronized void retireAll(Collection<EV> vehicles) {
+        List<EV> leaving = new ArrayList<>(vehicles.size());
+        Set<EV> members = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (EV ev : vehicles) {
+            if (vehiclesById.remove(ev.getId()) == null) continue;
+            occupy(currentNode(ev), -1);
+            ev.setMoving(false);
+            leaving.add(ev);
+            members.add(ev);
+        }
+        if (leaving.isEmpty()) return;
+        store.removeIf(members::contains);
+        membershipStale = true; // Slots have shifted
+        for (EV ev : leaving) {
+            record(EventLog.RETIRE, ev);
+        }
+    }
+
+    /**
+     * Starts a vehicle between two ticks, as requested through the API or by the
+     * TaskAssigner, and records the start as an input of the run.
+     *
+     * @param ev The vehicle to start.
+     * @return False if the vehicle is not in the simulation.
+     */
+    public synchronized boolean start(EV ev) {
+        if (vehiclesById.get(ev.getId()) != ev) {
+            return false;
+        }
+        if (!ev.isMoving()) {
+            ev.setMoving(true);
+            record(EventLog.START, ev);
+        }
+        return true;
+    }
+
+    /**
+     * Continues a simulated NPC's random stream from a recorded state, as when a
+     * logged run spawned it with the stream it already had.
+     *
+     * @param ev The NPC.
+     * @param state The state of its stream.
+     */
+    public synchronized void restoreRandom(NPCVehicle ev, long state) {
+        ev.restoreRandom(state);
+        try {
+            if (log != null) log.random(tick, ev.getId(), state);
+        } catch (IOException e) {
+            logFailed(e);
+        }
+    }
+
+    /**
+     * Starts a vehicle through the engine in deterministic mode, so the change cannot
+     * race with a tick, or directly otherwise.
+     *
+     * @param ev The vehicle to start.
+     */
+    static void startVehicle(EV ev) {
+        SimulationEngine engine = instance;
+        if (engine == null || !engine.start(ev)) {
+            ev.setMoving(true);
+        }
+    }
+
+    /**
+     * Changes every signal immediately, as requested through the API.
+     */
+    public synchronized void forceSignalChange() {
+        TrafficManager.changeSignals();
+        try {
+            if (log != null) log.signal(EventLog.SIGNAL_FORCED, tick);
+        } catch (IOException e) {
+            logFailed(e);
+        }
+    }
+
+    /**
+     * Records a closure change made by the IncidentManager. Call while holding the engine lock.
+     */
+    public void recordClosure(int type, int from, int to) {
+        try {
+            if (log != null) log.closure(type, tick, from, to);
+        } catch (IOException e) {
+            logFailed(e);
+        }
+    }
+
+    /**
+     * Records that a vehicle got a new path, e.g. after a reroute. Call while holding the engine lock.
+     */
+    public void recordRoute(EV ev) {
+        try {
+            if (log != null) log.route(tick, ev.getId(), nodeIds(ev.getPath()));
+        } catch (IOException e) {
+            logFailed(e);
+        }
+    }
+
+    /**
+     * Records a single-vehicle event such as STOP. Call while holding the engine lock.
+     */
+    public void record(int type, EV ev) {
+        try {
+            if (log != null) log.vehicleEvent(type, tick, ev.getId());
+        } catch (IOException e) {
+            logFailed(e);
+        }
+    }
+
+    /**
+     * Advances the simulation by one tick.
+     */
+    public synchronized void step() {
+        heatmap = CongestionHeatmap.getInstance();
+        if (regionOf == null || store.size() < PARALLEL_MIN_VEHICLES || !stepRegions()) {
+            stepSerial();
+        }
+        finishTick();
+    }
+
+    private void stepSerial() {
+        long now = currentTime();
+        RoadGraph graph = map.getGraph();
+        int count = store.size();
+        int[] intents = new int[count];
+        membershipStale = true;
+
+        // Phase 1: every vehicle claims the next cell of its path, the lowest id wins
+        for (int i = 0; i < count; i++) {
+            intents[i] = -1;
+            int target = intent(i, now);
+            if (target < 0) continue;
+            if ((target & JUNCTION_EXIT) != 0) {
+                intents[i] = target & ~JUNCTION_EXIT;
+            } else {
+                intents[i] = target;
+                int lost = claim(i, target);
+                if (lost != -1) intents[lost] = -1;
+            }
+        }
+
+        // Phase 2: apply the winning moves
+        for (int i = 0; i < count; i++) {
+            int target = intents[i];
+            if (target < 0) continue;
+            if (claimant[target] == i) claimant[target] = -1;
+            occupy(store.node[i], -1);
+            occupy(target, 1);
+            moveAlongPath(i);
+            finishMove(store.views[i], target);
+        }
+    }
+
+    /**
+     * Runs both phases of a tick region by region on the worker threads.
+     *
+     * @return False if a vehicle was found outside its region; nothing has changed then
+     *         and the tick must run on one thread.
+     */
+    private boolean stepRegions() {
+        if (membershipStale) rebuildMembership();
+        long now = currentTime();
+        int count = store.size();
+        int[] intents = new int[count];
+        for (Region region : regions) {
+            region.clearQueues();
+        }
+
+        // Phase 1: each region works out its vehicles' targets; claims go to the region owning the cell
+        runRegions(r -> {
+            Region region = regions[r];
+            for (int k = 0; k < region.members.size(); k++) {
+                int i = region.members.get(k);
+                int target = target(i, now);
+                intents[i] = -1;
+                if (target == SETTLE) {
+                    region.settle.add(i);
+                } else if (target == SIGNAL_WAIT) {
+                    region.signalWaits++;
+                } else if (target >= 0) {
+                    int node = target & ~JUNCTION_EXIT;
+                    if (regionOf[store.node[i]] != r) {
+                        region.misplaced = true;
+                    } else if ((target & JUNCTION_EXIT) != 0) {
+                        intents[i] = node;
+                    } else {
+                        region.claimsTo[regionOf[node]].add(i, node);
+                    }
+                }
+            }
+        });
+        for (Region region : regions) {
+            if (region.misplaced) {
+                membershipStale = true;
+                return false;
+            }
+        }
+        for (Region region : regions) {
+            signalWaits += region.signalWaits;
+        }
+
+        // Vehicles that cannot move stop or reroute in id order, as on one thread
+        IntList settle = new IntList();
+        for (Region region : regions) {
+            settle.addAll(region.settle);
+        }
+        settle.sort();
+        for (int k = 0; k < settle.size(); k++) {
+            settle(store.views[settle.get(k)]);
+        }
+
+        // Each region resolves the claims on its cells: the lowest id wins
+        runRegions(r -> {
+            for (Region source : regions) {
+                IntList claims = source.claimsTo[r];
+                for (int k = 0; k < claims.size(); k += 2) {
+                    int i = claims.get(k);
+                    int node = claims.get(k + 1);
+                    if (claimant[node] == -1 || lowerId(i, claimant[node])) claimant[node] = i;
+                }
+            }
+            for (Region source : regions) {
+                IntList claims = source.claimsTo[r];
+                for (int k = 0; k < claims.size(); k += 2) {
+                    int i = claims.get(k);
+                    int node = claims.get(k + 1);
+                    if (claimant[node] == i) {
+                        intents[i] = node;
+                    } else if (heatmap != null) {
+                        heatmap.deny(node);
+                    }
+                }
+            }
+            for (Region source : regions) {
+                IntList claims = source.claimsTo[r];
+                for (int k = 1; k < claims.size(); k += 2) {
+                    claimant[claims.get(k)] = -1;
+                }
+            }
+        });
+
+        // Phase 2: regions move their vehicles; arrivals on other regions' cells are handed off
+        runRegions(r -> {
+            Region region = regions[r];
+            IntList staying = new IntList(region.members.size());
+            for (int k = 0; k < region.members.size(); k++) {
+                int i = region.members.get(k);
+                int target = intents[i];
+                if (target < 0) {
+                    staying.add(i);
+                    continue;
+                }
+                occupy(store.node[i], -1);
+                moveAlongPath(i);
+                int destination = regionOf[target];
+                if (destination == r) {
+                    occupy(target, 1);
+                    staying.add(i);
+                } else {
+                    region.handOffTo[destination].add(i, target);
+                }
+            }
+            region.members = staying;
+        });
+        runRegions(r -> {
+            Region region = regions[r];
+            for (Region source : regions) {
+                IntList arrivals = source.handOffTo[r];
+                for (int k = 0; k < arrivals.size(); k += 2) {
+                    region.members.add(arrivals.get(k));
+                    occupy(arrivals.get(k + 1), 1);
+                }
+            }
+        });
+
+        // Logging, charging requests and arrivals at the destination follow id order
+        for (int i = 0; i < count; i++) {
+            if (intents[i] >= 0) finishMove(store.views[i], intents[i]);
+        }
+        return true;
+    }
+
+    private void rebuildMembership() {
+        for (Region region : regions) {
+            region.members.clear();
+        }
+        for (int i = 0; i < store.size(); i++) {
+            regions[regionOf[store.node[i]]].members.add(i);
+        }
+        membershipStale = false;
+    }
+
+    private void runRegions(IntConsumer task) {
+        List<Callable<Void>> tasks = new ArrayList<>(regions.length);
+        for (int r = 0; r < regions.length; r++) {
+            int region = r;
+            tasks.add(() -> {
+                task.accept(region);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> result : workers.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while ticking regions", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Region tick failed", e.getCause());
+        }
+    }
+
+    private void finishTick() {
+        tick++;
+
+        if (heatmap != null) {
+            for (int i = 0; i < store.size(); i++) {
+                heatmap.occupied(store.node[i]);
+            }
+            heatmap.advance(currentTime());
+        }
+
+        // Charging and signals follow simulated time
+        if (tick % ticksPerCharge == 0) {
+            ChargingScheduler.getInstance().tick(currentTime());
+        }
+        if (currentTime() >= TrafficManager.getNextSignalChangeTime()) {
+            TrafficManager.changeSignals();
+            try {
+                if (log != null) {
+                    log.signal(EventLog.SIGNAL, tick - 1);
+                    log.flush(); // Keep at most one signal cycle of events in the buffer
+                }
+            } catch (IOException e) {
+                logFailed(e);
+            }
+        }
+        int[] charges = store.charge;
+        int[] logged = store.loggedCharge;
+        for (int i = 0; i < store.size(); i++) {
+            if (charges[i] != logged[i]) {
+                logged[i] = charges[i];
+                try {
+                    if (log != null) log.charge(tick - 1, store.views[i].getId(), charges[i]);
+                } catch (IOException e) {
+                    logFailed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out which node a vehicle wants to enter this tick.
+     *
+     * @return The target node id, or -1 if the vehicle does not try to move.
+     */
+    /**
+     * Claims a cell for a vehicle in phase 1. A contested cell goes to the vehicle with
+     * the lowest id, whatever the order of the claims.
+     *
+     * @return The slot whose claim lost, which may be this one, or -1 if the cell was free.
+     */
+    private int claim(int slot, int node) {
+        int other = claimant[node];
+        if (other == -1) {
+            claimant[node] = slot;
+            return -1;
+        }
+        if (heatmap != null) heatmap.deny(node);
+        if (lowerId(other, slot)) return slot;
+        claimant[node] = slot;
+        return other;
+    }
+
+    // @return whether the vehicle in one slot has a lower id than the vehicle in another
+    private boolean lowerId(int slot, int other) {
+        return store.views[slot].getId() < store.views[other].getId();
+    }
+
+    private int intent(int slot, long now) {
+        int target = target(slot, now);
+        if (target == SETTLE) {
+            settle(store.views[slot]);
+            return -1;
+        }
+        if (target == SIGNAL_WAIT) signalWaits++;
+        return target;
+    }
+
+    /**
+     * Works out which node a vehicle wants to enter this tick without changing any state
+     * other than the heatmap's denied moves. Only reads the VehicleStore columns, so
+     * waiting vehicles cost a few array reads.
+     *
+     * @return The target node id, -1 if the vehicle does not try to move, SIGNAL_WAIT if a
+     *         signal holds it, or SETTLE if it cannot move and settle() must run for it.
+     */
+    private int target(int slot, long now) {
+        int flags = store.flags[slot];
+        if ((flags & VehicleStore.MOVING) == 0 || (flags & VehicleStore.CHARGING) != 0) return -1;
+        int to = store.next(slot);
+        if (to < 0) {
+            return (flags & VehicleStore.NPC) != 0 ? SETTLE : -1;
+        }
+        // Same rule as EnergyModel.canMove
+        if ((flags & VehicleStore.ELECTRIC) != 0 && store.charge[slot] < EnergyModel.CHARGE_PER_MOVE) return SETTLE;
+        int from = store.node[slot];
+        if (!TrafficManager.signalsAllowMove(signalAt[from], signalAt[to], now, TICK_MILLIS)) {
+            if (heatmap != null) heatmap.deny(to);
+            return SIGNAL_WAIT;
+        }
+        // As in canMoveToPosition, a vehicle on a signalled cell clears the junction even into a queue
+        if (signalAt[from] != null) return to | JUNCTION_EXIT;
+        if (occupancy[to] > 0) {
+            if (heatmap != null) heatmap.deny(to);
+            return -1;
+        }
+        return to;
+    }
+
+    /**
+     * Handles a vehicle that wants to move but cannot: NPCs at the end of their path
+     * pick a new destination from their own random stream, and vehicles with a flat
+     * battery stop.
+     */
+    private void settle(EV ev) {
+        List<PathNode> path = ev.getPath();
+        if (ev.getCurrentPathIndex() >= path.size() - 1) {
+            ev.changeEnd();
+            if (ev.getPath() != path) {
+                store.tripStart[ev.slot] = tick;
+                recordRoute(ev);
+            }
+            return;
+        }
+        ev.setMoving(false);
+        ev.addNotification("Battery depleted, vehicle stopped");
+        record(EventLog.STOP, ev);
+    }
+
+    // Moves a vehicle one cell along its path; touches only the vehicle itself. The
+    // SpatialIndex, which region workers would contend on, is updated later in id order
+    private void moveAlongPath(int slot) {
+        store.advance(slot);
+        if (store.hasFlag(slot, VehicleStore.ELECTRIC)) {
+            store.charge[slot] = Math.max(0, store.charge[slot] - EnergyModel.CHARGE_PER_MOVE);
+        }
+    }
+
+    // Logs a completed move and starts what happens on arrival at the new cell
+    private void finishMove(EV ev, int target) {
+        moves++;
+        spatialIndex.update(ev);
+        if (heatmap != null) heatmap.pass(target);
+        try {
+            if (log != null) log.move(tick, ev.getId(), target);
+        } catch (IOException e) {
+            logFailed(e);
+        }
+        TrajectoryRecorder trajectories = TrajectoryRecorder.getInstance();
+        if (trajectories != null) trajectories.record(tick, ev.getId(), target);
+        if (ev.getCurrentPathIndex() == ev.getPath().size() - 1) {
+            trips++;
+            tripTicks += tick + 1 - store.tripStart[ev.slot];
+        }
+
+        if (ev.getChargingStops().contains(ev.getCurrentPathIndex())) {
+            queueForCharging(ev, ev.getPath().get(ev.getCurrentPathIndex()));
+        }
+        if (ev.getCurrentPathIndex() == ev.getPath().size() - 1 && !(ev instanceof NPCVehicle)) {
+            ev.setMoving(false);
+            record(EventLog.STOP, ev);
+        }
+    }
+
+    private void queueForCharging(EV ev, PathNode position) {
+        ChargingScheduler chargingScheduler = ChargingScheduler.getInstance();
+        ChargingStation station = chargingScheduler.stationAt(position.getX(), position.getY());
+        if (station != null) {
+            chargingScheduler.requestCharge(ev, station);
+        }
+    }
+
+    private int currentNode(EV ev) {
+        if (ev.store == store) return store.node[ev.slot];
+        PathNode position = ev.getPath().get(ev.getCurrentPathIndex());
+        return map.getGraph().nodeId(position.getX(), position.getY());
+    }
+
+    private void occupy(int node, int delta) {
+        if (node < 0) return;
+        occupancy[node] += delta;
+        map.getNode(node).setStalled(occupancy[node] > 0);
+    }
+
+    /**
+     * Converts a path to RoadGraph node ids.
+     */
+    int[] nodeIds(List<PathNode> path) {
+        RoadGraph graph = map.getGraph();
+        int[] nodes = new int[path.size()];
+        if (path instanceof ArenaPath) {
+            ((ArenaPath) path).copyTo(nodes, 0);
+            return nodes;
+        }
+        if (path instanceof PackedPath) {
+            ((PackedPath) path).copyTo(nodes, 0);
+            return nodes;
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = graph.nodeId(path.get(i).getX(), path.get(i).getY());
+        }
+        return nodes;
+    }
+
+    private void logFailed(IOException e) {
+        System.out.println("Event log disabled after write failure: " + e.getMessage());
+        log = null;
+    }
+
+    /**
+     * Runs the given number of ticks as fast as possible.
+     */
+    public void runTicks(long ticks) {
+        for (long i = 0; i < ticks; i++) {
+            step();
+        }
+    }
+
+    /**
+     * Starts ticking in real time, one tick per TICK_MILLIS.
+     */
+    public synchronized void start() {
+        if (pacer != null) return;
+        pacer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "simulation-engine");
+            t.setDaemon(true);
+            return t;
+        });
+        pacer.scheduleAtFixedRate(this::step, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops real-time ticking and flushes the event log.
+     */
+    public synchronized void stop() {
+        if (pacer != null) {
+            pacer.shutdown();
+            pacer = null;
+        }
+        try {
+            if (log != null) log.flush();
+        } catch (IOException e) {
+            logFailed(e);
+        }
+    }
+
+    /**
+     * Makes this engine a shard that owns a range of node ids. Vehicles may only be
+     * spawned on owned cells; moves onto other cells are claimed through the coordinator.
+     */
+    public synchronized void setOwnedNodes(int first, int end) {
+        ownedFirst = first;
+        ownedEnd = end;
+    }
+
+    // @return whether this engine owns the cell
+    public boolean owns(int node) {
+        return node >= ownedFirst && node < ownedEnd;
+    }
+
+    /**
+     * Adds a vehicle that arrived from another shard, or was spawned by the coordinator.
+     * A vehicle that arrived at the end of its path stops there, as it would have on
+     * the shard it came from.
+     */
+    public synchronized boolean adopt(EV ev) {
+        if (!spawn(ev)) return false;
+        if (ev.isMoving() && !(ev instanceof NPCVehicle) && ev.getCurrentPathIndex() == ev.getPath().size() - 1) {
+            ev.setMoving(false);
+            record(EventLog.STOP, ev);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a vehicle could move between two neighbouring cells now, by the
+     * rules of a tick, without claiming the cell. Claims of other vehicles in the same
+     * tick may still take it.
+     *
+     * @param from The vehicle's cell.
+     * @param to The cell it wants to enter.
+     */
+    public synchronized boolean canEnter(int from, int to) {
+        if (!TrafficManager.signalsAllowMove(signalAt[from], signalAt[to], currentTime(), TICK_MILLIS)) return false;
+        return signalAt[from] != null || occupancy[to] == 0;
+    }
+
+    /**
+     * First step of a shard tick: works out every vehicle's target, settles claims on
+     * owned cells and returns the claims on cells of other shards.
+     *
+     * @return Vehicle id, target pairs; targets carry the junction-exit flag.
+     */
+    public synchronized int[] planShardTick() {
+        heatmap = CongestionHeatmap.getInstance();
+        long now = currentTime();
+        int count = store.size();
+        int[] intents = new int[count];
+        IntList foreign = new IntList();
+        foreignMoves.clear();
+        for (int i = 0; i < count; i++) {
+            intents[i] = -1;
+            EV ev = store.views[i];
+            int target = intent(i, now);
+            if (target < 0) continue;
+            int node = target & ~JUNCTION_EXIT;
+            if (!owns(node)) {
+                // The owner checks the cell's occupancy and competing claims
+                foreign.add(ev.getId(), target);
+                foreignMoves.put(ev.getId(), i);
+            } else if ((target & JUNCTION_EXIT) != 0) {
+                intents[i] = node;
+            } else {
+                intents[i] = node;
+                int lost = claim(i, node);
+                if (lost != -1) intents[lost] = -1;
+            }
+        }
+        shardIntents = intents;
+        return foreign.toArray();
+    }
+
+    /**
+     * Second step of a shard tick: decides the claims of other shards' vehicles on
+     * owned cells. A claim needs the cell to be free at the start of the tick, unless
+     * the vehicle clears a junction, and beats a local claim if its vehicle id is lower.
+     *
+     * @param claims Vehicle id, target pairs from planShardTick() of the other shards.
+     * @return The ids of the vehicles that may move, ascending.
+     */
+    public synchronized int[] resolveForeignClaims(int[] claims) {
+        IntList accepted = new IntList();
+        Map<Integer, Integer> lowest = new TreeMap<>(); // Node -> lowest claiming vehicle id
+        for (int k = 0; k + 1 < claims.length; k += 2) {
+            int id = claims[k];
+            int target = claims[k + 1];
+            int node = target & ~JUNCTION_EXIT;
+            if ((target & JUNCTION_EXIT) != 0) {
+                accepted.add(id);
+            } else if (owns(node) && occupancy[node] == 0) {
+                lowest.merge(node, id, Math::min);
+            }
+        }
+        for (Map.Entry<Integer, Integer> claim : lowest.entrySet()) {
+            int node = claim.getKey();
+            int local = claimant[node];
+            if (local != -1 && store.views[local].getId() < claim.getValue()) continue;
+            if (local != -1) {
+                shardIntents[local] = -1;
+                claimant[node] = -1;
+            }
+            accepted.add(claim.getValue());
+        }
+        accepted.sort();
+        return accepted.toArray();
+    }
+
+    /**
+     * Last step of a shard tick: applies the local moves and the accepted moves onto
+     * other shards' cells, then advances time. Vehicles that left are removed.
+     *
+     * @param accepted Ids of this shard's vehicles whose foreign claims were accepted.
+     * @return The vehicles that moved onto other shards' cells, in id order.
+     */
+    public synchronized List<EV> commitShardTick(int[] accepted) {
+        int[] intents = shardIntents;
+        List<EV> leaving = new ArrayList<>();
+        for (int id : accepted) {
+            Integer i = foreignMoves.get(id);
+            if (i != null) intents[i] = -2 - i; // Marks a move off this shard
+        }
+        for (int i = 0; i < intents.length; i++) {
+            int target = intents[i];
+            if (target == -1) continue;
+            EV ev = store.views[i];
+            if (target < -1) {
+                occupy(store.node[i], -1);
+                moveAlongPath(i);
+                spatialIndex.update(ev);
+                try {
+                    if (log != null) log.move(tick, ev.getId(), store.node[i]);
+                } catch (IOException e) {
+                    logFailed(e);
+                }
+                record(EventLog.RETIRE, ev);
+                leaving.add(ev);
+                continue;
+            }
+            if (claimant[target] == i) claimant[target] = -1;
+            occupy(store.node[i], -1);
+            occupy(target, 1);
+            moveAlongPath(i);
+            finishMove(ev, target);
+        }
+        if (!leaving.isEmpty()) {
+            Set<EV> left = Collections.newSetFromMap(new IdentityHashMap<>());
+            left.addAll(leaving);
+            store.removeIf(left::contains);
+            for (EV ev : leaving) {
+                vehiclesById.remove(ev.getId());
+            }
+            membershipStale = true;
+        }
+        shardIntents = null;
+        foreignMoves.clear();
+        finishTick();
+        leaving.sort(Comparator.comparingInt(EV::getId));
+        return leaving;
+    }
+
+    /**
+     * Combines the signal states into one value, so shards can check that their signal
+     * schedules agree.
+     */
+    public synchronized int signalChecksum() {
+        int checksum = 1;
+        for (TrafficNode signal : signalAt) {
+            if (signal != null) checksum = 31 * checksum + signal.getSignal();
+        }
+        return checksum;
+    }
+
+    /**
+     * A row band of the map and the queues its worker fills during a tick. Queues are
+     * indexed by the receiving region and only written by this region's worker.
+     */
+    private static class Region {
+        IntList members = new IntList(); // Slots of the vehicles on the region's cells
+        final IntList settle = new IntList(); // Slots that must settle() this tick
+        final IntList[] claimsTo; // Per region: vehicle slot, node pairs claiming its cells
+        final IntList[] handOffTo; // Per region: vehicle slot, node pairs moving onto its cells
+        boolean misplaced; // Whether a member was found on another region's cell
+        long signalWaits; // Members held by a signal this tick
+
+        Region(int count) {
+            claimsTo = new IntList[count];
+            handOffTo = new IntList[count];
+            for (int r = 0; r < count; r++) {
+                claimsTo[r] = new IntList();
+                handOffTo[r] = new IntList();
+            }
+        }
+
+        void clearQueues() {
+            settle.clear();
+            misplaced = false;
+            signalWaits = 0;
+            for (int r = 0; r < claimsTo.length; r++) {
+                claimsTo[r].clear();
+                handOffTo[r].clear();
+            }
+        }
+    }
+
+    /**
+     * A growable list of ints.
+     */
+    private static class IntList {
+        private int[] values;
+        private int size;
+
+        IntList() {
+            this(16);
+        }
+
+        IntList(int capacity) {
+            values = new int[Math.max(4, capacity)];
+        }
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void add(int first, int second) {
+            add(first);
+            add(second);
+        }
+
+        void addAll(IntList other) {
+            for (int k = 0; k < other.size; k++) {
+                add(other.values[k]);
+            }
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
+
+/**
+ * Counters of a SimulationEngine run, read by the ScenarioRunner.
+ */
+class SimulationStats {
+    public long ticks; // Completed ticks
+    public long moves; // Vehicle steps
+    public long signalWaits; // Vehicle ticks spent waiting for a signal
+    public long trips; // Vehicles that reached the end of their path
+    public long tripTicks; // Total ticks of the completed trips
+    public int vehicles; // Vehicles in the simulation
+
+    public SimulationStats(long ticks, long moves, long signalWaits, long trips, long tripTicks, int vehicles) {
+        this.ticks = ticks;
+        this.moves = moves;
+        this.signalWaits = signalWaits;
+        this.trips = trips;
+        this.tripTicks = tripTicks;
+        this.vehicles = vehicles;
+    }
+}
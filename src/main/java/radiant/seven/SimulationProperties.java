@@ -0,0 +1,249 @@
+package radiant.seven;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The simulation.* settings of application.properties, bound by Spring Boot. Each
+ * group of settings is a nested class; the defaults here are used for any setting
+ * the properties leave out.
+ */
+@ConfigurationProperties("simulation")
+public class SimulationProperties {
+    private boolean deterministic = false; // One seeded engine ticks every vehicle
+    private long seed = 42; // Seed of every random stream of a deterministic or sharded run
+    private String eventLog = ""; // Event log of the deterministic run, empty for none
+    private int regions = 0; // Row bands ticked in parallel, 0 for one per core
+    private String shards = ""; // Comma-separated host:port of the ShardServers, empty if not sharded
+    private final Checkpoints checkpoint = new Checkpoints();
+    private final Npc npc = new Npc();
+    private final Demand demand = new Demand();
+    private final Trajectories trajectory = new Trajectories();
+    private final Heatmap heatmap = new Heatmap();
+    private final Routing routing = new Routing();
+
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    public void setDeterministic(boolean deterministic) {
+        this.deterministic = deterministic;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public String getEventLog() {
+        return eventLog;
+    }
+
+    public void setEventLog(String eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    public int getRegions() {
+        return regions;
+    }
+
+    public void setRegions(int regions) {
+        this.regions = regions;
+    }
+
+    public String getShards() {
+        return shards;
+    }
+
+    public void setShards(String shards) {
+        this.shards = shards;
+    }
+
+    public Checkpoints getCheckpoint() {
+        return checkpoint;
+    }
+
+    public Npc getNpc() {
+        return npc;
+    }
+
+    public Demand getDemand() {
+        return demand;
+    }
+
+    public Trajectories getTrajectory() {
+        return trajectory;
+    }
+
+    public Heatmap getHeatmap() {
+        return heatmap;
+    }
+
+    public Routing getRouting() {
+        return routing;
+    }
+
+    /**
+     * simulation.checkpoint.*: periodic snapshots of the whole simulation.
+     */
+    public static class Checkpoints {
+        private String file = ""; // Checkpoint file, empty for none
+        private long intervalSeconds = 60; // Time between checkpoints, 0 for none
+        private boolean restore = true; // Whether to restore the checkpoint on startup
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public long getIntervalSeconds() {
+            return intervalSeconds;
+        }
+
+        public void setIntervalSeconds(long intervalSeconds) {
+            this.intervalSeconds = intervalSeconds;
+        }
+
+        public boolean isRestore() {
+            return restore;
+        }
+
+        public void setRestore(boolean restore) {
+            this.restore = restore;
+        }
+    }
+
+    /**
+     * simulation.npc.*: the NPC population kept by the PopulationManager.
+     */
+    public static class Npc {
+        private double density = 0; // Target NPCs per road cell, 0 for an unmanaged population
+        private long rebalanceMillis = 1000; // Time between rebalancing passes
+
+        public double getDensity() {
+            return density;
+        }
+
+        public void setDensity(double density) {
+            this.density = density;
+        }
+
+        public long getRebalanceMillis() {
+            return rebalanceMillis;
+        }
+
+        public void setRebalanceMillis(long rebalanceMillis) {
+            this.rebalanceMillis = rebalanceMillis;
+        }
+    }
+
+    /**
+     * simulation.demand.*: origin-destination demand of NPC trips.
+     */
+    public static class Demand {
+        private String file = ""; // Demand file, empty for uniform demand
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * simulation.trajectory.*: recording of every move.
+     */
+    public static class Trajectories {
+        private String dir = ""; // Directory of the segment files, empty for no recording
+        private int maxSegments = 64; // Segments kept before the oldest is deleted
+
+        public String getDir() {
+            return dir;
+        }
+
+        public void setDir(String dir) {
+            this.dir = dir;
+        }
+
+        public int getMaxSegments() {
+            return maxSegments;
+        }
+
+        public void setMaxSegments(int maxSegments) {
+            this.maxSegments = maxSegments;
+        }
+    }
+
+    /**
+     * simulation.heatmap.*: the rolling congestion counters.
+     */
+    public static class Heatmap {
+        private long windowSeconds = 0; // Simulated seconds covered, 0 for no heatmap
+
+        public long getWindowSeconds() {
+            return windowSeconds;
+        }
+
+        public void setWindowSeconds(long windowSeconds) {
+            this.windowSeconds = windowSeconds;
+        }
+    }
+
+    /**
+     * simulation.routing.*: the RoutingExecutor of the REST route searches and the all-pairs table.
+     */
+    public static class Routing {
+        private int threads = 0; // Search threads, 0 for one per core
+        private int queueDepth = 64; // Searches that may wait for a thread before new ones get 503s
+        private long timeoutMillis = 5000; // Time a search may take, including the wait, 0 for no limit
+        private boolean allPairs = false; // Whether routes are walks along a NextHopTable built at startup
+        private int allPairsMaxNodes = 4096; // Largest map the table is built for
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public void setQueueDepth(int queueDepth) {
+            this.queueDepth = queueDepth;
+        }
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        public void setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        public boolean isAllPairs() {
+            return allPairs;
+        }
+
+        public void setAllPairs(boolean allPairs) {
+            this.allPairs = allPairs;
+        }
+
+        public int getAllPairsMaxNodes() {
+            return allPairsMaxNodes;
+        }
+
+        public void setAllPairsMaxNodes(int allPairsMaxNodes) {
+            this.allPairsMaxNodes = allPairsMaxNodes;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package radiant.seven;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Uniform grid index of vehicle positions.
+ * The map is divided into square buckets of BUCKET_SIZE cells. Each indexed vehicle
+ * sits in the bucket of its current cell and is moved between buckets as it
+ * advances along its path (EV.advance), so nearest-vehicle and region queries only
+ * look at the buckets they overlap instead of scanning the whole fleet.
+ */
+public class SpatialIndex {
+    public static final int BUCKET_SIZE = 8; // Width and height of a bucket in cells
+    private static SpatialIndex instance; // Singleton instance
+
+    private final int height; // Largest x-coordinate of the map
+    private final int width; // Largest y-coordinate of the map
+    private final int rows; // Buckets along x
+    private final int cols; // Buckets along y
+    private final Set<EV>[] buckets; // Vehicles per bucket
+    private final Map<EV, Long> positions = new ConcurrentHashMap<>(); // Indexed cell per vehicle, packed x << 32 | y
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SpatialIndex(int height, int width) {
+        this.height = height;
+        this.width = width;
+        this.rows = Math.max(1, (height + BUCKET_SIZE - 1) / BUCKET_SIZE);
+        this.cols = Math.max(1, (width + BUCKET_SIZE - 1) / BUCKET_SIZE);
+        this.buckets = new Set[rows * cols];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    /**
+     * @return The singleton index, sized to the GameMap.
+     */
+    public static synchronized SpatialIndex getInstance() {
+        if (instance == null) {
+            GameMap map = GameMap.getInstance();
+            instance = new SpatialIndex(map.getHeight(), map.getWidth());
+        }
+        return instance;
+    }
+
+    private int bucket(int x, int y) {
+        int row = Math.min(rows - 1, Math.max(0, (x - 1) / BUCKET_SIZE));
+        int col = Math.min(cols - 1, Math.max(0, (y - 1) / BUCKET_SIZE));
+        return row * cols + col;
+    }
+
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private static int unpackX(long position) {
+        return (int) (position >> 32);
+    }
+
+    private static int unpackY(long position) {
+        return (int) position;
+    }
+
+    /**
+     * Adds a vehicle at its current position. The vehicle must have a path.
+     */
+    public void add(EV ev) {
+        if (ev.getPath() == null || ev.getPath().isEmpty()) return;
+        positions.compute(ev, (key, old) -> {
+            long position = pack(ev.getCurrentX(), ev.getCurrentY());
+            if (old != null) buckets[bucket(unpackX(old), unpackY(old))].remove(ev);
+            buckets[bucket(unpackX(position), unpackY(position))].add(ev);
+            return position;
+        });
+    }
+
+    /**
+     * Removes a vehicle from the index.
+     */
+    public void remove(EV ev) {
+        positions.computeIfPresent(ev, (key, old) -> {
+            buckets[bucket(unpackX(old), unpackY(old))].remove(ev);
+            return null;
+        });
+    }
+
+    /**
+     * Moves an indexed vehicle to its current position. Vehicles that are not
+     * indexed are ignored.
+     */
+    public void update(EV ev) {
+        positions.computeIfPresent(ev, (key, old) -> {
+            long position = pack(ev.getCurrentX(), ev.getCurrentY());
+            if (position != old) {
+                int from = bucket(unpackX(old), unpackY(old));
+                int to = bucket(unpackX(position), unpackY(position));
+                if (from != to) {
+                    buckets[from].remove(ev);
+                    buckets[to].add(ev);
+                }
+            }
+            return position;
+        });
+    }
+
+    /**
+     * Removes every vehicle from the index.
+     */
+    public void clear() {
+        positions.clear();
+        for (Set<EV> bucket : buckets) {
+            bucket.clear();
+        }
+    }
+
+    // @return number of indexed vehicles
+    public int size() {
+        return positions.size();
+    }
+
+    /**
+     * Finds the vehicles inside a rectangle of cells, bounds included.
+     *
+     * @return The vehicles, ordered by x, then y, then name.
+     */
+    public List<EV> within(int minX, int minY, int maxX, int maxY) {
+        List<EV> result = new ArrayList<>();
+        Map<EV, Long> found = new HashMap<>(); // Positions as seen by this query, vehicles keep moving
+        forEachWithin(minX, minY, maxX, maxY, (ev, position) -> {
+            result.add(ev);
+            found.put(ev, position);
+        });
+        result.sort(Comparator.comparingLong((EV ev) -> found.get(ev))
+                .thenComparing(ev -> ev.getName() == null ? "" : ev.getName()));
+        return result;
+    }
+
+    /**
+     * Finds the vehicles within a Euclidean radius of a cell. The radius may reach
+     * past the map, up to Integer.MAX_VALUE.
+     *
+     * @return The vehicles, nearest first.
+     */
+    public List<EV> near(int x, int y, int radius) {
+        List<EV> result = new ArrayList<>();
+        if (radius < 0) return result;
+        Map<EV, Long> distances = new HashMap<>();
+        long limit = (long) radius * radius;
+        // Clamped to the map in long arithmetic, so x + radius cannot overflow
+        int minX = (int) Math.max(1, (long) x - radius);
+        int maxX = (int) Math.min(height, (long) x + radius);
+        int minY = (int) Math.max(1, (long) y - radius);
+        int maxY = (int) Math.min(width, (long) y + radius);
+        forEachWithin(minX, minY, maxX, maxY, (ev, position) -> {
+            long distance = squaredDistance(x, y, position);
+            if (distance <= limit) {
+                result.add(ev);
+                distances.put(ev, distance);
+            }
+        });
+        result.sort(Comparator.comparingLong((EV ev) -> distances.get(ev))
+                .thenComparing(ev -> ev.getName() == null ? "" : ev.getName()));
+        return result;
+    }
+
+    /**
+     * Finds the nearest vehicle that matches a filter, searching outwards ring by
+     * ring of buckets and stopping once no closer match is possible.
+     *
+     * @return The nearest matching vehicle, or null if none is indexed.
+     */
+    public EV nearest(int x, int y, Predicate<EV> filter) {
+        int row = Math.min(rows - 1, Math.max(0, (x - 1) / BUCKET_SIZE));
+        int col = Math.min(cols - 1, Math.max(0, (y - 1) / BUCKET_SIZE));
+        EV best = null;
+        long bestDistance = Long.MAX_VALUE;
+        int maxRing = Math.max(rows, cols);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Every cell of this ring is at least (ring - 1) buckets away
+            long minDistance = (long) Math.max(0, ring - 1) * BUCKET_SIZE;
+            if (best != null && minDistance * minDistance > bestDistance) break;
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= rows) continue;
+                for (int c = col - ring; c <= col + ring; c++) {
+                    if (c < 0 || c >= cols) continue;
+                    if (Math.max(Math.abs(r - row), Math.abs(c - col)) != ring) continue;
+                    for (EV ev : buckets[r * cols + c]) {
+                        Long position = positions.get(ev);
+                        if (position == null || !filter.test(ev)) continue;
+                        long distance = squaredDistance(x, y, position);
+                        if (distance < bestDistance) {
+                            best = ev;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private void forEachWithin(int minX, int minY, int maxX, int maxY, PositionConsumer consumer) {
+        int firstRow = Math.max(0, (Math.max(1, minX) - 1) / BUCKET_SIZE);
+        int lastRow = Math.min(rows - 1, (Math.max(1, maxX) - 1) / BUCKET_SIZE);
+        int firstCol = Math.max(0, (Math.max(1, minY) - 1) / BUCKET_SIZE);
+        int lastCol = Math.min(cols - 1, (Math.max(1, maxY) - 1) / BUCKET_SIZE);
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstCol; c <= lastCol; c++) {
+                for (EV ev : buckets[r * cols + c]) {
+                    Long position = positions.get(ev);
+                    if (position == null) continue;
+                    int px = unpackX(position);
+                    int py = unpackY(position);
+                    if (px >= minX && px <= maxX && py >= minY && py <= maxY) {
+                        consumer.accept(ev, position);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long squaredDistance(int x, int y, long position) {
+        long dx = unpackX(position) - x;
+        long dy = unpackY(position) - y;
+        return dx * dx + dy * dy;
+    }
+
+    private interface PositionConsumer {
+        void accept(EV ev, long position);
+    }
+}
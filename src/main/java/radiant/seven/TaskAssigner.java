@@ -3,6 +3,7 @@ package radiant.seven;
 import java.util.*;
 public class TaskAssigner{
     private static TaskAssigner instance;
+    static final int CANDIDATE_RADIUS=2*SpatialIndex.BUCKET_SIZE; // Cells around a pickup searched for idle EVs
     public static Queue<Task> buffer;
     TaskAssigner(){
         buffer=new LinkedList<>();
@@ -30,16 +31,57 @@ public class TaskAssigner{
     }
 
     public static void giveTask(Map<String, EV> evMap){
+        // Prefer the idle EV closest to the pickup by road, among those the spatial index finds around it
+        Task next=buffer.peek();
+        if(next!=null){
+            EV nearest=closestByRoad(next);
+            if(nearest==null){
+                nearest=SpatialIndex.getInstance().nearest(next.getStartX(),next.getStartY(),ev->!ev.isMoving());
+            }
+            if(nearest!=null){
+                nearest.task=buffer.poll();
+                SimulationEngine.startVehicle(nearest);
+                return;
+            }
+        }
         for(Map.Entry<String,EV> entry : evMap.entrySet()){
             EV ev=entry.getValue();
             if(!ev.isMoving()){
                 Task task= buffer.poll();
                 ev.task=task;
-                ev.setMoving(true);
+                SimulationEngine.startVehicle(ev);
                 break;
             }
         }
     }
+
+    /**
+     * Finds the idle EV within CANDIDATE_RADIUS cells of the pickup with the fewest
+     * moves to it, which on one-way streets need not be the nearest in a straight line.
+     *
+     * @return The EV, or null if no idle EV around the pickup can reach it.
+     */
+    static EV closestByRoad(Task task){
+        GameMap map=GameMap.getInstance();
+        RoadGraph graph=map.getGraph();
+        int pickup=graph.nodeId(task.getStartX(),task.getStartY());
+        if(pickup<0) return null;
+        DistanceOracle oracle=map.getDistanceOracle();
+        EV best=null;
+        int bestMoves=DistanceOracle.UNREACHABLE;
+        for(EV ev : SpatialIndex.getInstance().near(task.getStartX(),task.getStartY(),CANDIDATE_RADIUS)){
+            if(ev.isMoving()) continue;
+            int from=graph.nodeId(ev.getCurrentX(),ev.getCurrentY());
+            // Candidates come nearest first, so a bound above the best so far rules one out
+            if(from<0 || oracle.lowerBound(from,pickup)>=bestMoves) continue;
+            int moves=oracle.distance(graph,from,pickup);
+            if(moves<bestMoves){
+                best=ev;
+                bestMoves=moves;
+            }
+        }
+        return best;
+    }
 }
 // public class TaskAssigner {
 //     public List<EV> evFleet;
@@ -0,0 +1,209 @@
+package radiant.seven;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Draws the map and its vehicles to an ANSI terminal, sending only what changed.
+ *
+ * The renderer keeps the last frame it sent as one int per cell: a colour and the
+ * character between the cell's brackets. Each call to render() builds the next
+ * frame from a static layer (roads and empty cells, computed once from the road
+ * graph), the signal states and the vehicle positions, compares it with the last
+ * frame and emits cursor-addressed writes for the cells that differ only, runs of
+ * changed cells in a row sharing one cursor move. The whole update goes out in a
+ * single write, so a busy map stays readable over a slow SSH connection.
+ *
+ * The status line below the map is diffed too and only rewritten when the caller's
+ * text changes; the frame counter and the update sizes are kept out of it, see
+ * getFrames, getLastChanged and getLastBytes. A frame in which nothing changed
+ * writes nothing.
+ */
+public class TerminalRenderer {
+    private static final String ESC = "\u001B[";
+    private static final String[] COLOURS = { "0m", "32m", "31m", "34m", "33m" }; // SGR code by colour
+    private static final int PLAIN = 0;
+    private static final int GREEN = 1;
+    private static final int RED = 2;
+    private static final int BLUE = 3;
+    private static final int YELLOW = 4;
+    private static final int MAP_TOP = 4; // Terminal row of the first map row, below the title and column numbers
+    private static final int ROW_LABEL = 3; // Width of the row numbers left of the map
+    private static final int CELL_WIDTH = 3; // Terminal columns per cell: "[x]"
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final int[] base; // Cell -> road or empty cell, without signals and vehicles
+    private final int[] signalCells; // Cells of the traffic signals
+    private final TrafficNode[] signals; // Signal of each entry of signalCells
+    private final int[] frame; // Cells being drawn
+    private final int[] shown; // Cells on the terminal, -1 if unknown
+    private final StringBuilder text = new StringBuilder(1 << 14); // Reused update buffer
+    private String shownStatus = null; // Status line on the terminal
+    private long frames = 0;
+    private int lastChanged = 0; // Cells written by the last frame
+    private int lastBytes = 0; // Bytes written by the last frame
+
+    /**
+     * @param map The map to draw.
+     * @param out The terminal; every frame that changes something is a single write followed by a flush.
+     */
+    public TerminalRenderer(GameMap map, OutputStream out) {
+        this.out = out;
+        this.width = map.getWidth();
+        this.height = map.getHeight();
+        this.base = new int[width * height];
+        this.frame = new int[width * height];
+        this.shown = new int[width * height];
+        Arrays.fill(base, cell(PLAIN, ' '));
+        Arrays.fill(shown, -1);
+
+        RoadGraph graph = map.getGraph();
+        List<Integer> cells = new ArrayList<>();
+        List<TrafficNode> found = new ArrayList<>();
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            int index = index(graph.x(node), graph.y(node));
+            if (index < 0) continue;
+            base[index] = cell(PLAIN, '_');
+            if (map.getNode(node) instanceof TrafficNode) {
+                cells.add(index);
+                found.add((TrafficNode) map.getNode(node));
+            }
+        }
+        this.signalCells = cells.stream().mapToInt(Integer::intValue).toArray();
+        this.signals = found.toArray(new TrafficNode[0]);
+    }
+
+    // Packs a colour and a character; '_' is an empty road cell, ' ' a cell off the road
+    private static int cell(int colour, char glyph) {
+        return colour << 16 | glyph;
+    }
+
+    // @return frame index of a cell, or -1 if it lies outside the map
+    private int index(int x, int y) {
+        if (x < 1 || y < 1 || x > height || y > width) return -1;
+        return (x - 1) * width + (y - 1);
+    }
+
+    /**
+     * Draws the next frame.
+     *
+     * @param vehicles The vehicles to show; the first vehicle found on a cell is drawn.
+     * @param status Text of the status line below the map.
+     */
+    public void render(Iterable<EV> vehicles, String status) throws IOException {
+        System.arraycopy(base, 0, frame, 0, frame.length);
+        for (int i = 0; i < signalCells.length; i++) {
+            frame[signalCells[i]] = cell(signals[i].isGreen() ? GREEN : RED, 'T');
+        }
+        for (EV ev : vehicles) {
+            int index = index(ev.getCurrentX(), ev.getCurrentY());
+            if (index < 0 || (frame[index] >>> 16) >= BLUE) continue;
+            if (ev instanceof NPCVehicle) {
+                frame[index] = cell(YELLOW, 'n');
+            } else {
+                String name = ev.getName();
+                frame[index] = cell(BLUE, name == null || name.isEmpty() ? 'E' : name.charAt(name.length() - 1));
+            }
+        }
+
+        text.setLength(0);
+        if (frames == 0) drawFrame();
+        int changed = 0;
+        int colour = -1; // Colour set on the terminal during this update, -1 if unknown
+        for (int row = 0; row < height; row++) {
+            int cursor = -1; // Column the terminal cursor is at after the last write, if on this row
+            for (int col = 0; col < width; col++) {
+                int index = row * width + col;
+                int value = frame[index];
+                if (value == shown[index]) continue;
+                if (cursor != col) {
+                    text.append(ESC).append(MAP_TOP + row).append(';')
+                            .append(ROW_LABEL + col * CELL_WIDTH + 1).append('H');
+                }
+                int cellColour = value >>> 16;
+                if (cellColour != colour) {
+                    text.append(ESC).append(COLOURS[cellColour]);
+                    colour = cellColour;
+                }
+                char glyph = (char) value;
+                if (glyph == ' ') {
+                    text.append("   ");
+                } else {
+                    text.append('[').append(glyph == '_' ? ' ' : glyph).append(']');
+                }
+                shown[index] = value;
+                cursor = col + 1;
+                changed++;
+            }
+        }
+        if (colour != PLAIN && colour != -1) text.append(ESC).append(COLOURS[PLAIN]);
+
+        if (!status.equals(shownStatus)) {
+            text.append(ESC).append(MAP_TOP + height + 1).append(";1H").append(ESC).append('K').append(status);
+            shownStatus = status;
+        }
+
+        byte[] bytes = new byte[0];
+        if (text.length() > 0) {
+            // Park the cursor below the status line
+            text.append(ESC).append(MAP_TOP + height + 2).append(";1H");
+            bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            out.flush();
+        }
+        frames++;
+        lastChanged = changed;
+        lastBytes = bytes.length;
+    }
+
+    // Clears the screen and draws the title and the row and column numbers
+    private void drawFrame() {
+        text.append(ESC).append("?25l").append(ESC).append('H').append(ESC).append("2J");
+        text.append("=== Traffic Map ===\n\n").append(" ".repeat(ROW_LABEL));
+        for (int col = 1; col <= width; col++) {
+            text.append(String.format("%2d ", col));
+        }
+        for (int row = 1; row <= height; row++) {
+            text.append(ESC).append(MAP_TOP + row - 1).append(";1H").append(String.format("%2d ", row));
+        }
+    }
+
+    /**
+     * Forgets what is on the terminal, so the next frame is drawn in full, e.g. after
+     * the terminal was resized or cleared.
+     */
+    public void invalidate() {
+        Arrays.fill(shown, -1);
+        shownStatus = null;
+        frames = 0;
+    }
+
+    /**
+     * Shows the cursor again below the map.
+     */
+    public void close() throws IOException {
+        out.write((ESC + (MAP_TOP + height + 2) + ";1H" + ESC + "?25h").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    // @return frames drawn since the first or since invalidate()
+    public long getFrames() {
+        return frames;
+    }
+
+    // @return cells written by the last frame
+    public int getLastChanged() {
+        return lastChanged;
+    }
+
+    // @return bytes written by the last frame
+    public int getLastBytes() {
+        return lastBytes;
+    }
+}
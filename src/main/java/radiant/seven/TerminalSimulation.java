@@ -1,6 +1,8 @@
 package radiant.seven;
 
-import java.util.ArrayList;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -14,13 +16,9 @@ import java.util.List;
  */
 
 public class TerminalSimulation {
-    private static final String ANSI_RED = "\u001B[31m";
-    private static final String ANSI_GREEN = "\u001B[32m";
-    private static final String ANSI_BLUE = "\u001B[34m";
-    private static final String ANSI_RESET = "\u001B[0m";
-
     private GameMap gameMap;
     private TrafficManager trafficManager;
+    private TerminalRenderer renderer; // Draws the changed cells of each frame
     private volatile boolean running = true;
 
     /**
@@ -33,6 +31,7 @@ public class TerminalSimulation {
     public TerminalSimulation() {
         gameMap = GameMap.getInstance();
         trafficManager = TrafficManager.getInstance();
+        renderer = new TerminalRenderer(gameMap, new FileOutputStream(FileDescriptor.out));
         // evController = new EVController();
 
         // Add test EVs
@@ -52,8 +51,8 @@ public class TerminalSimulation {
      * Starts the simulation by initiating movement for both EVs
      * and continuously updating the map visualization.
      * 
-     * The simulation runs in a loop, printing the map every 500 milliseconds
-     * until manually stopped or interrupted.
+     * The simulation runs in a loop, redrawing the changed parts of the map every
+     * 500 milliseconds until manually stopped or interrupted.
      */
     public void start() {
         // Start both EVs immediately
@@ -61,14 +60,19 @@ public class TerminalSimulation {
         startEV("EV2");
 
         // Continue map updates
-        while (running) {
-            printMap();
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+        try {
+            while (running) {
+                printMap();
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
             }
+            renderer.close();
+        } catch (IOException e) {
+            System.err.println("Terminal output failed: " + e.getMessage());
         }
     }
 
@@ -78,9 +82,8 @@ public class TerminalSimulation {
      * Performs the following steps:
      * 1. Retrieves the EV from the EV controller
      * 2. Uses PathfindingVisualizer to find the optimal path
-     * 3. Converts path coordinates to PathNodes
-     * 4. Sets the path for the EV
-     * 5. Initiates movement simulation
+     * 3. Sets the path for the EV
+     * 4. Initiates movement simulation
      * 
      * @param evName The name of the electric vehicle to start (e.g., "EV1")
      */
@@ -88,42 +91,16 @@ public class TerminalSimulation {
         EV ev = EVController.evMap.get(evName);
         PathfindingVisualizer pathfinder = new PathfindingVisualizer(GameMap.getInstance());
 
-        long[] pathArray = pathfinder.findPath(
+        ev.setPath(pathfinder.findRoute(
                 ev.getStartX(),
                 ev.getStartY(),
                 ev.getEndX(),
-                ev.getEndY());
-
-        List<PathNode> path = convertToPathNodes(pathArray);
-        ev.setPath(path);
+                ev.getEndY()));
         ev.setMoving(true);
+        SpatialIndex.getInstance().add(ev);
         simulateEVMovement(evName);
     }
 
-    /**
-     * Converts a raw path array of coordinates to a list of PathNodes.
-     * 
-     * Performs coordinate validation to ensure they are within the game map bounds.
-     * Prints out each converted coordinate for debugging purposes.
-     * 
-     * @param path Array of long coordinates representing the path
-     * @return List of PathNodes representing the validated path
-     */
-    private List<PathNode> convertToPathNodes(long[] path) {
-        List<PathNode> nodes = new ArrayList<>();
-        int maxDim = GameMap.getInstance().getWidth(); // Assuming square map
-
-        for (int i = 0; i < path.length; i += 2) {
-            // Convert coordinates to match game map bounds (1 to maxDim)
-            int x = Math.min(Math.max((int) path[i], 1), maxDim);
-            int y = Math.min(Math.max((int) path[i + 1], 1), maxDim);
-
-            System.out.println("Converting path coordinate: (" + x + "," + y + ")");
-            nodes.add(new PathNode(x, y));
-        }
-        return nodes;
-    }
-
     /**
      * Simulates the movement of a specific electric vehicle along its predetermined
      * path.
@@ -137,10 +114,10 @@ public class TerminalSimulation {
     private void simulateEVMovement(String evName) {
         EV ev = EVController.evMap.get(evName);
         new Thread(() -> {
-            while (ev.isMoving() && ev.currentPathIndex < ev.getPath().size() - 1) {
-                PathNode nextPos = ev.getPath().get(ev.currentPathIndex + 1);
+            while (ev.isMoving() && ev.getCurrentPathIndex() < ev.getPath().size() - 1) {
+                PathNode nextPos = ev.getPath().get(ev.getCurrentPathIndex() + 1);
                 if (trafficManager.canMoveToPosition(ev, nextPos.getX(), nextPos.getY())) {
-                    ev.currentPathIndex++;
+                    ev.advance();
                     try {
                         Thread.sleep(500);
                     } catch (InterruptedException e) {
@@ -154,68 +131,23 @@ public class TerminalSimulation {
     }
 
     /**
-     * Prints the current state of the game map to the console.
-     * 
-     * Renders the map with:
+     * Draws the current state of the game map to the console.
+     *
+     * The TerminalRenderer draws the whole map on the first frame and afterwards
+     * only the cells that changed:
      * - Column and row numbers
-     * - Electric vehicles in blue
+     * - Electric vehicles in blue, NPCs in yellow
      * - Traffic nodes in green (go) or red (stop)
      * - Empty walkable spaces
-     * 
-     * Also displays current positions of EVs at the bottom of the map.
-     */
-    private void printMap() {
-        clearScreen();
-        System.out.println("=== Traffic Map ===\n");
-
-        // Column numbers
-        System.out.print("   ");
-        for (int j = 0; j < gameMap.getWidth(); j++) {
-            System.out.printf("%2d ", j);
-        }
-        System.out.println();
-
-        // Map with row numbers
-        for (int i = 1; i <= gameMap.getHeight(); i++) {
-            System.out.printf("%2d ", i);
-            for (int j = 1; j <= gameMap.getWidth(); j++) {
-                String symbol = "   ";
-
-                // Check for EVs first
-                for (EV ev : EVController.evMap.values()) {
-                    if (ev.getCurrentX() == i && ev.getCurrentY() == j) {
-                        symbol = ANSI_BLUE + "[" + ev.getName().charAt(2) + "]" + ANSI_RESET;
-                        break;
-                    }
-                }
-
-                // If no EV, check for traffic nodes
-                if (symbol.equals("   ")) {
-                    TrafficNode trafficNode = gameMap.getTrafficNode(i, j);
-                    if (trafficNode != null) {
-                        symbol = (trafficNode.isGreen() ? ANSI_GREEN + "[T" + "]" : ANSI_RED + "[T" + "]") + ANSI_RESET;
-                    } else if (gameMap.isWalkable(i, j)) {
-                        symbol = "[ ]";
-                    }
-                }
-
-                System.out.print(symbol);
-            }
-            System.out.println();
-        }
-        System.out.println("EV 1 position:" + EVController.evMap.get("EV1").getCurrentX() + ","
-                + EVController.evMap.get("EV1").getCurrentY() + " EV 2 position:"
-                + EVController.evMap.get("EV2").getCurrentX() + ","
-                + EVController.evMap.get("EV2").getCurrentY());
-    }
-
-    /**
-     * Clears the console screen for a clean map rendering.
-     * 
-     * Uses ANSI escape codes to reset the cursor and clear the screen.
+     *
+     * Also displays the number of vehicles and the positions of the test EVs below the map.
      */
-    private void clearScreen() {
-        System.out.print("\033[H\033[2J");
-        System.out.flush();
+    private void printMap() throws IOException {
+        List<EV> vehicles = SpatialIndex.getInstance().within(1, 1, gameMap.getHeight(), gameMap.getWidth());
+        EV ev1 = EVController.evMap.get("EV1");
+        EV ev2 = EVController.evMap.get("EV2");
+        renderer.render(vehicles, vehicles.size() + " vehicles"
+                + (ev1 == null ? "" : " | EV 1 position:" + ev1.getCurrentX() + "," + ev1.getCurrentY())
+                + (ev2 == null ? "" : " EV 2 position:" + ev2.getCurrentX() + "," + ev2.getCurrentY()));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,231 @@
+package radiant.seven;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The TimeDependentRouter finds routes that minimise arrival time rather than the
+ * number of moves. It predicts the phase of every TrafficNode at the moment a
+ * vehicle would reach it, using the fixed signal cycle of the TrafficManager, and
+ * applies the same crossing rules as TrafficManager.canMoveToPosition: a vehicle
+ * only enters or leaves a signalled cell while the light is green and at least
+ * two move intervals remain before the next change.
+ *
+ * Departure times are rounded down to a bucket of BUCKET_MILLIS, and every query in
+ * the same bucket shares one signal prediction, so results can be cached per bucket.
+ */
+public class TimeDependentRouter {
+    public static final long BUCKET_MILLIS = 500; // Width of a departure time bucket
+    private static TimeDependentRouter instance; // Singleton instance
+
+    private final GameMap map;
+    private final long moveInterval; // Time a vehicle needs per move
+    private Map<Long, TimedRoute> cache = new ConcurrentHashMap<>(); // Routes of the current bucket
+    private long cacheBucket = -1; // Departure bucket of the cached routes
+    private long cacheGraphVersion = -1; // Graph version of the cached routes
+    private long cacheSignalChange = -1; // Signal change time the cached routes were predicted from
+
+    public TimeDependentRouter(GameMap map, long moveInterval) {
+        this.map = map;
+        this.moveInterval = moveInterval;
+    }
+
+    /**
+     * @return The singleton router, using the EV move interval.
+     */
+    public static synchronized TimeDependentRouter getInstance() {
+        if (instance == null) {
+            instance = new TimeDependentRouter(GameMap.getInstance(), EV.MOVE_INTERVAL);
+        }
+        return instance;
+    }
+
+    /**
+     * Finds the fastest route for a vehicle leaving now.
+     *
+     * @return The fastest route, with an empty path if the destination is unreachable.
+     */
+    public TimedRoute findRoute(int startX, int startY, int endX, int endY) {
+        return findRoutes(Collections.singletonList(new int[]{startX, startY, endX, endY})).get(0);
+    }
+
+    /**
+     * Finds the fastest routes for a batch of queries leaving now. All queries share
+     * the same departure bucket and signal prediction.
+     *
+     * @param queries Each query as {startX, startY, endX, endY}.
+     * @return The routes, in the same order as the queries.
+     */
+    public List<TimedRoute> findRoutes(List<int[]> queries) {
+        long bucket = SimulationClock.now() / BUCKET_MILLIS;
+        long departure = bucket * BUCKET_MILLIS;
+        RoadGraph graph = map.getGraph();
+        SignalSchedule schedule = SignalSchedule.capture(graph);
+        Map<Long, TimedRoute> routes = cacheFor(bucket, graph.getVersion(), schedule.nextChange);
+
+        List<TimedRoute> results = new ArrayList<>(queries.size());
+        for (int[] query : queries) {
+            int start = graph.nodeId(query[0], query[1]);
+            int end = graph.nodeId(query[2], query[3]);
+            RoadComponents components = map.getComponents();
+            if (start < 0 || end < 0 || (components != null && !components.canReach(start, end))) {
+                results.add(new TimedRoute(new ArrayList<>(), departure, -1));
+                continue;
+            }
+            long key = ((long) start << 32) | (end & 0xffffffffL);
+            results.add(routes.computeIfAbsent(key, k -> search(graph, schedule, start, end, departure)));
+        }
+        return results;
+    }
+
+    private synchronized Map<Long, TimedRoute> cacheFor(long bucket, long graphVersion, long signalChange) {
+        if (bucket != cacheBucket || graphVersion != cacheGraphVersion || signalChange != cacheSignalChange) {
+            cache = new ConcurrentHashMap<>();
+            cacheBucket = bucket;
+            cacheGraphVersion = graphVersion;
+            cacheSignalChange = signalChange;
+        }
+        return cache;
+    }
+
+    /**
+     * Time-dependent A*. Labels are the earliest time a vehicle can attempt to
+     * leave a node; waiting at a red light is allowed, so arrival times are FIFO. The
+     * queue is ordered by label plus the DistanceOracle's lower bound on the moves
+     * left times the move interval. Every move takes at least one interval and the
+     * bound drops by at most one per move, so the bound is consistent and the first
+     * time the destination is settled is still optimal.
+     */
+    TimedRoute search(RoadGraph graph, SignalSchedule schedule, int start, int end, long departure) {
+        int n = graph.nodeCount();
+        long[] ready = new long[n];
+        int[] parent = new int[n];
+        Arrays.fill(ready, Long.MAX_VALUE);
+        Arrays.fill(parent, -1);
+        ready[start] = departure;
+        parent[start] = start;
+
+        DistanceOracle oracle = map.getDistanceOracle();
+        // Entries are {label + bound, node, label}
+        PriorityQueue<long[]> queue = new PriorityQueue<>(Comparator.comparingLong(entry -> entry[0]));
+        queue.add(new long[]{departure, start, departure});
+        while (!queue.isEmpty()) {
+            long[] entry = queue.poll();
+            int u = (int) entry[1];
+            if (entry[2] > ready[u]) continue;
+            if (u == end) break;
+            for (int e = graph.edgeStart(u); e < graph.edgeEnd(u); e++) {
+                int v = graph.edgeTarget(e);
+                long moveTime = schedule.earliestMove(u, v, ready[u], moveInterval);
+                if (moveTime < 0) continue;
+                long next = moveTime + moveInterval;
+                if (next < ready[v]) {
+                    int bound = oracle.lowerBound(v, end);
+                    if (bound == DistanceOracle.UNREACHABLE) continue;
+                    ready[v] = next;
+                    parent[v] = u;
+                    queue.add(new long[]{next + bound * moveInterval, v, next});
+                }
+            }
+        }
+
+        List<PathNode> path = new ArrayList<>();
+        if (parent[end] == -1) {
+            return new TimedRoute(path, departure, -1);
+        }
+        for (int v = end; ; v = parent[v]) {
+            path.add(new PathNode(graph.x(v), graph.y(v)));
+            if (v == start) break;
+        }
+        Collections.reverse(path);
+        long arrival = start == end ? departure : ready[end] - moveInterval;
+        return new TimedRoute(path, departure, arrival);
+    }
+
+    /**
+     * Prediction of every signal's phase, captured from the TrafficManager at query time.
+     * Signals advance one state per interval and are green in state 0.
+     */
+    static class SignalSchedule {
+        final long nextChange; // Time of the next signal change
+        final long interval; // Time between signal changes
+        final int[] signalAt; // Node id -> signal state at capture time, or -1 if not signalled
+
+        SignalSchedule(long nextChange, long interval, int[] signalAt) {
+            this.nextChange = nextChange;
+            this.interval = interval;
+            this.signalAt = signalAt;
+        }
+
+        /**
+         * Reads the current signal states under the TrafficManager lock, so no signal
+         * change can happen while reading and the states belong to the captured change time.
+         */
+        static SignalSchedule capture(RoadGraph graph) {
+            int[] signalAt = new int[graph.nodeCount()];
+            Arrays.fill(signalAt, -1);
+            synchronized (TrafficManager.class) {
+                long nextChange = TrafficManager.getNextSignalChangeTime();
+                for (TrafficNode node : new ArrayList<>(TrafficManager.trafficLights)) {
+                    int id = graph.nodeId(node.x, node.y);
+                    if (id >= 0) {
+                        signalAt[id] = node.getSignal();
+                    }
+                }
+                return new SignalSchedule(nextChange, TrafficManager.getSignalChangeInterval(), signalAt);
+            }
+        }
+
+        private boolean isGreen(int node, long period) {
+            return Math.floorMod(signalAt[node] + period, TrafficNode.SIGNAL_STATES) == 0;
+        }
+
+        /**
+         * Finds the earliest time at or after the given time when a vehicle may move from
+         * one node to the next.
+         *
+         * @return The earliest move time, or -1 if the move is never allowed.
+         */
+        long earliestMove(int from, int to, long time, long moveInterval) {
+            boolean fromSignal = signalAt[from] >= 0;
+            boolean toSignal = signalAt[to] >= 0;
+            if (!fromSignal && !toSignal) return time;
+
+            // Period 0 is the one ending at nextChange; the signals hold their captured state in it
+            long lastChange = nextChange - interval;
+            long first = Math.floorDiv(time - lastChange, interval);
+            for (long period = first; period <= first + TrafficNode.SIGNAL_STATES; period++) {
+                long periodStart = lastChange + period * interval;
+                long latest = periodStart + interval - 2 * moveInterval;
+                long candidate = Math.max(time, periodStart);
+                if (candidate > latest) continue;
+                // Only a vehicle leaving a signalled cell checks the lights, as in canMoveToPosition
+                if (fromSignal && (!isGreen(from, period) || (toSignal && !isGreen(to, period)))) continue;
+                return candidate;
+            }
+            return -1;
+        }
+    }
+}
+
+/**
+ * A route found by the TimeDependentRouter, with its predicted timing.
+ */
+class TimedRoute {
+    public List<PathNode> path; // Cells along the route, empty if unreachable
+    public long departureTime; // Departure time used for the prediction (bucket start)
+    public long arrivalTime; // Predicted time of entering the destination, or -1 if unreachable
+
+    public TimedRoute(List<PathNode> path, long departureTime, long arrivalTime) {
+        this.path = path;
+        this.departureTime = departureTime;
+        this.arrivalTime = arrivalTime;
+    }
+
+    /**
+     * @return The predicted travel time in milliseconds, or -1 if unreachable.
+     */
+    public long getTravelTime() {
+        return arrivalTime < 0 ? -1 : arrivalTime - departureTime;
+    }
+}
@@ -12,7 +12,9 @@ public class TrafficManager {
     private static final long SIGNAL_CHANGE_INTERVAL = 5000; // Signal change interval in milliseconds (5 seconds)
     public static ArrayList<TrafficNode> trafficLights = new ArrayList<>(); // List of traffic lights
     private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1); // Scheduler for signal updates
-    private static long nextSignalChangeTime; // Time when the next signal change will occur
+    private static volatile long nextSignalChangeTime; // Time when the next signal change will occur, written under the class lock
+    private static Map<Long, List<TrafficNode>> signalBuckets; // Traffic lights per SpatialIndex-sized bucket
+    private static int bucketedSignals = -1; // Number of traffic lights in signalBuckets
 
     /**
      * Constructor initializes the traffic node map.
@@ -48,7 +50,9 @@ public class TrafficManager {
      * Updates the signals for all traffic nodes by changing their state.
      */
     public void updateSignals() {
-        trafficLights.forEach(TrafficNode::changeSignal);
+        synchronized (TrafficManager.class) {
+            trafficLights.forEach(TrafficNode::changeSignal);
+        }
     }
 
     /**
@@ -61,50 +65,61 @@ public class TrafficManager {
      * @return True if the EV can move to the target position, false otherwise.
      */
     public boolean canMoveToPosition(EV ev, int targetX, int targetY) {
-        PathNode currentPos = ev.getPath().get(ev.currentPathIndex);
+        PathNode currentPos = ev.getPath().get(ev.getCurrentPathIndex());
 
         // Check if the current position is at a traffic node
         TrafficNode currentTrafficNode = GameMap.getInstance().getTrafficNode(
                 currentPos.getX(),
                 currentPos.getY());
+        TrafficNode targetTrafficNode = GameMap.getInstance().getTrafficNode(targetX, targetY);
+
+        if (!signalsAllowMove(currentTrafficNode, targetTrafficNode, SimulationClock.now(), ev.getMoveInterval())
+                || currentTrafficNode == null && GameMap.getInstance().getRoadNode(targetX, targetY).isStalled()) {
+            CongestionHeatmap heatmap = CongestionHeatmap.getInstance();
+            if (heatmap != null) heatmap.deny(GameMap.getInstance().getGraph().nodeId(targetX, targetY));
+            return false;
+        }
+
+        GameMap.getInstance().getRoadNode(ev.getCurrentX(), ev.getCurrentY()).setStalled(false); // Unmark current position
+        GameMap.getInstance().getRoadNode(targetX, targetY).setStalled(true); // Mark target position as stalled
+        return true;
+    }
 
+    /**
+     * Checks the traffic signal rules for a move, ignoring occupancy.
+     * A move into or out of a traffic node needs enough time to cross before the next
+     * signal change, and a move out of a traffic node needs both lights to be green.
+     *
+     * @param current The traffic node the vehicle is on, or null.
+     * @param target The traffic node the vehicle moves to, or null.
+     * @param now The current time in milliseconds.
+     * @param moveInterval The time the vehicle needs per move.
+     * @return True if the signals allow the move.
+     */
+    public static boolean signalsAllowMove(TrafficNode current, TrafficNode target, long now, long moveInterval) {
         // If at or approaching a traffic node, verify timing for safe crossing
-        if (currentTrafficNode != null || GameMap.getInstance().getTrafficNode(targetX, targetY) != null) {
-            long currentTime = System.currentTimeMillis();
-            long timeUntilChange = nextSignalChangeTime - currentTime;
+        if (current != null || target != null) {
+            long timeUntilChange = nextSignalChangeTime - now;
 
             // Estimate time required to cross the intersection
-            long timeNeededToCross = 2 * ev.getMoveInterval();
+            long timeNeededToCross = 2 * moveInterval;
 
             if (timeUntilChange < timeNeededToCross) {
                 return false;
             }
         }
 
-        if (currentTrafficNode == null) {
-            if (GameMap.getInstance().getRoadNode(targetX, targetY).isStalled()) {
-                return false;
-            } else {
-                GameMap.getInstance().getRoadNode(ev.getCurrentX(), ev.getCurrentY()).setStalled(false); // Unmark current position
-                GameMap.getInstance().getRoadNode(targetX, targetY).setStalled(true); // Mark target position as stalled
-                return true;
-            }
+        if (current == null) {
+            return true;
         }
 
         // Verify the target position's traffic signal status
-        TrafficNode targetTrafficNode = GameMap.getInstance().getTrafficNode(targetX, targetY);
-        if (targetTrafficNode != null && !targetTrafficNode.isGreen()) {
+        if (target != null && !target.isGreen()) {
             return false;
         }
 
         // Verify the current position's traffic signal status
-        if (!currentTrafficNode.isGreen()) {
-            return false;
-        }
-
-        GameMap.getInstance().getRoadNode(ev.getCurrentX(), ev.getCurrentY()).setStalled(false); // Unmark current position
-        GameMap.getInstance().getRoadNode(targetX, targetY).setStalled(true); // Mark target position as stalled
-        return true;
+        return current.isGreen();
     }
 
     /**
@@ -112,15 +127,19 @@ public class TrafficManager {
      */
     public void startTrafficCycle() {
         scheduler.scheduleAtFixedRate(() -> {
-            changeSignals();
+            // In deterministic mode the SimulationEngine changes the signals on its own ticks
+            if (!SimulationClock.isSimulated()) {
+                changeSignals();
+            }
         }, 0, SIGNAL_CHANGE_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     /**
      * Changes the state of all traffic signals and updates the time for the next change.
+     * Readers that need the signals and the change time to match hold the class lock.
      */
-    public static void changeSignals() {
-        long currentTime = System.currentTimeMillis();
+    public static synchronized void changeSignals() {
+        long currentTime = SimulationClock.now();
         nextSignalChangeTime = currentTime + SIGNAL_CHANGE_INTERVAL;
 
         for (TrafficNode node : trafficLights) {
@@ -128,6 +147,71 @@ public class TrafficManager {
         }
     }
 
+    /**
+     * @return The time (in milliseconds) at which the signals change next.
+     */
+    public static long getNextSignalChangeTime() {
+        return nextSignalChangeTime;
+    }
+
+    /**
+     * Sets the time of the next signal change, used when the SimulationEngine
+     * takes over the signal cycle.
+     *
+     * @param time The time of the next change in milliseconds.
+     */
+    static synchronized void setNextSignalChangeTime(long time) {
+        nextSignalChangeTime = time;
+    }
+
+    /**
+     * @return The interval between signal changes in milliseconds.
+     */
+    public static long getSignalChangeInterval() {
+        return SIGNAL_CHANGE_INTERVAL;
+    }
+
+    /**
+     * Finds the traffic lights inside a rectangle of cells, bounds included.
+     * Lights never move, so they are bucketed once and only the overlapping
+     * buckets are scanned.
+     *
+     * @return The traffic lights in the rectangle.
+     */
+    public static List<TrafficNode> signalsWithin(int minX, int minY, int maxX, int maxY) {
+        // Loading the map registers the lights, so it comes before the bucketing
+        GameMap map = GameMap.getInstance();
+        Map<Long, List<TrafficNode>> buckets = signalBuckets();
+        int size = SpatialIndex.BUCKET_SIZE;
+        // Only buckets on the map can hold lights, however large the rectangle
+        int lastRow = Math.min((map.getHeight() - 1) / size, (maxX - 1) / size);
+        int lastCol = Math.min((map.getWidth() - 1) / size, (maxY - 1) / size);
+        List<TrafficNode> result = new ArrayList<>();
+        for (int row = Math.max(0, (minX - 1) / size); row <= lastRow; row++) {
+            for (int col = Math.max(0, (minY - 1) / size); col <= lastCol; col++) {
+                for (TrafficNode node : buckets.getOrDefault(((long) row << 32) | col, Collections.emptyList())) {
+                    if (node.x >= minX && node.x <= maxX && node.y >= minY && node.y <= maxY) {
+                        result.add(node);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static synchronized Map<Long, List<TrafficNode>> signalBuckets() {
+        if (signalBuckets == null || bucketedSignals != trafficLights.size()) {
+            Map<Long, List<TrafficNode>> buckets = new HashMap<>();
+            for (TrafficNode node : trafficLights) {
+                long key = ((long) ((node.x - 1) / SpatialIndex.BUCKET_SIZE) << 32) | ((node.y - 1) / SpatialIndex.BUCKET_SIZE);
+                buckets.computeIfAbsent(key, k -> new ArrayList<>()).add(node);
+            }
+            signalBuckets = buckets;
+            bucketedSignals = trafficLights.size();
+        }
+        return signalBuckets;
+    }
+
     /**
      * Shuts down the traffic signal scheduler.
      */
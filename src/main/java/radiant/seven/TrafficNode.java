@@ -8,7 +8,8 @@ import java.util.*;
  * and traffic control.
  */
 public class TrafficNode extends Node {
-    private int signal; // Current signal state (e.g., 0 for green, others for red)
+    public static final int SIGNAL_STATES = 4; // Number of states in one signal cycle
+    private volatile int signal; // Current signal state (e.g., 0 for green, others for red); read by vehicle and REST threads
     public int group; // Group identifier for the traffic node
 
     /**
@@ -26,10 +27,27 @@ public class TrafficNode extends Node {
 
     /**
      * Toggles the signal state of the traffic node.
-     * The signal cycles through 0, 1, 2, and 3.
+     * The signal cycles through 0, 1, 2, and 3. Callers hold the TrafficManager
+     * class lock, so there is only ever one writer.
      */
     public void changeSignal() {
-        signal = (signal + 1) % 4;
+        signal = (signal + 1) % SIGNAL_STATES;
+    }
+
+    /**
+     * @return The current signal state (0 is green, 1 to 3 are red).
+     */
+    public int getSignal() {
+        return signal;
+    }
+
+    /**
+     * Sets the signal state, for example when restoring a recorded simulation.
+     *
+     * @param signal The signal state (0 to SIGNAL_STATES - 1).
+     */
+    public void setSignal(int signal) {
+        this.signal = signal;
     }
 
     /**
@@ -0,0 +1,458 @@
+package radiant.seven;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only record of where vehicles were: one (tick, vehicle id, node id) entry
+ * per move, for analysing trips after the fact.
+ *
+ * Moves are appended to in-memory columns under a short lock. Every SEGMENT_RECORDS
+ * entries the columns are sealed into a segment and a background thread encodes
+ * them into a segment file, which is then read through a memory mapping: ticks and
+ * vehicle ids as zig-zag varint deltas from the previous entry, node ids as varints.
+ * Only the newest maxSegments segments are kept; older files are deleted. A run
+ * that restores a checkpoint continues its ticks, so the segments found in the
+ * directory on startup are mapped again and history survives the restart; any
+ * other run starts counting ticks again and deletes them.
+ *
+ * Segment files are written with plain channel writes and only mapped once they
+ * are in place, and a mapped file that cannot be deleted yet (Windows keeps mapped
+ * files until the mapping is collected) is retried on every later retention pass.
+ *
+ * Queries scan the segments overlapping a tick window, skipping segments that never
+ * saw the vehicle asked for, and never hold the append lock while decoding, so they
+ * do not slow down the tick. In deterministic mode ticks are SimulationEngine ticks;
+ * in threaded mode they are SimulationClock time divided by the move interval.
+ */
+public class TrajectoryRecorder {
+    static final int SEGMENT_RECORDS = 1 << 18; // Entries per segment
+    private static final int MAGIC = 0x54524A31; // "TRJ1"
+    private static final int HEADER_BYTES = 36; // Magic, count, first and last tick, three column lengths
+    private static final int INITIAL_CAPACITY = 4096; // Entries of a new active segment before it grows
+    private static final String PREFIX = "trajectory-";
+    private static final String SUFFIX = ".seg";
+    private static volatile TrajectoryRecorder instance; // Recorder of the application, if enabled
+
+    private final Path directory;
+    private final int maxSegments;
+    private final List<Segment> segments = new ArrayList<>(); // Sealed segments, oldest first
+    private final List<Path> undeleted = new ArrayList<>(); // Dropped segment files still to delete
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "trajectory-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private long nextSequence = 0; // Number of the next segment file
+    private long[] ticks = new long[INITIAL_CAPACITY]; // Columns of the active segment
+    private int[] vehicles = new int[INITIAL_CAPACITY];
+    private int[] nodes = new int[INITIAL_CAPACITY];
+    private int size = 0; // Entries in the active segment
+
+    /**
+     * Opens a recorder over a directory.
+     *
+     * @param directory The directory of the segment files; created if missing.
+     * @param maxSegments The number of segments to keep.
+     * @param resume True to map the segments already in the directory, false to delete them.
+     */
+    TrajectoryRecorder(Path directory, int maxSegments, boolean resume) throws IOException {
+        if (maxSegments < 1) throw new IllegalArgumentException("At least one segment must be kept");
+        this.directory = directory;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(p -> p.getFileName().toString().startsWith(PREFIX)
+                    && (p.getFileName().toString().endsWith(SUFFIX) || p.getFileName().toString().endsWith(SUFFIX + ".tmp")))
+                    .sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            if (!resume || file.getFileName().toString().endsWith(".tmp")) {
+                // Nothing maps the files yet, so they can be deleted on every platform
+                Files.deleteIfExists(file);
+                continue;
+            }
+            try {
+                segments.add(Segment.open(file));
+                nextSequence = Math.max(nextSequence, sequenceOf(file) + 1);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Skipping trajectory segment " + file + ": " + e.getMessage());
+            }
+        }
+        retain();
+    }
+
+    /**
+     * Enables recording for the application.
+     *
+     * @param resume True if the run continues the ticks of the run that recorded the
+     *        directory's segments, i.e. it restored that run's checkpoint.
+     * @return The recorder.
+     */
+    public static synchronized TrajectoryRecorder open(Path directory, int maxSegments, boolean resume)
+            throws IOException {
+        if (instance != null) instance.close();
+        TrajectoryRecorder recorder = new TrajectoryRecorder(directory, maxSegments, resume);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                System.out.println("Trajectory flush failed: " + e.getMessage());
+            }
+        }, "trajectory-flush"));
+        instance = recorder;
+        return recorder;
+    }
+
+    /**
+     * @return The recorder of the application, or null if trajectories are not recorded.
+     */
+    public static TrajectoryRecorder getInstance() {
+        return instance;
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Appends a move.
+     *
+     * @param tick The tick of the move.
+     * @param vehicle The id of the vehicle; vehicles without an id are not recorded.
+     * @param node The node id the vehicle moved to.
+     */
+    public synchronized void record(long tick, int vehicle, int node) {
+        if (vehicle < 0 || node < 0) return;
+        if (size == ticks.length) {
+            // Queries may still read the old arrays, so they are copied rather than reused
+            int capacity = Math.min(SEGMENT_RECORDS, ticks.length * 2);
+            ticks = Arrays.copyOf(ticks, capacity);
+            vehicles = Arrays.copyOf(vehicles, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+        }
+        ticks[size] = tick;
+        vehicles[size] = vehicle;
+        nodes[size] = node;
+        size++;
+        if (size == SEGMENT_RECORDS) seal();
+    }
+
+    // Called with the lock held: hands the active columns to the writer
+    private void seal() {
+        if (size == 0) return;
+        Segment segment = new Segment(directory.resolve(String.format("%s%012d%s", PREFIX, nextSequence++, SUFFIX)),
+                new Columns(ticks, vehicles, nodes, size));
+        segments.add(segment);
+        ticks = new long[INITIAL_CAPACITY];
+        vehicles = new int[INITIAL_CAPACITY];
+        nodes = new int[INITIAL_CAPACITY];
+        size = 0;
+        writer.execute(() -> {
+            synchronized (this) {
+                if (!segments.contains(segment)) return; // Already dropped by retention
+            }
+            try {
+                segment.write();
+            } catch (IOException e) {
+                // The entries stay in memory until the segment is dropped by retention
+                System.out.println("Trajectory segment write failed: " + e.getMessage());
+            }
+            synchronized (this) {
+                retain();
+            }
+        });
+    }
+
+    // Drops the oldest segments beyond maxSegments and deletes the files of dropped segments
+    private void retain() {
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.remove(0);
+            oldest.drop();
+            undeleted.add(oldest.file);
+        }
+        for (Iterator<Path> it = undeleted.iterator(); it.hasNext(); ) {
+            Path file = it.next();
+            try {
+                Files.deleteIfExists(file);
+                it.remove();
+            } catch (IOException e) {
+                // Still mapped by a query or not yet unmapped; tried again on the next pass
+            }
+        }
+    }
+
+    /**
+     * Returns the moves of one vehicle between two ticks, inclusive.
+     *
+     * @return The trajectory, empty if the vehicle did not move in the window.
+     */
+    public Trajectory trajectory(int vehicle, long fromTick, long toTick) {
+        List<Trajectory> found = query(vehicle, fromTick, toTick);
+        return found.isEmpty() ? new Trajectory(vehicle) : found.get(0);
+    }
+
+    /**
+     * Returns the moves of every vehicle between two ticks, inclusive.
+     *
+     * @return The trajectories in vehicle id order.
+     */
+    public List<Trajectory> trajectories(long fromTick, long toTick) {
+        return query(-1, fromTick, toTick);
+    }
+
+    private List<Trajectory> query(int vehicle, long fromTick, long toTick) {
+        List<Segment> sealed;
+        Columns active;
+        synchronized (this) {
+            sealed = new ArrayList<>(segments);
+            // Entries below size are never written again, so they can be read after unlocking
+            active = new Columns(ticks, vehicles, nodes, size);
+        }
+        RoadGraph graph = GameMap.getInstance().getGraph();
+        Map<Integer, Trajectory> found = new TreeMap<>();
+        for (Segment segment : sealed) {
+            if (segment.lastTick < fromTick || segment.firstTick > toTick) continue;
+            if (vehicle >= 0 && !segment.vehicles.get(vehicle)) continue;
+            segment.scan(vehicle, fromTick, toTick, graph, found);
+        }
+        active.scan(vehicle, fromTick, toTick, graph, found);
+        found.values().forEach(Trajectory::trim);
+        return new ArrayList<>(found.values());
+    }
+
+    /**
+     * Seals the active segment and waits until every segment is on disk.
+     */
+    public void flush() throws IOException {
+        synchronized (this) {
+            seal();
+        }
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing trajectories");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Flushes the active segment and stops the writer.
+     */
+    public void close() throws IOException {
+        if (writer.isShutdown()) return;
+        flush();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // @return number of sealed segments, for statistics
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Entries of a segment in memory.
+     */
+    private static class Columns {
+        final long[] ticks;
+        final int[] vehicles;
+        final int[] nodes;
+        final int count;
+
+        Columns(long[] ticks, int[] vehicles, int[] nodes, int count) {
+            this.ticks = ticks;
+            this.vehicles = vehicles;
+            this.nodes = nodes;
+            this.count = count;
+        }
+
+        void scan(int vehicle, long fromTick, long toTick, RoadGraph graph, Map<Integer, Trajectory> found) {
+            for (int i = 0; i < count; i++) {
+                if (vehicle >= 0 && vehicles[i] != vehicle) continue;
+                if (ticks[i] < fromTick || ticks[i] > toTick) continue;
+                found.computeIfAbsent(vehicles[i], Trajectory::new).add(ticks[i], nodes[i], graph);
+            }
+        }
+    }
+
+    /**
+     * A sealed segment: in memory until the writer has stored it, then read from its
+     * memory-mapped file.
+     */
+    private static class Segment {
+        final Path file;
+        final long firstTick; // Lowest tick in the segment
+        final long lastTick; // Highest tick in the segment
+        final BitSet vehicles = new BitSet(); // Ids of the vehicles in the segment
+        private volatile Object data; // Columns, the ByteBuffer of the mapped file, or null once dropped
+
+        Segment(Path file, Columns columns) {
+            this.file = file;
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (int i = 0; i < columns.count; i++) {
+                first = Math.min(first, columns.ticks[i]);
+                last = Math.max(last, columns.ticks[i]);
+                vehicles.set(columns.vehicles[i]);
+            }
+            this.firstTick = first;
+            this.lastTick = last;
+            this.data = columns;
+        }
+
+        private Segment(Path file, ByteBuffer buffer) {
+            this.file = file;
+            if (buffer.getInt(0) != MAGIC) throw new IllegalArgumentException("not a trajectory segment");
+            this.firstTick = buffer.getLong(8);
+            this.lastTick = buffer.getLong(16);
+            this.data = buffer;
+            ByteBuffer column = vehicleColumn(buffer);
+            int vehicle = 0;
+            for (int i = buffer.getInt(4); i > 0; i--) {
+                vehicle += BinaryCodec.readSignedVarInt(column);
+                vehicles.set(vehicle);
+            }
+        }
+
+        // Maps an existing segment file
+        static Segment open(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return new Segment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        /**
+         * Encodes the in-memory columns to the segment file and switches to reading
+         * the file. The file is written under a temporary name, moved into place and
+         * only then mapped, as a mapped file cannot be moved on Windows.
+         */
+        void write() throws IOException {
+            Object current = data;
+            if (!(current instanceof Columns)) return; // Dropped meanwhile
+            Columns columns = (Columns) current;
+            ByteArrayOutputStream tickBytes = new ByteArrayOutputStream(columns.count);
+            ByteArrayOutputStream vehicleBytes = new ByteArrayOutputStream(columns.count);
+            ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream(columns.count * 2);
+            DataOutputStream tickOut = new DataOutputStream(tickBytes);
+            DataOutputStream vehicleOut = new DataOutputStream(vehicleBytes);
+            DataOutputStream nodeOut = new DataOutputStream(nodeBytes);
+            long tick = firstTick;
+            int vehicle = 0;
+            for (int i = 0; i < columns.count; i++) {
+                BinaryCodec.writeSignedVarLong(tickOut, columns.ticks[i] - tick);
+                BinaryCodec.writeSignedVarInt(vehicleOut, columns.vehicles[i] - vehicle);
+                BinaryCodec.writeVarInt(nodeOut, columns.nodes[i]);
+                tick = columns.ticks[i];
+                vehicle = columns.vehicles[i];
+            }
+
+            int length = HEADER_BYTES + tickBytes.size() + vehicleBytes.size() + nodeBytes.size();
+            ByteBuffer bytes = ByteBuffer.allocate(length);
+            bytes.putInt(MAGIC).putInt(columns.count).putLong(firstTick).putLong(lastTick)
+                    .putInt(tickBytes.size()).putInt(vehicleBytes.size()).putInt(nodeBytes.size());
+            bytes.put(tickBytes.toByteArray()).put(vehicleBytes.toByteArray()).put(nodeBytes.toByteArray());
+            bytes.flip();
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+        }
+
+        // Forgets the entries, so the mapping can be collected and the file deleted
+        void drop() {
+            data = null;
+        }
+
+        private static ByteBuffer vehicleColumn(ByteBuffer buffer) {
+            ByteBuffer column = buffer.duplicate();
+            column.position(HEADER_BYTES + buffer.getInt(24));
+            return column;
+        }
+
+        void scan(int vehicle, long fromTick, long toTick, RoadGraph graph, Map<Integer, Trajectory> found) {
+            Object current = data;
+            if (current instanceof Columns) {
+                ((Columns) current).scan(vehicle, fromTick, toTick, graph, found);
+                return;
+            }
+            if (current == null) return;
+            ByteBuffer buffer = (ByteBuffer) current;
+            ByteBuffer tickColumn = buffer.duplicate();
+            tickColumn.position(HEADER_BYTES);
+            ByteBuffer vehicleColumn = vehicleColumn(buffer);
+            ByteBuffer nodeColumn = buffer.duplicate();
+            nodeColumn.position(HEADER_BYTES + buffer.getInt(24) + buffer.getInt(28));
+            long tick = firstTick;
+            int id = 0;
+            for (int i = buffer.getInt(4); i > 0; i--) {
+                tick += BinaryCodec.readSignedVarLong(tickColumn);
+                id += BinaryCodec.readSignedVarInt(vehicleColumn);
+                int node = BinaryCodec.readVarInt(nodeColumn);
+                if (vehicle >= 0 && id != vehicle) continue;
+                if (tick < fromTick || tick > toTick) continue;
+                found.computeIfAbsent(id, Trajectory::new).add(tick, node, graph);
+            }
+        }
+    }
+}
+
+/**
+ * The recorded moves of one vehicle, returned by the trajectory endpoints.
+ */
+class Trajectory {
+    public int vehicleId; // Id of the vehicle
+    public long[] ticks = new long[0]; // Tick of each move
+    public int[] x = new int[0]; // Cell the vehicle moved to, per move
+    public int[] y = new int[0];
+    private int size = 0;
+
+    public Trajectory(int vehicleId) {
+        this.vehicleId = vehicleId;
+    }
+
+    void add(long tick, int node, RoadGraph graph) {
+        if (size == ticks.length) {
+            int capacity = Math.max(16, size * 2);
+            ticks = Arrays.copyOf(ticks, capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+        }
+        ticks[size] = tick;
+        x[size] = graph.x(node);
+        y[size] = graph.y(node);
+        size++;
+    }
+
+    // Cuts the arrays to the number of moves
+    void trim() {
+        ticks = Arrays.copyOf(ticks, size);
+        x = Arrays.copyOf(x, size);
+        y = Arrays.copyOf(y, size);
+    }
+}
@@ -0,0 +1,391 @@
+package radiant.seven;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Registry of the vehicles known to the API, by name and by stable integer id.
+ *
+ * Lookups by name or id never block. Registering and retiring take a write lock,
+ * and snapshot() takes the read lock, so a snapshot never sees half of a
+ * replacement. Ids are handed out in registration order and never reused; vehicles
+ * restored from a checkpoint keep theirs. The id table is split into pages of
+ * PAGE_SIZE entries that are allocated on demand and dropped once empty, so a
+ * fleet that keeps spawning and retiring does not leave a growing table behind.
+ *
+ * Retiring a vehicle stops its movement thread, takes it out of the SpatialIndex
+ * and releases its cell, through the SimulationEngine in deterministic mode.
+ * Listeners are told about every spawn and retirement.
+ *
+ * The registry is also a Map from name to vehicle, so EVController.evMap keeps
+ * working. Its entrySet and values are snapshots; put registers and remove retires.
+ */
+public class VehicleRegistry extends AbstractMap<String, EV> {
+    private static final VehicleRegistry instance = new VehicleRegistry();
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS; // Ids per page
+    private static final int INITIAL_PAGES = 256; // Room for 1M ids before the page table grows
+
+    /**
+     * Receives the vehicles that join or leave the registry.
+     */
+    public interface Listener {
+        default void onSpawn(EV ev) {
+        }
+
+        default void onRetire(EV ev) {
+        }
+    }
+
+    // A registered vehicle with the name it was registered under
+    private static class Registration {
+        final String name;
+        final EV ev;
+        volatile Thread agent; // Movement thread of the vehicle, or null
+
+        Registration(String name, EV ev) {
+            this.name = name;
+            this.ev = ev;
+        }
+    }
+
+    private final Map<String, Registration> byName = new ConcurrentHashMap<>();
+    // Pages by id >>> PAGE_BITS; replaced by a larger copy when it fills up
+    private volatile AtomicReferenceArray<AtomicReferenceArray<Registration>> pages =
+            new AtomicReferenceArray<>(INITIAL_PAGES);
+    private int[] pageLive = new int[INITIAL_PAGES]; // Registered vehicles per page
+    private int nextId = 0; // Next id handed out
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    VehicleRegistry() {
+    }
+
+    /**
+     * @return The singleton VehicleRegistry.
+     */
+    public static VehicleRegistry getInstance() {
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registers a vehicle under its name, see register(String, EV).
+     */
+    public EV register(EV ev) {
+        return register(ev.getName(), ev);
+    }
+
+    /**
+     * Registers a vehicle, giving it an id if it has none. A vehicle already
+     * registered under the same name is retired.
+     *
+     * @param name The name to register the vehicle under.
+     * @param ev The vehicle.
+     * @return The retired vehicle, or null.
+     * @throws IllegalArgumentException if another vehicle holds the vehicle's id.
+     */
+    public EV register(String name, EV ev) {
+        Registration previous;
+        Registration registration = new Registration(name, ev);
+        lock.writeLock().lock();
+        try {
+            previous = byName.get(name);
+            if (previous != null && previous.ev == ev) return null;
+            if (ev.getId() < 0) {
+                ev.setId(nextId++);
+            } else {
+                Registration holder = lookup(ev.getId());
+                if (holder != null && holder != previous) {
+                    throw new IllegalArgumentException("Vehicle id " + ev.getId() + " is already registered to " + holder.name);
+                }
+                nextId = Math.max(nextId, ev.getId() + 1);
+            }
+            if (previous != null) unlink(previous);
+            link(registration);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (previous != null) release(Collections.singletonList(previous));
+        SpatialIndex.getInstance().add(ev);
+        // A retirement between the unlock and the add found nothing to remove
+        if (lookup(ev.getId()) != registration) SpatialIndex.getInstance().remove(ev);
+        for (Listener listener : listeners) {
+            listener.onSpawn(ev);
+        }
+        return previous == null ? null : previous.ev;
+    }
+
+    /**
+     * Retires the vehicle registered under a name.
+     *
+     * @return The retired vehicle, or null if no vehicle has the name.
+     */
+    public EV retire(String name) {
+        Registration registration;
+        lock.writeLock().lock();
+        try {
+            registration = byName.get(name);
+            if (registration == null) return null;
+            unlink(registration);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        release(Collections.singletonList(registration));
+        return registration.ev;
+    }
+
+    /**
+     * Retires a vehicle, if it is registered.
+     *
+     * @return True if the vehicle was registered.
+     */
+    public boolean retire(EV ev) {
+        return retireAll(Collections.singletonList(ev)) == 1;
+    }
+
+    /**
+     * Retires several vehicles at once. In deterministic mode they leave the
+     * SimulationEngine in a single pass.
+     *
+     * @param vehicles The vehicles; unregistered ones are skipped.
+     * @return The number of vehicles retired.
+     */
+    public int retireAll(Collection<EV> vehicles) {
+        List<Registration> removed = new ArrayList<>(vehicles.size());
+        lock.writeLock().lock();
+        try {
+            for (EV ev : vehicles) {
+                Registration registration = ev.getId() < 0 ? null : lookup(ev.getId());
+                if (registration == null || registration.ev != ev) continue;
+                unlink(registration);
+                removed.add(registration);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        release(removed);
+        return removed.size();
+    }
+
+    /**
+     * Records the movement thread of a registered vehicle, so retiring the vehicle
+     * interrupts it. A thread attached to an unregistered vehicle is interrupted at once.
+     */
+    public void attachAgent(EV ev, Thread agent) {
+        Registration registration = ev.getId() < 0 ? null : lookup(ev.getId());
+        if (registration == null || registration.ev != ev) {
+            agent.interrupt();
+            return;
+        }
+        registration.agent = agent;
+    }
+
+    /**
+     * Forgets the movement thread of a vehicle once the thread ends.
+     */
+    public void detachAgent(EV ev, Thread agent) {
+        Registration registration = ev.getId() < 0 ? null : lookup(ev.getId());
+        if (registration != null && registration.agent == agent) {
+            registration.agent = null;
+        }
+    }
+
+    // @return vehicle with the id, or null
+    public EV getById(int id) {
+        Registration registration = lookup(id);
+        return registration == null ? null : registration.ev;
+    }
+
+    /**
+     * @return The registered vehicles at one point in time, in id order.
+     */
+    public List<EV> snapshot() {
+        List<EV> vehicles = new ArrayList<>(byName.size());
+        lock.readLock().lock();
+        try {
+            AtomicReferenceArray<AtomicReferenceArray<Registration>> table = pages;
+            for (int p = 0; p < table.length(); p++) {
+                AtomicReferenceArray<Registration> page = table.get(p);
+                if (page == null) continue;
+                for (int i = 0; i < PAGE_SIZE; i++) {
+                    Registration registration = page.get(i);
+                    if (registration != null) vehicles.add(registration.ev);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return vehicles;
+    }
+
+    private Registration lookup(int id) {
+        AtomicReferenceArray<AtomicReferenceArray<Registration>> table = pages;
+        int index = id >>> PAGE_BITS;
+        if (index >= table.length()) return null;
+        AtomicReferenceArray<Registration> page = table.get(index);
+        return page == null ? null : page.get(id & (PAGE_SIZE - 1));
+    }
+
+    // Called with the write lock held
+    private void link(Registration registration) {
+        int id = registration.ev.getId();
+        int index = id >>> PAGE_BITS;
+        AtomicReferenceArray<AtomicReferenceArray<Registration>> table = pages;
+        if (index >= table.length()) {
+            int capacity = table.length();
+            while (capacity <= index) {
+                capacity *= 2;
+            }
+            AtomicReferenceArray<AtomicReferenceArray<Registration>> grown = new AtomicReferenceArray<>(capacity);
+            for (int i = 0; i < table.length(); i++) {
+                grown.set(i, table.get(i));
+            }
+            pageLive = Arrays.copyOf(pageLive, capacity);
+            pages = table = grown;
+        }
+        AtomicReferenceArray<Registration> page = table.get(index);
+        if (page == null) {
+            page = new AtomicReferenceArray<>(PAGE_SIZE);
+            table.set(index, page);
+        }
+        page.set(id & (PAGE_SIZE - 1), registration);
+        pageLive[index]++;
+        byName.put(registration.name, registration);
+    }
+
+    // Called with the write lock held
+    private void unlink(Registration registration) {
+        int id = registration.ev.getId();
+        int index = id >>> PAGE_BITS;
+        pages.get(index).set(id & (PAGE_SIZE - 1), null);
+        // Keep the page new ids are handed out from
+        if (--pageLive[index] == 0 && index != nextId >>> PAGE_BITS) {
+            pages.set(index, null);
+        }
+        byName.remove(registration.name, registration);
+    }
+
+    // Stops vehicles that have left the registry and frees their cells
+    private void release(List<Registration> registrations) {
+        if (registrations.isEmpty()) return;
+        List<EV> vehicles = new ArrayList<>(registrations.size());
+        for (Registration registration : registrations) {
+            Thread agent = registration.agent;
+            if (agent != null) agent.interrupt();
+            SpatialIndex.getInstance().remove(registration.ev);
+            vehicles.add(registration.ev);
+        }
+        if (SimulationEngine.isDeterministic()) {
+            SimulationEngine.getInstance().retireAll(vehicles);
+        } else {
+            for (EV ev : vehicles) {
+                // The movement thread steps under the EV's lock, so it cannot move past this
+                synchronized (ev) {
+                    ev.setMoving(false);
+                    // Only cells a vehicle moved into are marked as stalled
+                    if (ev.getPath() != null && ev.getCurrentPathIndex() > 0) {
+                        Node cell = GameMap.getInstance().getRoadNode(ev.getCurrentX(), ev.getCurrentY());
+                        if (cell != null) cell.setStalled(false);
+                    }
+                }
+            }
+        }
+        for (EV ev : vehicles) {
+            for (Listener listener : listeners) {
+                listener.onRetire(ev);
+            }
+        }
+    }
+
+    @Override
+    public EV get(Object name) {
+        Registration registration = byName.get(name);
+        return registration == null ? null : registration.ev;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return byName.containsKey(name);
+    }
+
+    @Override
+    public int size() {
+        return byName.size();
+    }
+
+    @Override
+    public EV put(String name, EV ev) {
+        return register(name, ev);
+    }
+
+    @Override
+    public EV remove(Object name) {
+        return name instanceof String ? retire((String) name) : null;
+    }
+
+    /**
+     * Retires every vehicle.
+     */
+    @Override
+    public void clear() {
+        List<Registration> removed;
+        lock.writeLock().lock();
+        try {
+            removed = new ArrayList<>(byName.values());
+            for (Registration registration : removed) {
+                unlink(registration);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        release(removed);
+    }
+
+    @Override
+    public Collection<EV> values() {
+        return Collections.unmodifiableList(snapshot());
+    }
+
+    @Override
+    public Set<Map.Entry<String, EV>> entrySet() {
+        List<Map.Entry<String, EV>> entries = new ArrayList<>(byName.size());
+        lock.readLock().lock();
+        try {
+            AtomicReferenceArray<AtomicReferenceArray<Registration>> table = pages;
+            for (int p = 0; p < table.length(); p++) {
+                AtomicReferenceArray<Registration> page = table.get(p);
+                if (page == null) continue;
+                for (int i = 0; i < PAGE_SIZE; i++) {
+                    Registration registration = page.get(i);
+                    if (registration != null) {
+                        entries.add(new AbstractMap.SimpleImmutableEntry<>(registration.name, registration.ev));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new AbstractSet<Map.Entry<String, EV>>() {
+            @Override
+            public Iterator<Map.Entry<String, EV>> iterator() {
+                return Collections.unmodifiableList(entries).iterator();
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+}
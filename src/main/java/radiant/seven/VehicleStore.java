@@ -0,0 +1,289 @@
+package radiant.seven;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Column-oriented storage of the vehicles of a SimulationEngine.
+ *
+ * Every per-tick field lives in a primitive array indexed by slot: current node,
+ * next node, path index, charge, direction and state flags. All paths share one
+ * int[] arena of node ids. A tick that finds most vehicles waiting therefore reads a
+ * few dense arrays instead of following pointers through EV objects and their
+ * List<PathNode> paths.
+ *
+ * The EV objects stay as views for the REST layer and the cold paths (routing,
+ * charging, tasks): while a vehicle is stored, its getters and setters for these
+ * fields read and write its slot, and its path is an ArenaPath over the arena.
+ * Slots keep the engine's vehicle order; removing a vehicle shifts the later ones.
+ *
+ * The owner changes the store only while holding its lock, and the EV getters take
+ * the same lock, so the REST layer never reads a slot halfway through a tick or after
+ * the slots shifted. Only the owner's own threads read the columns directly.
+ */
+public class VehicleStore {
+    static final byte MOVING = 1;
+    static final byte CHARGING = 2;
+    static final byte NPC = 4;
+    static final byte ELECTRIC = 8;
+    static final String[] DIRECTIONS = {"right", "left", "up", "down"}; // Direction by ordinal
+
+    private final RoadGraph graph;
+    final Object lock; // Held by the owner whenever it changes the store
+    private int size = 0; // Number of stored vehicles, in slots 0 to size - 1
+
+    EV[] views = new EV[16]; // Vehicle object per slot
+    int[] node = new int[16]; // Current node id
+    int[] pathIndex = new int[16]; // Index of the current node in the path
+    int[] pathStart = new int[16]; // Offset of the path in the arena
+    int[] pathLength = new int[16]; // Number of nodes in the path
+    int[] charge = new int[16]; // Charge level (percentage)
+    int[] loggedCharge = new int[16]; // Charge last written to the event log
+    byte[] direction = new byte[16]; // Ordinal into DIRECTIONS
+    byte[] flags = new byte[16]; // MOVING, CHARGING, NPC and ELECTRIC bits
+    long[] tripStart = new long[16]; // Tick the current trip started, kept by the engine
+
+    private int[] arena = new int[1 << 12]; // Node ids of all paths
+    private int arenaTop = 0; // First unused arena offset
+    private int arenaLive = 0; // Arena entries still used by a stored path
+
+    /**
+     * @param graph The road graph of the stored paths.
+     * @param lock The lock the owner holds whenever it changes the store.
+     */
+    public VehicleStore(RoadGraph graph, Object lock) {
+        this.graph = graph;
+        this.lock = lock;
+    }
+
+    // @return number of stored vehicles
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Stores a vehicle at the end of the slot order and turns the EV into a view of
+     * its slot.
+     *
+     * @return The slot, or -1 if the vehicle has no path or its path leaves the road graph.
+     */
+    public int add(EV ev) {
+        List<PathNode> path = ev.getPath();
+        if (path == null || path.isEmpty() || !onGraph(path)) return -1;
+        if (size == views.length) grow();
+        int slot = size++;
+        views[slot] = ev;
+        charge[slot] = ev.getCharge();
+        loggedCharge[slot] = charge[slot];
+        direction[slot] = (byte) Math.max(0, Arrays.asList(DIRECTIONS).indexOf(ev.getCurrentDirection()));
+        flags[slot] = (byte) ((ev.isMoving() ? MOVING : 0)
+                | (ev.isCharging() ? CHARGING : 0)
+                | (ev instanceof NPCVehicle ? NPC : 0)
+                | (EnergyModel.isElectric(ev) ? ELECTRIC : 0));
+        pathLength[slot] = 0;
+        ev.attach(this, slot, importPath(slot, path, Math.min(ev.getCurrentPathIndex(), path.size() - 1)));
+        return slot;
+    }
+
+    /**
+     * Removes the vehicles that match a filter in one pass and detaches their views,
+     * which get back their own copy of every field.
+     */
+    public void removeIf(Predicate<EV> filter) {
+        int kept = 0;
+        for (int slot = 0; slot < size; slot++) {
+            EV ev = views[slot];
+            if (filter.test(ev)) {
+                arenaLive -= pathLength[slot];
+                ev.detach(pathIndex[slot], charge[slot], DIRECTIONS[direction[slot]],
+                        (flags[slot] & MOVING) != 0, (flags[slot] & CHARGING) != 0);
+                continue;
+            }
+            if (kept != slot) move(slot, kept);
+            kept++;
+        }
+        Arrays.fill(views, kept, size, null);
+        size = kept;
+    }
+
+    /**
+     * Removes one vehicle, see removeIf.
+     */
+    public void remove(EV ev) {
+        removeIf(candidate -> candidate == ev);
+    }
+
+    private void move(int from, int to) {
+        views[to] = views[from];
+        node[to] = node[from];
+        pathIndex[to] = pathIndex[from];
+        pathStart[to] = pathStart[from];
+        pathLength[to] = pathLength[from];
+        charge[to] = charge[from];
+        loggedCharge[to] = loggedCharge[from];
+        direction[to] = direction[from];
+        flags[to] = flags[from];
+        tripStart[to] = tripStart[from];
+        views[to].slot = to;
+    }
+
+    private void grow() {
+        int capacity = views.length * 2;
+        views = Arrays.copyOf(views, capacity);
+        node = Arrays.copyOf(node, capacity);
+        pathIndex = Arrays.copyOf(pathIndex, capacity);
+        pathStart = Arrays.copyOf(pathStart, capacity);
+        pathLength = Arrays.copyOf(pathLength, capacity);
+        charge = Arrays.copyOf(charge, capacity);
+        loggedCharge = Arrays.copyOf(loggedCharge, capacity);
+        direction = Arrays.copyOf(direction, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        tripStart = Arrays.copyOf(tripStart, capacity);
+    }
+
+    private boolean onGraph(List<PathNode> path) {
+        if (path instanceof ArenaPath || path instanceof PackedPath) return true;
+        for (PathNode cell : path) {
+            if (graph.nodeId(cell.getX(), cell.getY()) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies a path into the arena for a slot, replacing its previous path.
+     *
+     * @param index The path index of the vehicle's current cell.
+     * @return The view of the stored path.
+     */
+    ArenaPath importPath(int slot, List<PathNode> path, int index) {
+        int length = path.size();
+        reserve(length);
+        int start = arenaTop;
+        if (path instanceof ArenaPath) {
+            ((ArenaPath) path).copyTo(arena, start);
+        } else if (path instanceof PackedPath) {
+            ((PackedPath) path).copyTo(arena, start);
+        } else {
+            for (int i = 0; i < length; i++) {
+                PathNode cell = path.get(i);
+                arena[start + i] = graph.nodeId(cell.getX(), cell.getY());
+            }
+        }
+        arenaTop += length;
+        arenaLive += length - pathLength[slot];
+        pathStart[slot] = start;
+        pathLength[slot] = length;
+        pathIndex[slot] = index;
+        node[slot] = length == 0 ? -1 : arena[start + index];
+        return new ArenaPath(arena, start, length, graph);
+    }
+
+    // Makes room for a path, compacting the arena and growing it if needed
+    private void reserve(int length) {
+        if (arenaTop + length <= arena.length) return;
+        int needed = arenaLive + length;
+        int capacity = arena.length;
+        while (capacity < needed * 2) {
+            capacity *= 2;
+        }
+        // Paths are copied to a fresh array, so older views of the arena stay valid
+        int[] compacted = new int[capacity];
+        int top = 0;
+        for (int slot = 0; slot < size; slot++) {
+            System.arraycopy(arena, pathStart[slot], compacted, top, pathLength[slot]);
+            pathStart[slot] = top;
+            top += pathLength[slot];
+        }
+        arena = compacted;
+        arenaTop = top;
+        arenaLive = top;
+        for (int slot = 0; slot < size; slot++) {
+            views[slot].repointPath(new ArenaPath(arena, pathStart[slot], pathLength[slot], graph));
+        }
+    }
+
+    /**
+     * @return The next node of the vehicle's path, or -1 at the end of its path.
+     */
+    int next(int slot) {
+        int index = pathIndex[slot] + 1;
+        return index < pathLength[slot] ? arena[pathStart[slot] + index] : -1;
+    }
+
+    /**
+     * Moves a vehicle to the next node of its path, updating its direction.
+     */
+    void advance(int slot) {
+        int from = node[slot];
+        int to = next(slot);
+        int dx = graph.x(to) - graph.x(from);
+        int dy = graph.y(to) - graph.y(from);
+        if (dx > 0) direction[slot] = 3;
+        else if (dx < 0) direction[slot] = 2;
+        else if (dy > 0) direction[slot] = 0;
+        else if (dy < 0) direction[slot] = 1;
+        pathIndex[slot]++;
+        node[slot] = to;
+    }
+
+    void setFlag(int slot, byte flag, boolean value) {
+        if (value) {
+            flags[slot] |= flag;
+        } else {
+            flags[slot] &= ~flag;
+        }
+    }
+
+    boolean hasFlag(int slot, byte flag) {
+        return (flags[slot] & flag) != 0;
+    }
+
+    // @return arena entries in use and allocated, for memory statistics
+    public long[] arenaUsage() {
+        return new long[]{arenaLive, arena.length};
+    }
+
+    RoadGraph getGraph() {
+        return graph;
+    }
+}
+
+/**
+ * An immutable path stored in a VehicleStore arena. Cells are created on access.
+ * The arena entries of a path are never overwritten, so a view stays valid after the
+ * vehicle gets a new path or the arena is compacted.
+ */
+class ArenaPath extends AbstractList<PathNode> implements RandomAccess {
+    private final int[] arena;
+    private final int start;
+    private final int length;
+    private final RoadGraph graph;
+
+    ArenaPath(int[] arena, int start, int length, RoadGraph graph) {
+        this.arena = arena;
+        this.start = start;
+        this.length = length;
+        this.graph = graph;
+    }
+
+    @Override
+    public PathNode get(int index) {
+        int node = node(index);
+        return new PathNode(graph.x(node), graph.y(node));
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    // @return node id of the cell at the index
+    int node(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("Index " + index + ", size " + length);
+        return arena[start + index];
+    }
+
+    void copyTo(int[] target, int offset) {
+        System.arraycopy(arena, start, target, offset, length);
+    }
+}
@@ -14,6 +14,9 @@ let evSprites = new Map();
 let trafficLightSprites = new Map();
 let scene;
 const TILE_SIZE = 20;
+const PAN_SPEED = 10; // Pixels per frame when panning with the arrow keys
+let viewport = null; // Visible cells as "minX,minY,maxX,maxY", sent with every poll
+let cursors;
 
 function create() {
     scene = this;
@@ -22,6 +25,7 @@ function create() {
     
     loadMap();
     setupEventListeners();
+    setupCameraControls();
     loadExistingEVs();
     
     // Initial update and start interval
@@ -35,11 +39,46 @@ function loadMap() {
         .then(response => response.json())
         .then(mapData => {
             drawMap(scene, mapData);
+            // Let the camera pan over the whole map, but no further
+            const rows = Math.max(...mapData.roads.map(road => road.x)) + 1;
+            const cols = Math.max(...mapData.roads.map(road => road.y)) + 1;
+            scene.cameras.main.setBounds(0, 0, cols * TILE_SIZE, rows * TILE_SIZE);
+            refreshViewport();
         });
 }
 
+function setupCameraControls() {
+    const camera = scene.cameras.main;
+    scene.input.on('pointermove', pointer => {
+        if (!pointer.isDown) return;
+        camera.scrollX -= (pointer.x - pointer.prevPosition.x) / camera.zoom;
+        camera.scrollY -= (pointer.y - pointer.prevPosition.y) / camera.zoom;
+    });
+    scene.input.on('pointerup', refreshViewport);
+    cursors = scene.input.keyboard.createCursorKeys();
+}
+
+// Cells covered by the camera, in the map's (row, column) coordinates
+function currentBoundingBox() {
+    const view = scene.cameras.main.worldView;
+    const minX = Math.max(1, Math.floor(view.y / TILE_SIZE));
+    const minY = Math.max(1, Math.floor(view.x / TILE_SIZE));
+    const maxX = Math.max(minX, Math.ceil(view.bottom / TILE_SIZE));
+    const maxY = Math.max(minY, Math.ceil(view.right / TILE_SIZE));
+    return `${minX},${minY},${maxX},${maxY}`;
+}
+
+// Re-subscribe to the visible part of the map after the camera moved
+function refreshViewport() {
+    const bbox = currentBoundingBox();
+    if (bbox === viewport) return;
+    viewport = bbox;
+    updateTrafficSignals();
+    simulateEVMovement();
+}
+
 function loadExistingEVs() {
-    fetch('/api/ev/all')
+    fetch(`/api/ev/all?bbox=${viewport || currentBoundingBox()}`)
         .then(response => response.json())
         .then(data => {
             if (Array.isArray(data)) {
@@ -156,10 +195,25 @@ function startEVSimulation(evName) {
 }
 
 function simulateEVMovement() {
-    fetch('/api/ev/all')
+    fetch(`/api/ev/all?bbox=${viewport || currentBoundingBox()}`)
         .then(response => response.json())
         .then(evs => {
+            // Drop the sprites of EVs that left the viewport
+            const visible = new Set(evs.map(ev => ev.name));
+            evSprites.forEach((sprite, name) => {
+                if (!visible.has(name)) {
+                    sprite.destroy();
+                    evSprites.delete(name);
+                }
+            });
             evs.forEach(ev => {
+                if (!evSprites.has(ev.name)) {
+                    createEVSprite(ev);
+                }
+                const evSprite = evSprites.get(ev.name);
+                evSprite.x = ev.currentY * TILE_SIZE + 10;
+                evSprite.y = ev.currentX * TILE_SIZE + 10;
+
                 if (!ev.path || !ev.moving || ev.currentPathIndex >= ev.path.length - 1) return;
                 
                 const nextPosition = ev.path[ev.currentPathIndex + 1];
@@ -212,13 +266,22 @@ function drawMap(scene, mapData) {
 // }
 
 function updateTrafficSignals() {
-    fetch('/api/ev/traffic/signals')
+    fetch(`/api/ev/traffic/signals?bbox=${viewport || currentBoundingBox()}`)
         .then(response => response.json())
         .then(data => {
             if (!Array.isArray(data)) {
                 console.error('Expected array of signals, got:', data);
                 return;
             }
+            // Drop the lights that left the viewport
+            const visible = new Set(data.map(signal => `${signal.x},${signal.y}`));
+            trafficLightSprites.forEach((sprite, key) => {
+                if (!visible.has(key)) {
+                    sprite.light.destroy();
+                    sprite.glow.destroy();
+                    trafficLightSprites.delete(key);
+                }
+            });
             data.forEach(signal => {
                 updateTrafficLightUI(signal.x, signal.y, signal.isGreen);
             });
@@ -271,5 +334,16 @@ function updateTrafficLightUI(x, y, isGreen) {
 
 
 function update() {
-    // Real-time updates if needed
+    // Pan with the arrow keys and follow the new viewport
+    if (!cursors) return;
+    const camera = scene.cameras.main;
+    const scrollX = camera.scrollX;
+    const scrollY = camera.scrollY;
+    if (cursors.left.isDown) camera.scrollX -= PAN_SPEED;
+    if (cursors.right.isDown) camera.scrollX += PAN_SPEED;
+    if (cursors.up.isDown) camera.scrollY -= PAN_SPEED;
+    if (cursors.down.isDown) camera.scrollY += PAN_SPEED;
+    if (camera.scrollX !== scrollX || camera.scrollY !== scrollY) {
+        refreshViewport();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+class BinaryCodecTest {
+
+    private static final int[] INTS = {0, 1, 127, 128, 16383, 16384, 2097151, 2097152, Integer.MAX_VALUE,
+            -1, -64, -65, Integer.MIN_VALUE};
+    private static final long[] LONGS = {0, 1, 127, 128, 1L << 35, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+
+    private static byte[] encode(int value) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryCodec.writeVarInt(new DataOutputStream(bytes), value);
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(ByteArrayOutputStream bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    void testVarIntUsesSevenBitsPerByteLowBitsFirst() throws Exception {
+        assertThat(encode(0)).containsExactly((byte) 0);
+        assertThat(encode(127)).containsExactly((byte) 0x7F);
+        assertThat(encode(128)).containsExactly((byte) 0x80, (byte) 0x01);
+        assertThat(encode(300)).containsExactly((byte) 0xAC, (byte) 0x02);
+        assertThat(encode(16384)).hasSize(3);
+        assertThat(encode(-1)).hasSize(5);
+    }
+
+    @Test
+    void testVarIntsRoundTripThroughStreamsAndBuffers() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : INTS) {
+            BinaryCodec.writeVarInt(out, value);
+            BinaryCodec.writeSignedVarInt(out, value);
+        }
+
+        DataInputStream in = input(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        for (int value : INTS) {
+            assertThat(BinaryCodec.readVarInt(in)).isEqualTo(value);
+            assertThat(BinaryCodec.readSignedVarInt(in)).isEqualTo(value);
+            assertThat(BinaryCodec.readVarInt(buffer)).isEqualTo(value);
+            assertThat(BinaryCodec.readSignedVarInt(buffer)).isEqualTo(value);
+        }
+        assertThat(in.available()).isZero();
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void testVarLongsRoundTripThroughStreamsAndBuffers() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : LONGS) {
+            BinaryCodec.writeVarLong(out, value);
+            BinaryCodec.writeSignedVarLong(out, value);
+        }
+
+        DataInputStream in = input(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        for (long value : LONGS) {
+            assertThat(BinaryCodec.readVarLong(in)).isEqualTo(value);
+            long zigZag = BinaryCodec.readVarLong(in); // Streams have no signed long reader
+            assertThat((zigZag >>> 1) ^ -(zigZag & 1)).isEqualTo(value);
+            assertThat(BinaryCodec.readVarLong(buffer)).isEqualTo(value);
+            assertThat(BinaryCodec.readSignedVarLong(buffer)).isEqualTo(value);
+        }
+        assertThat(in.available()).isZero();
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void testSmallNegativeValuesStayShort() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryCodec.writeSignedVarInt(new DataOutputStream(bytes), -64);
+
+        assertThat(bytes.toByteArray()).containsExactly((byte) 0x7F);
+    }
+}
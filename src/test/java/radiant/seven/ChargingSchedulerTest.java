@@ -0,0 +1,69 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+
+class ChargingSchedulerTest {
+
+    private VehicleRegistry registry;
+    private ChargingScheduler scheduler;
+    private ChargingStation station;
+
+    @BeforeEach
+    void setUp() {
+        registry = new VehicleRegistry();
+        station = new ChargingStation(2, 2, 1);
+        scheduler = new ChargingScheduler(Collections.singletonList(station), registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.clear();
+        scheduler.shutdown();
+    }
+
+    private EV vehicle(String name) {
+        EV ev = new EV(2, 2, 1, 50, 10);
+        ev.setName(name);
+        registry.register(ev);
+        return ev;
+    }
+
+    @Test
+    void testRetiredEVsLeaveTheQueueAndFreeTheirPort() {
+        EV plugged = vehicle("Plugged");
+        EV queued = vehicle("Queued");
+        EV next = vehicle("Next");
+        assertThat(scheduler.requestCharge(plugged, station)).isTrue();
+        assertThat(scheduler.requestCharge(queued, station)).isTrue();
+        assertThat(scheduler.requestCharge(next, station)).isTrue();
+        scheduler.tick(0);
+        assertThat(scheduler.getStatus().get(0).charging).isEqualTo(1);
+        assertThat(scheduler.getStatus().get(0).queued).isEqualTo(2);
+
+        registry.retire("Queued");
+        registry.retire("Plugged");
+
+        assertThat(plugged.isCharging()).isFalse();
+        assertThat(queued.isCharging()).isFalse();
+        assertThat(scheduler.getStatus().get(0).charging).isZero();
+        assertThat(scheduler.getStatus().get(0).queued).isEqualTo(1);
+        int before = plugged.getCharge();
+        scheduler.tick(0);
+        assertThat(plugged.getCharge()).isEqualTo(before);
+        assertThat(scheduler.getStatus().get(0).charging).isEqualTo(1);
+        assertThat(next.isCharging()).isTrue();
+    }
+
+    @Test
+    void testCancellingAnUnknownEVChangesNothing() {
+        EV ev = vehicle("Idle");
+
+        assertThat(scheduler.cancel(ev)).isFalse();
+        assertThat(scheduler.getStatus().get(0).queued).isZero();
+    }
+}
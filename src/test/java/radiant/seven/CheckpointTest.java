@@ -0,0 +1,134 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.assertj.core.api.Assertions.assertThat;
+import static radiant.seven.RouteFixtures.CLOSED_X;
+import static radiant.seven.RouteFixtures.CLOSED_Y;
+import static radiant.seven.RouteFixtures.vehicleOn;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+class CheckpointTest {
+
+    @TempDir
+    Path dir;
+
+    private GameMap gameMap;
+    private CheckpointManager checkpoints;
+    private PathfindingVisualizer pathfinder;
+    private Queue<Task> savedTasks;
+    private long savedSignalChange;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        checkpoints = new CheckpointManager(gameMap);
+        pathfinder = new PathfindingVisualizer(gameMap);
+        savedTasks = TaskAssigner.buffer;
+        TaskAssigner.buffer = null;
+        savedSignalChange = TrafficManager.getNextSignalChangeTime();
+        EVController.evMap.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        EVController.evMap.clear();
+        gameMap.reopenCell(CLOSED_X, CLOSED_Y);
+        RouteCache.getInstance().clear(gameMap.getGraph());
+        TaskAssigner.buffer = savedTasks;
+        TrafficManager.setNextSignalChangeTime(savedSignalChange);
+    }
+
+    private Checkpoint roundTrip() throws Exception {
+        Path file = dir.resolve("state.ckpt");
+        checkpoints.checkpoint(file);
+        return checkpoints.load(file);
+    }
+
+    @Test
+    void testRestoredVehiclesContinueFromTheirPathRemainder() throws Exception {
+        List<PathNode> route = pathfinder.findRoute(4, 35, 35, 2);
+        EV driving = vehicleOn("Driving", route, 10, 60);
+        driving.setChargingStops(Arrays.asList(5, 30));
+        driving.setMoving(true);
+
+        Checkpoint checkpoint = roundTrip();
+        List<EV> restored = checkpoints.restoreVehicles(checkpoint);
+
+        assertThat(restored).hasSize(1);
+        EV ev = restored.get(0);
+        assertThat(ev.getName()).isEqualTo("Driving");
+        assertThat(ev.getCharge()).isEqualTo(60);
+        assertThat(ev.isMoving()).isTrue();
+        assertThat(ev.getCurrentPathIndex()).isZero();
+        assertThat(ev.getPath()).hasSize(route.size() - 10);
+        for (int i = 0; i < ev.getPath().size(); i++) {
+            assertThat(ev.getPath().get(i).getX()).isEqualTo(route.get(i + 10).getX());
+            assertThat(ev.getPath().get(i).getY()).isEqualTo(route.get(i + 10).getY());
+        }
+        assertThat(ev.getCurrentX()).isEqualTo(route.get(10).getX());
+        assertThat(ev.getCurrentY()).isEqualTo(route.get(10).getY());
+        // The stop already passed is dropped, the other one moves with the path
+        assertThat(ev.getChargingStops()).containsExactly(20);
+    }
+
+    @Test
+    void testChargingVehicleQueuesAgainAtItsStation() throws Exception {
+        List<PathNode> route = pathfinder.findRoute(18, 34, 35, 2);
+        EV charging = vehicleOn("Charging", route, 0, 60);
+        charging.setChargingStops(Arrays.asList(40));
+        charging.setCharging(true);
+
+        List<EV> restored = checkpoints.restoreVehicles(roundTrip());
+
+        assertThat(restored).hasSize(1);
+        EV ev = restored.get(0);
+        assertThat(ev.getCurrentX()).isEqualTo(18);
+        assertThat(ev.getCurrentY()).isEqualTo(34);
+        assertThat(ev.getChargingStops()).containsExactly(0, 40);
+        assertThat(ev.isMoving()).isFalse();
+    }
+
+    @Test
+    void testClosuresAreRestored() throws Exception {
+        gameMap.closeCell(CLOSED_X, CLOSED_Y);
+        int closed = gameMap.getGraph().nodeId(CLOSED_X, CLOSED_Y);
+
+        Checkpoint checkpoint = roundTrip();
+        gameMap.reopenCell(CLOSED_X, CLOSED_Y);
+        assertThat(gameMap.getGraph().isCellClosed(closed)).isFalse();
+        checkpoints.restoreMapState(checkpoint);
+
+        assertThat(checkpoint.closedCells.get(closed)).isTrue();
+        assertThat(checkpoint.closedCells.cardinality()).isEqualTo(1);
+        assertThat(gameMap.getGraph().isCellClosed(closed)).isTrue();
+    }
+
+    @Test
+    void testNPCsContinueTheirRandomStream() throws Exception {
+        List<PathNode> route = pathfinder.findRoute(4, 35, 35, 2);
+        NPCVehicle npc = new NPCVehicle(route.get(3).getX(), route.get(3).getY(), "van");
+        npc.setEndLocation(35, 2);
+        npc.setPath(route);
+        npc.setCurrentPathIndex(3);
+        npc.seedRandom(42);
+        npc.pickRandomDestination();
+        EVController.evMap.register(npc);
+
+        List<EV> restored = checkpoints.restoreVehicles(roundTrip());
+
+        assertThat(restored).hasSize(1);
+        NPCVehicle copy = (NPCVehicle) restored.get(0);
+        assertThat(copy.isSeeded()).isTrue();
+        assertThat(copy.getRandomState()).isEqualTo(npc.getRandomState());
+        assertThat(copy.pickRandomDestination()).isEqualTo(npc.pickRandomDestination());
+        assertThat(copy.getEndX()).isEqualTo(npc.getEndX());
+        assertThat(copy.getEndY()).isEqualTo(npc.getEndY());
+    }
+}
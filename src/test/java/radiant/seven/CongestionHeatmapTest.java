@@ -0,0 +1,128 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class CongestionHeatmapTest {
+
+    private static final long SEED = 11;
+
+    private GameMap gameMap;
+    private int[][] savedSignals;
+    private long savedSignalChange;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        savedSignals = SimulationEngine.signalStates(gameMap);
+        savedSignalChange = TrafficManager.getNextSignalChangeTime();
+        SimulationClock.useSimulatedTime(() -> 0L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        CongestionHeatmap.disable();
+        SimulationEngine.install(null);
+        for (int id = 0; id < gameMap.getGraph().nodeCount(); id++) {
+            gameMap.getNode(id).setStalled(false);
+        }
+        for (int i = 0; i < savedSignals[0].length; i++) {
+            ((TrafficNode) gameMap.getNode(savedSignals[0][i])).setSignal(savedSignals[1][i]);
+        }
+        TrafficManager.setNextSignalChangeTime(savedSignalChange);
+        SimulationClock.useWallClock();
+    }
+
+    private int cell(int node) {
+        RoadGraph graph = gameMap.getGraph();
+        return (graph.x(node) - 1) * gameMap.getWidth() + (graph.y(node) - 1);
+    }
+
+    @Test
+    void testCountsLeaveTheWindowOneBucketAtATime() {
+        // Buckets of one second
+        CongestionHeatmap heatmap = new CongestionHeatmap(gameMap.getGraph().nodeCount(), 6000);
+        heatmap.advance(0);
+        heatmap.occupied(3);
+        heatmap.deny(3);
+        heatmap.advance(1000);
+        heatmap.occupied(3);
+        heatmap.pass(3);
+        heatmap.occupied(-1); // Unknown nodes are ignored
+
+        HeatmapGrid grid = heatmap.snapshot(gameMap);
+        assertThat(grid.windowMillis).isEqualTo(6000);
+        assertThat(grid.occupancy[cell(3)]).isEqualTo(2);
+        assertThat(grid.denied[cell(3)]).isEqualTo(1);
+        assertThat(grid.passes[cell(3)]).isEqualTo(1);
+
+        // The first bucket is reused six seconds in
+        heatmap.advance(6000);
+        grid = heatmap.snapshot(gameMap);
+        assertThat(grid.occupancy[cell(3)]).isEqualTo(1);
+        assertThat(grid.denied[cell(3)]).isZero();
+        assertThat(grid.passes[cell(3)]).isEqualTo(1);
+
+        // A gap longer than the window clears every bucket
+        heatmap.advance(60_000);
+        assertThat(heatmap.snapshot(gameMap).occupancy[cell(3)]).isZero();
+    }
+
+    @Test
+    void testTheEngineCountsOccupancyDenialsAndPasses() {
+        RoadGraph graph = gameMap.getGraph();
+        int[] cells = contestedCell(graph);
+        CongestionHeatmap heatmap = CongestionHeatmap.enable(gameMap, 60_000);
+        SimulationEngine engine = new SimulationEngine(gameMap, SEED, null);
+        SimulationEngine.install(engine);
+        engine.spawn(vehicleInto(graph, cells[1], cells[0], 1));
+        engine.spawn(vehicleInto(graph, cells[2], cells[0], 2));
+
+        engine.step();
+
+        // The lower id moved in, the other was denied and stayed where it was
+        HeatmapGrid grid = heatmap.snapshot(gameMap);
+        assertThat(grid.passes[cell(cells[0])]).isEqualTo(1);
+        assertThat(grid.denied[cell(cells[0])]).isEqualTo(1);
+        assertThat(grid.occupancy[cell(cells[0])]).isEqualTo(1);
+        assertThat(grid.occupancy[cell(cells[2])]).isEqualTo(1);
+        assertThat(grid.occupancy[cell(cells[1])]).isZero();
+    }
+
+    // @return a cell without a signal and two cells without signals that lead into it
+    private int[] contestedCell(RoadGraph graph) {
+        int n = graph.nodeCount();
+        int[] firstFrom = new int[n];
+        java.util.Arrays.fill(firstFrom, -1);
+        for (int from = 0; from < n; from++) {
+            if (gameMap.getNode(from) instanceof TrafficNode) continue;
+            for (int e = graph.edgeStart(from); e < graph.edgeEnd(from); e++) {
+                int to = graph.edgeTarget(e);
+                if (gameMap.getNode(to) instanceof TrafficNode) continue;
+                if (firstFrom[to] == -1) {
+                    firstFrom[to] = from;
+                } else if (firstFrom[to] != from) {
+                    return new int[]{to, firstFrom[to], from};
+                }
+            }
+        }
+        throw new AssertionError("The map has no cell with two entries");
+    }
+
+    private EV vehicleInto(RoadGraph graph, int from, int to, int id) {
+        EV ev = new EV(graph.x(from), graph.y(from), 1, 100, 10, "sedan");
+        ev.setId(id);
+        ev.setEndLocation(graph.x(to), graph.y(to));
+        List<PathNode> path = new ArrayList<>();
+        path.add(new PathNode(graph.x(from), graph.y(from)));
+        path.add(new PathNode(graph.x(to), graph.y(to)));
+        ev.setPath(path);
+        ev.setMoving(true);
+        return ev;
+    }
+}
@@ -0,0 +1,90 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Random;
+
+class DemandModelTest {
+
+    private static final long HOUR = 3_600_000L;
+
+    @Test
+    void testAliasTableDrawsInProportionToTheWeights() {
+        double[] weights = {1, 0, 3, 6};
+        AliasTable table = AliasTable.of(weights);
+        Random random = new Random(42);
+
+        int draws = 200_000;
+        int[] counts = new int[weights.length];
+        for (int i = 0; i < draws; i++) {
+            counts[table.sample(random)]++;
+        }
+
+        assertThat(counts[1]).isZero();
+        for (int i = 0; i < weights.length; i++) {
+            assertThat(Math.abs((double) counts[i] / draws - weights[i] / 10)).isLessThan(0.005);
+        }
+        assertThat(AliasTable.of(new double[]{0, 0})).isNull();
+        assertThat(AliasTable.of(new double[0])).isNull();
+    }
+
+    @Test
+    void testTripsAreDrawnFromTheOdMatrix() {
+        GameMap map = GameMap.getInstance();
+        int half = map.getHeight() / 2;
+        List<DemandModel.Zone> zones = List.of(
+                new DemandModel.Zone("top", 1, 1, half, map.getWidth(), 1, 1),
+                new DemandModel.Zone("bottom", half + 1, 1, map.getHeight(), map.getWidth(), 1, 1));
+        List<DemandModel.OdEntry> entries = List.of(
+                new DemandModel.OdEntry(0, 1, 10, 0, 0),
+                new DemandModel.OdEntry(1, 0, 30, 0, 0));
+        DemandModel model = new DemandModel(map, zones, entries, new double[DemandModel.HOURS], 0, 1);
+        Random random = new Random(7);
+
+        int draws = 20_000;
+        int down = 0;
+        for (int i = 0; i < draws; i++) {
+            int[] trip = model.sampleTrip(0, random);
+            String origin = model.zoneName(trip[0]);
+            String destination = model.zoneName(trip[1]);
+            // No entry goes from a zone to itself
+            assertThat(origin).isNotEqualTo(destination);
+            if (origin.equals("top")) down++;
+        }
+
+        assertThat(Math.abs((double) down / draws - 0.25)).isLessThan(0.01);
+        // Trips from the bottom zone only go up
+        int from = map.getGraph().nodeCount() - 1;
+        assertThat(model.zoneName(from)).isEqualTo("bottom");
+        for (int i = 0; i < 100; i++) {
+            assertThat(model.zoneName(model.sampleDestination(from, 0, random))).isEqualTo("top");
+        }
+    }
+
+    @Test
+    void testTripsDueFollowTheHourlyRateAcrossHours() {
+        GameMap map = GameMap.getInstance();
+        double[] rates = new double[DemandModel.HOURS];
+        rates[0] = 3600; // One trip per simulated second
+        rates[1] = 1800;
+        DemandModel model = new DemandModel(map,
+                List.of(new DemandModel.Zone("all", 1, 1, map.getHeight(), map.getWidth(), 1, 1)),
+                List.of(), rates, 0, 1);
+
+        assertThat(model.tripsDue(0)).isZero(); // Starts the count
+        assertThat(model.tripsDue(500)).isZero();
+        assertThat(model.tripsDue(1000)).isEqualTo(1);
+
+        long total = 1;
+        for (long now = 1250; now <= 2 * HOUR; now += 250) {
+            total += model.tripsDue(now);
+        }
+        assertThat(total).isEqualTo(3600 + 1800);
+
+        // Time going back restarts the count
+        assertThat(model.tripsDue(HOUR)).isZero();
+        assertThat(model.tripsDue(HOUR + 2000)).isEqualTo(1);
+    }
+}
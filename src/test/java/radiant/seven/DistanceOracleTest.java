@@ -0,0 +1,138 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static radiant.seven.RouteFixtures.CLOSED_X;
+import static radiant.seven.RouteFixtures.CLOSED_Y;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class DistanceOracleTest {
+
+    private GameMap gameMap;
+    private RoadGraph graph;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        graph = gameMap.getGraph();
+    }
+
+    @AfterEach
+    void tearDown() {
+        gameMap.reopenCell(CLOSED_X, CLOSED_Y);
+        RouteCache.getInstance().clear(gameMap.getGraph());
+    }
+
+    // One-way ring around the block (2, 2), clockwise from (1, 1), with a one-way spur (1, 3) -> (1, 4)
+    private static RoadGraph oneWayBlock() {
+        int[][] ring = {{1, 1}, {1, 2}, {1, 3}, {2, 3}, {3, 3}, {3, 2}, {3, 1}, {2, 1}};
+        List<Node> nodes = new ArrayList<>();
+        for (int[] cell : ring) {
+            nodes.add(new Node(cell[0], cell[1], "road"));
+        }
+        for (int i = 0; i < ring.length; i++) {
+            nodes.get(i).neighbors.add(nodes.get((i + 1) % ring.length));
+        }
+        Node spur = new Node(1, 4, "road");
+        nodes.get(2).neighbors.add(spur);
+        nodes.add(spur);
+        return RoadGraph.build(nodes, 4, 3);
+    }
+
+    // Moves found by RoadGraph's breadth-first search
+    private static int bfsDistance(RoadGraph graph, int from, int to) {
+        int[] path = graph.shortestPath(from, to);
+        return path.length == 0 ? DistanceOracle.UNREACHABLE : path.length - 1;
+    }
+
+    private static void assertExactAndAdmissible(DistanceOracle oracle, RoadGraph graph, int from, int to) {
+        int moves = bfsDistance(graph, from, to);
+        assertThat(oracle.distance(graph, from, to)).isEqualTo(moves);
+        int bound = oracle.lowerBound(from, to);
+        if (bound != DistanceOracle.UNREACHABLE) {
+            assertThat(bound).isLessThanOrEqualTo(moves);
+        } else {
+            assertThat(moves).isEqualTo(DistanceOracle.UNREACHABLE);
+        }
+    }
+
+    @Test
+    void testDistancesMatchBreadthFirstSearch() {
+        DistanceOracle oracle = gameMap.getDistanceOracle();
+
+        for (int from = 0; from < graph.nodeCount(); from += 7) {
+            for (int to = 0; to < graph.nodeCount(); to += 5) {
+                assertExactAndAdmissible(oracle, graph, from, to);
+            }
+        }
+        assertThat(oracle.getLandmarks()).hasSize(DistanceOracle.LANDMARKS);
+    }
+
+    @Test
+    void testDistancesStayExactWhenTheSearchStampWrapsAround() {
+        DistanceOracle oracle = gameMap.getDistanceOracle();
+
+        // Every search starts from a wrapped stamp, so all of them run with the same stamp
+        for (int from = 0; from < graph.nodeCount(); from += 13) {
+            for (int to = graph.nodeCount() - 1; to >= 0; to -= 11) {
+                oracle.setSearchStamp(-1);
+                assertExactAndAdmissible(oracle, graph, from, to);
+            }
+        }
+    }
+
+    @Test
+    void testDistancesFollowDetoursAroundClosures() {
+        DistanceOracle oracle = gameMap.getDistanceOracle();
+        int from = graph.nodeId(4, 35);
+        int to = graph.nodeId(35, 2);
+        int open = oracle.distance(graph, from, to);
+
+        RoadGraph closed = gameMap.closeCell(CLOSED_X, CLOSED_Y);
+
+        assertThat(oracle.distance(closed, from, to)).isGreaterThanOrEqualTo(open);
+        for (int node = 0; node < closed.nodeCount(); node += 11) {
+            assertExactAndAdmissible(oracle, closed, from, node);
+            assertExactAndAdmissible(oracle, closed, node, to);
+        }
+    }
+
+    @Test
+    void testBoundsAreAdmissibleOnOneWayDetours() {
+        RoadGraph block = oneWayBlock();
+        // Too few landmarks for exact bounds
+        DistanceOracle oracle = DistanceOracle.build(block, 2);
+
+        for (int from = 0; from < block.nodeCount(); from++) {
+            for (int to = 0; to < block.nodeCount(); to++) {
+                assertExactAndAdmissible(oracle, block, from, to);
+            }
+        }
+    }
+
+    @Test
+    void testLandmarksSeeTheWayAroundTheBlock() {
+        RoadGraph block = oneWayBlock();
+        // One landmark on every cell
+        DistanceOracle oracle = DistanceOracle.build(block, DistanceOracle.LANDMARKS);
+        int[] landmarks = oracle.getLandmarks();
+        int next = block.nodeId(1, 2);
+        int previous = block.nodeId(1, 1);
+        int spur = block.nodeId(1, 4);
+
+        assertThat(landmarks).hasSize(block.nodeCount());
+        // Next to each other, but seven moves the other way round
+        assertThat(oracle.lowerBound(next, previous)).isEqualTo(7);
+        assertThat(oracle.distance(block, next, previous)).isEqualTo(7);
+        assertThat(oracle.lowerBound(previous, next)).isEqualTo(1);
+        // Nothing leads out of the spur
+        assertThat(oracle.lowerBound(spur, previous)).isEqualTo(DistanceOracle.UNREACHABLE);
+        assertThat(oracle.distance(block, spur, previous)).isEqualTo(DistanceOracle.UNREACHABLE);
+        assertThat(oracle.distance(block, previous, spur)).isEqualTo(3);
+    }
+}
@@ -0,0 +1,24 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EVControllerTest {
+
+    @Test
+    void testBoundingBoxIsParsed() {
+        assertThat(EVController.parseBoundingBox("1,2,30,40")).containsExactly(1, 2, 30, 40);
+        assertThat(EVController.parseBoundingBox(" 5, 5 ,5,5 ")).containsExactly(5, 5, 5, 5);
+    }
+
+    @Test
+    void testMalformedBoundingBoxIsRejected() {
+        assertThat(EVController.parseBoundingBox("1,2,30")).isNull();
+        assertThat(EVController.parseBoundingBox("1,2,30,40,50")).isNull();
+        assertThat(EVController.parseBoundingBox("1,a,30,40")).isNull();
+        assertThat(EVController.parseBoundingBox("")).isNull();
+        // Minimum after maximum
+        assertThat(EVController.parseBoundingBox("30,2,1,40")).isNull();
+        assertThat(EVController.parseBoundingBox("1,40,30,2")).isNull();
+    }
+}
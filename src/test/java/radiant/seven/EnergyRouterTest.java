@@ -0,0 +1,100 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+class EnergyRouterTest {
+
+    private static final long MOVE = EV.MOVE_INTERVAL;
+
+    private GameMap gameMap;
+    private RoadGraph graph;
+    private EnergyRouter router;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        graph = gameMap.getGraph();
+        router = new EnergyRouter(gameMap, MOVE);
+    }
+
+    private int moves(int fromX, int fromY, int toX, int toY) {
+        return graph.shortestPath(graph.nodeId(fromX, fromY), graph.nodeId(toX, toY)).length - 1;
+    }
+
+    // Drives the route and returns the charge on arrival, or -1 if the battery runs flat on the way
+    private int drive(EnergyRoute route, int charge) {
+        List<PathNode> path = route.path;
+        for (int i = 0; i < path.size(); i++) {
+            if (route.chargingStops.contains(i)) charge = EnergyModel.FULL_CHARGE;
+            if (i + 1 == path.size()) break;
+            int from = graph.nodeId(path.get(i).getX(), path.get(i).getY());
+            int to = graph.nodeId(path.get(i + 1).getX(), path.get(i + 1).getY());
+            assertThat(graph.isEdgeOpen(from, to)).isTrue();
+            charge -= EnergyModel.CHARGE_PER_MOVE;
+            if (charge < 0) return -1;
+        }
+        return charge;
+    }
+
+    @Test
+    void testTripWithinChargeNeedsNoStop() {
+        int moves = moves(4, 35, 35, 2);
+
+        EnergyRoute route = router.findRoute(4, 35, 35, 2, 90, 10);
+
+        assertThat(route.chargingStops).isEmpty();
+        assertThat(route.path).hasSize(moves + 1);
+        assertThat(route.travelTime).isEqualTo(moves * MOVE);
+        assertThat(route.finalCharge).isEqualTo(90 - EnergyModel.energyFor(moves));
+    }
+
+    @Test
+    void testLongTripStopsOnceAtTheFastestStation() {
+        int charge = 40;
+        int rate = 10;
+        assertThat(EnergyModel.energyFor(moves(4, 35, 35, 2))).isGreaterThan(charge);
+
+        EnergyRoute route = router.findRoute(4, 35, 35, 2, charge, rate);
+
+        assertThat(route.chargingStops).hasSize(1);
+        PathNode stop = route.path.get(route.chargingStops.get(0));
+        assertThat(gameMap.getChargingStations())
+                .anyMatch(station -> station.getX() == stop.getX() && station.getY() == stop.getY());
+        assertThat(route.path.get(0).getX()).isEqualTo(4);
+        assertThat(route.path.get(route.path.size() - 1).getY()).isEqualTo(2);
+        assertThat(drive(route, charge)).isEqualTo(route.finalCharge);
+
+        // No single stop at any station is faster
+        long best = Long.MAX_VALUE;
+        for (ChargingStation station : gameMap.getChargingStations()) {
+            int there = moves(4, 35, station.getX(), station.getY());
+            int onward = moves(station.getX(), station.getY(), 35, 2);
+            if (there < 0 || onward < 0 || EnergyModel.energyFor(there) > charge
+                    || EnergyModel.energyFor(onward) > EnergyModel.FULL_CHARGE) continue;
+            long time = (there + onward) * MOVE + EnergyModel.chargingTime(
+                    charge - EnergyModel.energyFor(there), EnergyModel.FULL_CHARGE, rate);
+            best = Math.min(best, time);
+        }
+        assertThat(route.travelTime).isEqualTo(best);
+    }
+
+    @Test
+    void testNoRouteWhenNoStationIsInRange() {
+        EnergyRoute route = router.findRoute(4, 35, 35, 2, 2, 10);
+
+        assertThat(route.path).isEmpty();
+        assertThat(route.travelTime).isEqualTo(-1L);
+    }
+
+    @Test
+    void testNoRouteForAVehicleThatCannotCharge() {
+        EnergyRoute route = router.findRoute(4, 35, 35, 2, 40, 0);
+
+        assertThat(route.path).isEmpty();
+        assertThat(route.chargingStops).isEmpty();
+    }
+}
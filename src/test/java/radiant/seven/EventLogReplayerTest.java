@@ -0,0 +1,107 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+class EventLogReplayerTest {
+
+    private static final long SEED = 7;
+
+    private GameMap gameMap;
+    private int[][] savedSignals;
+    private long savedSignalChange;
+    private Node closed;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        savedSignals = SimulationEngine.signalStates(gameMap);
+        savedSignalChange = TrafficManager.getNextSignalChangeTime();
+        SimulationClock.useSimulatedTime(() -> 0L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (closed != null) {
+            IncidentManager.getInstance().reopen(closed.x, closed.y, null, null);
+        }
+        SimulationEngine.install(null);
+        // The engines leave their vehicles' cells marked as occupied
+        for (int id = 0; id < gameMap.getGraph().nodeCount(); id++) {
+            gameMap.getNode(id).setStalled(false);
+        }
+        for (int i = 0; i < savedSignals[0].length; i++) {
+            ((TrafficNode) gameMap.getNode(savedSignals[0][i])).setSignal(savedSignals[1][i]);
+        }
+        TrafficManager.setNextSignalChangeTime(savedSignalChange);
+        SimulationClock.useWallClock();
+    }
+
+    // Records a seeded run with spawns, a closure, a forced signal change and a retirement
+    private byte[] record(int vehicles) throws Exception {
+        int[][] signals = SimulationEngine.signalStates(gameMap);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventLog log = new EventLog(out, SEED, gameMap.getGraph().nodeCount(), signals[0], signals[1]);
+        SimulationEngine engine = new SimulationEngine(gameMap, SEED, log);
+        SimulationEngine.install(engine);
+
+        PathfindingVisualizer pathfinder = new PathfindingVisualizer(gameMap);
+        Random random = engine.getSpawnRandom();
+        List<Node> nodes = new ArrayList<>(gameMap.getRoadNetwork().values());
+        nodes.sort(Comparator.comparingInt((Node n) -> n.x).thenComparingInt(n -> n.y));
+        for (int i = 0; i < vehicles; i++) {
+            Node start = nodes.get(random.nextInt(nodes.size()));
+            Node end = nodes.get(random.nextInt(nodes.size()));
+            EV ev = i % 3 == 0 ? new EV(start.x, start.y, 1, 30, 10, "sedan") : new NPCVehicle(start.x, start.y, "van");
+            ev.setEndLocation(end.x, end.y);
+            List<PathNode> path = pathfinder.findRoute(start.x, start.y, end.x, end.y);
+            if (path.isEmpty()) continue;
+            ev.setPath(path);
+            ev.setMoving(true);
+            if (ev instanceof NPCVehicle && i % 5 == 1) {
+                // Arrives with a stream of its own, as after a checkpoint restore or a shard hand-off
+                ((NPCVehicle) ev).seedRandom(SEED * 31 + i);
+            }
+            engine.spawn(ev);
+        }
+        engine.runTicks(40);
+        closed = nodes.get(200);
+        IncidentManager.getInstance().close(closed.x, closed.y, null, null);
+        engine.runTicks(20);
+        engine.forceSignalChange();
+        engine.retire(engine.getVehicles().get(3));
+        engine.runTicks(40);
+        IncidentManager.getInstance().reopen(closed.x, closed.y, null, null);
+        closed = null;
+        engine.runTicks(40);
+        log.flush();
+        return out.toByteArray();
+    }
+
+    @Test
+    void testResimulationReproducesTheLog() throws Exception {
+        byte[] recorded = record(300);
+
+        byte[] resimulated = EventLogReplayer.resimulate(gameMap, recorded, 1);
+
+        assertThat(recorded.length).isGreaterThan(1000);
+        assertThat(resimulated).containsExactly(recorded);
+    }
+
+    @Test
+    void testResimulationOnRegionsReproducesTheLog() throws Exception {
+        byte[] recorded = record(300);
+
+        byte[] resimulated = EventLogReplayer.resimulate(gameMap, recorded, 4);
+
+        assertThat(resimulated).containsExactly(recorded);
+    }
+}
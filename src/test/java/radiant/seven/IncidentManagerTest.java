@@ -0,0 +1,98 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static radiant.seven.RouteFixtures.CLOSED_X;
+import static radiant.seven.RouteFixtures.CLOSED_Y;
+import static radiant.seven.RouteFixtures.vehicleOn;
+
+import java.util.List;
+
+class IncidentManagerTest {
+
+    private GameMap gameMap;
+    private IncidentManager incidents;
+    private PathfindingVisualizer pathfinder;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        incidents = IncidentManager.getInstance();
+        pathfinder = new PathfindingVisualizer(gameMap);
+        EVController.evMap.clear();
+        RouteCache.getInstance().clear(gameMap.getGraph());
+    }
+
+    @AfterEach
+    void tearDown() {
+        incidents.reopen(CLOSED_X, CLOSED_Y, null, null);
+        EVController.evMap.clear();
+    }
+
+    private static int indexOf(List<PathNode> path, int x, int y) {
+        for (int i = 0; i < path.size(); i++) {
+            if (path.get(i).getX() == x && path.get(i).getY() == y) return i;
+        }
+        return -1;
+    }
+
+    @Test
+    void testEarlierSnapshotsAreUnaffected() {
+        RoadGraph before = gameMap.getGraph();
+        int closed = before.nodeId(CLOSED_X, CLOSED_Y);
+        int from = before.nodeId(CLOSED_X, CLOSED_Y + 1);
+        int[] routeBefore = before.shortestPath(before.nodeId(4, 35), before.nodeId(35, 2));
+
+        ClosureResult result = incidents.close(CLOSED_X, CLOSED_Y, null, null);
+        RoadGraph after = gameMap.getGraph();
+
+        assertThat(result.version).isEqualTo(before.getVersion() + 1);
+        assertThat(after.isEdgeOpen(from, closed)).isFalse();
+        assertThat(before.isEdgeOpen(from, closed)).isTrue();
+        assertThat(before.isCellClosed(closed)).isFalse();
+        assertThat(before.shortestPath(before.nodeId(4, 35), before.nodeId(35, 2))).containsExactly(routeBefore);
+    }
+
+    @Test
+    void testClosureInvalidatesOnlyCachedRoutesThatCrossIt() {
+        RoadGraph graph = gameMap.getGraph();
+        List<PathNode> crossing = pathfinder.findRoute(4, 35, 35, 2);
+        List<PathNode> clear = pathfinder.findRoute(2, 2, 2, 20);
+        assertThat(indexOf(crossing, CLOSED_X, CLOSED_Y)).isPositive();
+        assertThat(indexOf(clear, CLOSED_X, CLOSED_Y)).isEqualTo(-1);
+
+        ClosureResult result = incidents.close(CLOSED_X, CLOSED_Y, null, null);
+
+        assertThat(result.invalidatedRoutes).isEqualTo(1);
+        RouteCache cache = RouteCache.getInstance();
+        assertThat(cache.get(gameMap.getGraph(), graph.nodeId(4, 35), graph.nodeId(35, 2))).isNull();
+        assertThat(cache.get(gameMap.getGraph(), graph.nodeId(2, 2), graph.nodeId(2, 20))).isSameAs(clear);
+        assertThat(indexOf(pathfinder.findRoute(4, 35, 35, 2), CLOSED_X, CLOSED_Y)).isEqualTo(-1);
+    }
+
+    @Test
+    void testOnlyVehiclesWhoseRemainingPathCrossesTheClosureAreRerouted() {
+        List<PathNode> route = pathfinder.findRoute(4, 35, 35, 2);
+        int closedIndex = indexOf(route, CLOSED_X, CLOSED_Y);
+        EV approaching = vehicleOn("Approaching", route, 3, 100);
+        EV past = vehicleOn("Past", route, closedIndex + 2, 100);
+        EV elsewhere = vehicleOn("Elsewhere", pathfinder.findRoute(2, 2, 2, 20), 0, 100);
+        List<PathNode> pastPath = past.getPath();
+        List<PathNode> elsewherePath = elsewhere.getPath();
+
+        ClosureResult result = incidents.close(CLOSED_X, CLOSED_Y, null, null);
+
+        assertThat(result.reroutedVehicles).containsExactly("Approaching");
+        assertThat(approaching.getCurrentPathIndex()).isZero();
+        assertThat(approaching.getCurrentX()).isEqualTo(route.get(3).getX());
+        assertThat(approaching.getCurrentY()).isEqualTo(route.get(3).getY());
+        assertThat(indexOf(approaching.getPath(), CLOSED_X, CLOSED_Y)).isEqualTo(-1);
+        assertThat(approaching.getLastNotification()).contains("Rerouted");
+        assertThat(past.getPath()).isSameAs(pastPath);
+        assertThat(past.getCurrentPathIndex()).isEqualTo(closedIndex + 2);
+        assertThat(elsewhere.getPath()).isSameAs(elsewherePath);
+        assertThat(past.getLastNotification()).isNull();
+    }
+}
@@ -0,0 +1,114 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MapTilesTest {
+
+    private GameMap gameMap;
+    private int[] edge; // {fromX, fromY, toX, toY} of a road edge
+    private int[] cell; // {x, y} of a road cell
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        RoadGraph graph = gameMap.getGraph();
+        int from = graph.nodeId(28, 20);
+        int to = graph.edgeTarget(graph.edgeStart(from));
+        edge = new int[]{graph.x(from), graph.y(from), graph.x(to), graph.y(to)};
+        cell = new int[]{graph.x(from), graph.y(from)};
+    }
+
+    @AfterEach
+    void tearDown() {
+        gameMap.reopenEdge(edge[0], edge[1], edge[2], edge[3]);
+        gameMap.reopenCell(cell[0], cell[1]);
+        RouteCache.getInstance().clear(gameMap.getGraph());
+    }
+
+    @Test
+    void testEveryRoadCellIsInTheTileCoveringIt() {
+        MapTiles tiles = MapTiles.getInstance();
+        RoadGraph graph = gameMap.getGraph();
+
+        int cells = 0;
+        for (int tx = 0; tx < tiles.getRows(); tx++) {
+            for (int ty = 0; ty < tiles.getCols(); ty++) {
+                MapTile tile = tiles.getTile(tx, ty);
+                assertThat(tile.tileX).isEqualTo(tx);
+                assertThat(tile.tileY).isEqualTo(ty);
+                assertThat(tile.binary()[0]).isEqualTo((byte) MapTiles.BINARY_FORMAT);
+                for (RoadNode road : tile.roads) {
+                    assertThat((road.getX() - 1) / MapTiles.TILE_SIZE).isEqualTo(tx);
+                    assertThat((road.getY() - 1) / MapTiles.TILE_SIZE).isEqualTo(ty);
+                    assertThat(graph.nodeId(road.getX(), road.getY())).isNotNegative();
+                    cells++;
+                }
+            }
+        }
+        assertThat(cells).isEqualTo(graph.nodeCount());
+        assertThat(tiles.getTile(tiles.getRows(), 0)).isNull();
+        assertThat(tiles.getTile(0, tiles.getCols())).isNull();
+        assertThat(tiles.getTile(-1, 0)).isNull();
+    }
+
+    @Test
+    void testClosedEdgesChangeTheKeyButNotTheTiles() {
+        MapTiles before = MapTiles.getInstance();
+        MapTile tile = before.getTile(0, 0);
+
+        gameMap.closeEdge(edge[0], edge[1], edge[2], edge[3]);
+        MapTiles closed = MapTiles.getInstance();
+
+        assertThat(closed.getVersion()).isNotEqualTo(before.getVersion());
+        assertThat(closed.getContentKey()).isNotEqualTo(before.getContentKey());
+        assertThat(closed.getTile(0, 0).jsonETag()).isEqualTo(tile.jsonETag());
+        assertThat(closed.getTile(0, 0).binaryETag()).isEqualTo(tile.binaryETag());
+
+        gameMap.reopenEdge(edge[0], edge[1], edge[2], edge[3]);
+        assertThat(MapTiles.getInstance().getContentKey()).isEqualTo(before.getContentKey());
+    }
+
+    @Test
+    void testClosingACellChangesOnlyItsTile() {
+        MapTiles before = MapTiles.getInstance();
+        int tx = (cell[0] - 1) / MapTiles.TILE_SIZE;
+        int ty = (cell[1] - 1) / MapTiles.TILE_SIZE;
+        int otherX = tx == 0 ? 1 : 0;
+        String eTag = before.getTile(tx, ty).jsonETag();
+        String otherETag = before.getTile(otherX, ty).jsonETag();
+
+        gameMap.closeCell(cell[0], cell[1]);
+        MapTiles closed = MapTiles.getInstance();
+
+        assertThat(closed.getTile(tx, ty).jsonETag()).isNotEqualTo(eTag);
+        assertThat(closed.getTile(tx, ty).closed).hasSize(1);
+        assertThat(closed.getTile(otherX, ty).jsonETag()).isEqualTo(otherETag);
+
+        gameMap.reopenCell(cell[0], cell[1]);
+        assertThat(MapTiles.getInstance().getTile(tx, ty).jsonETag()).isEqualTo(eTag);
+    }
+
+    @Test
+    void testMatchingETagsAreNotModified() {
+        PathController controller = new PathController(new SimulationProperties(), new RoutingExecutor(0, 64, 5000));
+        MapTile tile = MapTiles.getInstance().getTile(0, 0);
+
+        ResponseEntity<?> fresh = controller.getMapTile(0, 0, "json", null, null);
+        ResponseEntity<?> unchanged = controller.getMapTile(0, 0, "json", null, tile.jsonETag());
+        ResponseEntity<?> otherFormat = controller.getMapTile(0, 0, "binary", null, tile.jsonETag());
+        ResponseEntity<?> outside = controller.getMapTile(-1, 0, "json", null, null);
+
+        assertThat(fresh.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(fresh.getHeaders().getETag()).isEqualTo(tile.jsonETag());
+        assertThat(unchanged.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(unchanged.getHeaders().getETag()).isEqualTo(tile.jsonETag());
+        assertThat(otherFormat.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(otherFormat.getHeaders().getETag()).isEqualTo(tile.binaryETag());
+        assertThat(outside.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+}
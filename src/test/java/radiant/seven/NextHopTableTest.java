@@ -0,0 +1,133 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static radiant.seven.RouteFixtures.CLOSED_X;
+import static radiant.seven.RouteFixtures.CLOSED_Y;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class NextHopTableTest {
+
+    private GameMap gameMap;
+    private RoadGraph graph;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        graph = gameMap.getGraph();
+    }
+
+    @AfterEach
+    void tearDown() {
+        NextHopTable.disable();
+        SimulationEngine.install(null);
+        gameMap.reopenCell(CLOSED_X, CLOSED_Y);
+        RouteCache.getInstance().clear(gameMap.getGraph());
+    }
+
+    // A grid of two-way roads, size by size cells
+    private static RoadGraph grid(int size) {
+        Node[][] cells = new Node[size][size];
+        List<Node> nodes = new ArrayList<>();
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                cells[x][y] = new Node(x + 1, y + 1, "road");
+                nodes.add(cells[x][y]);
+            }
+        }
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                if (x > 0) cells[x][y].neighbors.add(cells[x - 1][y]);
+                if (x < size - 1) cells[x][y].neighbors.add(cells[x + 1][y]);
+                if (y > 0) cells[x][y].neighbors.add(cells[x][y - 1]);
+                if (y < size - 1) cells[x][y].neighbors.add(cells[x][y + 1]);
+            }
+        }
+        return RoadGraph.build(nodes, size, size);
+    }
+
+    private static void assertShortestRoute(RoadGraph graph, int[] route, int from, int to) {
+        assertThat(route.length).isEqualTo(graph.shortestPath(from, to).length);
+        assertThat(route[0]).isEqualTo(from);
+        assertThat(route[route.length - 1]).isEqualTo(to);
+        for (int i = 1; i < route.length; i++) {
+            assertThat(graph.isEdgeOpen(route[i - 1], route[i])).isTrue();
+        }
+    }
+
+    private int[] routeAcrossTheClosure(RoadGraph graph) {
+        return NextHopTable.route(graph, graph.nodeId(4, 35), graph.nodeId(35, 2));
+    }
+
+    private static boolean crosses(RoadGraph graph, int[] route) {
+        for (int node : route) {
+            if (graph.x(node) == CLOSED_X && graph.y(node) == CLOSED_Y) return true;
+        }
+        return false;
+    }
+
+    @Test
+    void testWalksAreTheRoutesTheSearchFinds() {
+        NextHopTable table = NextHopTable.build(graph, 2);
+
+        for (int from = 0; from < graph.nodeCount(); from += 7) {
+            for (int to = 0; to < graph.nodeCount(); to += 3) {
+                assertThat(table.walk(from, to)).containsExactly(graph.shortestPath(from, to));
+            }
+        }
+        assertThat(table.walk(5, 5)).containsExactly(5);
+        assertThat(table.isOffHeap()).isFalse();
+    }
+
+    @Test
+    void testDeterministicRoutesAreTheSameWithTheTable() {
+        SimulationEngine.install(new SimulationEngine(gameMap, 1, null));
+        PathfindingVisualizer pathfinder = new PathfindingVisualizer(gameMap);
+        PackedPath searched = pathfinder.findRoute(2, 2, 35, 2);
+        RouteCache.getInstance().clear(graph);
+        assertThat(NextHopTable.enable(gameMap, NextHopTable.DEFAULT_MAX_NODES)).isTrue();
+        long walks = NextHopTable.getWalks();
+
+        PackedPath walked = pathfinder.findRoute(2, 2, 35, 2);
+
+        assertThat(NextHopTable.getWalks() - walks).isEqualTo(1L);
+        assertThat(walked.toCoordinates()).isEqualTo(searched.toCoordinates());
+        assertThat(routeAcrossTheClosure(graph))
+                .containsExactly(graph.shortestPath(graph.nodeId(4, 35), graph.nodeId(35, 2)));
+    }
+
+    @Test
+    void testClosureRebuildsTheTableInTheBackground() throws Exception {
+        assertThat(NextHopTable.enable(gameMap, NextHopTable.DEFAULT_MAX_NODES)).isTrue();
+
+        RoadGraph closed = gameMap.closeCell(CLOSED_X, CLOSED_Y);
+        int[] route = routeAcrossTheClosure(closed);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (route == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            route = routeAcrossTheClosure(closed);
+        }
+
+        assertThat(route).isNotNull();
+        assertThat(crosses(closed, route)).isFalse();
+        assertThat(NextHopTable.getInstance().getVersion()).isEqualTo(closed.getVersion());
+    }
+
+    @Test
+    void testLargeTablesAreOffHeap() {
+        RoadGraph large = grid(46);
+        assertThat(large.nodeCount()).isGreaterThan(NextHopTable.HEAP_MAX_NODES);
+
+        NextHopTable table = NextHopTable.build(large, 0);
+
+        assertThat(table.isOffHeap()).isTrue();
+        assertThat(table.memoryBytes()).isEqualTo(2L * large.nodeCount() * large.nodeCount());
+        int corner = large.nodeId(46, 46);
+        assertShortestRoute(large, table.walk(0, corner), 0, corner);
+        assertThat(table.walk(0, corner)).hasSize(91);
+    }
+}
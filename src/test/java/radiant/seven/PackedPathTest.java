@@ -0,0 +1,111 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class PackedPathTest {
+
+    private RoadGraph graph;
+
+    @BeforeEach
+    void setUp() {
+        graph = GameMap.getInstance().getGraph();
+    }
+
+    // Node ids of the map in a random order, so deltas are large and of either sign
+    private int[] randomNodes(int length, long seed) {
+        Random random = new Random(seed);
+        int[] nodes = new int[length];
+        for (int i = 0; i < length; i++) {
+            nodes[i] = random.nextInt(graph.nodeCount());
+        }
+        return nodes;
+    }
+
+    private void assertRoundTrip(int[] nodes) {
+        PackedPath path = PackedPath.of(graph, nodes);
+
+        assertThat(path).hasSize(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            assertThat(path.node(i)).isEqualTo(nodes[i]);
+        }
+        int[] copy = new int[nodes.length + 2];
+        path.copyTo(copy, 2);
+        for (int i = 0; i < nodes.length; i++) {
+            assertThat(copy[i + 2]).isEqualTo(nodes[i]);
+        }
+        assertThat(path.nodes()).containsExactly(nodes);
+
+        long[] coords = path.toCoordinates();
+        assertThat(coords).hasSize(2 * nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            assertThat(coords[2 * i]).isEqualTo((long) graph.x(nodes[i]));
+            assertThat(coords[2 * i + 1]).isEqualTo((long) graph.y(nodes[i]));
+            assertThat(path.get(i).getX()).isEqualTo(graph.x(nodes[i]));
+        }
+        assertThat(PackedPath.fromCoordinates(graph, coords).nodes()).containsExactly(nodes);
+    }
+
+    @Test
+    void testShortRoutesRoundTrip() {
+        assertRoundTrip(randomNodes(1, 1));
+        assertRoundTrip(randomNodes(17, 2));
+        assertRoundTrip(randomNodes(PackedPath.DELTA_MIN_LENGTH - 1, 3));
+    }
+
+    @Test
+    void testRoutesAroundTheDeltaThresholdRoundTrip() {
+        assertRoundTrip(randomNodes(PackedPath.DELTA_MIN_LENGTH, 4));
+        assertRoundTrip(randomNodes(PackedPath.DELTA_MIN_LENGTH + 1, 5));
+    }
+
+    @Test
+    void testLongRoutesRoundTrip() {
+        assertRoundTrip(randomNodes(1000, 6));
+        assertRoundTrip(graph.shortestPath(graph.nodeId(4, 35), graph.nodeId(35, 2)));
+    }
+
+    @Test
+    void testDeltaEncodingShrinksRoadRoutes() {
+        // Neighbouring cells: most deltas fit in one byte
+        int[] road = graph.shortestPath(graph.nodeId(4, 35), graph.nodeId(35, 2));
+        assertThat(road.length).isGreaterThanOrEqualTo(PackedPath.DELTA_MIN_LENGTH);
+
+        assertThat(PackedPath.of(graph, road).memoryBytes()).isLessThan(16 + 4L * road.length);
+    }
+
+    @Test
+    void testMultiByteDeltasOfEitherSignDecode() {
+        // Ids far apart need varints of up to five bytes; only node() and copyTo() are used
+        int[] nodes = new int[130];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = i % 2 == 0 ? i : Integer.MAX_VALUE - i * 1_000_003;
+        }
+        PackedPath path = PackedPath.of(null, nodes);
+
+        for (int i = 0; i < nodes.length; i++) {
+            assertThat(path.node(i)).isEqualTo(nodes[i]);
+        }
+        assertThat(path.nodes()).containsExactly(nodes);
+    }
+
+    @Test
+    void testListsArePackedOnceAndOutOfRangeIndicesAreRejected() {
+        List<PathNode> cells = new ArrayList<>();
+        for (int y = 2; y <= 20; y++) {
+            cells.add(new PathNode(2, y));
+        }
+        PackedPath path = PackedPath.of(graph, cells);
+
+        assertThat(PackedPath.of(graph, path)).isSameAs(path);
+        assertThat(path.get(18).getY()).isEqualTo(20);
+        assertThat(PackedPath.of(graph, new int[0])).isSameAs(PackedPath.EMPTY);
+        assertThatThrownBy(() -> path.node(19)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+}
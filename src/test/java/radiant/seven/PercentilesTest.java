@@ -0,0 +1,18 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PercentilesTest {
+
+    @Test
+    void testNearestRankPercentiles() {
+        long[] sorted = {10, 20, 30, 40, 50, 60, 70, 80, 90, 100};
+
+        assertThat(Percentiles.nearestRank(sorted, 0.50)).isEqualTo(50);
+        assertThat(Percentiles.nearestRank(sorted, 0.91)).isEqualTo(100);
+        assertThat(Percentiles.nearestRank(sorted, 1.0)).isEqualTo(100);
+        assertThat(Percentiles.nearestRank(sorted, 0)).isEqualTo(10);
+        assertThat(Percentiles.nearestRank(new long[0], 0.99)).isZero();
+    }
+}
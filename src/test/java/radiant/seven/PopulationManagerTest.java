@@ -0,0 +1,89 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+class PopulationManagerTest {
+
+    private GameMap gameMap;
+    private VehicleRegistry registry;
+    private PopulationManager population;
+    private AtomicInteger started;
+    private int[] roadCells; // Road cells per region
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        registry = new VehicleRegistry();
+        population = new PopulationManager(gameMap, registry);
+        started = new AtomicInteger();
+        population.setStarter(ev -> started.incrementAndGet());
+        RoadGraph graph = gameMap.getGraph();
+        roadCells = new int[population.regionCount()];
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            roadCells[regionOf(graph.x(node), graph.y(node))]++;
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        population.shutdown();
+        registry.clear();
+    }
+
+    private int regionOf(int x, int y) {
+        int cols = (gameMap.getWidth() + PopulationManager.REGION_SIZE - 1) / PopulationManager.REGION_SIZE;
+        return ((x - 1) / PopulationManager.REGION_SIZE) * cols + (y - 1) / PopulationManager.REGION_SIZE;
+    }
+
+    // Rebalances until the population is at its target; a drawn trip may have no route
+    private void rebalanceAt(double density) {
+        population.setDensity(density);
+        for (int pass = 0; pass < 10 && population.getStatus().current != population.getStatus().target; pass++) {
+            population.rebalance();
+        }
+    }
+
+    // Checks that every region holds its target number of NPCs
+    private void assertAtDensity(double density) {
+        int[] present = new int[roadCells.length];
+        for (EV ev : registry.snapshot()) {
+            present[regionOf(ev.getCurrentX(), ev.getCurrentY())]++;
+        }
+        for (int r = 0; r < roadCells.length; r++) {
+            assertThat(present[r]).isEqualTo((int) Math.round(density * roadCells[r]));
+        }
+        assertThat(population.getStatus().current).isEqualTo(registry.size());
+    }
+
+    @Test
+    void testEveryRegionConvergesUpAndDownToTheDensity() {
+        rebalanceAt(0.3);
+        assertAtDensity(0.3);
+        assertThat(started.get()).isEqualTo(registry.size());
+
+        rebalanceAt(0.1);
+        assertAtDensity(0.1);
+        assertThat(population.getStatus().retired).isPositive();
+
+        rebalanceAt(0.2);
+        assertAtDensity(0.2);
+        assertThat(population.getStatus().target).isEqualTo(registry.size());
+    }
+
+    @Test
+    void testOneRebalanceNeverSpawnsTwoNPCsOnACell() {
+        population.setDensity(1);
+        population.rebalance();
+
+        long cells = registry.snapshot().stream()
+                .mapToInt(ev -> gameMap.getGraph().nodeId(ev.getCurrentX(), ev.getCurrentY()))
+                .distinct()
+                .count();
+        assertThat(cells).isEqualTo(registry.size());
+    }
+}
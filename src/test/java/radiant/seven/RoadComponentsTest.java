@@ -0,0 +1,146 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class RoadComponentsTest {
+
+    private RoadGraph graph;
+    private RoadComponents components;
+
+    /*
+     * A two-way square (1, 1) - (1, 2) - (2, 2) - (2, 1) is the main network. From it lead
+     * a one-way chain (1, 2) -> (1, 3) -> (1, 4) ending nowhere, and a one-way road
+     * (2, 2) -> (3, 2) into a two-way pair (3, 2) - (3, 3). A one-way road (4, 1) -> (2, 1)
+     * leads into it, and (4, 4) is not connected at all.
+     */
+    @BeforeEach
+    void setUp() {
+        List<Node> nodes = new ArrayList<>();
+        Node[][] cells = new Node[5][5];
+        int[][] roads = {{1, 1}, {1, 2}, {1, 3}, {1, 4}, {2, 1}, {2, 2}, {3, 2}, {3, 3}, {4, 1}, {4, 4}};
+        for (int[] road : roads) {
+            cells[road[0]][road[1]] = new Node(road[0], road[1], "road");
+            nodes.add(cells[road[0]][road[1]]);
+        }
+        twoWay(cells[1][1], cells[1][2]);
+        twoWay(cells[1][2], cells[2][2]);
+        twoWay(cells[2][2], cells[2][1]);
+        twoWay(cells[2][1], cells[1][1]);
+        cells[1][2].neighbors.add(cells[1][3]);
+        cells[1][3].neighbors.add(cells[1][4]);
+        cells[2][2].neighbors.add(cells[3][2]);
+        twoWay(cells[3][2], cells[3][3]);
+        cells[4][1].neighbors.add(cells[2][1]);
+        graph = RoadGraph.build(nodes, 4, 4);
+        components = RoadComponents.build(graph);
+    }
+
+    private static void twoWay(Node a, Node b) {
+        a.neighbors.add(b);
+        b.neighbors.add(a);
+    }
+
+    private int node(int x, int y) {
+        return graph.nodeId(x, y);
+    }
+
+    private int componentOf(int x, int y) {
+        return components.componentOf(node(x, y));
+    }
+
+    @Test
+    void testComponentsAreStronglyConnectedSetsInReverseTopologicalOrder() {
+        assertThat(components.count()).isEqualTo(6);
+        int main = componentOf(1, 1);
+        assertThat(components.largest()).isEqualTo(main);
+        assertThat(componentOf(1, 2)).isEqualTo(main);
+        assertThat(componentOf(2, 1)).isEqualTo(main);
+        assertThat(componentOf(2, 2)).isEqualTo(main);
+        assertThat(componentOf(3, 3)).isEqualTo(componentOf(3, 2));
+        assertThat(componentOf(1, 3)).isNotEqualTo(componentOf(1, 4));
+
+        // A component is completed after every component it leads to
+        assertThat(componentOf(4, 1)).isGreaterThan(main);
+        assertThat(main).isGreaterThan(componentOf(1, 3));
+        assertThat(componentOf(1, 3)).isGreaterThan(componentOf(1, 4));
+        assertThat(main).isGreaterThan(componentOf(3, 2));
+    }
+
+    @Test
+    void testOneWayChainsAreReachableOnlyDownstream() {
+        assertThat(components.canReach(node(1, 1), node(1, 4))).isTrue();
+        assertThat(components.canReach(node(1, 3), node(1, 4))).isTrue();
+        assertThat(components.canReach(node(1, 4), node(1, 3))).isFalse();
+        assertThat(components.canReach(node(1, 4), node(1, 1))).isFalse();
+        assertThat(components.canReach(node(4, 1), node(3, 3))).isTrue();
+        assertThat(components.canReach(node(3, 3), node(3, 2))).isTrue();
+        // Lower component id, but in another branch
+        assertThat(components.canReach(node(3, 3), node(1, 4))).isFalse();
+        assertThat(components.canReach(node(1, 3), node(3, 2))).isFalse();
+        assertThat(components.canReach(node(4, 4), node(1, 1))).isFalse();
+        assertThat(components.canReach(node(4, 4), node(4, 4))).isTrue();
+    }
+
+    @Test
+    void testValidationFlagsDeadEndsTrapsAndUnreachableCells() {
+        MapValidationReport report = components.validate(graph);
+
+        assertThat(report.isValid()).isFalse();
+        assertThat(report.nodes).isEqualTo(10);
+        assertThat(report.edges).isEqualTo(14);
+        assertThat(report.mainComponentSize).isEqualTo(4);
+        assertThat(report.deadEnds).isEqualTo(2);
+        assertThat(report.traps).isEqualTo(3);
+        assertThat(report.unreachable).isEqualTo(2);
+        List<String> issues = new ArrayList<>();
+        for (MapIssue issue : report.issues) {
+            issues.add(issue.x + "," + issue.y + " " + issue.kind);
+        }
+        assertThat(issues).containsExactly(
+                "1,3 " + MapIssue.TRAP,
+                "1,4 " + MapIssue.DEAD_END,
+                "3,2 " + MapIssue.TRAP,
+                "3,3 " + MapIssue.TRAP,
+                "4,1 " + MapIssue.UNREACHABLE,
+                "4,4 " + MapIssue.DEAD_END,
+                "4,4 " + MapIssue.UNREACHABLE);
+    }
+
+    @Test
+    void testLongOneWayRoadsWithoutStoredReachability() {
+        // One component per cell, more than reachability is stored for
+        int length = RoadComponents.MAX_CLOSURE_COMPONENTS + 1000;
+        List<Node> nodes = new ArrayList<>();
+        for (int y = 1; y <= length; y++) {
+            Node cell = new Node(1, y, "road");
+            if (y > 1) nodes.get(y - 2).neighbors.add(cell);
+            nodes.add(cell);
+        }
+        RoadGraph road = RoadGraph.build(nodes, length, 1);
+
+        RoadComponents chain = RoadComponents.build(road);
+        MapValidationReport report = chain.validate(road);
+
+        assertThat(chain.count()).isEqualTo(length);
+        assertThat(chain.canReach(road.nodeId(1, 1), road.nodeId(1, length))).isTrue();
+        assertThat(chain.canReach(road.nodeId(1, length), road.nodeId(1, 1))).isFalse();
+        // The main component is the last cell: everything leads to it, nothing comes back
+        assertThat(chain.componentOf(road.nodeId(1, length))).isEqualTo(chain.largest());
+        assertThat(report.deadEnds).isEqualTo(1);
+        assertThat(report.traps).isZero();
+        assertThat(report.unreachable).isEqualTo(length - 1);
+    }
+
+    @Test
+    void testBundledMapIsOneComponent() {
+        GameMap gameMap = GameMap.getInstance();
+
+        assertThat(gameMap.getComponents().count()).isEqualTo(1);
+        assertThat(gameMap.getComponents().validate(gameMap.getGraph()).isValid()).isTrue();
+    }
+}
@@ -0,0 +1,47 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.BitSet;
+import java.util.Collections;
+
+class RoadGraphTest {
+
+    // Counts the edges from one node to another
+    private static int edges(RoadGraph graph, int from, int to) {
+        int count = 0;
+        for (int e = graph.edgeStart(from); e < graph.edgeEnd(from); e++) {
+            if (graph.edgeTarget(e) == to) count++;
+        }
+        return count;
+    }
+
+    @Test
+    void testTheReverseTurnsAroundEveryOpenEdge() {
+        RoadGraph base = GameMap.getInstance().getGraph();
+        BitSet closed = new BitSet();
+        closed.set(base.nodeId(28, 20));
+        RoadGraph graph = base.withClosures(Collections.emptySet(), closed);
+
+        RoadGraph reverse = graph.reverse();
+
+        assertThat(graph.reverse()).isSameAs(reverse);
+        assertThat(reverse.nodeCount()).isEqualTo(graph.nodeCount());
+        assertThat(reverse.getVersion()).isEqualTo(graph.getVersion());
+        int total = 0;
+        for (int u = 0; u < graph.nodeCount(); u++) {
+            assertThat(reverse.x(u)).isEqualTo(graph.x(u));
+            assertThat(reverse.y(u)).isEqualTo(graph.y(u));
+            for (int e = graph.edgeStart(u); e < graph.edgeEnd(u); e++) {
+                int v = graph.edgeTarget(e);
+                assertThat(edges(reverse, v, u)).isEqualTo(edges(graph, u, v));
+            }
+            total += reverse.edgeEnd(u) - reverse.edgeStart(u);
+        }
+        assertThat(total).isEqualTo(graph.edgeEnd(graph.nodeCount() - 1));
+        // Nothing leads out of the closed cell once turned around
+        int cell = base.nodeId(28, 20);
+        assertThat(reverse.edgeEnd(cell) - reverse.edgeStart(cell)).isZero();
+    }
+}
@@ -0,0 +1,145 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+class RouteCacheTest {
+
+    private static final int FOLLOWERS = 4;
+
+    private RoadGraph graph;
+    private RouteCache cache;
+    private ExecutorService callers;
+    private int start;
+    private int end;
+    private final CountDownLatch searching = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger searchesRun = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        graph = GameMap.getInstance().getGraph();
+        cache = RouteCache.getInstance();
+        cache.clear(graph);
+        callers = Executors.newFixedThreadPool(FOLLOWERS + 1);
+        start = graph.nodeId(4, 35);
+        end = graph.nodeId(35, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        callers.shutdownNow();
+        cache.clear(graph);
+    }
+
+    // A search that waits for the test before returning, or failing with, its result
+    private Supplier<PackedPath> blockedSearch(RuntimeException failure) {
+        return () -> {
+            searchesRun.incrementAndGet();
+            searching.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) throw failure;
+            return PackedPath.of(graph, graph.shortestPath(start, end));
+        };
+    }
+
+    // Starts the leader's search, then followers that must wait for it
+    private List<Future<PackedPath>> loadConcurrently(RuntimeException failure) throws Exception {
+        List<Future<PackedPath>> results = new ArrayList<>();
+        long coalescedBefore = cache.getCoalesced();
+        results.add(callers.submit(() -> cache.load(graph, start, end, blockedSearch(failure))));
+        assertThat(searching.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < FOLLOWERS; i++) {
+            results.add(callers.submit(() -> cache.load(graph, start, end, blockedSearch(failure))));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getCoalesced() - coalescedBefore < FOLLOWERS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        return results;
+    }
+
+    @Test
+    void testConcurrentLookupsShareOneSearch() throws Exception {
+        long searches = cache.getSearches();
+        long coalesced = cache.getCoalesced();
+        long hits = cache.getHits();
+
+        List<Future<PackedPath>> results = loadConcurrently(null);
+
+        PackedPath route = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<PackedPath> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isSameAs(route);
+        }
+        assertThat(searchesRun.get()).isEqualTo(1);
+        assertThat(cache.getSearches() - searches).isEqualTo(1L);
+        assertThat(cache.getCoalesced() - coalesced).isEqualTo((long) FOLLOWERS);
+        assertThat(cache.load(graph, start, end, blockedSearch(null))).isSameAs(route);
+        assertThat(cache.getHits() - hits).isEqualTo(1L);
+    }
+
+    @Test
+    void testFailedSearchFailsEveryWaiterAndIsNotCached() throws Exception {
+        IllegalStateException failure = new IllegalStateException("search failed");
+
+        List<Future<PackedPath>> results = loadConcurrently(failure);
+
+        for (Future<PackedPath> result : results) {
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+        }
+        assertThat(searchesRun.get()).isEqualTo(1);
+        assertThat(cache.get(graph, start, end)).isNull();
+        // The next lookup searches again
+        assertThat(cache.load(graph, start, end, () -> PackedPath.of(graph, graph.shortestPath(start, end))))
+                .hasSize(graph.shortestPath(start, end).length);
+    }
+
+    @Test
+    void testFollowerSearchesItselfAfterTheTimeout() throws Exception {
+        cache.setFollowerTimeout(50);
+        try {
+            Future<PackedPath> leader = callers.submit(() -> cache.load(graph, start, end, blockedSearch(null)));
+            assertThat(searching.await(5, TimeUnit.SECONDS)).isTrue();
+
+            PackedPath own = PackedPath.of(graph, graph.shortestPath(start, end));
+            assertThat(cache.load(graph, start, end, () -> own)).isSameAs(own);
+
+            release.countDown();
+            assertThat(leader.get(5, TimeUnit.SECONDS)).isNotNull();
+        } finally {
+            cache.setFollowerTimeout(RouteCache.DEFAULT_FOLLOWER_TIMEOUT_MILLIS);
+        }
+    }
+
+    @Test
+    void testLookupOnAnotherGraphVersionBypassesTheCache() {
+        PackedPath cached = cache.load(graph, start, end, () -> PackedPath.of(graph, graph.shortestPath(start, end)));
+        RoadGraph newer = graph.withClosures(Collections.emptySet(), new BitSet());
+
+        PackedPath searched = PackedPath.of(newer, newer.shortestPath(start, end));
+        assertThat(cache.get(newer, start, end)).isNull();
+        assertThat(cache.load(newer, start, end, () -> searched)).isSameAs(searched);
+        assertThat(cache.get(graph, start, end)).isSameAs(cached);
+    }
+}
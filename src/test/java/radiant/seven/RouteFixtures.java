@@ -0,0 +1,36 @@
+package radiant.seven;
+
+import java.util.List;
+
+/**
+ * Map cells and vehicles shared by the tests that close cells and reroute.
+ */
+final class RouteFixtures {
+
+    // Lies on the shortest route from (4, 35) to (35, 2), which has a detour of the same length around it
+    static final int CLOSED_X = 28;
+    static final int CLOSED_Y = 20;
+
+    private RouteFixtures() {
+    }
+
+    /**
+     * Registers an EV standing on a node of its path, headed for the path's end.
+     * Callers clear EVController.evMap in their tear-down.
+     *
+     * @param pathIndex Index of the node the EV stands on.
+     * @param charge The EV's charge.
+     * @return The EV, not moving.
+     */
+    static EV vehicleOn(String name, List<PathNode> path, int pathIndex, int charge) {
+        PathNode at = path.get(pathIndex);
+        EV ev = new EV(at.getX(), at.getY(), 1, charge, 10, "sedan");
+        ev.setName(name);
+        PathNode end = path.get(path.size() - 1);
+        ev.setEndLocation(end.getX(), end.getY());
+        ev.setPath(path);
+        ev.setCurrentPathIndex(pathIndex);
+        EVController.evMap.register(ev);
+        return ev;
+    }
+}
@@ -0,0 +1,90 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class RoutingExecutorTest {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+    }
+
+    // A search that holds the only routing thread until the test releases it
+    private String blockingSearch() {
+        started.countDown();
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "route";
+    }
+
+    private static void assertUnavailable(ResponseEntity<?> response) {
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(response.getHeaders().getFirst("Retry-After")).isEqualTo("1");
+    }
+
+    @Test
+    void testFullQueueIsRejectedWithRetryAfter() throws Exception {
+        RoutingExecutor routing = new RoutingExecutor(1, 1, 0);
+        CompletableFuture<String> running = routing.submit(this::blockingSearch);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> queued = routing.submit(() -> "queued");
+
+        CompletableFuture<ResponseEntity<String>> rejected = PathController.respond(routing.submit(() -> "rejected"));
+
+        assertUnavailable(rejected.get(5, TimeUnit.SECONDS));
+        assertThat(routing.getStats().rejected).isEqualTo(1L);
+        assertThat(routing.getStats().queued).isEqualTo(1);
+
+        release.countDown();
+        assertThat(PathController.respond(running).get(5, TimeUnit.SECONDS).getBody()).isEqualTo("route");
+        assertThat(PathController.respond(queued).get(5, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void testSlowSearchTimesOutWithRetryAfter() throws Exception {
+        RoutingExecutor routing = new RoutingExecutor(1, 1, 100);
+
+        CompletableFuture<ResponseEntity<String>> response = PathController.respond(routing.submit(this::blockingSearch));
+
+        assertUnavailable(response.get(5, TimeUnit.SECONDS));
+        assertThat(routing.getStats().timedOut).isEqualTo(1L);
+    }
+
+    @Test
+    void testSearchTimedOutInTheQueueNeverRuns() throws Exception {
+        RoutingExecutor routing = new RoutingExecutor(1, 1, 100);
+        routing.submit(this::blockingSearch);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<String> queued = routing.submit(() -> {
+            ran.set(true);
+            return "queued";
+        });
+
+        assertUnavailable(PathController.respond(queued).get(5, TimeUnit.SECONDS));
+        release.countDown();
+        // Once nothing is in flight the thread has taken the dropped search and skipped it
+        long deadline = System.currentTimeMillis() + 5000;
+        while (routing.getStats().inFlight > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(routing.getStats().inFlight).isZero();
+        assertThat(ran.get()).isFalse();
+    }
+}
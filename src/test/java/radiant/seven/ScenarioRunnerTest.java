@@ -0,0 +1,109 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+class ScenarioRunnerTest {
+
+    private static final String SCENARIO = String.join("\n",
+            "# Tiny scenario: a few NPCs, one EV and a closure",
+            "seed,7",
+            "ticks,1000",
+            "npc,20",
+            "population,0.05,50",
+            "ev,EV1,4,35,35,2,100",
+            "close,40,28,20",
+            "reopen,80,28,20",
+            "");
+
+    @TempDir
+    Path dir;
+
+    private GameMap gameMap;
+    private int[][] savedSignals;
+    private long savedSignalChange;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        savedSignals = SimulationEngine.signalStates(gameMap);
+        savedSignalChange = TrafficManager.getNextSignalChangeTime();
+        EVController.evMap.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        // Retired through the engine while it is installed, which frees their cells
+        EVController.evMap.clear();
+        SimulationEngine.install(null);
+        NextHopTable.disable();
+        gameMap.reopenCell(28, 20);
+        RouteCache.getInstance().clear(gameMap.getGraph());
+        for (int i = 0; i < savedSignals[0].length; i++) {
+            ((TrafficNode) gameMap.getNode(savedSignals[0][i])).setSignal(savedSignals[1][i]);
+        }
+        TrafficManager.setNextSignalChangeTime(savedSignalChange);
+        SimulationClock.useWallClock();
+    }
+
+    private ScenarioRunner runner(String... options) throws Exception {
+        Path scenario = dir.resolve("tiny.csv");
+        Files.writeString(scenario, SCENARIO);
+        ScenarioRunner runner = new ScenarioRunner(scenario);
+        runner.parse();
+        String[] args = new String[options.length + 1];
+        args[0] = scenario.toString();
+        System.arraycopy(options, 0, args, 1, options.length);
+        assertThat(runner.options(args)).isNull();
+        return runner;
+    }
+
+    private static long value(Map<String, String> summary, String key) {
+        assertThat(summary).containsKey(key);
+        return (long) Double.parseDouble(summary.get(key));
+    }
+
+    @Test
+    void testATinyScenarioReportsItsMetrics() throws Exception {
+        Map<String, String> summary = runner("--ticks", "150").run();
+
+        assertThat(summary.get("seed")).isEqualTo("7");
+        assertThat(value(summary, "ticks")).isEqualTo(150);
+        assertThat(value(summary, "vehicles_placed")).isBetween(2L, 21L);
+        assertThat(value(summary, "vehicle_steps")).isPositive();
+        assertThat(value(summary, "routes")).isPositive();
+        assertThat(value(summary, "route_p50_us")).isLessThanOrEqualTo(value(summary, "route_p99_us"));
+        assertThat(value(summary, "route_p99_us")).isLessThanOrEqualTo(value(summary, "route_max_us"));
+        assertThat(value(summary, "npc_target")).isEqualTo(value(summary, "npc_at_end"));
+        assertThat(value(summary, "npc_spawned")).isPositive();
+        assertThat(summary).containsKey("rebalance_npcs_per_second");
+    }
+
+    @Test
+    void testAllPairsRoutesAreWalksAlongTheTable() throws Exception {
+        long walks = NextHopTable.getWalks();
+
+        Map<String, String> summary = runner("--ticks", "100", "--all-pairs").run();
+
+        assertThat(value(summary, "ticks")).isEqualTo(100);
+        assertThat(value(summary, "vehicle_steps")).isPositive();
+        assertThat(NextHopTable.getWalks()).isGreaterThan(walks);
+    }
+
+    @Test
+    void testUnknownOptionsAreRejected() throws Exception {
+        ScenarioRunner runner = runner();
+
+        assertThatThrownBy(() -> runner.options(new String[]{"tiny.csv", "--fast"}))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(runner.options(new String[]{"tiny.csv", "--out", "summary.txt"})).isEqualTo("summary.txt");
+    }
+}
@@ -0,0 +1,181 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class ShardCoordinatorTest {
+
+    private static final long SEED = 5;
+    private static final long RANDOM_STATE = 123_456_789L; // Not the state any seed gives
+
+    private GameMap gameMap;
+    private int[][] savedSignals;
+    private long savedSignalChange;
+    private final List<Thread> servers = new ArrayList<>();
+    private EVController controller;
+    private ShardCoordinator coordinator;
+    private int[] bands;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        gameMap = GameMap.getInstance();
+        savedSignals = SimulationEngine.signalStates(gameMap);
+        savedSignalChange = TrafficManager.getNextSignalChangeTime();
+        EVController.evMap.clear();
+        bands = SimulationEngine.rowBands(gameMap.getGraph(), 2);
+
+        SimulationProperties properties = new SimulationProperties();
+        properties.setSeed(SEED);
+        properties.setShards("localhost:" + startShard() + ",localhost:" + startShard());
+        properties.getHeatmap().setWindowSeconds(60);
+        controller = new EVController(properties, new RoutingExecutor(1, 8, 5000));
+        coordinator = ShardCoordinator.getInstance();
+        coordinator.stop(); // The test ticks by hand
+        // The shards installed their engines in this JVM, but this side is only the coordinator
+        SimulationEngine.install(null);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException, IOException {
+        ShardCoordinator.disconnect();
+        for (Thread server : servers) {
+            server.join(5000);
+        }
+        CongestionHeatmap.disable();
+        EVController.evMap.clear();
+        SimulationEngine.install(null);
+        for (int id = 0; id < gameMap.getGraph().nodeCount(); id++) {
+            gameMap.getNode(id).setStalled(false);
+        }
+        for (int i = 0; i < savedSignals[0].length; i++) {
+            ((TrafficNode) gameMap.getNode(savedSignals[0][i])).setSignal(savedSignals[1][i]);
+        }
+        TrafficManager.setNextSignalChangeTime(savedSignalChange);
+        SimulationClock.useWallClock();
+    }
+
+    // Serves one in-process shard on a free port
+    private int startShard() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        Thread server = new Thread(() -> {
+            try (ServerSocket listening = socket; Socket connection = listening.accept()) {
+                new ShardServer(gameMap, null).serve(connection.getInputStream(), connection.getOutputStream());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        servers.add(server);
+        return socket.getLocalPort();
+    }
+
+    // Registers an NPC and spawns it through the coordinator, as newEV does
+    private NPCVehicle spawn(String name, int from, int to) {
+        RoadGraph graph = gameMap.getGraph();
+        NPCVehicle npc = new NPCVehicle(graph.x(from), graph.y(from));
+        npc.setName(name);
+        npc.setEndLocation(graph.x(to), graph.y(to));
+        npc.setPath(new PathfindingVisualizer(gameMap).findRoute(graph.x(from), graph.y(from), graph.x(to), graph.y(to)));
+        npc.setMoving(true);
+        npc.restoreRandom(RANDOM_STATE);
+        EVController.evMap.register(npc);
+        assertThat(coordinator.spawn(npc)).isTrue();
+        return npc;
+    }
+
+    private int nodeOf(EV ev) {
+        return gameMap.getGraph().nodeId(ev.getCurrentX(), ev.getCurrentY());
+    }
+
+    @Test
+    void testVehiclesAreHandedOffAndDeletedAcrossShards() throws IOException {
+        NPCVehicle npc = spawn("Crossing", bands[1] - 1, (bands[1] + bands[2]) / 2);
+        int id = npc.getId();
+
+        EV remote = null;
+        for (int tick = 0; tick < 200; tick++) {
+            coordinator.step();
+            remote = coordinator.getVehicle(id);
+            if (nodeOf(remote) >= bands[1]) break;
+        }
+
+        // The second shard holds the vehicle, which kept its id and random stream
+        assertThat(nodeOf(remote)).isGreaterThanOrEqualTo(bands[1]);
+        assertThat(remote.getId()).isEqualTo(id);
+        assertThat(((NPCVehicle) remote).getRandomState()).isEqualTo(RANDOM_STATE);
+        // The registered handle never moved; the status comes from the shard
+        assertThat(nodeOf(npc)).isEqualTo(bands[1] - 1);
+        ResponseEntity<EVStatus> status = controller.getEVStatus("Crossing");
+        assertThat(status.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(status.getBody().getCurrentX()).isEqualTo(remote.getCurrentX());
+        assertThat(status.getBody().getCurrentY()).isEqualTo(remote.getCurrentY());
+
+        assertThat(controller.deleteEV("Crossing").getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        assertThat(coordinator.getVehicle(id)).isNull();
+        assertThat(coordinator.getVehicles()).isEmpty();
+        assertThat(controller.getEVStatus("Crossing").getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        coordinator.step();
+        assertThat(coordinator.getVehicles()).isEmpty();
+    }
+
+    @Test
+    void testVehiclesDeletedBeforeJoiningNeverReachTheirShard() throws IOException {
+        NPCVehicle npc = spawn("Waiting", bands[1] + 1, bands[2] - 1);
+
+        assertThat(coordinator.getVehicle(npc.getId())).isSameAs(npc);
+        assertThat(controller.deleteEV("Waiting").getStatusCode()).isEqualTo(HttpStatus.OK);
+        coordinator.step();
+
+        assertThat(coordinator.getVehicle(npc.getId())).isNull();
+        assertThat(coordinator.getVehicles()).isEmpty();
+    }
+
+    @Test
+    void testStartAndMoveChecksReachTheShard() throws IOException {
+        NPCVehicle npc = spawn("Stopped", bands[1] - 1, (bands[1] + bands[2]) / 2);
+        npc.setMoving(false);
+        coordinator.step();
+        EV remote = coordinator.getVehicle(npc.getId());
+        assertThat(remote.isMoving()).isFalse();
+        PathNode next = remote.getPath().get(1);
+
+        assertThat(controller.startEV("Stopped").getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(coordinator.getVehicle(npc.getId()).isMoving()).isTrue();
+        // Only the next cell of the path is a valid move
+        assertThat(controller.canMoveToPosition("Stopped", next.getX() + 100, next.getY()).getBody()).isFalse();
+        assertThat(controller.canMoveToPosition("Stopped", next.getX(), next.getY()).getStatusCode())
+                .isEqualTo(HttpStatus.OK);
+        assertThat(controller.canMoveToPosition("Unknown", next.getX(), next.getY()).getStatusCode())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void testTheHeatmapIsMergedFromTheShards() throws IOException {
+        spawn("Counted", bands[1] + 1, bands[2] - 1);
+        for (int tick = 0; tick < 5; tick++) {
+            coordinator.step();
+        }
+
+        HeatmapGrid grid = coordinator.heatmap();
+
+        assertThat(grid.windowMillis).isEqualTo(60_000);
+        assertThat(grid.occupancy).hasSize(gameMap.getWidth() * gameMap.getHeight());
+        // The vehicle stood on a cell of the second shard and moved on every tick it was there
+        assertThat(Arrays.stream(grid.occupancy).sum()).isBetween(1, 5);
+        assertThat(Arrays.stream(grid.passes).sum()).isPositive();
+    }
+}
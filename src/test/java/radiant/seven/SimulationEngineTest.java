@@ -0,0 +1,224 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+class SimulationEngineTest {
+
+    private static final long SEED = 11;
+    private static final int FLEET = 3000; // Above the fleet size that is ticked in parallel
+
+    private GameMap gameMap;
+    private int[][] savedSignals;
+    private long savedSignalChange;
+    private Node closed;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        savedSignals = SimulationEngine.signalStates(gameMap);
+        savedSignalChange = TrafficManager.getNextSignalChangeTime();
+        SimulationClock.useSimulatedTime(() -> 0L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (closed != null) {
+            IncidentManager.getInstance().reopen(closed.x, closed.y, null, null);
+        }
+        resetMap();
+        TrafficManager.setNextSignalChangeTime(savedSignalChange);
+        SimulationClock.useWallClock();
+    }
+
+    // Removes what a run leaves behind on the shared map
+    private void resetMap() {
+        SimulationEngine.install(null);
+        for (int id = 0; id < gameMap.getGraph().nodeCount(); id++) {
+            gameMap.getNode(id).setStalled(false);
+        }
+        for (int i = 0; i < savedSignals[0].length; i++) {
+            ((TrafficNode) gameMap.getNode(savedSignals[0][i])).setSignal(savedSignals[1][i]);
+        }
+    }
+
+    // Runs a seeded scenario with a closure and a forced signal change and returns its log
+    private byte[] run(int regions) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventLog log = new EventLog(out, SEED, gameMap.getGraph().nodeCount(), savedSignals[0], savedSignals[1]);
+        SimulationEngine engine = new SimulationEngine(gameMap, SEED, log);
+        engine.setRegions(regions);
+        SimulationEngine.install(engine);
+
+        PathfindingVisualizer pathfinder = new PathfindingVisualizer(gameMap);
+        Random random = engine.getSpawnRandom();
+        List<Node> nodes = new ArrayList<>(gameMap.getRoadNetwork().values());
+        nodes.sort(Comparator.comparingInt((Node n) -> n.x).thenComparingInt(n -> n.y));
+        for (int i = 0; i < FLEET; i++) {
+            Node start = nodes.get(random.nextInt(nodes.size()));
+            Node end = nodes.get(random.nextInt(nodes.size()));
+            EV ev = i % 3 == 0 ? new EV(start.x, start.y, 1, 30, 10, "sedan") : new NPCVehicle(start.x, start.y, "van");
+            ev.setName("V" + i); // NPC names would differ between the runs
+            ev.setEndLocation(end.x, end.y);
+            List<PathNode> path = pathfinder.findRoute(start.x, start.y, end.x, end.y);
+            if (path.isEmpty()) continue;
+            ev.setPath(path);
+            ev.setMoving(true);
+            engine.spawn(ev);
+        }
+        assertThat(engine.getVehicles().size()).isGreaterThan(2048);
+
+        engine.runTicks(30);
+        closed = nodes.get(200);
+        IncidentManager.getInstance().close(closed.x, closed.y, null, null);
+        engine.runTicks(20);
+        engine.forceSignalChange();
+        engine.runTicks(30);
+        IncidentManager.getInstance().reopen(closed.x, closed.y, null, null);
+        closed = null;
+        engine.runTicks(20);
+        log.flush();
+        engine.setRegions(1); // Stops the region workers
+        return out.toByteArray();
+    }
+
+    @Test
+    void testParallelRegionsWriteTheSameLogAsOneThread() throws Exception {
+        byte[] serial = run(1);
+        resetMap();
+        byte[] parallel = run(4);
+
+        assertThat(serial.length).isGreaterThan(10_000);
+        assertThat(parallel).containsExactly(serial);
+    }
+
+    @Test
+    void testStartingAVehicleIsRecordedAndReplayed() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventLog log = new EventLog(out, SEED, gameMap.getGraph().nodeCount(), savedSignals[0], savedSignals[1]);
+        SimulationEngine engine = new SimulationEngine(gameMap, SEED, log);
+        SimulationEngine.install(engine);
+        EV ev = new EV(2, 2, 1, 100, 10, "sedan");
+        ev.setName("Delivery");
+        ev.setEndLocation(2, 6);
+        ev.setPath(new PathfindingVisualizer(gameMap).findRoute(2, 2, 2, 6));
+        ev.setMoving(true);
+        engine.spawn(ev);
+        engine.runTicks(8);
+        assertThat(ev.isMoving()).isFalse();
+
+        // As the TaskAssigner does for an idle vehicle; a second start changes nothing
+        SimulationEngine.startVehicle(ev);
+        SimulationEngine.startVehicle(ev);
+        engine.runTicks(2);
+        log.flush();
+
+        assertThat(ev.isMoving()).isTrue();
+        EventLogReader reader = new EventLogReader(new ByteArrayInputStream(out.toByteArray()));
+        EventLogReader.Event event = new EventLogReader.Event();
+        int starts = 0;
+        while (reader.next(event)) {
+            if (event.type == EventLog.START) {
+                assertThat(event.tick).isEqualTo(8L);
+                assertThat(event.vehicle).isEqualTo(ev.getId());
+                starts++;
+            }
+        }
+        assertThat(starts).isEqualTo(1);
+
+        byte[] recorded = out.toByteArray();
+        resetMap();
+        assertThat(EventLogReplayer.resimulate(gameMap, recorded, 1)).containsExactly(recorded);
+    }
+
+    @Test
+    void testTheLowestIdWinsAContestedCellWhateverTheSlotOrder() {
+        RoadGraph graph = gameMap.getGraph();
+        int[] cells = contestedCell(graph);
+        SimulationEngine engine = new SimulationEngine(gameMap, SEED, null);
+        SimulationEngine.install(engine);
+        EV later = vehicleInto(graph, cells[1], cells[0], 7);
+        EV earlier = vehicleInto(graph, cells[2], cells[0], 3);
+        engine.spawn(later); // Takes the first slot, as a vehicle adopted from another shard may
+        engine.spawn(earlier);
+
+        engine.step();
+
+        assertThat(earlier.getCurrentX()).isEqualTo(graph.x(cells[0]));
+        assertThat(earlier.getCurrentY()).isEqualTo(graph.y(cells[0]));
+        assertThat(later.getCurrentX()).isEqualTo(graph.x(cells[1]));
+        assertThat(later.getCurrentY()).isEqualTo(graph.y(cells[1]));
+    }
+
+    @Test
+    void testThePathIndexLivesInTheStoreWhileSimulated() {
+        RoadGraph graph = gameMap.getGraph();
+        int[] cells = contestedCell(graph);
+        SimulationEngine engine = new SimulationEngine(gameMap, SEED, null);
+        SimulationEngine.install(engine);
+        EV ev = vehicleInto(graph, cells[1], cells[0], 1);
+        engine.spawn(ev);
+
+        engine.step();
+
+        assertThat(ev.getCurrentPathIndex()).isEqualTo(1);
+        assertThatThrownBy(() -> ev.setCurrentPathIndex(0)).isInstanceOf(IllegalStateException.class);
+        engine.retire(ev);
+        // The retired EV takes its index back
+        assertThat(ev.getCurrentPathIndex()).isEqualTo(1);
+        assertThat(ev.getCurrentX()).isEqualTo(graph.x(cells[0]));
+        assertThat(ev.getCurrentY()).isEqualTo(graph.y(cells[0]));
+    }
+
+    // @return a cell without a signal and two cells without signals that lead into it
+    private int[] contestedCell(RoadGraph graph) {
+        int n = graph.nodeCount();
+        int[] firstFrom = new int[n];
+        Arrays.fill(firstFrom, -1);
+        for (int from = 0; from < n; from++) {
+            if (gameMap.getNode(from) instanceof TrafficNode) continue;
+            for (int e = graph.edgeStart(from); e < graph.edgeEnd(from); e++) {
+                int to = graph.edgeTarget(e);
+                if (gameMap.getNode(to) instanceof TrafficNode) continue;
+                if (firstFrom[to] == -1) {
+                    firstFrom[to] = from;
+                } else if (firstFrom[to] != from) {
+                    return new int[]{to, firstFrom[to], from};
+                }
+            }
+        }
+        throw new AssertionError("The map has no cell with two entries");
+    }
+
+    private EV vehicleInto(RoadGraph graph, int from, int to, int id) {
+        EV ev = new EV(graph.x(from), graph.y(from), 1, 100, 10, "sedan");
+        ev.setId(id);
+        ev.setEndLocation(graph.x(to), graph.y(to));
+        List<PathNode> path = new ArrayList<>();
+        path.add(new PathNode(graph.x(from), graph.y(from)));
+        path.add(new PathNode(graph.x(to), graph.y(to)));
+        ev.setPath(path);
+        ev.setMoving(true);
+        return ev;
+    }
+
+    @Test
+    void testVehiclesOutsideTheEngineStartDirectly() {
+        EV ev = new EV(2, 2, 1, 100, 10, "sedan");
+
+        SimulationEngine.startVehicle(ev);
+
+        assertThat(ev.isMoving()).isTrue();
+    }
+}
@@ -0,0 +1,93 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class SpatialIndexTest {
+
+    private SpatialIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new SpatialIndex(50, 50);
+    }
+
+    private EV vehicleAt(String name, int x, int y, int... nextY) {
+        EV ev = new EV(x, y, 1, 100, 10);
+        ev.setName(name);
+        List<PathNode> path = new ArrayList<>();
+        path.add(new PathNode(x, y));
+        for (int step : nextY) {
+            path.add(new PathNode(x, step));
+        }
+        ev.setPath(path);
+        return ev;
+    }
+
+    @Test
+    void testNearReturnsVehiclesInRadiusNearestFirst() {
+        index.add(vehicleAt("A", 10, 10));
+        index.add(vehicleAt("B", 10, 13));
+        index.add(vehicleAt("C", 20, 20));
+
+        List<EV> near = index.near(10, 12, 3);
+
+        assertThat(near).extracting(EV::getName).containsExactly("B", "A");
+    }
+
+    @Test
+    void testNearWithAHugeRadiusFindsEveryVehicle() {
+        index.add(vehicleAt("A", 1, 1));
+        index.add(vehicleAt("B", 50, 50));
+
+        assertThat(index.near(40, 40, Integer.MAX_VALUE)).extracting(EV::getName).containsExactly("B", "A");
+        assertThat(index.near(40, 40, -1)).isEmpty();
+    }
+
+    @Test
+    void testWithinUsesInclusiveBounds() {
+        index.add(vehicleAt("A", 1, 1));
+        index.add(vehicleAt("B", 8, 9));
+        index.add(vehicleAt("C", 9, 9));
+
+        assertThat(index.within(1, 1, 8, 9)).extracting(EV::getName).containsExactly("A", "B");
+    }
+
+    @Test
+    void testUpdateMovesVehicleAcrossBuckets() {
+        EV ev = vehicleAt("A", 5, 7, 8, 9);
+        index.add(ev);
+
+        ev.setCurrentPathIndex(2);
+        index.update(ev);
+
+        assertThat(index.within(5, 9, 5, 9)).containsExactly(ev);
+        assertThat(index.within(5, 7, 5, 7)).isEmpty();
+    }
+
+    @Test
+    void testNearestSkipsFilteredVehicles() {
+        EV busy = vehicleAt("Busy", 10, 10);
+        busy.setMoving(true);
+        EV idle = vehicleAt("Idle", 30, 30);
+        index.add(busy);
+        index.add(idle);
+
+        assertThat(index.nearest(10, 11, ev -> !ev.isMoving())).isSameAs(idle);
+        assertThat(index.nearest(10, 11, ev -> true)).isSameAs(busy);
+    }
+
+    @Test
+    void testRemovedVehiclesAreNotFound() {
+        EV ev = vehicleAt("A", 10, 10);
+        index.add(ev);
+        index.remove(ev);
+
+        assertThat(index.size()).isZero();
+        assertThat(index.near(10, 10, 5)).isEmpty();
+    }
+}
@@ -0,0 +1,113 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+class TerminalRendererTest {
+
+    private GameMap gameMap;
+    private int[][] savedSignals;
+    private ByteArrayOutputStream out;
+    private TerminalRenderer renderer;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        savedSignals = SimulationEngine.signalStates(gameMap);
+        out = new ByteArrayOutputStream();
+        renderer = new TerminalRenderer(gameMap, out);
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (int i = 0; i < savedSignals[0].length; i++) {
+            ((TrafficNode) gameMap.getNode(savedSignals[0][i])).setSignal(savedSignals[1][i]);
+        }
+    }
+
+    // An EV named EV1 at a node of its path, drawn as [1]
+    private EV vehicleOn(List<PathNode> path, int pathIndex) {
+        PathNode at = path.get(pathIndex);
+        EV ev = new EV(at.getX(), at.getY(), 1, 100, 10);
+        ev.setName("EV1");
+        ev.setPath(path);
+        ev.setCurrentPathIndex(pathIndex);
+        return ev;
+    }
+
+    // Renders a frame and returns what was written
+    private String render(List<EV> vehicles, String status) throws Exception {
+        out.reset();
+        renderer.render(vehicles, status);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testTheFirstFrameIsDrawnInFullAndAnUnchangedFrameWritesNothing() throws Exception {
+        String first = render(Collections.emptyList(), "idle");
+
+        assertThat(first).contains("=== Traffic Map ===");
+        assertThat(first).contains("idle");
+        assertThat(renderer.getLastChanged()).isEqualTo(gameMap.getWidth() * gameMap.getHeight());
+
+        String second = render(Collections.emptyList(), "idle");
+
+        assertThat(second).isEmpty();
+        assertThat(renderer.getLastChanged()).isZero();
+        assertThat(renderer.getLastBytes()).isZero();
+        assertThat(renderer.getFrames()).isEqualTo(2);
+    }
+
+    @Test
+    void testAMovingVehicleRewritesItsOldAndNewCellOnly() throws Exception {
+        List<PathNode> path = new PathfindingVisualizer(gameMap).findRoute(2, 2, 2, 20);
+        render(List.of(vehicleOn(path, 0)), "moving");
+
+        String update = render(List.of(vehicleOn(path, 1)), "moving");
+
+        assertThat(renderer.getLastChanged()).isEqualTo(2);
+        assertThat(update).contains("[1]");
+        // The status line is unchanged, so it is not cleared and rewritten
+        assertThat(update).doesNotContain("moving");
+        assertThat(update).doesNotContain("\u001B[K");
+        assertThat(renderer.getLastBytes()).isEqualTo(update.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void testANewStatusRewritesOnlyTheStatusLine() throws Exception {
+        render(Collections.emptyList(), "1 vehicles");
+
+        String update = render(Collections.emptyList(), "2 vehicles");
+
+        assertThat(renderer.getLastChanged()).isZero();
+        assertThat(update).contains("\u001B[K2 vehicles");
+        assertThat(update).doesNotContain("]");
+    }
+
+    @Test
+    void testASignalChangeRewritesItsCellAndInvalidateRedrawsAll() throws Exception {
+        render(Collections.emptyList(), "signals");
+        TrafficNode signal = (TrafficNode) gameMap.getNode(savedSignals[0][0]);
+        signal.setSignal(signal.isGreen() ? 1 : 0);
+
+        String update = render(Collections.emptyList(), "signals");
+
+        assertThat(renderer.getLastChanged()).isEqualTo(1);
+        assertThat(update).contains("[T]");
+
+        renderer.invalidate();
+        String redrawn = render(Collections.emptyList(), "signals");
+
+        assertThat(renderer.getLastChanged()).isEqualTo(gameMap.getWidth() * gameMap.getHeight());
+        assertThat(redrawn).contains("=== Traffic Map ===");
+        assertThat(redrawn).contains("signals");
+        assertThat(renderer.getFrames()).isEqualTo(1);
+    }
+}
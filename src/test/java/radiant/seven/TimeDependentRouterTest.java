@@ -0,0 +1,106 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+class TimeDependentRouterTest {
+
+    private static final long MOVE = EV.MOVE_INTERVAL;
+    private static final long INTERVAL = 5000; // Signal change interval of the schedules below
+
+    private GameMap gameMap;
+    private RoadGraph graph;
+    private TimeDependentRouter router;
+    private final long[] now = {0};
+    private long savedSignalChange;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        graph = gameMap.getGraph();
+        router = new TimeDependentRouter(gameMap, MOVE);
+        savedSignalChange = TrafficManager.getNextSignalChangeTime();
+        // A simulated clock keeps the signal cycle still
+        SimulationClock.useSimulatedTime(() -> now[0]);
+    }
+
+    @AfterEach
+    void tearDown() {
+        TrafficManager.setNextSignalChangeTime(savedSignalChange);
+        SimulationClock.useWallClock();
+    }
+
+    // A schedule whose only signal is (2, 16), on the straight eastbound route from (2, 2) to (2, 20)
+    private TimeDependentRouter.SignalSchedule signalOnRow2(int state) {
+        int[] signalAt = new int[graph.nodeCount()];
+        Arrays.fill(signalAt, -1);
+        signalAt[graph.nodeId(2, 16)] = state;
+        return new TimeDependentRouter.SignalSchedule(INTERVAL, INTERVAL, signalAt);
+    }
+
+    private TimedRoute route(TimeDependentRouter.SignalSchedule schedule, long departure) {
+        return router.search(graph, schedule, graph.nodeId(2, 2), graph.nodeId(2, 20), departure);
+    }
+
+    @Test
+    void testGreenOnArrivalCrossesWithoutWaiting() {
+        // The vehicle reaches (2, 16) after 13 moves, in the period after capture, when state 3 turns green
+        TimedRoute route = route(signalOnRow2(3), 0);
+
+        assertThat(route.path).hasSize(18);
+        assertThat(route.arrivalTime).isEqualTo(16 * MOVE);
+    }
+
+    @Test
+    void testRedOnArrivalWaitsForTheNextGreenPhase() {
+        // State 0 is green now, but red from 5000 to 20000 when the vehicle is there
+        TimedRoute route = route(signalOnRow2(0), 0);
+
+        assertThat(route.path).hasSize(18);
+        assertThat(route.arrivalTime).isEqualTo(4 * INTERVAL + 3 * MOVE);
+        assertThat(route.getTravelTime()).isEqualTo(route.arrivalTime);
+    }
+
+    @Test
+    void testCrossingNeedsTwoMovesBeforeTheSignalChanges() {
+        // Green from 5000 to 10000: leaving at 9000 still fits, leaving at 9500 waits a whole cycle
+        TimedRoute inTime = route(signalOnRow2(3), 2500);
+        TimedRoute tooLate = route(signalOnRow2(3), 3000);
+
+        assertThat(inTime.arrivalTime).isEqualTo(2500 + 16 * MOVE);
+        assertThat(tooLate.arrivalTime).isEqualTo(5 * INTERVAL + 3 * MOVE);
+    }
+
+    @Test
+    void testQueriesInTheSameDepartureBucketShareOneRoute() {
+        TrafficManager.setNextSignalChangeTime(10_000);
+        now[0] = 3 * TimeDependentRouter.BUCKET_MILLIS + 100;
+        TimedRoute first = router.findRoute(4, 35, 35, 2);
+        now[0] += TimeDependentRouter.BUCKET_MILLIS - 200;
+        TimedRoute second = router.findRoute(4, 35, 35, 2);
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.departureTime).isEqualTo(3 * TimeDependentRouter.BUCKET_MILLIS);
+        assertThat(first.path).isNotEmpty();
+    }
+
+    @Test
+    void testNextBucketOrSignalChangePredictsAgain() {
+        TrafficManager.setNextSignalChangeTime(10_000);
+        now[0] = 3 * TimeDependentRouter.BUCKET_MILLIS;
+        TimedRoute first = router.findRoute(4, 35, 35, 2);
+        now[0] += TimeDependentRouter.BUCKET_MILLIS;
+        TimedRoute nextBucket = router.findRoute(4, 35, 35, 2);
+        TrafficManager.setNextSignalChangeTime(12_000);
+        TimedRoute afterChange = router.findRoute(4, 35, 35, 2);
+
+        assertThat(nextBucket).isNotSameAs(first);
+        assertThat(nextBucket.departureTime).isEqualTo(4 * TimeDependentRouter.BUCKET_MILLIS);
+        assertThat(afterChange).isNotSameAs(nextBucket);
+        assertThat(afterChange.departureTime).isEqualTo(nextBucket.departureTime);
+    }
+}
@@ -0,0 +1,56 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+class TrafficManagerTest {
+
+    private GameMap map;
+
+    @BeforeEach
+    void setUp() {
+        map = GameMap.getInstance();
+    }
+
+    // The lights inside a rectangle, found by scanning all of them
+    private static List<TrafficNode> scan(int minX, int minY, int maxX, int maxY) {
+        return TrafficManager.trafficLights.stream()
+                .filter(node -> node.x >= minX && node.x <= maxX && node.y >= minY && node.y <= maxY)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void testSignalsWithinMatchesAFullScan() {
+        assertThat(TrafficManager.trafficLights).isNotEmpty();
+        Random random = new Random(33);
+
+        for (int i = 0; i < 200; i++) {
+            int minX = 1 + random.nextInt(map.getHeight());
+            int minY = 1 + random.nextInt(map.getWidth());
+            int maxX = minX + random.nextInt(20);
+            int maxY = minY + random.nextInt(20);
+
+            assertThat(TrafficManager.signalsWithin(minX, minY, maxX, maxY))
+                    .containsExactlyInAnyOrderElementsOf(scan(minX, minY, maxX, maxY));
+        }
+    }
+
+    @Test
+    void testRectangleLargerThanTheMapFindsEveryLight() {
+        assertThat(TrafficManager.signalsWithin(-100, -100, 10_000, 10_000))
+                .containsExactlyInAnyOrderElementsOf(TrafficManager.trafficLights);
+    }
+
+    @Test
+    void testBoundsAreInclusive() {
+        TrafficNode light = TrafficManager.trafficLights.get(0);
+
+        assertThat(TrafficManager.signalsWithin(light.x, light.y, light.x, light.y)).containsExactly(light);
+        assertThat(TrafficManager.signalsWithin(light.x + 1, light.y, light.x + 1, light.y)).doesNotContain(light);
+    }
+}
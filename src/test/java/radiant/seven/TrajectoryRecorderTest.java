@@ -0,0 +1,83 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+class TrajectoryRecorderTest {
+
+    private static final int VEHICLES = 4; // Vehicles moving on every tick
+    private static final int RECORDS = 3 * TrajectoryRecorder.SEGMENT_RECORDS + 10; // Three full segments and a partial one
+
+    @TempDir
+    Path dir;
+
+    // Records the moves of VEHICLES vehicles, one move each per tick
+    private void recordAll(TrajectoryRecorder recorder, RoadGraph graph) {
+        for (int i = 0; i < RECORDS; i++) {
+            recorder.record(i / VEHICLES, i % VEHICLES, i % graph.nodeCount());
+        }
+    }
+
+    // Checks the moves of vehicle 1 around the boundary between the third and the last segment
+    private void assertAcrossTheLastBoundary(TrajectoryRecorder recorder, RoadGraph graph) {
+        long boundary = 3L * TrajectoryRecorder.SEGMENT_RECORDS / VEHICLES;
+        Trajectory trajectory = recorder.trajectory(1, boundary - 2, boundary + 1);
+
+        assertThat(trajectory.vehicleId).isEqualTo(1);
+        assertThat(trajectory.ticks).containsExactly(boundary - 2, boundary - 1, boundary, boundary + 1);
+        for (int i = 0; i < trajectory.ticks.length; i++) {
+            int node = (int) ((trajectory.ticks[i] * VEHICLES + 1) % graph.nodeCount());
+            assertThat(trajectory.x[i]).isEqualTo(graph.x(node));
+            assertThat(trajectory.y[i]).isEqualTo(graph.y(node));
+        }
+    }
+
+    private long segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+
+    @Test
+    void testMovesRoundTripThroughRolledOverSegments() throws Exception {
+        RoadGraph graph = GameMap.getInstance().getGraph();
+        TrajectoryRecorder recorder = new TrajectoryRecorder(dir, 2, false);
+        recordAll(recorder, graph);
+
+        // Read from memory before the segments are on disk
+        assertAcrossTheLastBoundary(recorder, graph);
+        recorder.flush();
+
+        // Only the two newest segments are kept, read from their mapped files
+        assertThat(recorder.segmentCount()).isEqualTo(2);
+        assertThat(segmentFiles()).isEqualTo(2);
+        assertAcrossTheLastBoundary(recorder, graph);
+        assertThat(recorder.trajectory(1, 0, 10).ticks).isEmpty();
+        assertThat(recorder.trajectories(RECORDS / VEHICLES, RECORDS / VEHICLES)).hasSize(2);
+        recorder.close();
+    }
+
+    @Test
+    void testSegmentsAreKeptOnlyWhenResuming() throws Exception {
+        RoadGraph graph = GameMap.getInstance().getGraph();
+        TrajectoryRecorder recorder = new TrajectoryRecorder(dir, 2, false);
+        recordAll(recorder, graph);
+        recorder.close();
+
+        TrajectoryRecorder resumed = new TrajectoryRecorder(dir, 2, true);
+        assertThat(resumed.segmentCount()).isEqualTo(2);
+        assertAcrossTheLastBoundary(resumed, graph);
+        resumed.close();
+
+        TrajectoryRecorder restarted = new TrajectoryRecorder(dir, 2, false);
+        assertThat(restarted.segmentCount()).isZero();
+        assertThat(segmentFiles()).isZero();
+        assertThat(restarted.trajectories(0, Long.MAX_VALUE)).isEmpty();
+        restarted.close();
+    }
+}
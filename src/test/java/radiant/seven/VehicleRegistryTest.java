@@ -0,0 +1,133 @@
+package radiant.seven;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class VehicleRegistryTest {
+
+    private GameMap gameMap;
+    private VehicleRegistry registry;
+    private List<EV> retired;
+
+    @BeforeEach
+    void setUp() {
+        gameMap = GameMap.getInstance();
+        registry = new VehicleRegistry();
+        retired = new ArrayList<>();
+        registry.addListener(new VehicleRegistry.Listener() {
+            @Override
+            public void onRetire(EV ev) {
+                retired.add(ev);
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.clear();
+    }
+
+    private EV vehicle(String name) {
+        EV ev = new EV(2, 2, 1, 100, 10);
+        ev.setName(name);
+        ev.setEndLocation(2, 20);
+        ev.setPath(new PathfindingVisualizer(gameMap).findRoute(2, 2, 2, 20));
+        return ev;
+    }
+
+    @Test
+    void testRetiringInterruptsTheAgentAndReleasesTheCell() throws Exception {
+        EV ev = vehicle("Driving");
+        registry.register(ev);
+        ev.setMoving(true);
+        ev.advance();
+        Node cell = gameMap.getRoadNode(ev.getCurrentX(), ev.getCurrentY());
+        cell.setStalled(true);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Thread agent = new Thread(() -> {
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        agent.start();
+        registry.attachAgent(ev, agent);
+
+        assertThat(registry.retire("Driving")).isSameAs(ev);
+
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(cell.isStalled()).isFalse();
+        assertThat(ev.isMoving()).isFalse();
+        assertThat(registry.get("Driving")).isNull();
+        assertThat(SpatialIndex.getInstance().within(2, 2, 2, 20)).doesNotContain(ev);
+        assertThat(retired).containsExactly(ev);
+    }
+
+    @Test
+    void testIdsAreStableAndNeverReused() {
+        EV a = vehicle("A");
+        EV b = vehicle("B");
+        EV c = vehicle("C");
+        registry.register(a);
+        registry.register(b);
+        registry.register(c);
+
+        registry.retire(b);
+        EV d = vehicle("D");
+        registry.register(d);
+
+        assertThat(a.getId()).isEqualTo(0);
+        assertThat(c.getId()).isEqualTo(2);
+        assertThat(d.getId()).isEqualTo(3);
+        assertThat(registry.getById(1)).isNull();
+        assertThat(registry.getById(2)).isSameAs(c);
+        assertThat(registry.snapshot()).containsExactly(a, c, d);
+    }
+
+    @Test
+    void testRegisteringAnExistingNameRetiresTheOldVehicle() {
+        EV old = vehicle("Shuttle");
+        registry.register(old);
+        old.setMoving(true);
+        EV replacement = vehicle("Shuttle");
+
+        EV previous = registry.register(replacement);
+
+        assertThat(previous).isSameAs(old);
+        assertThat(registry.get("Shuttle")).isSameAs(replacement);
+        assertThat(registry.getById(old.getId())).isNull();
+        assertThat(replacement.getId()).isNotEqualTo(old.getId());
+        assertThat(old.isMoving()).isFalse();
+        assertThat(retired).containsExactly(old);
+        assertThat(registry.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testAVehicleRetiredWhileRegisteringLeavesNoIndexEntry() {
+        EV old = vehicle("Ferry");
+        registry.register(old);
+        EV replacement = vehicle("Ferry");
+        // Retiring the old vehicle retires its replacement before it is indexed
+        registry.addListener(new VehicleRegistry.Listener() {
+            @Override
+            public void onRetire(EV ev) {
+                if (ev == old) registry.retire(replacement);
+            }
+        });
+
+        registry.register(replacement);
+
+        assertThat(registry.get("Ferry")).isNull();
+        assertThat(registry.getById(replacement.getId())).isNull();
+        assertThat(SpatialIndex.getInstance().within(1, 1, gameMap.getHeight(), gameMap.getWidth()))
+                .doesNotContain(old, replacement);
+    }
+}